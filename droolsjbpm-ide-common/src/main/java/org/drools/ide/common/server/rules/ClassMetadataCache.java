@@ -0,0 +1,283 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.ide.common.server.rules;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.drools.core.util.asm.ClassFieldInspector;
+import org.drools.ide.common.client.modeldriven.FieldAccessorsAndMutators;
+import org.drools.ide.common.client.modeldriven.MethodInfo;
+import org.drools.ide.common.server.util.ClassMethodInspector;
+import org.drools.ide.common.server.util.SoftLruCache;
+
+/**
+ * Keeps what the SuggestionCompletionLoader finds out about a fact class by
+ * reflection: its fields and their types, its methods, which of them are
+ * accessors and mutators, and the method infos. Packages using the same
+ * models, and every rebuild of the same package, can then skip the
+ * introspection.
+ *
+ * Each build loads the model classes with a class loader of its own, so what
+ * is cached refers to the field types and fields by name only, and they are
+ * looked up again in the class that is asked about (see ClassMetadata). This
+ * lets the metadata be keyed by the class name and the digest of the model
+ * jars the class came from (see SuggestionCompletionLoader.setModelDigest()),
+ * and shared by every class loader made from those jars. When the digest
+ * isn't known, the class loader is part of the key instead; it is held only
+ * weakly, so the cache doesn't keep the class loaders of earlier builds
+ * alive, and their entries are dropped once they are collected.
+ *
+ * Values are softly referenced, so the garbage collector can reclaim them
+ * under memory pressure. The cache holds at most
+ * "drools.classmetadata.cache.maxSize" classes (1000 by default), evicting
+ * the least recently used one when full (see SoftLruCache).
+ */
+public class ClassMetadataCache
+        implements
+        ClassMetadataCacheMBean {
+
+    public static final String MAX_SIZE_PROPERTY = "drools.classmetadata.cache.maxSize";
+
+    private static final ClassMetadataCache instance = new ClassMetadataCache(Integer.getInteger(MAX_SIZE_PROPERTY,
+            1000));
+
+    public static ClassMetadataCache getInstance() {
+        return instance;
+    }
+
+    private final SoftLruCache<Descriptor> descriptors;
+
+    ClassMetadataCache(int maxSize) {
+        this.descriptors = new SoftLruCache<Descriptor>(maxSize);
+    }
+
+    /**
+     * Returns the metadata of the given class, introspecting it if it isn't
+     * cached.
+     *
+     * @param modelDigest identifies the model jars the class was loaded from,
+     *                    or null to key the metadata by the class loader.
+     * @param converter   used for the generic types of method parameters and
+     *                    return types.
+     */
+    public ClassMetadata get(Class<?> clazz,
+                             String modelDigest,
+                             ClassToGenericClassConverter converter) throws IOException {
+        //without the digest, the class loader tells the model apart
+        Object scope = modelDigest == null ? clazz.getClassLoader() : null;
+        String name = modelDigest == null ? clazz.getName() : clazz.getName() + "\n" + modelDigest;
+        Descriptor descriptor = this.descriptors.get(scope,
+                name);
+        if (descriptor == null) {
+            descriptor = new Descriptor(clazz,
+                    converter);
+            this.descriptors.put(scope,
+                    name,
+                    descriptor);
+        }
+        return new ClassMetadata(descriptor,
+                clazz);
+    }
+
+    public void clearCache() {
+        this.descriptors.clear();
+    }
+
+    public int getSize() {
+        return this.descriptors.size();
+    }
+
+    public int getMaxSize() {
+        return this.descriptors.getMaxSize();
+    }
+
+    public long getHitCount() {
+        return this.descriptors.getHitCount();
+    }
+
+    public long getMissCount() {
+        return this.descriptors.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return this.descriptors.getEvictionCount();
+    }
+
+    public double getHitRatio() {
+        return this.descriptors.getHitRatio();
+    }
+
+    /**
+     * What reflection tells about one class, loader independent: the field
+     * types and fields are kept by name. Shared, so never changed once built.
+     */
+    private static class Descriptor {
+        private final Set<String> fieldNames;
+        private final Map<String, String> fieldTypeNames;
+        private final Map<String, String> fieldDeclaringClassNames;
+        private final List<String> methodNames;
+        private final Map<String, FieldAccessorsAndMutators> accessorsAndMutators;
+        private final List<MethodInfo> methodInfos;
+
+        Descriptor(Class<?> clazz,
+                   ClassToGenericClassConverter converter) throws IOException {
+            final ClassFieldInspector inspector = new ClassFieldInspector(clazz);
+            this.fieldNames = Collections.unmodifiableSet(new TreeSet<String>(inspector.getFieldNames().keySet()));
+            Map<String, String> fieldTypeNames = new HashMap<String, String>();
+            for (Map.Entry<String, Class<?>> entry : inspector.getFieldTypes().entrySet()) {
+                fieldTypeNames.put(entry.getKey(),
+                        entry.getValue() == null ? null : entry.getValue().getName());
+            }
+            this.fieldTypeNames = Collections.unmodifiableMap(fieldTypeNames);
+            Map<String, String> fieldDeclaringClassNames = new HashMap<String, String>();
+            for (Map.Entry<String, Field> entry : inspector.getFieldTypesField().entrySet()) {
+                if (entry.getValue() != null) {
+                    fieldDeclaringClassNames.put(entry.getKey(),
+                            entry.getValue().getDeclaringClass().getName());
+                }
+            }
+            this.fieldDeclaringClassNames = Collections.unmodifiableMap(fieldDeclaringClassNames);
+
+            List<String> methodNames = new ArrayList<String>();
+            Map<String, FieldAccessorsAndMutators> accessorsAndMutators = new HashMap<String, FieldAccessorsAndMutators>();
+            for (Method method : clazz.getMethods()) {
+                methodNames.add(method.getName());
+                if (method.getParameterTypes().length > 0) {
+                    String name = method.getName();
+                    if (name.startsWith("set")) {
+                        name = Introspector.decapitalize(name.substring(3));
+                    }
+
+                    if (accessorsAndMutators.get(name) == FieldAccessorsAndMutators.ACCESSOR) {
+                        accessorsAndMutators.put(name,
+                                FieldAccessorsAndMutators.BOTH);
+                    } else {
+                        accessorsAndMutators.put(name,
+                                FieldAccessorsAndMutators.MUTATOR);
+                    }
+                } else if (method.getReturnType() != void.class) {
+                    String name = method.getName();
+                    if (name.startsWith("get")) {
+                        name = Introspector.decapitalize(name.substring(3));
+                    } else if (name.startsWith("is")) {
+                        name = Introspector.decapitalize(name.substring(2));
+                    }
+
+                    if (accessorsAndMutators.get(name) == FieldAccessorsAndMutators.MUTATOR) {
+                        accessorsAndMutators.put(name,
+                                FieldAccessorsAndMutators.BOTH);
+                    } else {
+                        accessorsAndMutators.put(name,
+                                FieldAccessorsAndMutators.ACCESSOR);
+                    }
+                }
+            }
+            this.methodNames = Collections.unmodifiableList(methodNames);
+            this.accessorsAndMutators = Collections.unmodifiableMap(accessorsAndMutators);
+
+            this.methodInfos = Collections.unmodifiableList(new ClassMethodInspector(clazz,
+                    converter).getMethodInfos());
+        }
+    }
+
+    /**
+     * The metadata of one class, as given out for one build. Field and
+     * accessor names are plain, not prefixed with the type name. The field
+     * types and fields are looked up in the class it was asked for, so they
+     * belong to the class loader of that build.
+     */
+    public static class ClassMetadata {
+        private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+        static {
+            for (Class<?> primitive : new Class<?>[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class}) {
+                PRIMITIVES.put(primitive.getName(),
+                        primitive);
+            }
+        }
+
+        private final Descriptor descriptor;
+        private final Class<?> clazz;
+
+        ClassMetadata(Descriptor descriptor,
+                      Class<?> clazz) {
+            this.descriptor = descriptor;
+            this.clazz = clazz;
+        }
+
+        /**
+         * The field names, sorted, without "this".
+         */
+        public Set<String> getFieldNames() {
+            return descriptor.fieldNames;
+        }
+
+        public Class<?> getFieldType(String fieldName) {
+            String typeName = descriptor.fieldTypeNames.get(fieldName);
+            if (typeName == null) {
+                return null;
+            }
+            Class<?> primitive = PRIMITIVES.get(typeName);
+            if (primitive != null) {
+                return primitive;
+            }
+            try {
+                return Class.forName(typeName,
+                        false,
+                        clazz.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+        }
+
+        public Field getField(String fieldName) {
+            String declaringClassName = descriptor.fieldDeclaringClassNames.get(fieldName);
+            for (Class<?> type = clazz; declaringClassName != null && type != null; type = type.getSuperclass()) {
+                if (type.getName().equals(declaringClassName)) {
+                    try {
+                        return type.getDeclaredField(fieldName);
+                    } catch (NoSuchFieldException e) {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        public List<String> getMethodNames() {
+            return descriptor.methodNames;
+        }
+
+        public Map<String, FieldAccessorsAndMutators> getAccessorsAndMutators() {
+            return descriptor.accessorsAndMutators;
+        }
+
+        public List<MethodInfo> getMethodInfos() {
+            return descriptor.methodInfos;
+        }
+    }
+}
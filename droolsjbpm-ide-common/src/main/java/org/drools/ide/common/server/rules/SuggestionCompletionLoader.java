@@ -16,11 +16,9 @@
 
 package org.drools.ide.common.server.rules;
 
-import java.beans.Introspector;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -40,12 +38,10 @@ import org.drools.base.ClassTypeResolver;
 import org.drools.compiler.DrlParser;
 import org.drools.compiler.DroolsError;
 import org.drools.compiler.DroolsParserException;
-import org.drools.core.util.asm.ClassFieldInspector;
 import org.drools.ide.common.client.modeldriven.FieldAccessorsAndMutators;
 import org.drools.ide.common.client.modeldriven.MethodInfo;
 import org.drools.ide.common.client.modeldriven.SuggestionCompletionEngine;
 import org.drools.ide.common.client.modeldriven.ModelField.FIELD_CLASS_TYPE;
-import org.drools.ide.common.server.util.ClassMethodInspector;
 import org.drools.ide.common.server.util.DataEnumLoader;
 import org.drools.ide.common.server.util.SuggestionCompletionEngineBuilder;
 import org.drools.lang.descr.FactTemplateDescr;
@@ -89,6 +85,11 @@ public class SuggestionCompletionLoader
     private final ClassTypeResolver resolver;
     private PackageDescr pkgDescr;
 
+    /**
+     * Identifies the model jars the class loader was made from, if known.
+     */
+    private String modelDigest;
+
     /**
      * List of external ImportDescr providers.
      */
@@ -119,6 +120,17 @@ public class SuggestionCompletionLoader
         resolver = new ClassTypeResolver(new HashSet<String>(), loader);
     }
 
+    /**
+     * Identifies the model jars the class loader given to the constructor
+     * was made from, so that the reflection metadata of the model classes
+     * can be shared with other loaders made from the same jars, see
+     * ClassMetadataCache. Leave this null if the class loader can't be
+     * described that way.
+     */
+    public void setModelDigest(String modelDigest) {
+        this.modelDigest = modelDigest;
+    }
+
     private MapBackedClassLoader getMapBackedClassLoader(ClassLoader classLoader) {
         MapBackedClassLoader mapBackedClassLoader = new MapBackedClassLoader(createClassLoader(classLoader));
 
@@ -443,59 +455,27 @@ public class SuggestionCompletionLoader
             return;
         }
 
-        final ClassFieldInspector inspector = new ClassFieldInspector(clazz);
+        final ClassMetadataCache.ClassMetadata metadata = ClassMetadataCache.getInstance().get(clazz,
+                this.modelDigest,
+                this);
         Set<String> fieldSet = new TreeSet<String>();
-        fieldSet.addAll(inspector.getFieldNames().keySet());
+        fieldSet.addAll(metadata.getFieldNames());
         // add the "this" field. This won't come out from the inspector
         fieldSet.add("this");
 
         this.builder.addFieldsForType(shortTypeName,
                 removeIrrelevantFields(fieldSet));
 
-        Method[] methods = clazz.getMethods();
-        List<String> modifierStrings = new ArrayList<String>();
+        List<String> modifierStrings = metadata.getMethodNames();
+        String[] modifiers = new String[modifierStrings.size()];
+        modifierStrings.toArray(modifiers);
 
         Map<String, FieldAccessorsAndMutators> accessorsAndMutators = new HashMap<String, FieldAccessorsAndMutators>();
-        for (Method method : methods) {
-            modifierStrings.add(method.getName());
-            if (method.getParameterTypes().length > 0) {
-                String name = method.getName();
-                if (name.startsWith("set")) {
-                    name = Introspector.decapitalize(name.substring(3));
-                }
-
-                String factField = shortTypeName + "." + name;
-
-                if (accessorsAndMutators.get(factField) == FieldAccessorsAndMutators.ACCESSOR) {
-                    accessorsAndMutators.put(factField,
-                            FieldAccessorsAndMutators.BOTH);
-                } else {
-                    accessorsAndMutators.put(factField,
-                            FieldAccessorsAndMutators.MUTATOR);
-                }
-            } else if (!method.getReturnType().equals("void")) {
-                String name = method.getName();
-                if (name.startsWith("get")) {
-                    name = Introspector.decapitalize(name.substring(3));
-                } else if (name.startsWith("is")) {
-                    name = Introspector.decapitalize(name.substring(2));
-                }
-
-                String factField = shortTypeName + "." + name;
-
-                if (accessorsAndMutators.get(factField) == FieldAccessorsAndMutators.MUTATOR) {
-                    accessorsAndMutators.put(factField,
-                            FieldAccessorsAndMutators.BOTH);
-                } else {
-                    accessorsAndMutators.put(shortTypeName + "." + name,
-                            FieldAccessorsAndMutators.ACCESSOR);
-                }
-            }
+        for (Map.Entry<String, FieldAccessorsAndMutators> entry : metadata.getAccessorsAndMutators().entrySet()) {
+            accessorsAndMutators.put(shortTypeName + "." + entry.getKey(),
+                    entry.getValue());
         }
 
-        String[] modifiers = new String[modifierStrings.size()];
-        modifierStrings.toArray(modifiers);
-
         this.builder.addModifiersForType(shortTypeName,
                 modifiers);
         this.builder.addFieldAccessorsAndMutatorsForField(accessorsAndMutators);
@@ -507,20 +487,17 @@ public class SuggestionCompletionLoader
                 clazz);
 
         for (String field : fieldSet) {
-            final Class<?> type = inspector.getFieldTypes().get(field);
+            final Class<?> type = metadata.getFieldType(field);
             final String fieldType = translateClassToGenericType(type);
             this.builder.addFieldType(shortTypeName + "." + field,
                     fieldType,
                     type);
-            Field f = inspector.getFieldTypesField().get(field);
+            Field f = metadata.getField(field);
             this.builder.addFieldTypeField(shortTypeName + "." + field,
                     f);
         }
 
-        ClassMethodInspector methodInspector = new ClassMethodInspector(clazz,
-                this);
-
-        List<MethodInfo> methodInfos = methodInspector.getMethodInfos();
+        List<MethodInfo> methodInfos = new ArrayList<MethodInfo>(metadata.getMethodInfos());
         for (MethodInfo mi : methodInfos) {
             String genericType = mi.getParametricReturnType();
             if (genericType != null) {
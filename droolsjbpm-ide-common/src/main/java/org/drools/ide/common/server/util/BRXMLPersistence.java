@@ -18,7 +18,6 @@ package org.drools.ide.common.server.util;
 
 
 import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
 import org.drools.ide.common.client.modeldriven.brl.*;
 
 /**
@@ -34,7 +33,7 @@ public class BRXMLPersistence
     private static final BRLPersistence INSTANCE = new BRXMLPersistence();
 
     protected BRXMLPersistence() {
-        this.xt = new XStream( new DomDriver() );
+        this.xt = new XStream( new PrettyPrintStaxDriver() );
 
         this.xt.alias( "rule",
                        RuleModel.class );
@@ -27,7 +27,7 @@ import org.drools.ide.common.client.modeldriven.dt.MetadataCol;
 import org.drools.ide.common.client.modeldriven.dt.TypeSafeGuidedDecisionTable;
 
 import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 
 public class GuidedDTXMLPersistence {
 
@@ -35,7 +35,14 @@ public class GuidedDTXMLPersistence {
     private static GuidedDTXMLPersistence INSTANCE = new GuidedDTXMLPersistence();
 
     private GuidedDTXMLPersistence() {
-        xt = new XStream( new DomDriver() );
+        this( new PrettyPrintStaxDriver() );
+    }
+
+    /**
+     * For tests that compare the XML of other drivers with ours.
+     */
+    GuidedDTXMLPersistence(HierarchicalStreamDriver driver) {
+        xt = new XStream( driver );
         xt.alias( "decision-table",
                   GuidedDecisionTable.class );
         xt.alias( "metadata-column",
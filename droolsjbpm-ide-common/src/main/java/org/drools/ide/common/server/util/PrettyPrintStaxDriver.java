@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.ide.common.server.util;
+
+import java.io.Writer;
+
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
+
+/**
+ * Reads XML with the JDK's StAX pull parser, without building a DOM first
+ * and without needing XPP3 on the classpath, and writes it the way the DOM
+ * and XPP drivers do, so the XML stored for the assets doesn't change.
+ */
+public class PrettyPrintStaxDriver extends StaxDriver {
+
+    @Override
+    public HierarchicalStreamWriter createWriter(Writer out) {
+        return new PrettyPrintWriter( out );
+    }
+
+}
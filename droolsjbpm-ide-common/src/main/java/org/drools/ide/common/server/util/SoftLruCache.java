@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.ide.common.server.util;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of values that are costly to work out from a class or a
+ * class loader, such as compiled expressions or reflection metadata.
+ *
+ * Values are kept by name within a scope, usually the class or class loader
+ * they were worked out from. The scope is compared by identity and only held
+ * weakly, so the cache doesn't keep classes loaded once nothing else uses
+ * them, and their values are dropped once they are collected. A null scope
+ * is a scope of its own. The values are softly referenced, so the garbage
+ * collector can reclaim them under memory pressure.
+ *
+ * The cache holds at most maxSize values, evicting the least recently used
+ * one when full. It keeps the hit, miss and eviction counts for the caches
+ * built on it to publish.
+ */
+public class SoftLruCache<V> {
+
+    private final int maxSize;
+
+    /**
+     * In access order, so the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<Key, SoftReference<V>> values = new LinkedHashMap<Key, SoftReference<V>>(16,
+            0.75f,
+            true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SoftLruCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the value kept for the name in the scope, or null (counted as
+     * a miss) if there is none.
+     */
+    public V get(Object scope,
+                 String name) {
+        Key key = new Key(scope,
+                name);
+        synchronized (this.values) {
+            SoftReference<V> ref = this.values.get(key);
+            V cached = ref == null ? null : ref.get();
+            if (cached != null) {
+                this.hits.incrementAndGet();
+                return cached;
+            }
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(Object scope,
+                    String name,
+                    V value) {
+        Key key = new Key(scope,
+                name);
+        synchronized (this.values) {
+            this.values.put(key,
+                    new SoftReference<V>(value));
+            purge();
+        }
+    }
+
+    /**
+     * Drops reclaimed values and those of scopes that are gone, then the
+     * least recently used ones until we are within bounds. Must hold the
+     * lock.
+     */
+    private void purge() {
+        for (Iterator<Map.Entry<Key, SoftReference<V>>> it = this.values.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, SoftReference<V>> entry = it.next();
+            if (entry.getValue().get() == null || entry.getKey().isStale()) {
+                it.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+        Iterator<Key> eldest = this.values.keySet().iterator();
+        while (this.values.size() > this.maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        synchronized (this.values) {
+            this.values.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (this.values) {
+            return this.values.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    public double getHitRatio() {
+        long total = getHitCount() + getMissCount();
+        return total == 0 ? 0 : (double) getHitCount() / total;
+    }
+
+    /**
+     * The name, and (weakly) its scope.
+     */
+    private static class Key {
+        private final String name;
+        private final WeakReference<Object> scope;
+        private final int hashCode;
+
+        Key(Object scope,
+            String name) {
+            this.name = name;
+            this.scope = scope == null ? null : new WeakReference<Object>(scope);
+            this.hashCode = name.hashCode() * 31 + System.identityHashCode(scope);
+        }
+
+        /**
+         * Whether the scope has been collected.
+         */
+        boolean isStale() {
+            return this.scope != null && this.scope.get() == null;
+        }
+
+        private Object getScope() {
+            return this.scope == null ? null : this.scope.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.name.equals(other.name) && !isStale() && !other.isStale() && getScope() == other.getScope();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.testframework;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import org.drools.ide.common.server.util.SoftLruCache;
+import org.mvel2.MVEL;
+import org.mvel2.ParserContext;
+import org.mvel2.compiler.ExpressionCompiler;
+
+/**
+ * Keeps the MVEL expressions the ScenarioRunner and FactFieldValueVerifier
+ * use to create facts, set and check their fields, call their methods and
+ * look up enum values, compiled, so that running scenarios doesn't spend its
+ * time parsing the same expressions over and over.
+ *
+ * An expression is kept for a scope: the class of the fact it works on, or
+ * for expressions that name classes themselves, the class loader they are
+ * resolved with. The scope is only held weakly, so the cache doesn't keep a
+ * package's classes loaded once the package is gone. The compiled expressions
+ * are softly referenced, so the garbage collector can reclaim them under
+ * memory pressure.
+ *
+ * The cache holds at most "drools.scenario.expression.cache.maxSize"
+ * expressions (1000 by default), evicting the least recently used one when
+ * full (see SoftLruCache).
+ */
+public class CompiledExpressionCache
+        implements
+        CompiledExpressionCacheMBean {
+
+    public static final String MAX_SIZE_PROPERTY = "drools.scenario.expression.cache.maxSize";
+
+    private static final CompiledExpressionCache instance = new CompiledExpressionCache(Integer.getInteger(MAX_SIZE_PROPERTY,
+            1000));
+
+    public static CompiledExpressionCache getInstance() {
+        return instance;
+    }
+
+    private final SoftLruCache<Serializable> expressions;
+
+    CompiledExpressionCache(int maxSize) {
+        this.expressions = new SoftLruCache<Serializable>(maxSize);
+    }
+
+    /**
+     * Evaluates the expression with the given variables, compiling it first
+     * if it isn't cached for the scope.
+     */
+    public Object eval(Object scope,
+                       String expression,
+                       Map<String, Object> variables) {
+        return MVEL.executeExpression(get(scope,
+                expression,
+                null),
+                variables);
+    }
+
+    /**
+     * Returns the compiled expression for the scope, compiling it if it isn't
+     * cached.
+     *
+     * @param inputs the types of the variables, to compile the expression
+     *               strictly typed, or null to leave it untyped.
+     */
+    public Serializable get(Object scope,
+                            String expression,
+                            Map<String, Class<?>> inputs) {
+        String name = inputs == null ? expression : expression + "\n" + inputs;
+        Serializable cached = this.expressions.get(scope,
+                name);
+        if (cached != null) {
+            return cached;
+        }
+
+        Serializable compiled;
+        if (inputs == null) {
+            compiled = MVEL.compileExpression(expression);
+        } else {
+            ParserContext parserContext = new ParserContext();
+            for (Map.Entry<String, Class<?>> input : inputs.entrySet()) {
+                parserContext.addInput(input.getKey(),
+                        input.getValue());
+            }
+            compiled = new ExpressionCompiler(expression).compile(parserContext);
+        }
+        this.expressions.put(scope,
+                name,
+                compiled);
+        return compiled;
+    }
+
+    public void clearCache() {
+        this.expressions.clear();
+    }
+
+    public int getSize() {
+        return this.expressions.size();
+    }
+
+    public int getMaxSize() {
+        return this.expressions.getMaxSize();
+    }
+
+    public long getHitCount() {
+        return this.expressions.getHitCount();
+    }
+
+    public long getMissCount() {
+        return this.expressions.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return this.expressions.getEvictionCount();
+    }
+
+    public double getHitRatio() {
+        return this.expressions.getHitRatio();
+    }
+}
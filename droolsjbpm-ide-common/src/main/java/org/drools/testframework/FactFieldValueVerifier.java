@@ -16,19 +16,17 @@
 
 package org.drools.testframework;
 
-import static org.mvel2.MVEL.eval;
+import static org.drools.testframework.ScenarioRunner.eval;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.drools.base.TypeResolver;
 import org.drools.ide.common.client.modeldriven.testing.VerifyField;
 import org.mvel2.MVEL;
-import org.mvel2.ParserContext;
-import org.mvel2.compiler.CompiledExpression;
-import org.mvel2.compiler.ExpressionCompiler;
 
 public class FactFieldValueVerifier {
 
@@ -117,10 +115,12 @@ public class FactFieldValueVerifier {
 }
 class ResultVerifier {
 
-    private final Map<String, Object> variables     = new HashMap<String, Object>();
-    private ParserContext             parserContext = new ParserContext();
+    private final Map<String, Object>   variables = new HashMap<String, Object>();
+    private final Map<String, Class<?>> inputs    = new LinkedHashMap<String, Class<?>>();
+    private final Class<?>              factClass;
 
     protected ResultVerifier(Object factObject) {
+        this.factClass = factObject.getClass();
         addVariable( "__fact__",
                      factObject );
     }
@@ -135,19 +135,23 @@ class ResultVerifier {
         variables.put( name,
                        object );
 
-        parserContext.addInput( name,
-                                object.getClass() );
+        inputs.put( name,
+                    object.getClass() );
     }
 
     protected Boolean isSuccess(VerifyField currentField) {
-        CompiledExpression expression = new ExpressionCompiler( "__fact__." + currentField.getFieldName() + " " + currentField.getOperator() + " __expected__" ).compile( parserContext );
+        Object expression = CompiledExpressionCache.getInstance().get( factClass,
+                                                                       "__fact__." + currentField.getFieldName() + " " + currentField.getOperator() + " __expected__",
+                                                                       inputs );
 
         return (Boolean) MVEL.executeExpression( expression,
                                                  variables );
     }
 
     protected String getActual(VerifyField currentField) {
-        Object actualValue = MVEL.executeExpression( new ExpressionCompiler( "__fact__." + currentField.getFieldName() ).compile( parserContext ),
+        Object actualValue = MVEL.executeExpression( CompiledExpressionCache.getInstance().get( factClass,
+                                                                                                "__fact__." + currentField.getFieldName(),
+                                                                                                inputs ),
                                                      variables );
 
         return (actualValue != null) ? actualValue.toString() : "";
@@ -16,8 +16,6 @@
 
 package org.drools.testframework;
 
-import static org.mvel2.MVEL.eval;
-
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -373,7 +371,8 @@ public class ScenarioRunner {
                         val);
                 vars.put("__fact__",
                         factObject);
-                eval("__fact__." + field.getName() + " = __val__",
+                CompiledExpressionCache.getInstance().eval(factObject.getClass(),
+                        "__fact__." + field.getName() + " = __val__",
                         vars);
             }
         }
@@ -406,11 +405,29 @@ public class ScenarioRunner {
             }
         }
         methodName = methodName + ")";
-        eval(methodName,
+        CompiledExpressionCache.getInstance().eval(factObject.getClass(),
+                methodName,
                 vars);
         return factObject;
     }
 
+    /**
+     * Evaluates an expression that names classes, or refers to the populated
+     * data only. It is compiled once for the class loader the classes are
+     * resolved with.
+     */
+    static Object eval(String expression) {
+        return eval(expression,
+                new HashMap<String, Object>());
+    }
+
+    static Object eval(String expression,
+                       Map<String, Object> vars) {
+        return CompiledExpressionCache.getInstance().eval(Thread.currentThread().getContextClassLoader(),
+                expression,
+                vars);
+    }
+
     /**
      * True if the scenario was run with 100% success.
      */
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.ide.common.server.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.drools.ide.common.client.modeldriven.FieldAccessorsAndMutators;
+import org.junit.Test;
+
+public class ClassMetadataCacheTest {
+
+    @Test
+    public void testMetadata() throws Exception {
+        ClassMetadataCache cache = new ClassMetadataCache(10);
+        ClassMetadataCache.ClassMetadata metadata = cache.get(SomeFact.class,
+                null,
+                new SuggestionCompletionLoader());
+
+        assertTrue(metadata.getFieldNames().contains("age"));
+        assertEquals(int.class,
+                metadata.getFieldType("age"));
+        assertEquals(FieldAccessorsAndMutators.BOTH,
+                metadata.getAccessorsAndMutators().get("age"));
+        assertTrue(metadata.getMethodNames().contains("setAge"));
+        //void methods without parameters are not accessors
+        assertNull(metadata.getAccessorsAndMutators().get("notify"));
+    }
+
+    @Test
+    public void testSharedPerModelDigest() throws Exception {
+        ClassMetadataCache cache = new ClassMetadataCache(10);
+        SuggestionCompletionLoader converter = new SuggestionCompletionLoader();
+
+        cache.get(SomeFact.class,
+                null,
+                converter);
+        cache.get(SomeFact.class,
+                null,
+                converter);
+        cache.get(SomeFact.class,
+                "models-1",
+                converter);
+        cache.get(SomeFact.class,
+                "models-1",
+                converter);
+        cache.get(SomeFact.class,
+                "models-2",
+                converter);
+
+        assertEquals(3,
+                cache.getSize());
+        assertEquals(2,
+                cache.getHitCount());
+        assertEquals(3,
+                cache.getMissCount());
+    }
+
+    @Test
+    public void testSharedBetweenClassLoadersOfOneDigest() throws Exception {
+        ClassMetadataCache cache = new ClassMetadataCache(10);
+        SuggestionCompletionLoader converter = new SuggestionCompletionLoader();
+        Class<?> reloaded = new ReloadingClassLoader().loadClass(SomeFact.class.getName());
+
+        cache.get(SomeFact.class,
+                "models-1",
+                converter);
+        ClassMetadataCache.ClassMetadata other = cache.get(reloaded,
+                "models-1",
+                converter);
+
+        assertEquals(1,
+                cache.getHitCount());
+        assertEquals(1,
+                cache.getSize());
+        //the fields are those of the class asked for
+        assertSame(reloaded,
+                other.getField("age").getDeclaringClass());
+        assertEquals(int.class,
+                other.getFieldType("age"));
+    }
+
+    @Test
+    public void testNotSharedBetweenClassLoadersWithoutDigest() throws Exception {
+        ClassMetadataCache cache = new ClassMetadataCache(10);
+        SuggestionCompletionLoader converter = new SuggestionCompletionLoader();
+        Class<?> reloaded = new ReloadingClassLoader().loadClass(SomeFact.class.getName());
+
+        cache.get(SomeFact.class,
+                null,
+                converter);
+        cache.get(reloaded,
+                null,
+                converter);
+
+        assertEquals(0,
+                cache.getHitCount());
+        assertEquals(2,
+                cache.getSize());
+    }
+
+    /**
+     * Loads its own copy of SomeFact, and everything else from the test class
+     * loader.
+     */
+    private static class ReloadingClassLoader extends ClassLoader {
+
+        ReloadingClassLoader() {
+            super(ClassMetadataCacheTest.class.getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name,
+                                                  boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(SomeFact.class.getName())) {
+                return super.loadClass(name,
+                        resolve);
+            }
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                byte[] bytes = read(name.replace('.',
+                        '/') + ".class");
+                clazz = defineClass(name,
+                        bytes,
+                        0,
+                        bytes.length);
+            }
+            return clazz;
+        }
+
+        private byte[] read(String resource) throws ClassNotFoundException {
+            InputStream in = getParent().getResourceAsStream(resource);
+            if (in == null) {
+                throw new ClassNotFoundException(resource);
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read; (read = in.read(buffer)) != -1;) {
+                    out.write(buffer,
+                            0,
+                            read);
+                }
+                in.close();
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(resource,
+                        e);
+            }
+        }
+    }
+}
@@ -29,6 +29,8 @@ import org.drools.ide.common.client.modeldriven.dt.MetadataCol;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.thoughtworks.xstream.io.xml.DomDriver;
+
 public class GuidedDTXMLPersistenceTest {
 
     //    public void testXML() {
@@ -110,4 +112,39 @@ public class GuidedDTXMLPersistenceTest {
                       asf.isUpdate() );
     }
 
+    @Test
+    public void testLargeTableRoundTrip() {
+        TypeSafeGuidedDecisionTable dt = new TypeSafeGuidedDecisionTable();
+        dt.getConditionCols().add( new ConditionCol() );
+        ActionSetFieldCol set = new ActionSetFieldCol();
+        set.setFactField( "foo" );
+        dt.getActionCols().add( set );
+
+        String[][] data = new String[5000][];
+        for ( int i = 0; i < data.length; i++ ) {
+            data[i] = new String[]{String.valueOf( i + 1 ), "row " + i, "value & <" + i + ">"};
+        }
+        dt.setData( RepositoryUpgradeHelper.makeDataLists( data ) );
+        dt.setTableName( "large" );
+
+        String xml = GuidedDTXMLPersistence.getInstance().marshal( dt );
+        TypeSafeGuidedDecisionTable dt_ = GuidedDTXMLPersistence.getInstance().unmarshal( xml );
+        assertEquals( 5000,
+                      dt_.getData().size() );
+        assertEquals( "value & <4999>",
+                      dt_.getData().get( 4999 ).get( 2 ).getStringValue() );
+
+        assertEquals( xml,
+                      GuidedDTXMLPersistence.getInstance().marshal( dt_ ) );
+
+        // the XML written and read by the old DOM based driver must be the same
+        GuidedDTXMLPersistence dom = new GuidedDTXMLPersistence( new DomDriver() );
+        assertEquals( xml,
+                      dom.marshal( dt ) );
+        assertEquals( xml,
+                      dom.marshal( dom.unmarshal( xml ) ) );
+        assertEquals( xml,
+                      GuidedDTXMLPersistence.getInstance().marshal( dom.unmarshal( xml ) ) );
+    }
+
 }
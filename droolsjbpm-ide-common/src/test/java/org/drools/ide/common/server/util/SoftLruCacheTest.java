@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.ide.common.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SoftLruCacheTest {
+
+    @Test
+    public void testKeptPerScope() throws Exception {
+        SoftLruCache<String> cache = new SoftLruCache<String>(10);
+        Object scope = new Object();
+        cache.put(scope,
+                "a",
+                "1");
+        cache.put(null,
+                "a",
+                "2");
+
+        assertEquals("1",
+                cache.get(scope,
+                        "a"));
+        assertEquals("2",
+                cache.get(null,
+                        "a"));
+        assertNull(cache.get(new Object(),
+                "a"));
+
+        assertEquals(2,
+                cache.size());
+        assertEquals(2,
+                cache.getHitCount());
+        assertEquals(1,
+                cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        SoftLruCache<String> cache = new SoftLruCache<String>(2);
+        cache.put(null,
+                "a",
+                "1");
+        cache.put(null,
+                "b",
+                "2");
+        cache.get(null,
+                "a");
+        cache.put(null,
+                "c",
+                "3");
+
+        assertEquals(2,
+                cache.size());
+        assertEquals(1,
+                cache.getEvictionCount());
+        assertEquals("1",
+                cache.get(null,
+                        "a"));
+        assertNull(cache.get(null,
+                "b"));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        SoftLruCache<String> cache = new SoftLruCache<String>(2);
+        cache.put(null,
+                "a",
+                "1");
+        cache.clear();
+
+        assertEquals(0,
+                cache.size());
+        assertNull(cache.get(null,
+                "a"));
+    }
+}
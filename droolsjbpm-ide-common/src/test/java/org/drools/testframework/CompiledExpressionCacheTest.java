@@ -0,0 +1,75 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.testframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.drools.Cheese;
+import org.drools.Person;
+import org.junit.Test;
+
+public class CompiledExpressionCacheTest {
+
+    @Test
+    public void testCompilesOncePerScope() throws Exception {
+        CompiledExpressionCache cache = new CompiledExpressionCache(10);
+        Serializable first = cache.get(Cheese.class,
+                "__fact__.type = __val__",
+                null);
+        assertSame(first,
+                cache.get(Cheese.class,
+                        "__fact__.type = __val__",
+                        null));
+        assertNotSame(first,
+                cache.get(Person.class,
+                        "__fact__.type = __val__",
+                        null));
+
+        assertEquals(2,
+                cache.getSize());
+        assertEquals(1,
+                cache.getHitCount());
+        assertEquals(2,
+                cache.getMissCount());
+    }
+
+    @Test
+    public void testEval() throws Exception {
+        CompiledExpressionCache cache = new CompiledExpressionCache(10);
+        for (String type : new String[]{"cheddar", "brie"}) {
+            Cheese cheese = new Cheese();
+            Map<String, Object> vars = new HashMap<String, Object>();
+            vars.put("__fact__",
+                    cheese);
+            vars.put("__val__",
+                    type);
+            cache.eval(Cheese.class,
+                    "__fact__.type = __val__",
+                    vars);
+            assertEquals(type,
+                    cheese.getType());
+        }
+        assertEquals(1,
+                cache.getHitCount());
+    }
+}
@@ -544,6 +544,8 @@ public class AssetItem extends CategorisableItem {
             }
         }
         try {
+            this.rulesRepository.linksChanged( this.node );
+            getPackage().updateLastModified();
             this.node.remove();
         } catch ( RepositoryException e ) {
             throw new RulesRepositoryException( e );
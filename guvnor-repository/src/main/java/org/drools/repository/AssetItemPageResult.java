@@ -27,16 +27,26 @@ public class AssetItemPageResult {
     public final List<AssetItem> assets;
     public final boolean hasNext;
     public long currentPosition;
+    /**
+     * The total number of assets across all pages, or -1 if it isn't known.
+     */
+    public final long totalRowsCount;
 
     public AssetItemPageResult(List<AssetItem> categories, long currentPosition, boolean hasNext) {
+        this( categories, currentPosition, hasNext, -1 );
+    }
+
+    public AssetItemPageResult(List<AssetItem> categories, long currentPosition, boolean hasNext, long totalRowsCount) {
         this.assets = categories;
         this.hasNext = hasNext;
         this.currentPosition = currentPosition;
+        this.totalRowsCount = totalRowsCount;
     }
 
     public AssetItemPageResult() {
         hasNext = false;
         currentPosition = 0;
+        totalRowsCount = 0;
         assets = new ArrayList<AssetItem>();
     }
 
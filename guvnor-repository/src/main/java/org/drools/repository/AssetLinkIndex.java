@@ -0,0 +1,348 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A secondary index from category and state nodes to the live (not archived,
+ * not in a snapshot) assets that link to them, so finding the assets of a
+ * category or state doesn't have to walk every reference to it.
+ *
+ * The entry for a category or state is built from its references the first
+ * time it is asked for. From then on it follows the saved changes only: it
+ * listens to the repository (see observe()), so it also sees what other
+ * sessions, and other cluster nodes, save. A session that saves its own
+ * changes brings the index up to date right away (see refresh()), so it
+ * doesn't have to wait for the events to read back what it wrote.
+ *
+ * The index is only used while it is listening; before that, and for sessions
+ * with unsaved changes, callers should walk the references instead. Events
+ * arrive after the fact, so callers must still check the assets they get
+ * back against what their own session can see.
+ */
+public class AssetLinkIndex
+    implements
+    EventListener {
+
+    private static final Logger                          log       = LoggerFactory.getLogger( AssetLinkIndex.class );
+
+    private static final Map<Repository, AssetLinkIndex> instances = new WeakHashMap<Repository, AssetLinkIndex>();
+
+    private static final int                             EVENTS    = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
+    /**
+     * Category or state node identifier to the sort keys of its assets, so
+     * pages come out in asset name order.
+     */
+    private final Map<String, SortedSet<String>>         links     = new HashMap<String, SortedSet<String>>();
+
+    /**
+     * Asset identifier to its current sort key.
+     */
+    private final Map<String, String>                    sortKeys  = new HashMap<String, String>();
+
+    /**
+     * The session the events are delivered to, and read back with; null when
+     * we aren't listening.
+     */
+    private Session                                      observer;
+
+    AssetLinkIndex() {
+    }
+
+    public static synchronized AssetLinkIndex getInstance(Repository repository) {
+        AssetLinkIndex index = instances.get( repository );
+        if ( index == null ) {
+            index = new AssetLinkIndex();
+            instances.put( repository,
+                           index );
+        }
+        return index;
+    }
+
+    /**
+     * Starts following the changes saved to the repository, through the given
+     * session. The session is only used by the index, and has to stay open
+     * until stopObserving() is called.
+     */
+    public synchronized void observe(Session session) throws RepositoryException {
+        stopObserving();
+        session.getWorkspace().getObservationManager().addEventListener( this,
+                                                                         EVENTS,
+                                                                         "/" + RulesRepository.RULES_REPOSITORY_NAME,
+                                                                         true,
+                                                                         null,
+                                                                         null,
+                                                                         false );
+        this.observer = session;
+        clear();
+    }
+
+    public synchronized void stopObserving() {
+        if ( this.observer != null ) {
+            try {
+                this.observer.getWorkspace().getObservationManager().removeEventListener( this );
+            } catch ( RepositoryException e ) {
+                log.warn( "Unable to stop listening to the repository: " + e.getMessage() );
+            }
+            this.observer = null;
+        }
+        clear();
+    }
+
+    /**
+     * Whether the index follows the saved changes, and can be used.
+     */
+    public synchronized boolean isObserving() {
+        return this.observer != null;
+    }
+
+    /**
+     * @return the identifiers of the live assets linked to the given category
+     *         or state node.
+     */
+    public synchronized List<String> getLinkedAssets(Node linkNode) throws RepositoryException {
+        String linkId = linkNode.getIdentifier();
+        SortedSet<String> assets = this.links.get( linkId );
+        if ( assets == null ) {
+            assets = new TreeSet<String>();
+            PropertyIterator it = linkNode.getReferences();
+            while ( it.hasNext() ) {
+                Node assetNode = it.nextProperty().getParent();
+                if ( isLive( assetNode ) ) {
+                    assets.add( sortKey( assetNode ) );
+                }
+            }
+            this.links.put( linkId,
+                            assets );
+        }
+        List<String> assetIds = new ArrayList<String>( assets.size() );
+        for ( String key : assets ) {
+            assetIds.add( key.substring( key.lastIndexOf( '/' ) + 1 ) );
+        }
+        return assetIds;
+    }
+
+    /**
+     * Whether the asset still links to the given category or state node.
+     */
+    public static boolean isLinked(Node assetNode,
+                                   String linkId) throws RepositoryException {
+        if ( !isLive( assetNode ) ) {
+            return false;
+        }
+        for ( String id : getLinks( assetNode ) ) {
+            if ( id.equals( linkId ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void onEvent(EventIterator events) {
+        Set<String> changed = new HashSet<String>();
+        Set<String> removed = new HashSet<String>();
+        boolean unknownRemoval = false;
+        try {
+            while ( events.hasNext() ) {
+                Event event = events.nextEvent();
+                String path = event.getPath();
+                if ( path.indexOf( RulesRepository.PACKAGE_SNAPSHOT_AREA ) != -1 ) {
+                    //nothing in a snapshot is live
+                    continue;
+                }
+                switch ( event.getType() ) {
+                    case Event.PROPERTY_ADDED :
+                    case Event.PROPERTY_CHANGED :
+                    case Event.PROPERTY_REMOVED :
+                        String name = path.substring( path.lastIndexOf( '/' ) + 1 );
+                        if ( name.equals( AssetItem.CATEGORY_PROPERTY_NAME ) || name.equals( AssetItem.STATE_PROPERTY_NAME ) || name.equals( AssetItem.CONTENT_PROPERTY_ARCHIVE_FLAG ) ) {
+                            changed.add( event.getIdentifier() );
+                        }
+                        break;
+                    case Event.NODE_ADDED :
+                    case Event.NODE_MOVED :
+                        if ( isAssetPath( path ) ) {
+                            changed.add( event.getIdentifier() );
+                        }
+                        break;
+                    case Event.NODE_REMOVED :
+                        removed.add( event.getIdentifier() );
+                        if ( !isAssetPath( path ) && (path.indexOf( RulesRepository.RULE_PACKAGE_AREA ) != -1 || path.equals( "/" + RulesRepository.RULES_REPOSITORY_NAME )) ) {
+                            //a package, or all of them, whose assets we may not hear of one by one
+                            unknownRemoval = true;
+                        }
+                        break;
+                }
+            }
+        } catch ( RepositoryException e ) {
+            log.warn( "Unable to read the repository events, clearing the asset link index: " + e.getMessage() );
+            clear();
+            return;
+        }
+
+        synchronized ( this ) {
+            if ( this.observer == null ) {
+                return;
+            }
+            if ( unknownRemoval ) {
+                clear();
+                return;
+            }
+            changed.addAll( removed );
+            try {
+                this.observer.refresh( false );
+            } catch ( RepositoryException e ) {
+                log.warn( "Unable to refresh the asset link index session, clearing the index: " + e.getMessage() );
+                clear();
+                return;
+            }
+            refresh( this.observer,
+                     changed );
+        }
+    }
+
+    /**
+     * Brings the index up to date with the given nodes, as they were last
+     * saved; assets whose categories, state or archive flag may have changed,
+     * or assets, categories and states that may have been removed. The session
+     * must not have unsaved changes to them.
+     */
+    public synchronized void refresh(Session session,
+                                     Collection<String> identifiers) {
+        if ( this.links.isEmpty() ) {
+            return;
+        }
+        for ( String identifier : identifiers ) {
+            try {
+                Node node;
+                try {
+                    node = session.getNodeByIdentifier( identifier );
+                } catch ( ItemNotFoundException e ) {
+                    assetRemoved( identifier );
+                    this.links.remove( identifier );
+                    continue;
+                }
+                assetUpdated( node );
+            } catch ( RepositoryException e ) {
+                log.warn( "Unable to update the asset link index, clearing it: " + e.getMessage() );
+                clear();
+                return;
+            }
+        }
+    }
+
+    private void assetUpdated(Node assetNode) throws RepositoryException {
+        if ( !assetNode.getPrimaryNodeType().getName().equals( AssetItem.RULE_NODE_TYPE_NAME ) ) {
+            return;
+        }
+        assetRemoved( assetNode.getIdentifier() );
+        if ( isLive( assetNode ) ) {
+            String key = sortKey( assetNode );
+            for ( String linkId : getLinks( assetNode ) ) {
+                SortedSet<String> assets = this.links.get( linkId );
+                if ( assets != null ) {
+                    assets.add( key );
+                }
+            }
+        }
+    }
+
+    private void assetRemoved(String assetId) {
+        String key = this.sortKeys.remove( assetId );
+        if ( key != null ) {
+            for ( SortedSet<String> assets : this.links.values() ) {
+                assets.remove( key );
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.links.clear();
+        this.sortKeys.clear();
+    }
+
+    private static boolean isAssetPath(String path) {
+        int slash = path.lastIndexOf( '/' );
+        return slash > 0 && path.substring( 0,
+                                            slash ).endsWith( "/" + PackageItem.ASSET_FOLDER_NAME );
+    }
+
+    /**
+     * The name, then the identifier to tell assets of the same name (in
+     * different packages) apart. A slash can't be part of a node name.
+     */
+    private String sortKey(Node assetNode) throws RepositoryException {
+        String key = assetNode.getName() + "/" + assetNode.getIdentifier();
+        String previous = this.sortKeys.put( assetNode.getIdentifier(),
+                                             key );
+        if ( previous != null && !previous.equals( key ) ) {
+            //renamed since it was indexed
+            for ( SortedSet<String> assets : this.links.values() ) {
+                if ( assets.remove( previous ) ) {
+                    assets.add( key );
+                }
+            }
+        }
+        return key;
+    }
+
+    private static boolean isLive(Node assetNode) throws RepositoryException {
+        return assetNode.getPrimaryNodeType().getName().equals( AssetItem.RULE_NODE_TYPE_NAME )
+               && assetNode.getPath().indexOf( RulesRepository.PACKAGE_SNAPSHOT_AREA ) == -1
+               && !(assetNode.hasProperty( AssetItem.CONTENT_PROPERTY_ARCHIVE_FLAG ) && assetNode.getProperty( AssetItem.CONTENT_PROPERTY_ARCHIVE_FLAG ).getBoolean());
+    }
+
+    private static List<String> getLinks(Node assetNode) throws RepositoryException {
+        List<String> linkIds = new ArrayList<String>();
+        if ( assetNode.hasProperty( AssetItem.CATEGORY_PROPERTY_NAME ) ) {
+            for ( Value value : assetNode.getProperty( AssetItem.CATEGORY_PROPERTY_NAME ).getValues() ) {
+                linkIds.add( value.getString() );
+            }
+        }
+        if ( assetNode.hasProperty( AssetItem.STATE_PROPERTY_NAME ) ) {
+            Property state = assetNode.getProperty( AssetItem.STATE_PROPERTY_NAME );
+            linkIds.add( state.getString() );
+        }
+        return linkIds;
+    }
+}
@@ -102,6 +102,7 @@ public abstract class CategorisableItem extends VersionableItem {
         this.checkout();
         this.node.setProperty( CATEGORY_PROPERTY_NAME,
                                newTagValues );
+        this.rulesRepository.linksChanged( this.node );
     }
 
     /**
@@ -209,6 +210,7 @@ public abstract class CategorisableItem extends VersionableItem {
      */
     public void removeCategory(String tag) throws RulesRepositoryException {
         removeCategory(this.node, tag);
+        this.rulesRepository.linksChanged( this.node );
     }
     
     /**
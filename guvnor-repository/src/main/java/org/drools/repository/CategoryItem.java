@@ -144,6 +144,7 @@ public class CategoryItem extends Item {
                     "The category still has some assets linked to it. You will need to remove the links so you can delete the cateogory.");
                 }
             }
+            this.rulesRepository.linksChanged( this.node );
             this.node.remove();
         } catch ( RepositoryException e ) {
             log.error("Unable to remove category item.", e );
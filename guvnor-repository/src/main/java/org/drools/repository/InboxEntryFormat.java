@@ -0,0 +1,277 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.drools.repository.UserInfo.InboxEntry;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * The format inbox entries are stored in: a version header line followed by
+ * one line per entry, oldest first, each being the timestamp, asset UUID,
+ * sender and note separated by tabs. Tabs, line breaks and backslashes in
+ * the fields are escaped with a backslash, and a null field is written as
+ * "\0".
+ *
+ * As each entry is a line of its own, an entry can be added or removed
+ * without reading the others into objects.
+ *
+ * Inboxes written by earlier versions are XStream XML, which is still read
+ * here; they are written back in this format the next time they change.
+ */
+final class InboxEntryFormat {
+
+    static final String          HEADER = "#inbox-entries:1\n";
+
+    private static final String  NULL   = "\\0";
+
+    // XStream is thread safe once configured
+    private static final XStream LEGACY = createLegacyXStream();
+
+    private InboxEntryFormat() {
+    }
+
+    static boolean isLegacy(String value) {
+        return value.startsWith( "<" );
+    }
+
+    static List<InboxEntry> decode(String value) {
+        if ( value == null || value.length() == 0 ) {
+            return new ArrayList<InboxEntry>();
+        }
+        if ( isLegacy( value ) ) {
+            return decodeLegacy( value );
+        }
+        List<InboxEntry> entries = new ArrayList<InboxEntry>();
+        for ( String line : lines( value ) ) {
+            entries.add( decodeLine( line ) );
+        }
+        return entries;
+    }
+
+    static String encode(List<InboxEntry> entries) {
+        StringBuilder sb = new StringBuilder( HEADER.length() + entries.size() * 80 );
+        sb.append( HEADER );
+        for ( InboxEntry entry : entries ) {
+            appendLine( sb,
+                        entry );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adds an entry to the end of an encoded inbox, taking out any earlier
+     * entry for the same asset and, if there are more than the given number
+     * of entries, the oldest ones. The other entries are copied as they are.
+     */
+    static String add(String value,
+                      InboxEntry entry,
+                      int maxEntries) {
+        List<String> lines = lines( value );
+        String key = escape( entry.assetUUID );
+        for ( int i = 0; i < lines.size(); i++ ) {
+            if ( key.equals( uuidOf( lines.get( i ) ) ) ) {
+                lines.remove( i );
+                break;
+            }
+        }
+        while ( lines.size() >= maxEntries && !lines.isEmpty() ) {
+            lines.remove( 0 );
+        }
+
+        StringBuilder sb = new StringBuilder( value.length() + 80 );
+        sb.append( HEADER );
+        for ( String line : lines ) {
+            sb.append( line ).append( '\n' );
+        }
+        appendLine( sb,
+                    entry );
+        return sb.toString();
+    }
+
+    /**
+     * Takes the entry for the given asset out of an encoded inbox, returning
+     * null if there is none.
+     */
+    static String remove(String value,
+                         String assetUUID) {
+        String key = escape( assetUUID );
+        List<String> lines = lines( value );
+        for ( int i = 0; i < lines.size(); i++ ) {
+            if ( key.equals( uuidOf( lines.get( i ) ) ) ) {
+                lines.remove( i );
+                StringBuilder sb = new StringBuilder( value.length() );
+                sb.append( HEADER );
+                for ( String line : lines ) {
+                    sb.append( line ).append( '\n' );
+                }
+                return sb.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The entry lines of an inbox, still encoded. Inboxes in the old format
+     * are converted first.
+     */
+    private static List<String> lines(String value) {
+        if ( value == null || value.length() == 0 ) {
+            return new ArrayList<String>();
+        }
+        if ( isLegacy( value ) ) {
+            value = encode( decodeLegacy( value ) );
+        } else if ( !value.startsWith( HEADER ) ) {
+            throw new RulesRepositoryException( "Unknown inbox format: " + value.substring( 0,
+                                                                                            Math.min( value.length(),
+                                                                                                      40 ) ) );
+        }
+        List<String> lines = new ArrayList<String>();
+        int start = HEADER.length();
+        while ( start < value.length() ) {
+            int end = value.indexOf( '\n',
+                                     start );
+            if ( end == -1 ) {
+                end = value.length();
+            }
+            if ( end > start ) {
+                lines.add( value.substring( start,
+                                            end ) );
+            }
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    private static String uuidOf(String line) {
+        int start = line.indexOf( '\t' ) + 1;
+        int end = line.indexOf( '\t',
+                                start );
+        return line.substring( start,
+                               end );
+    }
+
+    private static void appendLine(StringBuilder sb,
+                                   InboxEntry entry) {
+        sb.append( entry.timestamp ).append( '\t' );
+        sb.append( escape( entry.assetUUID ) ).append( '\t' );
+        sb.append( escape( entry.from ) ).append( '\t' );
+        sb.append( escape( entry.note ) ).append( '\n' );
+    }
+
+    private static InboxEntry decodeLine(String line) {
+        String[] fields = line.split( "\t",
+                                      -1 );
+        if ( fields.length != 4 ) {
+            throw new RulesRepositoryException( "Invalid inbox entry: " + line );
+        }
+        InboxEntry entry = new InboxEntry();
+        entry.timestamp = Long.parseLong( fields[0] );
+        entry.assetUUID = unescape( fields[1] );
+        entry.from = unescape( fields[2] );
+        entry.note = unescape( fields[3] );
+        return entry;
+    }
+
+    private static String escape(String s) {
+        if ( s == null ) {
+            return NULL;
+        }
+        StringBuilder sb = null;
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            String replacement;
+            switch ( c ) {
+                case '\\' :
+                    replacement = "\\\\";
+                    break;
+                case '\t' :
+                    replacement = "\\t";
+                    break;
+                case '\n' :
+                    replacement = "\\n";
+                    break;
+                case '\r' :
+                    replacement = "\\r";
+                    break;
+                default :
+                    replacement = null;
+            }
+            if ( replacement != null && sb == null ) {
+                sb = new StringBuilder( s.length() + 8 );
+                sb.append( s, 0, i );
+            }
+            if ( sb != null ) {
+                if ( replacement != null ) {
+                    sb.append( replacement );
+                } else {
+                    sb.append( c );
+                }
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    private static String unescape(String s) {
+        if ( NULL.equals( s ) ) {
+            return null;
+        }
+        if ( s.indexOf( '\\' ) == -1 ) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder( s.length() );
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( c == '\\' && i + 1 < s.length() ) {
+                char next = s.charAt( ++i );
+                switch ( next ) {
+                    case 't' :
+                        sb.append( '\t' );
+                        break;
+                    case 'n' :
+                        sb.append( '\n' );
+                        break;
+                    case 'r' :
+                        sb.append( '\r' );
+                        break;
+                    default :
+                        sb.append( next );
+                }
+            } else {
+                sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<InboxEntry> decodeLegacy(String value) {
+        return (List<InboxEntry>) LEGACY.fromXML( value );
+    }
+
+    private static XStream createLegacyXStream() {
+        XStream xs = new XStream();
+        xs.alias( "inbox-entries",
+                  List.class );
+        xs.alias( "entry",
+                  InboxEntry.class );
+        return xs;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All the assets of a package, loaded in one pass and grouped by format, with
+ * the versions specified by the package dependencies already resolved.
+ *
+ * This is for code (like the package builder) that would otherwise query the
+ * package for one format after another. The assets are read when the snapshot
+ * is taken, so it won't see any later changes.
+ *
+ * A snapshot can also be limited to a few formats, for code that only needs
+ * those (like building a single asset).
+ */
+public class PackageAssetSnapshot {
+
+    private final PackageItem                  packageItem;
+    private final List<AssetItem>              assets   = new ArrayList<AssetItem>();
+
+    /**
+     * Format to the assets of that format which are not archived.
+     */
+    private final Map<String, List<AssetItem>> byFormat = new HashMap<String, List<AssetItem>>();
+
+    PackageAssetSnapshot(PackageItem packageItem) {
+        this.packageItem = packageItem;
+        VersionedAssetItemIterator it = (VersionedAssetItemIterator) packageItem.getAssets();
+        it.setReturnAssetsWithVersionsSpecifiedByDependencies( true );
+        while ( it.hasNext() ) {
+            add( it.next() );
+        }
+    }
+
+    /**
+     * Only the assets of the given formats that are not archived, as
+     * PackageItem.listAssetsByFormat finds them.
+     */
+    PackageAssetSnapshot(PackageItem packageItem,
+                         String... formats) {
+        this.packageItem = packageItem;
+        VersionedAssetItemIterator it = (VersionedAssetItemIterator) packageItem.listAssetsByFormat( formats );
+        it.setReturnAssetsWithVersionsSpecifiedByDependencies( true );
+        while ( it.hasNext() ) {
+            add( it.next() );
+        }
+    }
+
+    private void add(AssetItem asset) {
+        this.assets.add( asset );
+        if ( !asset.isArchived() ) {
+            List<AssetItem> formatAssets = this.byFormat.get( asset.getFormat() );
+            if ( formatAssets == null ) {
+                formatAssets = new ArrayList<AssetItem>();
+                this.byFormat.put( asset.getFormat(),
+                                   formatAssets );
+            }
+            formatAssets.add( asset );
+        }
+    }
+
+    public PackageItem getPackage() {
+        return this.packageItem;
+    }
+
+    /**
+     * @return all the assets, archived ones included, in the order
+     *         PackageItem.getAssets() has them (or, for a snapshot of a few
+     *         formats, the assets of those formats).
+     */
+    public List<AssetItem> getAssets() {
+        return Collections.unmodifiableList( this.assets );
+    }
+
+    /**
+     * @return the assets of the given formats that are not archived, ordered
+     *         by title - the same assets PackageItem.listAssetsByFormat gives.
+     */
+    public List<AssetItem> listAssetsByFormat(String... formats) {
+        List<AssetItem> result = new ArrayList<AssetItem>();
+        for ( String format : formats ) {
+            List<AssetItem> formatAssets = this.byFormat.get( format );
+            if ( formatAssets != null ) {
+                result.addAll( formatAssets );
+            }
+        }
+        Collections.sort( result, new Comparator<AssetItem>() {
+            public int compare(AssetItem a1, AssetItem a2) {
+                String t1 = a1.getTitle();
+                String t2 = a2.getTitle();
+                if ( t1 == null ) {
+                    return t2 == null ? 0 : -1;
+                }
+                return t2 == null ? 1 : t1.compareTo( t2 );
+            }
+        });
+        return result;
+    }
+}
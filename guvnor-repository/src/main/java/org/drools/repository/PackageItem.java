@@ -17,6 +17,9 @@
 package org.drools.repository;
 
 import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
@@ -41,6 +44,7 @@ import javax.jcr.nodetype.NodeType;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 
+import org.drools.repository.events.StorageEventManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -80,6 +84,8 @@ public class PackageItem extends VersionableItem {
     public static final String DEPENDENCIES_PROPERTY_NAME     = "drools:dependencies";
 
     private static final String COMPILED_PACKAGE_PROPERTY_NAME = "drools:compiledPackage";
+    // stored as a residual property, alongside the binary it describes
+    private static final String COMPILED_PACKAGE_HASH_PROPERTY_NAME = "drools:compiledPackageHash";
 
     /**
      * Constructs an object of type RulePackageItem corresponding the specified node
@@ -144,6 +150,24 @@ public class PackageItem extends VersionableItem {
         }
     }
 
+    /**
+     * Marks the package as modified now, for changes that don't leave a
+     * trace on an asset of their own, like an asset being removed from it or
+     * moved out of it.
+     */
+    void updateLastModified() {
+        if ( isSnapshot() ) {
+            return;
+        }
+        try {
+            this.checkout();
+            this.node.setProperty( LAST_MODIFIED_PROPERTY_NAME,
+                                   Calendar.getInstance() );
+        } catch ( RepositoryException e ) {
+            throw new RulesRepositoryException( e );
+        }
+    }
+
     /**
      * Return true if the binary is "up to date".
      * @return
@@ -286,6 +310,7 @@ public class PackageItem extends VersionableItem {
             ruleNode.setProperty( CREATOR_PROPERTY_NAME, this.node.getSession().getUserID() );
 
             rulesRepository.getSession().save();
+            StorageEventManager.recordChange();
 
             AssetItem rule = new AssetItem( this.rulesRepository, ruleNode );
 
@@ -594,8 +619,12 @@ public class PackageItem extends VersionableItem {
     //        }
     //    }
 
-    /** Return an iterator for the rules in this package */
-    public Iterator<AssetItem> getAssets() {
+    /**
+     * Return an iterator for the rules in this package. The iterator loads
+     * the assets as it goes, and can skip ahead to a position to page
+     * through them.
+     */
+    public AssetItemIterator getAssets() {
         try {
             Node content = getVersionContentNode();
             return new VersionedAssetItemIterator( content.getNode( ASSET_FOLDER_NAME ).getNodes(),
@@ -658,6 +687,41 @@ public class PackageItem extends VersionableItem {
         }
     }
 
+    /**
+     * The latest time anything in this package changed: the package itself,
+     * or any of the assets in it. Removing an asset touches the package, so
+     * this moves on for removals too. Only the most recently changed asset
+     * is loaded to work this out.
+     */
+    public Calendar getContentLastModified() {
+        Calendar lastModified = getLastModified();
+        try {
+            String path = getVersionContentNode().getPath() + "/" + ASSET_FOLDER_NAME;
+            String sql = "SELECT " + LAST_MODIFIED_PROPERTY_NAME + " FROM " + AssetItem.RULE_NODE_TYPE_NAME
+                         + " WHERE jcr:path LIKE '" + path.replace( "'",
+                                                                   "''" ) + "[%]/%'"
+                         + " ORDER BY " + LAST_MODIFIED_PROPERTY_NAME + " DESC";
+            Query q = node.getSession().getWorkspace().getQueryManager().createQuery( sql,
+                                                                                      Query.SQL );
+            q.setLimit( 1 );
+            NodeIterator it = q.execute().getNodes();
+            if ( it.hasNext() ) {
+                Node latest = it.nextNode();
+                if ( latest.hasProperty( LAST_MODIFIED_PROPERTY_NAME ) ) {
+                    Calendar assetModified = latest.getProperty( LAST_MODIFIED_PROPERTY_NAME ).getDate();
+                    if ( lastModified == null || assetModified.after( lastModified ) ) {
+                        lastModified = assetModified;
+                    }
+                }
+            }
+            return lastModified;
+        } catch ( RepositoryException e ) {
+            log.error( "Unable to work out when the package was last changed.",
+                       e );
+            throw new RulesRepositoryException( e );
+        }
+    }
+
     public AssetItemIterator queryAssets(String fieldPredicates){
         return queryAssets( fieldPredicates, false );
     }
@@ -707,6 +771,24 @@ public class PackageItem extends VersionableItem {
         }
     }
 
+    /**
+     * Loads all the assets of this package in one go, grouped by format and
+     * with the versions specified by the dependencies, rather than querying
+     * for each format in turn.
+     */
+    public PackageAssetSnapshot loadAssetSnapshot() {
+        return new PackageAssetSnapshot( this );
+    }
+
+    /**
+     * Loads only the assets of the given formats that are not archived, for
+     * code that doesn't need the rest of the package.
+     */
+    public PackageAssetSnapshot loadAssetSnapshot(String... formats) {
+        return new PackageAssetSnapshot( this,
+                                         formats );
+    }
+
     /**
      * Load a specific rule asset by name.
      */
@@ -968,14 +1050,80 @@ public class PackageItem extends VersionableItem {
     public PackageItem updateCompiledPackage(InputStream data) {
         checkout();
         try {
-            Binary binary = this.node.getSession().getValueFactory().createBinary(data);
+            // hash the binary on its way in, so it never has to be read back for an ETag
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            Binary binary = this.node.getSession().getValueFactory().createBinary( new DigestInputStream( data,
+                                                                                                          digest ) );
             this.node.setProperty( COMPILED_PACKAGE_PROPERTY_NAME, binary );
+            this.node.setProperty( COMPILED_PACKAGE_HASH_PROPERTY_NAME,
+                                   toHex( digest.digest() ) );
             this.node.setProperty( LAST_MODIFIED_PROPERTY_NAME,
                                    Calendar.getInstance() );
             return this;
         } catch (RepositoryException e ) {
             log.error( "Unable to update the assets binary content", e );
             throw new RulesRepositoryException( e );
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new RulesRepositoryException( e );
+        }
+    }
+
+    /**
+     * The SHA-1 hash (in hex) of the compiled package binary, or null if the
+     * package has not been built, or was built before hashes were recorded.
+     * This is a plain property read, so it is cheap enough for every poll.
+     */
+    public String getCompiledPackageHash() {
+        String hash = getStringProperty( COMPILED_PACKAGE_HASH_PROPERTY_NAME );
+        return "".equals( hash ) ? null : hash;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder( bytes.length * 2 );
+        for ( byte b : bytes ) {
+            hex.append( Character.forDigit( (b >> 4) & 0xF,
+                                            16 ) );
+            hex.append( Character.forDigit( b & 0xF,
+                                            16 ) );
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Returns a stream over the compiled package binary, or null if the
+     * package has not been built. Reading the stream doesn't pull the whole
+     * binary into memory, so this is preferred for large packages. The caller
+     * must close it.
+     */
+    public InputStream getCompiledPackageStream() {
+        try {
+            Node ruleNode = getVersionContentNode();
+            if ( ruleNode.hasProperty( COMPILED_PACKAGE_PROPERTY_NAME ) ) {
+                return ruleNode.getProperty( COMPILED_PACKAGE_PROPERTY_NAME ).getBinary().getStream();
+            } else {
+                return null;
+            }
+        } catch ( RepositoryException e ) {
+            log.error( e.getMessage(), e );
+            throw new RulesRepositoryException( e );
+        }
+    }
+
+    /**
+     * The size of the compiled package binary in bytes, or -1 if the package
+     * has not been built.
+     */
+    public long getCompiledPackageLength() {
+        try {
+            Node ruleNode = getVersionContentNode();
+            if ( ruleNode.hasProperty( COMPILED_PACKAGE_PROPERTY_NAME ) ) {
+                return ruleNode.getProperty( COMPILED_PACKAGE_PROPERTY_NAME ).getLength();
+            } else {
+                return -1;
+            }
+        } catch ( RepositoryException e ) {
+            log.error( e.getMessage(), e );
+            throw new RulesRepositoryException( e );
         }
     }
 
@@ -130,6 +130,12 @@ public class RulesRepository {
 
     boolean                     initialized                     = false;
 
+    /**
+     * The nodes whose links to categories and states changed since the last
+     * save, to bring the asset link index up to date with once they are saved.
+     */
+    private final Set<String>   linkChanges                     = new HashSet<String>();
+
     /**
      * This requires a JCR session be setup, and the repository be configured.
      */
@@ -591,6 +597,7 @@ public class RulesRepository {
             long start = System.currentTimeMillis();
             this.session.getWorkspace().copy( source,
                                               newName );
+            StorageEventManager.recordChange();
             log.debug( "Time taken for snap: " + (System.currentTimeMillis() - start) );
 
         } catch ( RepositoryException e ) {
@@ -657,6 +664,7 @@ public class RulesRepository {
 
             this.session.getWorkspace().copy( sourceNode.getPath(),
                                               destinationPath );
+            StorageEventManager.recordChange();
         } catch ( RepositoryException e ) {
             log.error( "Unable to create snapshot",
                        e );
@@ -1179,6 +1187,65 @@ public class RulesRepository {
                                                  int numRowsToReturn,
                                                  Node n,
                                                  RepositoryFilter filter) throws RepositoryException {
+        if ( seekArchivedAsset || !getAssetLinkIndex().isObserving() || this.session.hasPendingChanges() ) {
+            //The index only holds live assets, and only follows saved changes
+            return loadReferencingAssets( seekArchivedAsset,
+                                          skip,
+                                          numRowsToReturn,
+                                          n,
+                                          filter );
+        }
+
+        String linkId = n.getIdentifier();
+        List<String> linkedAssets = getAssetLinkIndex().getLinkedAssets( n );
+
+        //Without a filter every indexed asset is a row, so we can go straight to the page
+        int start = (filter == null) ? Math.min( skip,
+                                                 linkedAssets.size() ) : 0;
+        int rows = start;
+        boolean hasNext = false;
+        List<AssetItem> results = new ArrayList<AssetItem>();
+
+        //Look ahead one extra row to ascertain whether there is an additional page of data
+        for ( int i = start; i < linkedAssets.size() && (numRowsToReturn == -1 || rows < skip + numRowsToReturn + 1); i++ ) {
+            Node assetNode;
+            try {
+                assetNode = this.session.getNodeByIdentifier( linkedAssets.get( i ) );
+            } catch ( ItemNotFoundException e ) {
+                //removed, or not yet saved, by another session
+                continue;
+            }
+            if ( !AssetLinkIndex.isLinked( assetNode,
+                                           linkId ) ) {
+                //changed by another session, and not saved yet
+                continue;
+            }
+            AssetItem ai = new AssetItem( this,
+                                          assetNode );
+            if ( filter == null || filter.accept( ai,
+                                                  "package.readonly" ) ) {
+                rows++;
+                int numRowsInPage = rows - skip;
+                if ( numRowsInPage > 0 ) {
+                    if ( numRowsInPage <= numRowsToReturn || numRowsToReturn == -1 ) {
+                        results.add( ai );
+                    }
+                    hasNext = (numRowsInPage > numRowsToReturn && numRowsToReturn != -1);
+                }
+            }
+        }
+
+        return new AssetItemPageResult( results,
+                                        rows - 1,
+                                        hasNext,
+                                        filter == null ? linkedAssets.size() : -1 );
+    }
+
+    private AssetItemPageResult loadReferencingAssets(boolean seekArchivedAsset,
+                                                      int skip,
+                                                      int numRowsToReturn,
+                                                      Node n,
+                                                      RepositoryFilter filter) throws RepositoryException {
         int rows = 0;
         boolean hasNext = false;
         List<AssetItem> results = new ArrayList<AssetItem>();
@@ -1249,25 +1316,50 @@ public class RulesRepository {
                                                                  RepositoryException {
 
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        ZipOutputStream zout = new ZipOutputStream( bout );
+        exportPackageFromRepository( packageName,
+                                     bout );
+        return bout.toByteArray();
+    }
+
+    /**
+     * Writes a zip holding the system view of the package to the given
+     * stream, as the package is read from the repository.
+     */
+    public void exportPackageFromRepository(String packageName,
+                                            OutputStream output) throws IOException,
+                                                                PathNotFoundException,
+                                                                RepositoryException {
+        ZipOutputStream zout = new ZipOutputStream( output );
 
         zout.putNextEntry( new ZipEntry( "repository_export.xml" ) );
-        zout.write( dumpPackageFromRepositoryXml( packageName ) );
+        dumpPackageFromRepositoryXml( packageName,
+                                      zout );
         zout.closeEntry();
         zout.finish();
-        return bout.toByteArray();
     }
 
     public byte[] dumpPackageFromRepositoryXml(String packageName) throws PathNotFoundException,
                                                                   IOException,
                                                                   RepositoryException {
         ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        dumpPackageFromRepositoryXml( packageName,
+                                      byteOut );
+        return byteOut.toByteArray();
+    }
+
+    /**
+     * Writes the system view of the package to the given stream, binaries
+     * included, without holding the document in memory.
+     */
+    public void dumpPackageFromRepositoryXml(String packageName,
+                                             OutputStream output) throws PathNotFoundException,
+                                                                 IOException,
+                                                                 RepositoryException {
         session.refresh( false );
         session.exportSystemView( "/" + RULES_REPOSITORY_NAME + "/" + RULE_PACKAGE_AREA + "/" + packageName,
-                                  byteOut,
+                                  output,
                                   false,
                                   false );
-        return byteOut.toByteArray();
     }
 
     /**
@@ -1280,6 +1372,8 @@ public class RulesRepository {
                                                    in,
                                                    ImportUUIDBehavior.IMPORT_UUID_CREATE_NEW );
             session.save();
+            StorageEventManager.recordChange();
+            getAssetLinkIndex().clear();
         } catch ( RepositoryException e ) {
             throw new RulesRepositoryException( e );
         } catch ( IOException e ) {
@@ -1298,6 +1392,8 @@ public class RulesRepository {
                                                    instream,
                                                    ImportUUIDBehavior.IMPORT_UUID_CREATE_NEW );
             session.save();
+            getAssetLinkIndex().clear();
+            StorageEventManager.recordChange();
             MigrateDroolsPackage mig = new MigrateDroolsPackage();
             if ( mig.needsMigration( this ) ) {
                 mig.migrate( this );
@@ -1322,19 +1418,32 @@ public class RulesRepository {
 
     public void importPackageToRepository(byte[] byteArray,
                                           boolean importAsNew) {
+        importPackageToRepository( new ByteArrayInputStream( byteArray ),
+                                   importAsNew );
+    }
+
+    /**
+     * Imports a package from the system view in the given stream. The stream
+     * is parsed as it is read, and the nodes are written straight to the
+     * workspace rather than being held in the session until it is saved.
+     */
+    public void importPackageToRepository(InputStream in,
+                                          boolean importAsNew) {
         try {
             if ( importAsNew ) {
                 this.session.getWorkspace().importXML( "/" + RULES_REPOSITORY_NAME + "/" + RULE_PACKAGE_AREA + "/",
-                                                       new ByteArrayInputStream( byteArray ),
+                                                       in,
                                                        ImportUUIDBehavior.IMPORT_UUID_CREATE_NEW );
 
             } else {
 
                 this.session.getWorkspace().importXML( "/" + RULES_REPOSITORY_NAME + "/" + RULE_PACKAGE_AREA + "/",
-                                                       new ByteArrayInputStream( byteArray ),
+                                                       in,
                                                        ImportUUIDBehavior.IMPORT_UUID_COLLISION_REPLACE_EXISTING );
             }
             session.save();
+            StorageEventManager.recordChange();
+            getAssetLinkIndex().clear();
             MigrateDroolsPackage mig = new MigrateDroolsPackage();
             if ( mig.needsMigration( this ) ) {
                 mig.migrate( this );
@@ -1388,12 +1497,52 @@ public class RulesRepository {
         return this.session;
     }
 
+    /**
+     * The index of the live assets linked to each category and state.
+     */
+    public AssetLinkIndex getAssetLinkIndex() {
+        return AssetLinkIndex.getInstance( this.session.getRepository() );
+    }
+
+    /**
+     * To be called whenever the categories, state or archive flag of an asset
+     * change, or an asset, category or state is about to be removed.
+     */
+    void linksChanged(Node node) {
+        try {
+            this.linkChanges.add( node.getIdentifier() );
+        } catch ( RepositoryException e ) {
+            throw new RulesRepositoryException( e );
+        }
+    }
+
+    /**
+     * To be called once the session is saved, so the asset link index doesn't
+     * have to wait for the repository events to catch up with this session.
+     */
+    void linksSaved() {
+        if ( this.linkChanges.isEmpty() ) {
+            return;
+        }
+        AssetLinkIndex index = getAssetLinkIndex();
+        if ( index.isObserving() ) {
+            index.refresh( this.session,
+                           this.linkChanges );
+        }
+        this.linkChanges.clear();
+    }
+
     /**
      * Save any pending changes.
      */
     public void save() {
         try {
+            boolean changed = this.session.hasPendingChanges();
             this.session.save();
+            if ( changed ) {
+                StorageEventManager.recordChange();
+            }
+            linksSaved();
         } catch ( InvalidItemStateException e ) {
             String message = "Your operation was failed because it conflicts with a change made through another user. Please try again.";
             log.error( "Caught Exception",
@@ -1432,9 +1581,11 @@ public class RulesRepository {
             String sourcePath = item.node.getPath();
             String destPath = destPkg.node.getPath() + "/" + PackageItem.ASSET_FOLDER_NAME + "/" + item.getName();
 
+            item.getPackage().updateLastModified();
             this.session.move( sourcePath,
                                destPath );
             this.session.save();
+            StorageEventManager.recordChange();
 
             item.checkout();
             item.node.setProperty( AssetItem.PACKAGE_NAME_PROPERTY,
@@ -1464,6 +1615,7 @@ public class RulesRepository {
             this.session.move( sourcePath,
                                destPath );
             this.session.save();
+            StorageEventManager.recordChange();
 
             itemOriginal.updateTitle( newAssetName );
             itemOriginal.checkin( "Renamed asset " + itemOriginal.getName() );
@@ -1863,6 +2015,8 @@ public class RulesRepository {
 
             PackageItem newPkg = loadPackage( destPackageName );
             newPkg.updateTitle( destPackageName );
+            //the copied assets are new to the index
+            getAssetLinkIndex().clear();
 
             for ( Iterator iter = newPkg.getAssets(); iter.hasNext(); ) {
                 AssetItem as = (AssetItem) iter.next();
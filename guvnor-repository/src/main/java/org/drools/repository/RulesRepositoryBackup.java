@@ -0,0 +1,433 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.repository;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.jcr.ImportUUIDBehavior;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.drools.repository.events.StorageEventManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Full and incremental (delta) backups of the rules repository.
+ *
+ * A full backup is a zip of the system view of the repository, as exported
+ * before, followed by a manifest. A delta backup is a zip starting with a
+ * manifest, followed by the system view of each package with an asset or
+ * the package itself modified since the previous backup, and of all the
+ * categories and states, which are small.
+ *
+ * Each manifest records the time the backup was started at ("until"), and
+ * a delta records the time of the backup it follows on from ("since"), so
+ * backups can be chained: a full backup, then a delta since the full
+ * backup, then a delta since that delta, and so on. Restoring the full
+ * backup and then each of its deltas in turn brings the repository to the
+ * state of the last delta.
+ *
+ * A delta restores packages, categories and states. It does not restore
+ * package snapshots, or remove categories and states removed since the
+ * previous backup; take a full backup for those.
+ */
+public class RulesRepositoryBackup {
+
+    private static final Logger log                   = LoggerFactory.getLogger( RulesRepositoryBackup.class );
+
+    public static final String  EXPORT_ENTRY          = "repository_export.xml";
+    public static final String  MANIFEST_ENTRY        = "manifest.properties";
+
+    static final String         PACKAGE_ENTRY_PREFIX  = "packages/";
+    static final String         CATEGORY_ENTRY_PREFIX = "categories/";
+    static final String         STATE_ENTRY_PREFIX    = "states/";
+
+    static final String         TYPE                  = "type";
+    static final String         TYPE_FULL             = "full";
+    static final String         TYPE_DELTA            = "delta";
+    static final String         SINCE                 = "since";
+    static final String         UNTIL                 = "until";
+    static final String         PACKAGES              = "packages";
+    static final String         CHANGED_PACKAGES      = "changedPackages";
+
+    private final RulesRepository repository;
+    private final Session         session;
+
+    public RulesRepositoryBackup(RulesRepository repository) {
+        this.repository = repository;
+        this.session = repository.getSession();
+    }
+
+    /**
+     * Writes a full backup to the given stream.
+     * @return the time the backup was started at, to take the next delta from.
+     */
+    public Calendar exportFull(OutputStream out) throws IOException {
+        Calendar until = Calendar.getInstance();
+
+        ZipOutputStream zout = new ZipOutputStream( out );
+        zout.putNextEntry( new ZipEntry( EXPORT_ENTRY ) );
+        repository.exportRulesRepositoryToStream( zout );
+        zout.closeEntry();
+
+        Properties manifest = new Properties();
+        manifest.setProperty( TYPE,
+                              TYPE_FULL );
+        manifest.setProperty( UNTIL,
+                              Long.toString( until.getTimeInMillis() ) );
+        writeManifest( zout,
+                       manifest );
+        zout.finish();
+        return until;
+    }
+
+    /**
+     * Writes a delta backup of what changed since the given time, which
+     * should be the time the previous backup was started at.
+     * @return the time this backup was started at, to take the next delta from.
+     */
+    public Calendar exportDelta(Calendar since,
+                                OutputStream out) throws IOException {
+        Calendar until = Calendar.getInstance();
+        try {
+            session.refresh( false );
+
+            Set<String> changed = findChangedPackages( since );
+            Set<String> packages = new TreeSet<String>();
+            for ( PackageIterator it = repository.listPackages(); it.hasNext(); ) {
+                packages.add( it.next().getNode().getName() );
+            }
+            changed.retainAll( packages );
+
+            ZipOutputStream zout = new ZipOutputStream( out );
+
+            Properties manifest = new Properties();
+            manifest.setProperty( TYPE,
+                                  TYPE_DELTA );
+            manifest.setProperty( SINCE,
+                                  Long.toString( since.getTimeInMillis() ) );
+            manifest.setProperty( UNTIL,
+                                  Long.toString( until.getTimeInMillis() ) );
+            manifest.setProperty( PACKAGES,
+                                  join( packages ) );
+            manifest.setProperty( CHANGED_PACKAGES,
+                                  join( changed ) );
+            writeManifest( zout,
+                           manifest );
+
+            Node packageArea = repository.getAreaNode( RulesRepository.RULE_PACKAGE_AREA );
+            for ( String name : changed ) {
+                exportNode( zout,
+                            PACKAGE_ENTRY_PREFIX + name + ".xml",
+                            packageArea.getNode( name ) );
+            }
+            exportChildren( zout,
+                            CATEGORY_ENTRY_PREFIX,
+                            repository.getAreaNode( RulesRepository.TAG_AREA ) );
+            exportChildren( zout,
+                            STATE_ENTRY_PREFIX,
+                            repository.getAreaNode( RulesRepository.STATE_AREA ) );
+
+            zout.finish();
+            log.info( "Exported a delta backup of " + changed.size() + " of " + packages.size() + " packages" );
+            return until;
+        } catch ( RepositoryException e ) {
+            log.error( "Unable to export a delta backup",
+                       e );
+            throw new RulesRepositoryException( e );
+        }
+    }
+
+    /**
+     * Restores a full or a delta backup. A full backup replaces the whole
+     * repository, keeping the UUIDs of the nodes so deltas taken after it
+     * can be applied.
+     * @return the time the backup was started at, or null for an export
+     *         without a manifest.
+     */
+    public Calendar restore(InputStream in) throws IOException {
+        return restore( in,
+                        null );
+    }
+
+    /**
+     * Restores a full backup followed by its deltas, in order, checking that
+     * each delta follows on from the backup before it.
+     * @return the time the last backup was started at.
+     */
+    public Calendar restore(InputStream full,
+                            List<InputStream> deltas) throws IOException {
+        Calendar marker = restore( full,
+                                   null );
+        for ( InputStream delta : deltas ) {
+            if ( marker == null ) {
+                throw new RulesRepositoryException( "The full backup has no manifest, so deltas can not be applied to it." );
+            }
+            marker = restore( delta,
+                              marker );
+        }
+        return marker;
+    }
+
+    private Calendar restore(InputStream in,
+                             Calendar previous) throws IOException {
+        ZipInputStream zin = new ZipInputStream( in );
+        ZipEntry entry = zin.getNextEntry();
+        if ( entry == null ) {
+            throw new RulesRepositoryException( "The backup is empty." );
+        }
+        try {
+            if ( MANIFEST_ENTRY.equals( entry.getName() ) ) {
+                return restoreDelta( zin,
+                                     previous );
+            } else {
+                if ( previous != null ) {
+                    throw new RulesRepositoryException( "Expected a delta backup to follow on from " + previous.getTime() + ", got a full backup." );
+                }
+                return restoreFull( zin );
+            }
+        } catch ( RepositoryException e ) {
+            log.error( "Unable to restore the backup",
+                       e );
+            throw new RulesRepositoryException( e );
+        }
+    }
+
+    private Calendar restoreFull(ZipInputStream zin) throws IOException,
+                                                    RepositoryException {
+        new RulesRepositoryAdministrator( session ).clearRulesRepository();
+        session.getWorkspace().importXML( "/",
+                                          new UnclosableInputStream( zin ),
+                                          ImportUUIDBehavior.IMPORT_UUID_COLLISION_REMOVE_EXISTING );
+        session.save();
+        StorageEventManager.recordChange();
+        repository.getAssetLinkIndex().clear();
+
+        ZipEntry entry;
+        while ( (entry = zin.getNextEntry()) != null ) {
+            if ( MANIFEST_ENTRY.equals( entry.getName() ) ) {
+                return toCalendar( readManifest( zin ).getProperty( UNTIL ) );
+            }
+        }
+        return null;
+    }
+
+    private Calendar restoreDelta(ZipInputStream zin,
+                                  Calendar previous) throws IOException,
+                                                    RepositoryException {
+        Properties manifest = readManifest( zin );
+        if ( !TYPE_DELTA.equals( manifest.getProperty( TYPE ) ) ) {
+            throw new RulesRepositoryException( "Not a delta backup: " + manifest.getProperty( TYPE ) );
+        }
+        Calendar since = toCalendar( manifest.getProperty( SINCE ) );
+        if ( previous != null && since.after( previous ) ) {
+            throw new RulesRepositoryException( "The delta backup since " + since.getTime() + " does not follow on from the backup of " + previous.getTime() + "." );
+        }
+
+        String packageAreaPath = repository.getAreaNode( RulesRepository.RULE_PACKAGE_AREA ).getPath();
+        String tagAreaPath = repository.getAreaNode( RulesRepository.TAG_AREA ).getPath();
+        String stateAreaPath = repository.getAreaNode( RulesRepository.STATE_AREA ).getPath();
+
+        ZipEntry entry;
+        while ( (entry = zin.getNextEntry()) != null ) {
+            String name = entry.getName();
+            if ( name.startsWith( PACKAGE_ENTRY_PREFIX ) ) {
+                String packageName = name.substring( PACKAGE_ENTRY_PREFIX.length(),
+                                                     name.length() - ".xml".length() );
+                if ( repository.containsPackage( packageName ) ) {
+                    repository.loadPackage( packageName ).remove();
+                    session.save();
+                }
+                importNode( zin,
+                            packageAreaPath );
+            } else if ( name.startsWith( CATEGORY_ENTRY_PREFIX ) ) {
+                importNode( zin,
+                            tagAreaPath );
+            } else if ( name.startsWith( STATE_ENTRY_PREFIX ) ) {
+                importNode( zin,
+                            stateAreaPath );
+            }
+        }
+
+        //packages removed since the previous backup
+        Set<String> packages = split( manifest.getProperty( PACKAGES ) );
+        List<PackageItem> removed = new ArrayList<PackageItem>();
+        for ( PackageIterator it = repository.listPackages(); it.hasNext(); ) {
+            PackageItem item = it.next();
+            if ( !packages.contains( item.getNode().getName() ) ) {
+                removed.add( item );
+            }
+        }
+        for ( PackageItem item : removed ) {
+            item.remove();
+        }
+        session.save();
+        StorageEventManager.recordChange();
+        repository.getAssetLinkIndex().clear();
+
+        return toCalendar( manifest.getProperty( UNTIL ) );
+    }
+
+    /**
+     * The names of the packages that have the package itself, or one of its
+     * assets, modified at or after the given time.
+     */
+    private Set<String> findChangedPackages(Calendar since) throws RepositoryException {
+        String after = session.getValueFactory().createValue( since ).getString();
+        String path = "/" + RulesRepository.RULES_REPOSITORY_NAME + "/" + RulesRepository.RULE_PACKAGE_AREA + "/%";
+
+        Set<String> changed = new TreeSet<String>();
+        NodeIterator assets = query( AssetItem.RULE_NODE_TYPE_NAME,
+                                     path,
+                                     after );
+        while ( assets.hasNext() ) {
+            //assets live in <package>/assets/<asset>
+            changed.add( assets.nextNode().getParent().getParent().getName() );
+        }
+        NodeIterator packages = query( PackageItem.RULE_PACKAGE_TYPE_NAME,
+                                       path,
+                                       after );
+        while ( packages.hasNext() ) {
+            changed.add( packages.nextNode().getName() );
+        }
+        return changed;
+    }
+
+    private NodeIterator query(String nodeType,
+                               String path,
+                               String after) throws RepositoryException {
+        String sql = "SELECT " + VersionableItem.LAST_MODIFIED_PROPERTY_NAME + " FROM " + nodeType
+                     + " WHERE jcr:path LIKE '" + path + "'"
+                     + " AND " + VersionableItem.LAST_MODIFIED_PROPERTY_NAME + " >= TIMESTAMP '" + after + "'";
+        Query q = session.getWorkspace().getQueryManager().createQuery( sql,
+                                                                        Query.SQL );
+        return q.execute().getNodes();
+    }
+
+    private void exportChildren(ZipOutputStream zout,
+                                String prefix,
+                                Node parent) throws IOException,
+                                            RepositoryException {
+        int i = 0;
+        for ( NodeIterator it = parent.getNodes(); it.hasNext(); ) {
+            exportNode( zout,
+                        prefix + (i++) + ".xml",
+                        it.nextNode() );
+        }
+    }
+
+    private void exportNode(ZipOutputStream zout,
+                            String entryName,
+                            Node node) throws IOException,
+                                      RepositoryException {
+        zout.putNextEntry( new ZipEntry( entryName ) );
+        session.exportSystemView( node.getPath(),
+                                  zout,
+                                  false,
+                                  false );
+        zout.closeEntry();
+    }
+
+    /**
+     * Imports the system view of a node, replacing any node with the same
+     * UUID, so references to it from outside the backup stay intact.
+     */
+    private void importNode(ZipInputStream zin,
+                            String parentPath) throws IOException,
+                                              RepositoryException {
+        session.getWorkspace().importXML( parentPath,
+                                          new UnclosableInputStream( zin ),
+                                          ImportUUIDBehavior.IMPORT_UUID_COLLISION_REMOVE_EXISTING );
+        StorageEventManager.recordChange();
+    }
+
+    private static void writeManifest(ZipOutputStream zout,
+                                      Properties manifest) throws IOException {
+        zout.putNextEntry( new ZipEntry( MANIFEST_ENTRY ) );
+        manifest.store( zout,
+                        "Guvnor repository backup" );
+        zout.closeEntry();
+    }
+
+    private static Properties readManifest(InputStream in) throws IOException {
+        Properties manifest = new Properties();
+        manifest.load( in );
+        return manifest;
+    }
+
+    private static Calendar toCalendar(String millis) {
+        if ( millis == null ) {
+            return null;
+        }
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis( Long.parseLong( millis ) );
+        return c;
+    }
+
+    private static String join(Set<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for ( String name : names ) {
+            if ( sb.length() > 0 ) {
+                sb.append( ',' );
+            }
+            sb.append( name );
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> split(String names) {
+        Set<String> result = new HashSet<String>();
+        if ( names != null && names.length() > 0 ) {
+            for ( String name : names.split( "," ) ) {
+                result.add( name );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The XML parser closes the stream it reads when it is done, which must
+     * not close the zip the entry is read from.
+     */
+    private static class UnclosableInputStream extends FilterInputStream {
+
+        UnclosableInputStream(InputStream in) {
+            super( in );
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -91,6 +91,7 @@ public class StateItem extends Item {
             if ( pi.hasNext() ) {
                 throw new RulesRepositoryException( "The status still has some assets linked to it. You will need to remove the links so you can delete the status." );
             }
+            this.rulesRepository.linksChanged( this.node );
             this.node.remove();
         } catch ( RepositoryException e ) {
             log.error( "Unable to remove state item.", e );
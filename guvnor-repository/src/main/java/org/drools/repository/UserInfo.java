@@ -16,15 +16,12 @@
 
 package org.drools.repository;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.drools.repository.security.PermissionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.thoughtworks.xstream.XStream;
-
 import static org.drools.repository.security.PermissionManager.getNode;
 import static org.drools.repository.security.PermissionManager.getUserInfoNode;
 
@@ -75,12 +72,7 @@ public class UserInfo {
     public List<InboxEntry> readEntries(String fileName, String propertyName)
             throws RulesRepositoryException {
         try {
-            Val property = getProperty(fileName, propertyName);
-            if (!(property.value == null || property.value.equals(""))) {
-                return (List<InboxEntry>) getXStream().fromXML(property.value);
-            } else {
-                return new ArrayList<InboxEntry>();
-            }
+            return InboxEntryFormat.decode(getProperty(fileName, propertyName).value);
         } catch (RepositoryException e) {
             log.error("Unable to readEntries", e);
             throw new RulesRepositoryException(e);
@@ -90,14 +82,48 @@ public class UserInfo {
     public void writeEntries(String fileName, String boxName,
             List<InboxEntry> entries) throws RulesRepositoryException {
         try {
-            String entry = getXStream().toXML(entries);
-
-            setProperty(fileName, boxName, new UserInfo.Val(entry));
+            setProperty(fileName, boxName, new UserInfo.Val(InboxEntryFormat.encode(entries)));
         } catch (RepositoryException e) {
             log.error("Unable to writeEntries", e);
             throw new RulesRepositoryException(e);
         }
     }
+
+    /**
+     * Adds an entry to the end of a box, replacing any entry for the same asset
+     * and dropping the oldest entries so there are at most maxEntries,
+     * without reading the rest of the box into entries.
+     */
+    public void addEntry(String fileName, String boxName,
+            InboxEntry entry, int maxEntries) throws RulesRepositoryException {
+        try {
+            String value = getProperty(fileName, boxName).value;
+            setProperty(fileName, boxName, new UserInfo.Val(InboxEntryFormat.add(value, entry, maxEntries)));
+        } catch (RepositoryException e) {
+            log.error("Unable to addEntry", e);
+            throw new RulesRepositoryException(e);
+        }
+    }
+
+    /**
+     * Removes the entry for the given asset from a box. The box is only
+     * written if it had one.
+     * @return true if there was an entry to remove
+     */
+    public boolean removeEntry(String fileName, String boxName,
+            String assetUUID) throws RulesRepositoryException {
+        try {
+            String value = InboxEntryFormat.remove(getProperty(fileName, boxName).value, assetUUID);
+            if (value == null) {
+                return false;
+            }
+            setProperty(fileName, boxName, new UserInfo.Val(value));
+            return true;
+        } catch (RepositoryException e) {
+            log.error("Unable to removeEntry", e);
+            throw new RulesRepositoryException(e);
+        }
+    }
     
     public void clear(String fileName, String boxName) {
         try {
@@ -126,13 +152,6 @@ public class UserInfo {
         public long timestamp;
     }
 
-    private XStream getXStream() {
-        XStream xs = new XStream();
-        xs.alias("inbox-entries", List.class);
-        xs.alias("entry", InboxEntry.class);
-        return xs;
-    }
-    
     public void setProperty(String fileName, String propertyName, Val value) throws RepositoryException {
         Node inboxNode = getNode(userInfoNode, fileName, "nt:file");
         if (inboxNode.hasNode("jcr:content")) {
@@ -579,6 +579,8 @@ public abstract class VersionableItem extends Item {
             this.node.getSession().save();
             
             getVersionManager(this.node).checkin(this.node.getPath());
+            this.rulesRepository.linksSaved();
+            StorageEventManager.recordChange();
 
             if (StorageEventManager.hasSaveEvent()) {
                 if (this instanceof AssetItem) {
@@ -682,6 +684,7 @@ public abstract class VersionableItem extends Item {
             checkout();
             this.node.setProperty( STATE_PROPERTY_NAME,
                                    stateItem.getNode() );
+            this.rulesRepository.linksChanged( this.node );
         } catch ( Exception e ) {
             log.error( "Caught exception",
                        e );
@@ -894,6 +897,7 @@ public abstract class VersionableItem extends Item {
 
         try {
             this.node.setProperty(CONTENT_PROPERTY_ARCHIVE_FLAG, data);
+            this.rulesRepository.linksChanged( this.node );
             return this;
         } catch (RepositoryException e) {
             log.error("Unable to update this VersionableItem binary archive flag");
@@ -22,6 +22,7 @@ import org.drools.repository.VersionableItem;
 import java.io.InputStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This manages storage events, which may load/save from another location, or just notify on change etc.
@@ -30,6 +31,7 @@ public class StorageEventManager {
 
 
     static List<CheckinEvent> checkinEvents = new ArrayList<CheckinEvent>();
+    static final AtomicLong changeCount = new AtomicLong();
     static LoadEvent le = loadEvent();
     static SaveEvent se = saveEvent();
 
@@ -79,6 +81,22 @@ public class StorageEventManager {
         return se;
     }
 
+    /**
+     * The number of times changes have been stored to the repository. Caches
+     * of what is in the repository can note this when they load something,
+     * and know it may be out of date once the count has moved on.
+     */
+    public static long getChangeCount() {
+        return changeCount.get();
+    }
+
+    /**
+     * To be called after changes have been saved.
+     */
+    public static void recordChange() {
+        changeCount.incrementAndGet();
+    }
+
     public static void registerCheckinEvent(CheckinEvent ev) {
         checkinEvents.add(ev);
     }
@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.*;
 
@@ -32,6 +33,12 @@ import org.drools.repository.RulesRepositoryException;
  */
 public class PermissionManager {
 
+    /**
+     * Counts the changes to anyone's permissions, so that permissions
+     * cached for a user can tell if they need to be read again.
+     */
+    private static final AtomicLong changeCount = new AtomicLong();
+
     private RulesRepository repository;
 
     public PermissionManager(RulesRepository repo) {
@@ -64,11 +71,20 @@ public class PermissionManager {
                 permsNode.setProperty(perm, targets.toArray(new String[targets.size()]));
             }
             this.repository.save();
+            changeCount.incrementAndGet();
         } catch (RepositoryException e) {
             throw new RulesRepositoryException(e);
         }
     }
 
+    /**
+     * The number of times permissions have been updated or removed since
+     * startup.
+     */
+    public static long getChangeCount() {
+        return changeCount.get();
+    }
+
     public void createUser(String userName) {
         if (!isValideUserName(userName)) {
             throw new RulesRepositoryException("Invalide user name");
@@ -235,6 +251,8 @@ public class PermissionManager {
         try {
             Node permsNode = getUserPermissionNode(userName);
             permsNode.getParent().remove(); //remove this so we get a fresh set
+            this.repository.save();
+            changeCount.incrementAndGet();
         } catch (RepositoryException e) {
             throw new RulesRepositoryException(e);
         }
@@ -22,6 +22,8 @@ import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
 import javax.jcr.version.Version;
 import javax.jcr.version.VersionIterator;
 
@@ -344,6 +346,55 @@ public class AssetItemTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testCategoriesIndexFollowsChanges() throws Exception {
+        Session observer = getRepo().getSession().getRepository().login( new SimpleCredentials( "alan_parsons",
+                                                                                                 "password".toCharArray() ) );
+        AssetLinkIndex index = getRepo().getAssetLinkIndex();
+        index.observe( observer );
+        try {
+            PackageItem pkg = getRepo().createPackage("testCategoriesIndex", "");
+            CategoryItem tag = getRepo().loadCategory( "/" ).addCategory( "testIndexedTag", "description" );
+
+            AssetItem a = pkg.addAsset("testIndexed1", "test content");
+            a.addCategory("testIndexedTag");
+            a.checkin("");
+
+            AssetItem b = pkg.addAsset("testIndexed2", "test content");
+            b.addCategory("testIndexedTag");
+            b.checkin("");
+
+            AssetItemPageResult result = getRepo().findAssetsByCategory("testIndexedTag", 0, 1);
+            assertEquals(1, result.assets.size());
+            assertEquals(2, result.totalRowsCount);
+            assertEquals(true, result.hasNext);
+
+            //unsaved changes stay out of the index
+            assertEquals(2, index.getLinkedAssets( tag.getNode() ).size());
+            b.archiveItem(true);
+            assertEquals(2, index.getLinkedAssets( tag.getNode() ).size());
+            b.checkin("");
+            result = getRepo().findAssetsByCategory("testIndexedTag", 0, -1);
+            assertEquals(1, result.assets.size());
+            assertEquals(1, result.totalRowsCount);
+            assertEquals("testIndexed1", ((AssetItem) result.assets.get(0)).getName());
+
+            a.removeCategory("testIndexedTag");
+            a.checkin("");
+            result = getRepo().findAssetsByCategory("testIndexedTag", 0, -1);
+            assertEquals(0, result.assets.size());
+
+            b.archiveItem(false);
+            b.checkin("");
+            result = getRepo().findAssetsByCategory("testIndexedTag", 0, -1);
+            assertEquals(1, result.assets.size());
+            assertEquals("testIndexed2", ((AssetItem) result.assets.get(0)).getName());
+        } finally {
+            index.stopObserving();
+            observer.logout();
+        }
+    }
+
     @Test
     public void testCategories() {
         AssetItem ruleItem1 = getDefaultPackage().addAsset("testAddTag", "test content");
@@ -16,10 +16,13 @@
 
 package org.drools.repository;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import org.drools.repository.utils.IOUtils;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -81,6 +84,44 @@ public class PackageItemTest {
         assertEquals(prevSize + 1, list.size());
     }
 
+    @Test
+    public void testCompiledPackageStream() throws Exception {
+        RulesRepository repo = getRepo();
+        PackageItem item = repo.createPackage( "testCompiledPackageStream", "" );
+        assertNull( item.getCompiledPackageStream() );
+        assertEquals( -1, item.getCompiledPackageLength() );
+
+        byte[] data = "compiled".getBytes();
+        item.updateCompiledPackage( new ByteArrayInputStream( data ) );
+        repo.save();
+
+        assertEquals( data.length, item.getCompiledPackageLength() );
+        InputStream in = item.getCompiledPackageStream();
+        try {
+            assertArrayEquals( data, IOUtils.toByteArray( in ) );
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testCompiledPackageHash() throws Exception {
+        RulesRepository repo = getRepo();
+        PackageItem item = repo.createPackage( "testCompiledPackageHash", "" );
+        assertNull( item.getCompiledPackageHash() );
+
+        item.updateCompiledPackage( new ByteArrayInputStream( "one".getBytes() ) );
+        repo.save();
+        String hash = item.getCompiledPackageHash();
+        assertNotNull( hash );
+
+        item.updateCompiledPackage( new ByteArrayInputStream( "one".getBytes() ) );
+        assertEquals( hash, item.getCompiledPackageHash() );
+
+        item.updateCompiledPackage( new ByteArrayInputStream( "two".getBytes() ) );
+        assertFalse( hash.equals( item.getCompiledPackageHash() ) );
+    }
+
     @Test
     public void testPackageRemove() throws Exception {
         RulesRepository repo = getRepo();
@@ -1057,7 +1098,63 @@ public class PackageItemTest {
         assertEquals(2, ai.getVersionNumber());
         assertEquals("version 2", ai.getCheckinComment()); 
     }
-    
+
+    @Test
+    public void testLoadAssetSnapshot() throws Exception {
+        PackageItem pkg = getRepo().createPackage( "testLoadAssetSnapshot", "" );
+        getRepo().save();
+
+        AssetItem item = pkg.addAsset( "testLoadAssetSnapshotB", "" );
+        item.updateFormat( "xyz" );
+        item.checkin( "la" );
+
+        item = pkg.addAsset( "testLoadAssetSnapshotA", "" );
+        item.updateFormat( "xyz" );
+        item.checkin( "la" );
+
+        item = pkg.addAsset( "testLoadAssetSnapshotArchived", "" );
+        item.updateFormat( "xyz" );
+        item.archiveItem( true );
+        item.checkin( "la" );
+
+        item = pkg.addAsset( "testLoadAssetSnapshotC", "" );
+        item.updateFormat( "ABC" );
+        item.checkin( "version 1" );
+        item.checkout();
+        item.checkin( "version 2" );
+
+        pkg.updateDependency( "testLoadAssetSnapshotC?version=1" );
+        pkg.checkin( "Update dependency" );
+
+        PackageAssetSnapshot snapshot = pkg.loadAssetSnapshot();
+        assertEquals( 4, snapshot.getAssets().size() );
+
+        List<AssetItem> list = snapshot.listAssetsByFormat( "xyz" );
+        assertEquals( 2, list.size() );
+        assertEquals( "testLoadAssetSnapshotA", list.get( 0 ).getName() );
+        assertEquals( "testLoadAssetSnapshotB", list.get( 1 ).getName() );
+
+        assertEquals( 3, snapshot.listAssetsByFormat( "xyz", "ABC" ).size() );
+        assertEquals( 0, snapshot.listAssetsByFormat( "nothing" ).size() );
+
+        list = snapshot.listAssetsByFormat( "ABC" );
+        assertEquals( 1, list.size() );
+        assertEquals( 1, list.get( 0 ).getVersionNumber() );
+        assertEquals( "version 1", list.get( 0 ).getCheckinComment() );
+
+        //only the formats asked for
+        snapshot = pkg.loadAssetSnapshot( "xyz" );
+        assertEquals( 2, snapshot.getAssets().size() );
+        assertEquals( 2, snapshot.listAssetsByFormat( "xyz" ).size() );
+        assertEquals( 0, snapshot.listAssetsByFormat( "ABC" ).size() );
+
+        //with the versions the dependencies specify, too
+        snapshot = pkg.loadAssetSnapshot( "ABC" );
+        list = snapshot.listAssetsByFormat( "ABC" );
+        assertEquals( 1, list.size() );
+        assertEquals( 1, list.get( 0 ).getVersionNumber() );
+    }
+
     static class MockAssetItem extends AssetItem {
         private long version;
 
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+public class RulesRepositoryBackupTest extends RepositoryTestCase {
+
+    @Test
+    public void testDeltaChain() throws Exception {
+        RulesRepository repo = getRepo();
+        PackageItem unchanged = repo.createPackage( "testDeltaChainUnchanged",
+                                                    "desc" );
+        unchanged.addAsset( "unchangedAsset",
+                            "desc" ).checkin( "" );
+        PackageItem changed = repo.createPackage( "testDeltaChainChanged",
+                                                  "desc" );
+        AssetItem removed = changed.addAsset( "removedAsset",
+                                              "desc" );
+        removed.checkin( "" );
+        PackageItem dropped = repo.createPackage( "testDeltaChainDropped",
+                                                  "desc" );
+        repo.save();
+
+        RulesRepositoryBackup backup = new RulesRepositoryBackup( repo );
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        Calendar marker = backup.exportFull( full );
+        Thread.sleep( 10 );
+
+        AssetItem added = changed.addAsset( "addedAsset",
+                                            "desc" );
+        added.updateContent( "la" );
+        added.checkin( "" );
+        repo.loadPackage( "testDeltaChainChanged" ).loadAsset( "removedAsset" ).remove();
+        dropped.remove();
+        repo.save();
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        Calendar nextMarker = backup.exportDelta( marker,
+                                                  delta );
+        assertTrue( nextMarker.after( marker ) );
+
+        List<String> entries = new ArrayList<String>();
+        ZipInputStream zin = new ZipInputStream( new ByteArrayInputStream( delta.toByteArray() ) );
+        ZipEntry entry = zin.getNextEntry();
+        assertEquals( RulesRepositoryBackup.MANIFEST_ENTRY,
+                      entry.getName() );
+        Properties manifest = new Properties();
+        manifest.load( zin );
+        assertEquals( Long.toString( marker.getTimeInMillis() ),
+                      manifest.getProperty( RulesRepositoryBackup.SINCE ) );
+        while ( (entry = zin.getNextEntry()) != null ) {
+            entries.add( entry.getName() );
+        }
+        assertTrue( entries.contains( RulesRepositoryBackup.PACKAGE_ENTRY_PREFIX + "testDeltaChainChanged.xml" ) );
+        assertFalse( entries.contains( RulesRepositoryBackup.PACKAGE_ENTRY_PREFIX + "testDeltaChainUnchanged.xml" ) );
+
+        List<InputStream> deltas = new ArrayList<InputStream>();
+        deltas.add( new ByteArrayInputStream( delta.toByteArray() ) );
+        Calendar restored = backup.restore( new ByteArrayInputStream( full.toByteArray() ),
+                                            deltas );
+        assertEquals( nextMarker.getTimeInMillis(),
+                      restored.getTimeInMillis() );
+
+        assertTrue( repo.containsPackage( "testDeltaChainUnchanged" ) );
+        assertFalse( repo.containsPackage( "testDeltaChainDropped" ) );
+        PackageItem restoredPackage = repo.loadPackage( "testDeltaChainChanged" );
+        assertFalse( restoredPackage.containsAsset( "removedAsset" ) );
+        assertEquals( "la",
+                      restoredPackage.loadAsset( "addedAsset" ).getContent() );
+    }
+
+    @Test
+    public void testDeltaMustFollowOn() throws Exception {
+        RulesRepository repo = getRepo();
+        RulesRepositoryBackup backup = new RulesRepositoryBackup( repo );
+
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        Calendar marker = backup.exportFull( full );
+        assertNotNull( marker );
+
+        Calendar later = Calendar.getInstance();
+        later.setTimeInMillis( marker.getTimeInMillis() + 1000 );
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        backup.exportDelta( later,
+                            delta );
+
+        List<InputStream> deltas = new ArrayList<InputStream>();
+        deltas.add( new ByteArrayInputStream( delta.toByteArray() ) );
+        try {
+            backup.restore( new ByteArrayInputStream( full.toByteArray() ),
+                            deltas );
+            fail( "a delta with a gap before it should not be applied" );
+        } catch ( RulesRepositoryException e ) {
+            assertNotNull( e.getMessage() );
+        }
+    }
+}
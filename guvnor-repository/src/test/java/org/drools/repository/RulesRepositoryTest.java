@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.zip.ZipInputStream;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -1224,6 +1225,29 @@ public class RulesRepositoryTest extends RepositoryTestCase {
         assertTrue(list.get( 0 ) instanceof AssetItem);
     }
 
+    @Test
+    public void testPackageExportImportStreams() throws Exception {
+        RulesRepository repo = getRepo();
+        PackageItem pkg = repo.createPackage("testPackageExportImportStreams", "desc");
+        AssetItem asset = pkg.addAsset("testPackageExportImportStreamsAsset", "desc");
+        asset.updateContent("la");
+        asset.checkin("");
+        repo.save();
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        repo.exportPackageFromRepository("testPackageExportImportStreams", bout);
+        ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(bout.toByteArray()));
+        assertEquals("repository_export.xml", zin.getNextEntry().getName());
+
+        pkg.remove();
+        repo.save();
+        assertFalse(repo.containsPackage("testPackageExportImportStreams"));
+
+        repo.importPackageToRepository(zin, true);
+        assertTrue(repo.containsPackage("testPackageExportImportStreams"));
+        assertEquals("la", repo.loadPackage("testPackageExportImportStreams").loadAsset("testPackageExportImportStreamsAsset").getContent());
+    }
+
     @Test @Ignore
     public void testImportExportWithShareableNodes() throws Exception {
         RulesRepository repo = getRepo();
@@ -131,4 +131,49 @@ public class UserInfoTest {
         assertTrue(names.contains("michael"));
     }
 
+    @Test
+    public void testInboxEntries() throws Exception {
+        RulesRepository repo = RepositorySessionUtil.getRepository();
+        UserInfo info = new UserInfo(repo);
+        info.init(repo, "inboxer");
+
+        //as written by earlier versions
+        info.setProperty("inbox", "box", new UserInfo.Val("<inbox-entries>\n" +
+                "  <entry>\n" +
+                "    <from>mic</from>\n" +
+                "    <assetUUID>XXX</assetUUID>\n" +
+                "    <note>old</note>\n" +
+                "    <timestamp>42</timestamp>\n" +
+                "  </entry>\n" +
+                "</inbox-entries>"));
+        List<UserInfo.InboxEntry> entries = info.readEntries("inbox", "box");
+        assertEquals(1, entries.size());
+        assertEquals("XXX", entries.get(0).assetUUID);
+        assertEquals(42, entries.get(0).timestamp);
+
+        info.addEntry("inbox", "box", new UserInfo.InboxEntry("YYY", "tab\tnew\nline \\0", null), 2);
+        assertTrue(info.getProperty("inbox", "box").value.startsWith(InboxEntryFormat.HEADER));
+        info.addEntry("inbox", "box", new UserInfo.InboxEntry("XXX", "again", "dave"), 2);
+        info.addEntry("inbox", "box", new UserInfo.InboxEntry("ZZZ", "", "dave"), 2);
+
+        entries = info.readEntries("inbox", "box");
+        assertEquals(2, entries.size());
+        assertEquals("XXX", entries.get(0).assetUUID);
+        assertEquals("again", entries.get(0).note);
+        assertEquals("ZZZ", entries.get(1).assetUUID);
+        assertEquals("", entries.get(1).note);
+
+        assertFalse(info.removeEntry("inbox", "box", "YYY"));
+        assertTrue(info.removeEntry("inbox", "box", "XXX"));
+        entries.remove(0);
+        entries.add(new UserInfo.InboxEntry("YYY", "tab\tnew\nline \\0", null));
+        info.writeEntries("inbox", "box", entries);
+
+        entries = info.readEntries("inbox", "box");
+        assertEquals(2, entries.size());
+        assertEquals("ZZZ", entries.get(0).assetUUID);
+        assertEquals("tab\tnew\nline \\0", entries.get(1).note);
+        assertNull(entries.get(1).from);
+    }
+
 }
@@ -77,9 +77,13 @@ public class PermissionManagerTest {
         assertEquals("1234567890", padmin.get(0));
 
         assertTrue(pm.listUsers().containsKey("wankle"));
+        long changeCount = PermissionManager.getChangeCount();
         pm.removeUserPermissions("wankle");
 
         assertFalse(pm.listUsers().containsKey("wankle"));
+        //saved by the time the change is counted
+        assertFalse(RepositorySessionUtil.getRepository().getSession().hasPendingChanges());
+        assertEquals(changeCount + 1, PermissionManager.getChangeCount());
     }
 
     @Test
@@ -16,11 +16,10 @@
 
 package org.drools.guvnor.server;
 
-import org.drools.guvnor.server.security.PackageUUIDType;
+import org.drools.guvnor.server.security.PackagePermissionCache;
 import org.drools.repository.AssetItem;
 import org.drools.repository.RepositoryFilter;
 import org.jboss.seam.contexts.Contexts;
-import org.jboss.seam.security.Identity;
 
 public class AssetItemFilter implements RepositoryFilter {
 
@@ -32,7 +31,7 @@ public class AssetItemFilter implements RepositoryFilter {
         if (!Contexts.isSessionContextActive()) {
             return true;
         } else {
-            return Identity.instance().hasPermission(new PackageUUIDType(((AssetItem) artifact).getPackage().getUUID()), action);
+            return PackagePermissionCache.instance().hasPermission((AssetItem) artifact, action);
         }
     }
 
@@ -17,48 +17,111 @@
 package org.drools.guvnor.server;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.drools.guvnor.client.rpc.PushResponse;
+import org.drools.guvnor.server.util.ManagementHelper;
 import org.jboss.seam.contexts.Contexts;
 import org.jboss.seam.security.Identity;
 import org.jboss.seam.web.Session;
 
 /**
  * This is the backchannel to send "push" messages to the browser.
- * Here be dragons. Would like to convert this to using actors one day.
- * TODO: convert to executor architecture. Only one instance needed.
+ *
+ * Each user has a mailbox of their own, and a subscriber only waits on the
+ * mailbox of its user, so a push only wakes up the subscribers it is meant
+ * for. A subscriber waits at most "guvnor.push.pollTimeoutSeconds" (30 by
+ * default) before answering with no messages, and there are at most
+ * "guvnor.push.maxSubscribers" waiting at any one time (100 by default, 0
+ * for no limit) - the rest are answered straight away, and pick their
+ * messages up on their next poll. A mailbox holds at most
+ * "guvnor.push.mailboxSize" messages (100 by default), dropping the oldest
+ * ones when full.
+ *
+ * A mailbox that nobody has polled for "guvnor.push.idleTimeoutSeconds" (600
+ * by default) is idle: the messages published to everybody skip it, and once
+ * it is empty it is removed. Browsers poll again every minute (see
+ * PushClient), and may poll less often for a tab in the background, so the
+ * idle timeout is never shorter than that minute plus the poll timeout.
+ *
+ * The statistics are published through JMX as
+ * "org.drools.guvnor:type=Backchannel".
  */
-public class Backchannel {
-    private static Backchannel instance = new Backchannel();
+public class Backchannel
+    implements
+    BackchannelMBean {
+
+    public static final String POLL_TIMEOUT_PROPERTY    = "guvnor.push.pollTimeoutSeconds";
+    public static final String MAX_SUBSCRIBERS_PROPERTY = "guvnor.push.maxSubscribers";
+    public static final String MAILBOX_SIZE_PROPERTY    = "guvnor.push.mailboxSize";
+    public static final String IDLE_TIMEOUT_PROPERTY    = "guvnor.push.idleTimeoutSeconds";
+
+    /**
+     * How often the browser polls again, see PushClient.
+     */
+    static final long          CLIENT_POLL_SECONDS      = 60;
+
+    private static Backchannel instance;
+
+    static {
+        instance = new Backchannel( Long.getLong( POLL_TIMEOUT_PROPERTY,
+                                                  30 ),
+                                    Integer.getInteger( MAX_SUBSCRIBERS_PROPERTY,
+                                                        100 ),
+                                    Integer.getInteger( MAILBOX_SIZE_PROPERTY,
+                                                        100 ),
+                                    Long.getLong( IDLE_TIMEOUT_PROPERTY,
+                                                  600 ) );
+        ManagementHelper.register( instance,
+                                   "Backchannel" );
+    }
 
     public static Backchannel getInstance() {
         return instance;
     }
 
-    final List<CountDownLatch>            waiting = Collections.synchronizedList( new ArrayList<CountDownLatch>() );
-    final Map<String, List<PushResponse>> mailbox = Collections.synchronizedMap( new HashMap<String, List<PushResponse>>() );
+    private final long                              pollTimeoutSeconds;
+    private final int                               maxSubscribers;
+    private final int                               mailboxSize;
+    private final long                              idleNanos;
+
+    final ConcurrentMap<String, Mailbox>            mailboxes          = new ConcurrentHashMap<String, Mailbox>();
 
-    private Timer                         timer;
+    private final AtomicInteger                     subscribers        = new AtomicInteger();
+    private final AtomicLong                        pushed             = new AtomicLong();
+    private final AtomicLong                        delivered          = new AtomicLong();
+    private final AtomicLong                        dropped            = new AtomicLong();
+    private final AtomicLong                        rejected           = new AtomicLong();
+    private final AtomicLong                        totalLatencyNanos  = new AtomicLong();
+    private final AtomicLong                        maxLatencyNanos    = new AtomicLong();
+    private final AtomicLong                        nextPrune          = new AtomicLong();
 
-    private Backchannel() {
-        //using a timer to make sure awaiting subs are flushed every now and then, otherwise web threads could be consumed.
-        timer = new Timer( true );
-        timer.schedule( new TimerTask() {
-                            public void run() {
-                                unlatchAllWaiting();
-                            }
-                        },
-                        20000,
-                        30000 );
+    Backchannel(long pollTimeoutSeconds,
+                int maxSubscribers,
+                int mailboxSize) {
+        this( pollTimeoutSeconds,
+              maxSubscribers,
+              mailboxSize,
+              600 );
+    }
+
+    Backchannel(long pollTimeoutSeconds,
+                int maxSubscribers,
+                int mailboxSize,
+                long idleTimeoutSeconds) {
+        this.pollTimeoutSeconds = pollTimeoutSeconds;
+        this.maxSubscribers = maxSubscribers;
+        this.mailboxSize = mailboxSize;
+        this.idleNanos = TimeUnit.SECONDS.toNanos( Math.max( idleTimeoutSeconds,
+                                                             CLIENT_POLL_SECONDS + pollTimeoutSeconds ) );
+        this.nextPrune.set( System.nanoTime() + this.idleNanos );
     }
 
     public List<PushResponse> subscribe() {
@@ -67,6 +130,7 @@ public class Backchannel {
             try {
                 return await( Identity.instance().getCredentials().getUsername() );
             } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
                 return new ArrayList<PushResponse>();
             }
         } else {
@@ -74,73 +138,274 @@ public class Backchannel {
         }
     }
 
+    /**
+     * Returns the messages waiting for the given user, waiting for some to
+     * arrive if there aren't any yet.
+     */
     public List<PushResponse> await(String userName) throws InterruptedException {
-        List<PushResponse> messages = fetchMessageForUser( userName );
-        if ( messages != null && messages.size() > 0 ) {
-            return messages;
-        } else {
-            CountDownLatch latch = new CountDownLatch( 1 );
-            waiting.add( latch );
+        return await( userName,
+                      this.pollTimeoutSeconds,
+                      TimeUnit.SECONDS );
+    }
 
-            /**
-             * Now PAUSE here for a while.... and release after 3hours if nothing done
-             */
-            latch.await( 3,
-                         TimeUnit.HOURS );
+    /**
+     * Returns the messages waiting for the given user, waiting at most the
+     * given time for some to arrive if there aren't any yet.
+     */
+    public List<PushResponse> await(String userName,
+                                    long timeout,
+                                    TimeUnit unit) throws InterruptedException {
+        pruneIfDue();
+        while ( true ) {
+            Mailbox mailbox = getMailbox( userName );
+            synchronized ( mailbox ) {
+                if ( mailbox.removed ) {
+                    //pruned in the meantime, take the new one
+                    continue;
+                }
+                mailbox.lastPolled = System.nanoTime();
+                if ( mailbox.messages.isEmpty() ) {
+                    if ( !reserveSubscriber() ) {
+                        this.rejected.incrementAndGet();
+                        return new ArrayList<PushResponse>();
+                    }
+                    mailbox.waiters++;
+                    try {
+                        long remaining = unit.toNanos( timeout );
+                        long deadline = System.nanoTime() + remaining;
+                        while ( mailbox.messages.isEmpty() && remaining > 0 ) {
+                            TimeUnit.NANOSECONDS.timedWait( mailbox,
+                                                            remaining );
+                            remaining = deadline - System.nanoTime();
+                        }
+                    } finally {
+                        mailbox.waiters--;
+                        mailbox.lastPolled = System.nanoTime();
+                        this.subscribers.decrementAndGet();
+                    }
+                }
+                return take( mailbox );
+            }
+        }
+    }
 
-            /** In the meantime... response has been set, and then it will be unlatched, and message sent back... */
-            return fetchMessageForUser( userName );
+    /** Push out a message to the specific client */
+    public void push(String userName,
+                     PushResponse message) {
+        pruneIfDue();
+        PushedMessage pushedMessage = new PushedMessage( message );
+        while ( !deliver( getMailbox( userName ),
+                          pushedMessage,
+                          false ) ) {
+            //pruned in the meantime, deliver to the new one
         }
     }
 
     /**
-     * Fetch the list of messages waiting, if there are some, replace it with an empty list.
+     * Push out a message to all currently connected clients
      */
-    private List<PushResponse> fetchMessageForUser(String userName) {
-        List<PushResponse> msgs = mailbox.get( userName );
-        mailbox.put( userName,
-                     new ArrayList<PushResponse>() );
-        return msgs;
+    public void publish(PushResponse message) {
+        pruneIfDue();
+        PushedMessage pushedMessage = new PushedMessage( message );
+        for ( Mailbox mailbox : this.mailboxes.values() ) {
+            deliver( mailbox,
+                     pushedMessage,
+                     true );
+        }
     }
 
-    /** Push out a message to the specific client */
-    public synchronized void push(String userName,
-                                  PushResponse message) {
-        //need to queue this up in the users mailbox, and then wake it all up
-        List<PushResponse> resp = mailbox.get( userName );
-        if ( resp == null ) {
-            resp = new ArrayList<PushResponse>();
-            resp.add( message );
-            mailbox.put( userName,
-                         resp );
-        } else {
-            resp.add( message );
+    private Mailbox getMailbox(String userName) {
+        Mailbox mailbox = this.mailboxes.get( userName );
+        if ( mailbox == null ) {
+            Mailbox newMailbox = new Mailbox();
+            mailbox = this.mailboxes.putIfAbsent( userName,
+                                                  newMailbox );
+            if ( mailbox == null ) {
+                mailbox = newMailbox;
+            }
         }
+        return mailbox;
+    }
 
-        unlatchAllWaiting();
+    /**
+     * @return false if the mailbox was removed, and the message not delivered.
+     */
+    private boolean deliver(Mailbox mailbox,
+                            PushedMessage message,
+                            boolean skipIdle) {
+        synchronized ( mailbox ) {
+            if ( mailbox.removed ) {
+                return false;
+            }
+            if ( skipIdle && isIdle( mailbox,
+                                     System.nanoTime() ) ) {
+                return true;
+            }
+            this.pushed.incrementAndGet();
+            mailbox.messages.add( message );
+            while ( mailbox.messages.size() > this.mailboxSize ) {
+                mailbox.messages.removeFirst();
+                this.dropped.incrementAndGet();
+            }
+            mailbox.notifyAll();
+            return true;
+        }
+    }
 
+    /**
+     * Must hold the lock of the mailbox.
+     */
+    private boolean isIdle(Mailbox mailbox,
+                           long now) {
+        return mailbox.waiters == 0 && now - mailbox.lastPolled > this.idleNanos;
     }
 
     /**
-     * Push out a message to all currently connected clients
+     * Prunes the mailboxes, at most once every idle timeout.
      */
-    public synchronized void publish(PushResponse message) {
-        for ( Map.Entry<String, List<PushResponse>> e : mailbox.entrySet() ) {
-            if ( e.getValue() == null ) e.setValue( new ArrayList<PushResponse>() );
-            e.getValue().add( message );
+    private void pruneIfDue() {
+        long now = System.nanoTime();
+        long due = this.nextPrune.get();
+        if ( now - due >= 0 && this.nextPrune.compareAndSet( due,
+                                                             now + this.idleNanos ) ) {
+            prune( now );
         }
-        unlatchAllWaiting();
     }
 
-    private void unlatchAllWaiting() {
-        synchronized ( waiting ) {
-            Iterator<CountDownLatch> it = waiting.iterator();
-            while ( it.hasNext() ) {
-                CountDownLatch l = it.next();
-                l.countDown();
-                it.remove();
+    /**
+     * Removes the mailboxes that are idle and empty as of the given time.
+     */
+    void prune(long now) {
+        for ( Map.Entry<String, Mailbox> entry : this.mailboxes.entrySet() ) {
+            Mailbox mailbox = entry.getValue();
+            synchronized ( mailbox ) {
+                if ( mailbox.messages.isEmpty() && isIdle( mailbox,
+                                                           now ) ) {
+                    mailbox.removed = true;
+                    this.mailboxes.remove( entry.getKey(),
+                                           mailbox );
+                }
             }
         }
     }
 
+    /**
+     * Must hold the lock of the mailbox.
+     */
+    private List<PushResponse> take(Mailbox mailbox) {
+        List<PushResponse> result = new ArrayList<PushResponse>( mailbox.messages.size() );
+        long now = System.nanoTime();
+        for ( PushedMessage message : mailbox.messages ) {
+            result.add( message.response );
+            recordLatency( now - message.pushedAt );
+        }
+        mailbox.messages.clear();
+        return result;
+    }
+
+    private boolean reserveSubscriber() {
+        if ( this.maxSubscribers <= 0 ) {
+            this.subscribers.incrementAndGet();
+            return true;
+        }
+        while ( true ) {
+            int current = this.subscribers.get();
+            if ( current >= this.maxSubscribers ) {
+                return false;
+            }
+            if ( this.subscribers.compareAndSet( current,
+                                                 current + 1 ) ) {
+                return true;
+            }
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        this.delivered.incrementAndGet();
+        this.totalLatencyNanos.addAndGet( nanos );
+        long max = this.maxLatencyNanos.get();
+        while ( nanos > max && !this.maxLatencyNanos.compareAndSet( max,
+                                                                    nanos ) ) {
+            max = this.maxLatencyNanos.get();
+        }
+    }
+
+    public int getSubscriberCount() {
+        return this.subscribers.get();
+    }
+
+    public int getMaxSubscribers() {
+        return this.maxSubscribers;
+    }
+
+    public long getPollTimeoutSeconds() {
+        return this.pollTimeoutSeconds;
+    }
+
+    public long getIdleTimeoutSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds( this.idleNanos );
+    }
+
+    public int getMailboxSize() {
+        return this.mailboxSize;
+    }
+
+    public int getMailboxCount() {
+        return this.mailboxes.size();
+    }
+
+    public long getPushedCount() {
+        return this.pushed.get();
+    }
+
+    public long getDeliveredCount() {
+        return this.delivered.get();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    public double getAverageDeliveryLatencyMillis() {
+        long count = getDeliveredCount();
+        return count == 0 ? 0 : this.totalLatencyNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxDeliveryLatencyMillis() {
+        return this.maxLatencyNanos.get() / 1000000.0;
+    }
+
+    public void reset() {
+        this.pushed.set( 0 );
+        this.delivered.set( 0 );
+        this.dropped.set( 0 );
+        this.rejected.set( 0 );
+        this.totalLatencyNanos.set( 0 );
+        this.maxLatencyNanos.set( 0 );
+    }
+
+    /**
+     * The messages waiting for one user, and the monitor its subscribers wait
+     * on. The other fields are guarded by the same lock.
+     */
+    static class Mailbox {
+        final LinkedList<PushedMessage> messages   = new LinkedList<PushedMessage>();
+        int                             waiters;
+        long                            lastPolled = System.nanoTime();
+        boolean                         removed;
+    }
+
+    private static class PushedMessage {
+        private final PushResponse response;
+        private final long         pushedAt = System.nanoTime();
+
+        PushedMessage(PushResponse response) {
+            this.response = response;
+        }
+    }
+
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server;
+
+/**
+ * The statistics of the Backchannel, as published through JMX.
+ */
+public interface BackchannelMBean {
+
+    /**
+     * The number of browsers currently waiting for messages.
+     */
+    int getSubscriberCount();
+
+    int getMaxSubscribers();
+
+    long getPollTimeoutSeconds();
+
+    /**
+     * How long a mailbox may go without being polled before the messages
+     * published to everybody skip it.
+     */
+    long getIdleTimeoutSeconds();
+
+    int getMailboxSize();
+
+    /**
+     * The number of users with a mailbox, idle ones that are not empty yet
+     * included.
+     */
+    int getMailboxCount();
+
+    long getPushedCount();
+
+    long getDeliveredCount();
+
+    /**
+     * The number of messages dropped because a mailbox was full.
+     */
+    long getDroppedCount();
+
+    /**
+     * The number of subscribers answered straight away because there were
+     * already as many waiting as allowed.
+     */
+    long getRejectedCount();
+
+    /**
+     * The average time between a message being pushed and it being handed to
+     * a subscriber.
+     */
+    double getAverageDeliveryLatencyMillis();
+
+    double getMaxDeliveryLatencyMillis();
+
+    void reset();
+
+}
@@ -17,10 +17,9 @@
 package org.drools.guvnor.server;
 
 import org.drools.guvnor.client.rpc.PackageConfigData;
-import org.drools.guvnor.server.security.PackageUUIDType;
+import org.drools.guvnor.server.security.PackagePermissionCache;
 import org.drools.repository.RepositoryFilter;
 import org.jboss.seam.contexts.Contexts;
-import org.jboss.seam.security.Identity;
 
 public class PackageFilter implements RepositoryFilter {
 
@@ -33,7 +32,7 @@ public class PackageFilter implements RepositoryFilter {
         if ( !Contexts.isSessionContextActive() ) {
             return true;
         }
-        return Identity.instance().hasPermission( new PackageUUIDType( ((PackageConfigData) artifact).uuid ), action );
+        return PackagePermissionCache.instance().hasPermission( ((PackageConfigData) artifact).uuid, action );
     }
 
 }
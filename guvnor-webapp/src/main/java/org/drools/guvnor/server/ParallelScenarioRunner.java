@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.drools.guvnor.client.rpc.DetailedSerializationException;
+import org.drools.guvnor.client.rpc.RuleAsset;
+import org.drools.guvnor.client.rpc.ScenarioResultSummary;
+import org.drools.guvnor.server.util.WorkerPools;
+import org.drools.ide.common.client.modeldriven.testing.Scenario;
+import org.drools.repository.RulesRepositoryException;
+import org.drools.testframework.RuleCoverageListener;
+
+/**
+ * Runs the test scenarios of a package on a shared pool of worker threads.
+ * Scenarios are submitted in package order and their results taken back in
+ * the same order; at most a few scenarios per worker are in flight at once,
+ * so memory stays bounded however many scenarios the package holds.
+ *
+ * Each worker records rule coverage in its own listener, and the listeners
+ * are merged once the run is over.
+ *
+ * The size of the pool is taken from the "guvnor.scenario.threads" system
+ * property, and defaults to the number of processors.
+ */
+public class ParallelScenarioRunner {
+
+    public static final String     THREADS_PROPERTY = "guvnor.scenario.threads";
+
+    private static final int       THREADS          = Math.max( 1,
+                                                                Integer.getInteger( THREADS_PROPERTY,
+                                                                                    Runtime.getRuntime().availableProcessors() ) );
+
+    /**
+     * Runs a single scenario against the package rule base.
+     */
+    public static interface ScenarioExecutor {
+        public void run(Scenario scenario,
+                        RuleCoverageListener coverage) throws DetailedSerializationException;
+    }
+
+    private final ClassLoader                                 classLoader;
+    private final Set<String>                                 expectedRules;
+    private final ScenarioExecutor                            scenarioExecutor;
+    private final LinkedList<Future<ScenarioResultSummary>>   pending            = new LinkedList<Future<ScenarioResultSummary>>();
+    private final ConcurrentLinkedQueue<RuleCoverageListener> idleCoverage       = new ConcurrentLinkedQueue<RuleCoverageListener>();
+    private final List<RuleCoverageListener>                  allCoverage        = new ArrayList<RuleCoverageListener>();
+
+    public ParallelScenarioRunner(ClassLoader classLoader,
+                                  Set<String> expectedRules,
+                                  ScenarioExecutor scenarioExecutor) {
+        this.classLoader = classLoader;
+        this.expectedRules = expectedRules;
+        this.scenarioExecutor = scenarioExecutor;
+    }
+
+    private static ExecutorService getExecutor() {
+        return WorkerPools.getExecutor( "scenario",
+                                        THREADS );
+    }
+
+    /**
+     * @return true if there are enough scenarios in flight, and the caller
+     *         should take a result before submitting more.
+     */
+    public boolean isFull() {
+        return pending.size() >= THREADS * 2;
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Queues up the given scenario asset, which must already be loaded.
+     */
+    public void submit(final RuleAsset asset) {
+        pending.add( getExecutor().submit( new Callable<ScenarioResultSummary>() {
+            public ScenarioResultSummary call() throws Exception {
+                Scenario scenario = (Scenario) asset.content;
+                RuleCoverageListener coverage = borrowCoverage();
+                Thread thread = Thread.currentThread();
+                ClassLoader originalCL = thread.getContextClassLoader();
+                try {
+                    thread.setContextClassLoader( classLoader );
+                    scenarioExecutor.run( scenario,
+                                          coverage );
+                } finally {
+                    thread.setContextClassLoader( originalCL );
+                    idleCoverage.add( coverage );
+                }
+                int[] totals = scenario.countFailuresTotal();
+                return new ScenarioResultSummary( totals[0],
+                                                  totals[1],
+                                                  asset.name,
+                                                  asset.description,
+                                                  asset.uuid );
+            }
+        } ) );
+    }
+
+    /**
+     * Waits for the oldest scenario in flight to finish.
+     */
+    public ScenarioResultSummary take() throws DetailedSerializationException {
+        Future<ScenarioResultSummary> future = pending.removeFirst();
+        try {
+            return future.get();
+        } catch ( InterruptedException e ) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new RulesRepositoryException( "Interrupted while running test scenarios.",
+                                                e );
+        } catch ( ExecutionException e ) {
+            cancel();
+            Throwable cause = e.getCause();
+            if ( cause instanceof DetailedSerializationException ) {
+                throw (DetailedSerializationException) cause;
+            }
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new RulesRepositoryException( cause );
+        }
+    }
+
+    /**
+     * Gives up on any scenarios that have not been taken yet.
+     */
+    public void cancel() {
+        for ( Future<ScenarioResultSummary> future : pending ) {
+            future.cancel( true );
+        }
+        pending.clear();
+    }
+
+    /**
+     * The percentage of rules fired by at least one scenario.
+     */
+    public int getPercentCovered() {
+        float left = getUnfiredRules().length;
+        float total = expectedRules.size();
+        return (int) ((total - left) / total * 100);
+    }
+
+    /**
+     * The rules no scenario fired.
+     */
+    public String[] getUnfiredRules() {
+        Set<String> unfired = new HashSet<String>( expectedRules );
+        synchronized ( allCoverage ) {
+            for ( RuleCoverageListener coverage : allCoverage ) {
+                Set<String> unfiredHere = new HashSet<String>();
+                for ( String rule : coverage.getUnfiredRules() ) {
+                    unfiredHere.add( rule );
+                }
+                unfired.retainAll( unfiredHere );
+            }
+        }
+        return unfired.toArray( new String[unfired.size()] );
+    }
+
+    private RuleCoverageListener borrowCoverage() {
+        RuleCoverageListener coverage = idleCoverage.poll();
+        if ( coverage == null ) {
+            coverage = new RuleCoverageListener( new HashSet<String>( expectedRules ) );
+            synchronized ( allCoverage ) {
+                allCoverage.add( coverage );
+            }
+        }
+        return coverage;
+    }
+
+}
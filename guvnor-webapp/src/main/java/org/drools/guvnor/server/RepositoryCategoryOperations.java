@@ -155,7 +155,7 @@ public class RepositoryCategoryOperations {
         ServiceRowSizeHelper serviceRowSizeHelper = new ServiceRowSizeHelper();
         serviceRowSizeHelper.fixTotalRowSize( request,
                                               pageResponse,
-                                              -1,
+                                              result.totalRowsCount,
                                               rowList.size(),
                                               bHasMoreRows );
         long methodDuration = System.currentTimeMillis() - start;
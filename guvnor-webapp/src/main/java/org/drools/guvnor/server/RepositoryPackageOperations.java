@@ -49,6 +49,7 @@ import org.drools.guvnor.client.rpc.SnapshotComparisonPageRow;
 import org.drools.guvnor.client.rpc.SnapshotDiff;
 import org.drools.guvnor.client.rpc.SnapshotDiffs;
 import org.drools.guvnor.client.rpc.ValidatedResponse;
+import org.drools.guvnor.server.builder.CompiledFragmentStore;
 import org.drools.guvnor.server.builder.ContentPackageAssembler;
 import org.drools.guvnor.server.builder.pagerow.SnapshotComparisonPageRowBuilder;
 import org.drools.guvnor.server.cache.RuleBaseCache;
@@ -240,6 +241,7 @@ public class RepositoryPackageOperations {
             log.info( "USER:" + getCurrentUserName() + " REMOVEING package [" + item.getName() + "]" );
             item.remove();
             getRulesRepository().save();
+            CompiledFragmentStore.getInstance().remove( uuid );
         } catch ( RulesRepositoryException e ) {
             log.error( "Unable to remove package.",
                        e );
@@ -544,7 +546,8 @@ public class RepositoryPackageOperations {
                                                                    categoryOperator,
                                                                    category,
                                                                    enableCategorySelector,
-                                                                   selectorConfigName );
+                                                                   selectorConfigName,
+                                                                   true );
         if ( asm.hasErrors() ) {
             BuilderResult result = new BuilderResult();
             BuilderResultHelper builderResultHelper = new BuilderResultHelper();
@@ -16,11 +16,14 @@
 package org.drools.guvnor.server;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 
@@ -43,7 +46,6 @@ import org.drools.guvnor.client.rpc.BulkTestRunResult;
 import org.drools.guvnor.client.rpc.DetailedSerializationException;
 import org.drools.guvnor.client.rpc.PackageConfigData;
 import org.drools.guvnor.client.rpc.PackageService;
-import org.drools.guvnor.client.rpc.RuleAsset;
 import org.drools.guvnor.client.rpc.ScenarioResultSummary;
 import org.drools.guvnor.client.rpc.ScenarioRunResult;
 import org.drools.guvnor.client.rpc.SingleScenarioResult;
@@ -59,6 +61,7 @@ import org.drools.guvnor.server.contenthandler.ModelContentHandler;
 import org.drools.guvnor.server.security.PackageUUIDType;
 import org.drools.guvnor.server.security.RoleTypes;
 import org.drools.guvnor.server.util.LoggingHelper;
+import org.drools.guvnor.server.util.ManagementHelper;
 import org.drools.ide.common.client.modeldriven.testing.Scenario;
 import org.drools.lang.descr.PackageDescr;
 import org.drools.lang.descr.TypeDeclarationDescr;
@@ -70,6 +73,7 @@ import org.drools.repository.RulesRepository;
 import org.drools.repository.RulesRepositoryException;
 import org.drools.rule.Package;
 import org.drools.runtime.rule.ConsequenceException;
+import org.drools.testframework.CompiledExpressionCache;
 import org.drools.testframework.RuleCoverageListener;
 import org.drools.testframework.ScenarioRunner;
 import org.jboss.seam.annotations.AutoCreate;
@@ -95,6 +99,11 @@ public class RepositoryPackageService
 
     private static final LoggingHelper  log                         = LoggingHelper.getLogger( RepositoryAssetService.class );
 
+    static {
+        ManagementHelper.register( CompiledExpressionCache.getInstance(),
+                                   "CompiledExpressionCache" );
+    }
+
     private ServiceSecurity             serviceSecurity             = new ServiceSecurity();
 
     private RepositoryPackageOperations repositoryPackageOperations = new RepositoryPackageOperations();
@@ -546,7 +555,7 @@ public class RepositoryPackageService
         try {
             final RuleBase rb = loadCacheRuleBase( item );
 
-            ClassLoader cl = ((InternalRuleBase) RuleBaseCache.getInstance().get( item.getUUID() )).getRootClassLoader();
+            ClassLoader cl = ((InternalRuleBase) rb).getRootClassLoader();
             Thread.currentThread().setContextClassLoader( cl );
             result = runScenario( scenario,
                                   item,
@@ -571,37 +580,58 @@ public class RepositoryPackageService
     }
 
     /*
-     * Set the Rule base in a cache
+     * Set the Rule base in a cache. Concurrent callers for the same package
+     * share one build or deserialization.
      */
-    private RuleBase loadCacheRuleBase(PackageItem item) throws DetailedSerializationException {
-        RuleBase rb = null;
-        if ( item.isBinaryUpToDate() && RuleBaseCache.getInstance().contains( item.getUUID() ) ) {
-            rb = RuleBaseCache.getInstance().get( item.getUUID() );
-        } else {
-            // load up the classloader we are going to use
-            List<JarInputStream> jars = BRMSPackageBuilder.getJars( item );
-            ClassLoader buildCl = BRMSPackageBuilder.createClassLoader( jars );
-
-            // we have to build the package, and try again.
+    private RuleBase loadCacheRuleBase(final PackageItem item) throws DetailedSerializationException {
+        Callable<RuleBase> loader = new Callable<RuleBase>() {
+            public RuleBase call() throws Exception {
+                return buildRuleBase( item );
+            }
+        };
+        try {
             if ( item.isBinaryUpToDate() ) {
-                rb = loadRuleBase( item,
-                                   buildCl );
-                RuleBaseCache.getInstance().put( item.getUUID(),
-                                                         rb );
+                return RuleBaseCache.getInstance().get( item.getUUID(),
+                                                        loader );
             } else {
-                BuilderResult result = repositoryPackageOperations.buildPackage( item,
-                                                                                 false );
-                if ( result == null || result.getLines().size() == 0 ) {
-                    rb = loadRuleBase( item,
-                                       buildCl );
-                    RuleBaseCache.getInstance().put( item.getUUID(),
-                                                             rb );
-                } else throw new DetailedSerializationException( "Build error",
-                                                                 result.getLines() );
+                return RuleBaseCache.getInstance().reload( item.getUUID(),
+                                                           loader );
             }
+        } catch ( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof DetailedSerializationException ) {
+                throw (DetailedSerializationException) cause;
+            }
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            log.error( "Unable to load rule base.",
+                       cause );
+            throw new DetailedSerializationException( "Unable to load rule base.",
+                                                      cause.getMessage() );
+        }
+    }
+
+    private RuleBase buildRuleBase(PackageItem item) throws DetailedSerializationException {
+        // load up the classloader we are going to use
+        ClassLoader buildCl = BRMSPackageBuilder.createClassLoader( item );
 
+        // we have to build the package, and try again.
+        if ( item.isBinaryUpToDate() ) {
+            return loadRuleBase( item,
+                                 buildCl );
+        } else {
+            BuilderResult result = repositoryPackageOperations.buildPackage( item,
+                                                                             false );
+            if ( result == null || result.getLines().size() == 0 ) {
+                return loadRuleBase( item,
+                                     buildCl );
+            } else throw new DetailedSerializationException( "Build error",
+                                                             result.getLines() );
         }
-        return rb;
     }
 
     private RuleBase loadRuleBase(PackageItem item,
@@ -647,9 +677,17 @@ public class RepositoryPackageService
                                         ClassLoader cl) throws IOException,
                                                        ClassNotFoundException {
         RuleBase rb = RuleBaseFactory.newRuleBase( new RuleBaseConfiguration( cl ) );
-        Package bin = (Package) DroolsStreamUtils.streamIn( item.getCompiledPackageBytes(),
-                                                            cl );
-        rb.addPackage( bin );
+        InputStream in = item.getCompiledPackageStream();
+        if ( in == null ) {
+            throw new IOException( "The package has not been built." );
+        }
+        try {
+            Package bin = (Package) DroolsStreamUtils.streamIn( in,
+                                                                cl );
+            rb.addPackage( bin );
+        } finally {
+            in.close();
+        }
         return rb;
     }
 
@@ -724,81 +762,89 @@ public class RepositoryPackageService
 
     public BulkTestRunResult runScenariosInPackage(PackageItem item) throws DetailedSerializationException,
                                                                     SerializationException {
-        ClassLoader originalCL = Thread.currentThread().getContextClassLoader();
-        ClassLoader cl = null;
+        return runScenariosInPackage( item,
+                                      null );
+    }
 
+    /**
+     * Runs all the test scenarios of the package on the scenario worker pool.
+     * If a listener is given, each result is handed to it as soon as it is
+     * ready (in package order) and the returned result holds no summaries, so
+     * large packages can be streamed out.
+     */
+    public BulkTestRunResult runScenariosInPackage(final PackageItem item,
+                                                   ScenarioProgressListener listener) throws DetailedSerializationException,
+                                                                                      SerializationException {
+        final RuleBase rb;
         try {
-            if ( item.isBinaryUpToDate() && RuleBaseCache.getInstance().contains( item.getUUID() ) ) {
-                RuleBase rb = RuleBaseCache.getInstance().get( item.getUUID() );
-                AbstractRuleBase arb = (AbstractRuleBase) rb;
-                // load up the existing class loader from before
-                cl = arb.getConfiguration().getClassLoader();
-                Thread.currentThread().setContextClassLoader( cl );
-            } else {
-                // load up the classloader we are going to use
-                List<JarInputStream> jars = BRMSPackageBuilder.getJars( item );
-                cl = BRMSPackageBuilder.createClassLoader( jars );
-                Thread.currentThread().setContextClassLoader( cl );
-
-                // we have to build the package, and try again.
-                if ( item.isBinaryUpToDate() ) {
-                    RuleBaseCache.getInstance().put( item.getUUID(),
-                                                             loadRuleBase( item,
-                                                                           cl ) );
-                } else {
-                    BuilderResult result = repositoryPackageOperations.buildPackage( item,
-                                                                                     false );
-                    if ( result == null || result.getLines().size() == 0 ) {
-                        RuleBaseCache.getInstance().put( item.getUUID(),
-                                                                 loadRuleBase( item,
-                                                                               cl ) );
-                    } else {
-                        return new BulkTestRunResult( result,
-                                                      null,
-                                                      0,
-                                                      null );
-                    }
-                }
+            rb = loadCacheRuleBase( item );
+        } catch ( DetailedSerializationException e ) {
+            if ( e.getErrs() == null ) {
+                throw e;
             }
+            BuilderResult result = new BuilderResult();
+            result.setLines( e.getErrs() );
+            return new BulkTestRunResult( result,
+                                          null,
+                                          0,
+                                          null );
+        }
+        // load up the existing class loader from before
+        final ClassLoader cl = ((AbstractRuleBase) rb).getConfiguration().getClassLoader();
+        Package bin = rb.getPackages()[0];
 
+        ParallelScenarioRunner runner = new ParallelScenarioRunner( cl,
+                                                                    expectedRules( bin ),
+                                                                    new ParallelScenarioRunner.ScenarioExecutor() {
+                                                                        public void run(Scenario scenario,
+                                                                                        RuleCoverageListener coverage) throws DetailedSerializationException {
+                                                                            runScenario( scenario,
+                                                                                         item,
+                                                                                         cl,
+                                                                                         rb,
+                                                                                         coverage );
+                                                                        }
+                                                                    } );
+        List<ScenarioResultSummary> resultSummaries = new ArrayList<ScenarioResultSummary>();
+        try {
+            // the assets are loaded here, as the repository session belongs to this thread
             AssetItemIterator it = item.listAssetsByFormat( new String[]{AssetFormats.TEST_SCENARIO} );
-            List<ScenarioResultSummary> resultSummaries = new ArrayList<ScenarioResultSummary>();
-            RuleBase rb = RuleBaseCache.getInstance().get( item.getUUID() );
-            Package bin = rb.getPackages()[0];
-
-            RuleCoverageListener coverage = new RuleCoverageListener( expectedRules( bin ) );
-
             while ( it.hasNext() ) {
                 AssetItem as = it.next();
                 if ( !as.getDisabled() ) {
-                    RuleAsset asset = repositoryAssetOperations.loadAsset( as );
-                    Scenario sc = (Scenario) asset.content;
-                    runScenario( item.getName(),
-                                 sc,
-                                 coverage );// runScenario(sc, res,
-                                            // workingMemory).scenario;
-
-                    int[] totals = sc.countFailuresTotal();
-                    resultSummaries.add( new ScenarioResultSummary( totals[0],
-                                                                    totals[1],
-                                                                    asset.name,
-                                                                    asset.description,
-                                                                    asset.uuid ) );
+                    runner.submit( repositoryAssetOperations.loadAsset( as ) );
+                    while ( runner.isFull() ) {
+                        scenarioFinished( runner.take(),
+                                          listener,
+                                          resultSummaries );
+                    }
                 }
             }
+            while ( runner.hasPending() ) {
+                scenarioFinished( runner.take(),
+                                  listener,
+                                  resultSummaries );
+            }
+        } finally {
+            runner.cancel();
+        }
 
-            ScenarioResultSummary[] summaries = resultSummaries.toArray( new ScenarioResultSummary[resultSummaries.size()] );
+        ScenarioResultSummary[] summaries = resultSummaries.toArray( new ScenarioResultSummary[resultSummaries.size()] );
 
-            BulkTestRunResult result = new BulkTestRunResult( null,
-                                                              resultSummaries.toArray( summaries ),
-                                                              coverage.getPercentCovered(),
-                                                              coverage.getUnfiredRules() );
-            return result;
+        return new BulkTestRunResult( null,
+                                      summaries,
+                                      runner.getPercentCovered(),
+                                      runner.getUnfiredRules() );
+    }
 
-        } finally {
-            Thread.currentThread().setContextClassLoader( originalCL );
+    private void scenarioFinished(ScenarioResultSummary summary,
+                                  ScenarioProgressListener listener,
+                                  List<ScenarioResultSummary> resultSummaries) {
+        if ( listener == null ) {
+            resultSummaries.add( summary );
+        } else {
+            listener.scenarioFinished( summary );
         }
-
     }
 
     private HashSet<String> expectedRules(Package bin) {
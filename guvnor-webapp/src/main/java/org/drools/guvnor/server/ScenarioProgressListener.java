@@ -0,0 +1,29 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server;
+
+import org.drools.guvnor.client.rpc.ScenarioResultSummary;
+
+/**
+ * Receives the result of each test scenario as a package run progresses,
+ * so the results can be streamed out rather than collected in memory.
+ * Always called on the thread that started the run, in package order.
+ */
+public interface ScenarioProgressListener {
+
+    public void scenarioFinished(ScenarioResultSummary summary);
+
+}
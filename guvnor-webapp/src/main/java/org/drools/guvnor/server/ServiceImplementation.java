@@ -40,7 +40,6 @@ import org.drools.guvnor.client.rpc.LogEntry;
 import org.drools.guvnor.client.rpc.LogPageRow;
 import org.drools.guvnor.client.rpc.MetaData;
 import org.drools.guvnor.client.rpc.MetaDataQuery;
-import org.drools.guvnor.client.rpc.PackageConfigData;
 import org.drools.guvnor.client.rpc.PageRequest;
 import org.drools.guvnor.client.rpc.PageResponse;
 import org.drools.guvnor.client.rpc.PermissionsPageRow;
@@ -456,7 +455,7 @@ public class ServiceImplementation
         // Add Filter to check Permission
         List<AssetItem> resultList = new ArrayList<AssetItem>();
 
-        RepositoryFilter packageFilter = new PackageFilter();
+        RepositoryFilter packageFilter = new AssetItemFilter();
         RepositoryFilter categoryFilter = new CategoryFilter();
 
         while ( it.hasNext() ) {
@@ -478,16 +477,10 @@ public class ServiceImplementation
     private boolean checkPackagePermissionHelper(RepositoryFilter filter,
                                                  AssetItem item,
                                                  String roleType) {
-        return filter.accept( getConfigDataHelper( item.getPackage().getUUID() ),
+        return filter.accept( item,
                               roleType );
     }
 
-    private PackageConfigData getConfigDataHelper(String uuidStr) {
-        PackageConfigData data = new PackageConfigData();
-        data.uuid = uuidStr;
-        return data;
-    }
-
     @WebRemote
     @Restrict("#{identity.loggedIn}")
     public String createState(String name) throws SerializationException {
@@ -1013,7 +1006,7 @@ public class ServiceImplementation
         ServiceRowSizeHelper serviceRowSizeHelper = new ServiceRowSizeHelper();
         serviceRowSizeHelper.fixTotalRowSize( request,
                                               response,
-                                              -1,
+                                              result.totalRowsCount,
                                               rowList.size(),
                                               bHasMoreRows );
 
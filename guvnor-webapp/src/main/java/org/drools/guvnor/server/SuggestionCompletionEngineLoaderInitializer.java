@@ -15,28 +15,94 @@
  */
 package org.drools.guvnor.server;
 
-import java.util.List;
-import java.util.jar.JarInputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.drools.guvnor.server.builder.BRMSPackageBuilder;
+import org.drools.guvnor.server.cache.SuggestionCompletionEngineCache;
 import org.drools.guvnor.server.util.BRMSSuggestionCompletionLoader;
+import org.drools.guvnor.server.util.LoggingHelper;
+import org.drools.guvnor.server.util.ManagementHelper;
 import org.drools.ide.common.client.modeldriven.SuggestionCompletionEngine;
+import org.drools.ide.common.server.rules.ClassMetadataCache;
 import org.drools.repository.PackageItem;
+import org.drools.repository.RulesRepository;
+import org.drools.repository.RulesRepositoryException;
 
 public class SuggestionCompletionEngineLoaderInitializer {
 
+    private static final LoggingHelper log = LoggingHelper.getLogger( SuggestionCompletionEngineLoaderInitializer.class );
+
+    static {
+        ManagementHelper.register( ClassMetadataCache.getInstance(),
+                                   "ClassMetadataCache" );
+    }
+
+    /**
+     * The suggestion completion engine of the package, from the cache if the
+     * package header, models, DSLs and enumerations haven't changed since it
+     * was loaded.
+     */
     protected SuggestionCompletionEngine loadFor(final PackageItem packageItem) {
+        try {
+            return SuggestionCompletionEngineCache.getInstance().get( packageItem.getUUID(),
+                                                                      SuggestionCompletionEngineCache.getFingerprint( packageItem ),
+                                                                      new Callable<SuggestionCompletionEngine>() {
+                                                                          public SuggestionCompletionEngine call() {
+                                                                              return load( packageItem );
+                                                                          }
+                                                                      } );
+        } catch ( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new RulesRepositoryException( cause );
+        }
+    }
+
+    /**
+     * Loads the engines of the packages that are not archived into the cache,
+     * in the order the repository lists them, until the cache is full. A
+     * package that fails to load is logged and skipped, it will fail again
+     * when it is opened.
+     */
+    public void warmUp(final RulesRepository repository) {
+        SuggestionCompletionEngineCache cache = SuggestionCompletionEngineCache.getInstance();
+        int loaded = 0;
+        for ( Iterator<PackageItem> it = repository.listPackages(); it.hasNext() && loaded < cache.getMaxSize(); ) {
+            PackageItem pkg = it.next();
+            if ( pkg.isArchived() ) {
+                continue;
+            }
+            try {
+                loadFor( pkg );
+                loaded++;
+            } catch ( RuntimeException e ) {
+                log.warn( "Unable to load the suggestion completion engine of package " + pkg.getName() + ": " + e.getMessage() );
+            }
+        }
+        log.info( "Loaded the suggestion completion engines of " + loaded + " packages" );
+    }
+
+    private SuggestionCompletionEngine load(final PackageItem packageItem) {
         SuggestionCompletionEngine result = null;
         ClassLoader originalCL = Thread.currentThread().getContextClassLoader();
         try {
             BRMSSuggestionCompletionLoader loader = null;
-            List<JarInputStream> jars = BRMSPackageBuilder.getJars( packageItem );
-            if ( jars != null && !jars.isEmpty() ) {
-                ClassLoader cl = BRMSPackageBuilder.createClassLoader( jars );
+            Map<String, byte[]> classpath = BRMSPackageBuilder.getClasspath( packageItem );
+            if ( !classpath.isEmpty() ) {
+                ClassLoader cl = BRMSPackageBuilder.createClassLoader( classpath );
 
                 Thread.currentThread().setContextClassLoader( cl );
 
                 loader = new BRMSSuggestionCompletionLoader( cl );
+                loader.setModelDigest( BRMSPackageBuilder.getModelKey( packageItem ) );
             } else {
                 loader = new BRMSSuggestionCompletionLoader();
             }
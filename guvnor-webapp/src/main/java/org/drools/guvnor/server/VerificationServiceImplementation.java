@@ -31,10 +31,12 @@ import org.drools.guvnor.server.security.PackageNameType;
 import org.drools.guvnor.server.security.PackageUUIDType;
 import org.drools.guvnor.server.security.RoleTypes;
 import org.drools.guvnor.server.util.LoggingHelper;
+import org.drools.guvnor.server.util.VerifierPool;
 import org.drools.guvnor.server.util.VerifierRunner;
 import org.drools.ide.common.client.factconstraints.ConstraintConfiguration;
 import org.drools.ide.common.server.factconstraints.factory.ConstraintsFactory;
 import org.drools.io.ResourceFactory;
+import org.drools.repository.AssetItem;
 import org.drools.repository.PackageItem;
 import org.drools.verifier.DefaultVerifierConfiguration;
 import org.drools.verifier.Verifier;
@@ -56,8 +58,6 @@ public class VerificationServiceImplementation extends RemoteServiceServlet impl
 
     private static final LoggingHelper log              = LoggingHelper.getLogger( ServiceImplementation.class );
 
-    private Verifier                   defaultVerifier  = VerifierBuilderFactory.newVerifierBuilder().newVerifier();
-
     private RepositoryAssetService getAssetService() {
         return RepositoryServiceServlet.getAssetService();
     }
@@ -71,13 +71,18 @@ public class VerificationServiceImplementation extends RemoteServiceServlet impl
 
         PackageItem packageItem = getAssetService().getRulesRepository().loadPackageByUUID( packageUUID );
 
-        VerifierRunner runner = new VerifierRunner( defaultVerifier );
-
-        AnalysisReport report = runner.verify( packageItem, new ScopesAgendaFilter( true, ScopesAgendaFilter.VERIFYING_SCOPE_KNOWLEDGE_PACKAGE ) );
+        Verifier verifier = VerifierPool.getInstance().borrow();
+        boolean reusable = false;
+        try {
+            VerifierRunner runner = new VerifierRunner( verifier );
 
-        defaultVerifier.flushKnowledgeSession();
+            AnalysisReport report = runner.verify( packageItem, new ScopesAgendaFilter( true, ScopesAgendaFilter.VERIFYING_SCOPE_KNOWLEDGE_PACKAGE ) );
+            reusable = true;
 
-        return report;
+            return report;
+        } finally {
+            VerifierPool.getInstance().release( verifier, reusable );
+        }
     }
 
     @WebRemote
@@ -105,7 +110,7 @@ public class VerificationServiceImplementation extends RemoteServiceServlet impl
 
         Verifier verifierToBeUsed = null;
         if ( useVerifierDefaultConfig ) {
-            verifierToBeUsed = defaultVerifier;
+            verifierToBeUsed = VerifierPool.getInstance().borrow();
         } else {
             verifierToBeUsed = getWorkingSetVerifier( constraintRules );
         }
@@ -113,11 +118,17 @@ public class VerificationServiceImplementation extends RemoteServiceServlet impl
 
         log.debug( "constraints rules: " + constraintRules );
 
+        boolean reusable = false;
         try {
             VerifierRunner runner = new VerifierRunner( verifierToBeUsed );
-            AnalysisReport report = runner.verify( packageItem, chooseScopesAgendaFilterFor( asset ) );
-
-            verifierToBeUsed.flushKnowledgeSession();
+            AnalysisReport report;
+            if ( asset.uuid != null ) {
+                AssetItem assetItem = getAssetService().getRulesRepository().loadAssetByUUID( asset.uuid );
+                report = runner.verify( packageItem, assetItem, chooseScopesAgendaFilterFor( asset ) );
+            } else {
+                report = runner.verify( packageItem, chooseScopesAgendaFilterFor( asset ) );
+            }
+            reusable = true;
 
             log.debug( "Asset verification took: " + (System.currentTimeMillis() - startTime) );
 
@@ -125,6 +136,10 @@ public class VerificationServiceImplementation extends RemoteServiceServlet impl
 
         } catch ( Throwable t ) {
             throw new SerializationException( t.getMessage() );
+        } finally {
+            if ( useVerifierDefaultConfig ) {
+                VerifierPool.getInstance().release( verifierToBeUsed, reusable );
+            }
         }
     }
 
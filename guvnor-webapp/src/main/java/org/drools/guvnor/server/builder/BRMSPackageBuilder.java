@@ -23,21 +23,28 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 
 import org.drools.compiler.PackageBuilder;
 import org.drools.compiler.PackageBuilderConfiguration;
 import org.drools.guvnor.client.common.AssetFormats;
+import org.drools.guvnor.server.cache.ModelClasspathCache;
+import org.drools.lang.descr.PackageDescr;
 import org.drools.lang.dsl.DSLMappingFile;
 import org.drools.lang.dsl.DSLMappingParseException;
 import org.drools.lang.dsl.DSLTokenizedMappingFile;
 import org.drools.lang.dsl.DefaultExpander;
 import org.drools.repository.AssetItem;
 import org.drools.repository.AssetItemIterator;
+import org.drools.repository.PackageAssetSnapshot;
 import org.drools.repository.PackageItem;
 import org.drools.repository.RulesRepositoryException;
 import org.drools.repository.VersionedAssetItemIterator;
@@ -54,7 +61,8 @@ import org.jbpm.bpmn2.xml.BPMNSemanticModule;
 public class BRMSPackageBuilder extends PackageBuilder {
 
     private List<DSLTokenizedMappingFile> dslFiles;
-    private DefaultExpander               expander;
+    private ThreadLocal<DefaultExpander>  expanders = new ThreadLocal<DefaultExpander>();
+    private List<byte[]>                  recordedDescriptors;
 
     /**
      * This will give you a fresh new PackageBuilder
@@ -63,6 +71,20 @@ public class BRMSPackageBuilder extends PackageBuilder {
      * @param buildProps Properties to pass into the package builder configuration.
      */
     public static BRMSPackageBuilder getInstance(List<JarInputStream> classpath, Properties buildProps) {
+        return getInstance( readClasspath( classpath ), buildProps );
+    }
+
+    /**
+     * This will give you a fresh new PackageBuilder
+     * using the model jars of the given package assets as the classpath.
+     * @param assets The assets of the package
+     * @param buildProps Properties to pass into the package builder configuration.
+     */
+    public static BRMSPackageBuilder getInstance(PackageAssetSnapshot assets, Properties buildProps) {
+        return getInstance( getClasspath( assets ), buildProps );
+    }
+
+    private static BRMSPackageBuilder getInstance(Map<String, byte[]> classpath, Properties buildProps) {
         MapBackedClassLoader loader = createClassLoader( classpath );
 
         // See if we can find a packagebuilder.conf
@@ -89,6 +111,21 @@ public class BRMSPackageBuilder extends PackageBuilder {
      * For a given list of Jars, create a class loader.
      */
     public static MapBackedClassLoader createClassLoader(List<JarInputStream> classpath) {
+        return createClassLoader( readClasspath( classpath ) );
+    }
+
+    /**
+     * Create a class loader for the model jars of the given package.
+     * The jars are only read and unzipped if they are not in the ModelClasspathCache.
+     */
+    public static MapBackedClassLoader createClassLoader(PackageItem pkg) {
+        return createClassLoader( getClasspath( pkg ) );
+    }
+
+    /**
+     * For the given resources (as returned by getClasspath), create a class loader.
+     */
+    public static MapBackedClassLoader createClassLoader(Map<String, byte[]> classpath) {
         ClassLoader parentClassLoader = Thread.currentThread().getContextClassLoader();
         if ( parentClassLoader == null ) {
             parentClassLoader = BRMSPackageBuilder.class.getClassLoader();
@@ -102,27 +139,97 @@ public class BRMSPackageBuilder extends PackageBuilder {
             }
         } );
 
+        for ( Map.Entry<String, byte[]> resource : classpath.entrySet() ) {
+            loader.addResource( resource.getKey(), resource.getValue() );
+        }
+        return loader;
+    }
+
+    /**
+     * The unzipped contents of the model jars of the given package, shared
+     * with any other package that uses the same versions of the same models.
+     */
+    public static Map<String, byte[]> getClasspath(PackageItem pkg) {
+        return getClasspath( getModels( pkg ) );
+    }
+
+    /**
+     * Identifies the versions of the model jars of the given package, see
+     * ModelClasspathCache.getKey().
+     */
+    public static String getModelKey(PackageItem pkg) {
+        return ModelClasspathCache.getKey( getModels( pkg ) );
+    }
+
+    private static List<AssetItem> getModels(PackageItem pkg) {
+        List<AssetItem> models = new ArrayList<AssetItem>();
+        AssetItemIterator ait = pkg.listAssetsByFormat( new String[]{AssetFormats.MODEL} );
+        ((VersionedAssetItemIterator)ait).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
+        while ( ait.hasNext() ) {
+            models.add( ait.next() );
+        }
+        return models;
+    }
+
+    /**
+     * The unzipped contents of the model jars in a snapshot of the package assets.
+     */
+    public static Map<String, byte[]> getClasspath(PackageAssetSnapshot assets) {
+        return getClasspath( assets.listAssetsByFormat( AssetFormats.MODEL ) );
+    }
+
+    private static Map<String, byte[]> getClasspath(final List<AssetItem> models) {
+        if ( models.isEmpty() ) {
+            return Collections.emptyMap();
+        }
+        try {
+            return ModelClasspathCache.getInstance().get( ModelClasspathCache.getKey( models ),
+                                                          new Callable<Map<String, byte[]>>() {
+                                                              public Map<String, byte[]> call() {
+                                                                  return readClasspath( getJars( models.iterator() ) );
+                                                              }
+                                                          } );
+        } catch ( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new RulesRepositoryException( cause );
+        }
+    }
+
+    /**
+     * Unzips the given Jars into a map of resource name to contents.
+     */
+    public static Map<String, byte[]> readClasspath(List<JarInputStream> classpath) {
+        Map<String, byte[]> resources = new HashMap<String, byte[]>();
+        byte[] buf = new byte[8192];
         try {
             for ( JarInputStream jis : classpath ) {
-                JarEntry entry = null;
-                byte[] buf = new byte[1024];
-                int len = 0;
-                while ( (entry = jis.getNextJarEntry()) != null ) {
-                    if ( !entry.isDirectory() && !entry.getName().endsWith( ".java" ) ) {
-                        ByteArrayOutputStream out = new ByteArrayOutputStream();
-                        while ( (len = jis.read( buf )) >= 0 ) {
-                            out.write( buf, 0, len );
-                        }
+                try {
+                    JarEntry entry = null;
+                    int len = 0;
+                    while ( (entry = jis.getNextJarEntry()) != null ) {
+                        if ( !entry.isDirectory() && !entry.getName().endsWith( ".java" ) ) {
+                            ByteArrayOutputStream out = new ByteArrayOutputStream( entry.getSize() > 0 ? (int) entry.getSize() : 1024 );
+                            while ( (len = jis.read( buf )) >= 0 ) {
+                                out.write( buf, 0, len );
+                            }
 
-                        loader.addResource( entry.getName(), out.toByteArray() );
+                            resources.put( entry.getName(), out.toByteArray() );
+                        }
                     }
+                } finally {
+                    jis.close();
                 }
-
             }
         } catch ( IOException e ) {
             throw new RulesRepositoryException( e );
         }
-        return loader;
+        return resources;
     }
 
     /**
@@ -137,6 +244,39 @@ public class BRMSPackageBuilder extends PackageBuilder {
         super( new PackageBuilderConfiguration() );
     }
 
+    /**
+     * Adds the package, keeping a snapshot of the descriptor (as it was
+     * before the builder got to change it) if we are recording.
+     */
+    @Override
+    public void addPackage(PackageDescr packageDescr) {
+        if ( this.recordedDescriptors != null ) {
+            this.recordedDescriptors.add( CompiledFragmentStore.CompiledFragment.snapshot( packageDescr ) );
+        }
+        super.addPackage( packageDescr );
+    }
+
+    /**
+     * From now on every package descriptor that is added will be recorded,
+     * until stopRecording is called.
+     */
+    public void startRecording() {
+        this.recordedDescriptors = new ArrayList<byte[]>();
+    }
+
+    /**
+     * @return the snapshots of the package descriptors added since
+     *         startRecording was called.
+     */
+    public List<byte[]> stopRecording() {
+        List<byte[]> recorded = this.recordedDescriptors;
+        this.recordedDescriptors = null;
+        if ( recorded == null ) {
+            return Collections.emptyList();
+        }
+        return recorded;
+    }
+
     /**
      * This will reset the errors.
      */
@@ -156,9 +296,20 @@ public class BRMSPackageBuilder extends PackageBuilder {
      * Load up all the DSL mappping files for the given package.
      */
     public static List<DSLTokenizedMappingFile> getDSLMappingFiles(PackageItem pkg, DSLErrorEvent err) {
-        List<DSLTokenizedMappingFile> result = new ArrayList<DSLTokenizedMappingFile>();
         AssetItemIterator it = pkg.listAssetsByFormat( new String[]{AssetFormats.DSL} );
         ((VersionedAssetItemIterator)it).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
+        return getDSLMappingFiles( it, err );
+    }
+
+    /**
+     * Load up all the DSL mappping files from a snapshot of the package assets.
+     */
+    public static List<DSLTokenizedMappingFile> getDSLMappingFiles(PackageAssetSnapshot assets, DSLErrorEvent err) {
+        return getDSLMappingFiles( assets.listAssetsByFormat( AssetFormats.DSL ).iterator(), err );
+    }
+
+    private static List<DSLTokenizedMappingFile> getDSLMappingFiles(Iterator<AssetItem> it, DSLErrorEvent err) {
+        List<DSLTokenizedMappingFile> result = new ArrayList<DSLTokenizedMappingFile>();
         while ( it.hasNext() ) {
             AssetItem item = it.next();
             if ( !item.getDisabled() ) {
@@ -188,9 +339,20 @@ public class BRMSPackageBuilder extends PackageBuilder {
      * Load up all the Jars for the given package.
      */
     public static List<JarInputStream> getJars(PackageItem pkg) {
-        List<JarInputStream> result = new ArrayList<JarInputStream>();
         AssetItemIterator ait = pkg.listAssetsByFormat( new String[]{AssetFormats.MODEL} );
         ((VersionedAssetItemIterator)ait).setReturnAssetsWithVersionsSpecifiedByDependencies(true);        
+        return getJars( ait );
+    }
+
+    /**
+     * Load up all the Jars from a snapshot of the package assets.
+     */
+    public static List<JarInputStream> getJars(PackageAssetSnapshot assets) {
+        return getJars( assets.listAssetsByFormat( AssetFormats.MODEL ).iterator() );
+    }
+
+    private static List<JarInputStream> getJars(Iterator<AssetItem> ait) {
+        List<JarInputStream> result = new ArrayList<JarInputStream>();
         while ( ait.hasNext() ) {
             AssetItem item = (AssetItem) ait.next();
             if ( item.getBinaryContentAttachment() != null ) {
@@ -220,15 +382,26 @@ public class BRMSPackageBuilder extends PackageBuilder {
 
     /**
      * Returns an expander for DSLs (only if there is a DSL configured for this package).
+     * Expanders are not thread safe, so each thread gets its own.
      */
     public DefaultExpander getDSLExpander() {
-        if ( this.expander == null ) {
+        DefaultExpander expander = this.expanders.get();
+        if ( expander == null ) {
             expander = new DefaultExpander();
             for ( DSLMappingFile file : this.dslFiles ) {
                 expander.addDSLMapping( file.getMapping() );
             }
+            this.expanders.set( expander );
         }
         return expander;
     }
 
+    /**
+     * Drops the expander of the current thread, for threads that outlive this
+     * builder, such as the worker threads of parallel builds.
+     */
+    public void releaseDSLExpander() {
+        this.expanders.remove();
+    }
+
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drools.core.util.DroolsStreamUtils;
+import org.drools.guvnor.server.cache.LoadingCache;
+import org.drools.lang.descr.PackageDescr;
+import org.drools.repository.RulesRepositoryException;
+
+/**
+ * Keeps the parsed output of each rule asset, per package, so an incremental
+ * package build only has to regenerate and reparse the assets that have moved
+ * on since the last build.
+ *
+ * A fragment is only valid for the exact asset version (version number and
+ * last modified time) and package dependency fingerprint (header, DSLs,
+ * functions, declared types, model jars and configuration) it was built with.
+ *
+ * The store holds at most "guvnor.fragment.store.maxSize" fragments (5000 by
+ * default), evicting the least recently used one when full.
+ */
+public class CompiledFragmentStore {
+
+    public static final String                           MAX_SIZE_PROPERTY = "guvnor.fragment.store.maxSize";
+
+    private static CompiledFragmentStore                 instance          = new CompiledFragmentStore( Integer.getInteger( MAX_SIZE_PROPERTY,
+                                                                                                                            5000 ) );
+
+    /**
+     * Keyed by package UUID and asset UUID. Fragments can always be compiled
+     * again, so the garbage collector may reclaim them.
+     */
+    private final LoadingCache<String, CompiledFragment> fragments;
+
+    private final AtomicLong                             hits              = new AtomicLong();
+    private final AtomicLong                             misses            = new AtomicLong();
+
+    CompiledFragmentStore(int maxSize) {
+        this.fragments = new LoadingCache<String, CompiledFragment>( maxSize,
+                                                                     0,
+                                                                     0,
+                                                                     true );
+    }
+
+    public static CompiledFragmentStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the fragment for the given asset, or null if there isn't one that
+     * matches the asset version and the package dependencies.
+     */
+    public CompiledFragment get(final String packageUUID,
+                                final String assetUUID,
+                                final long versionNumber,
+                                final long lastModified,
+                                final String dependencyFingerprint) {
+        CompiledFragment fragment = this.fragments.get( key( packageUUID,
+                                                             assetUUID ) );
+        if ( fragment == null || !fragment.isValidFor( versionNumber,
+                                                       lastModified,
+                                                       dependencyFingerprint ) ) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return fragment;
+    }
+
+    public void put(final String packageUUID,
+                    final String assetUUID,
+                    final CompiledFragment fragment) {
+        this.fragments.put( key( packageUUID,
+                                 assetUUID ),
+                            fragment );
+    }
+
+    /**
+     * Drops the fragments of any asset that was not part of the last build
+     * (removed, archived or filtered out by a selector).
+     */
+    public void retainAll(final String packageUUID,
+                          final Collection<String> assetUUIDs) {
+        String prefix = key( packageUUID,
+                             "" );
+        for ( String key : this.fragments.keySet() ) {
+            if ( key.startsWith( prefix ) && !assetUUIDs.contains( key.substring( prefix.length() ) ) ) {
+                this.fragments.remove( key );
+            }
+        }
+    }
+
+    public void remove(final String packageUUID) {
+        retainAll( packageUUID,
+                   new ArrayList<String>() );
+    }
+
+    public void clear() {
+        this.fragments.clear();
+    }
+
+    public int size(final String packageUUID) {
+        String prefix = key( packageUUID,
+                             "" );
+        int size = 0;
+        for ( String key : this.fragments.keySet() ) {
+            if ( key.startsWith( prefix ) ) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return this.fragments.getMaxSize();
+    }
+
+    /**
+     * The number of assets that were served from the store.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * The number of assets that had to be compiled, as there was no valid
+     * fragment for them.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    private static String key(String packageUUID,
+                              String assetUUID) {
+        return packageUUID + "/" + assetUUID;
+    }
+
+    /**
+     * The parsed package descriptors of a single asset. They are held in
+     * serialized form, as the package builder is free to modify the
+     * descriptors it is given.
+     */
+    public static class CompiledFragment {
+
+        private final long         versionNumber;
+        private final long         lastModified;
+        private final String       dependencyFingerprint;
+        private final List<byte[]> descriptors;
+
+        /**
+         * @param descriptors
+         *            the descriptors, as taken by snapshot() before they were
+         *            given to the package builder.
+         */
+        public CompiledFragment(long versionNumber,
+                                long lastModified,
+                                String dependencyFingerprint,
+                                List<byte[]> descriptors) {
+            this.versionNumber = versionNumber;
+            this.lastModified = lastModified;
+            this.dependencyFingerprint = dependencyFingerprint;
+            this.descriptors = new ArrayList<byte[]>( descriptors );
+        }
+
+        /**
+         * Serializes the descriptor, so what is stored is what the parser
+         * produced, not what the package builder made of it.
+         */
+        public static byte[] snapshot(PackageDescr descriptor) {
+            try {
+                return DroolsStreamUtils.streamOut( descriptor );
+            } catch ( IOException e ) {
+                throw new RulesRepositoryException( "Unable to store the compiled fragment.",
+                                                    e );
+            }
+        }
+
+        boolean isValidFor(long versionNumber,
+                           long lastModified,
+                           String dependencyFingerprint) {
+            return this.versionNumber == versionNumber
+                   && this.lastModified == lastModified
+                   && this.dependencyFingerprint.equals( dependencyFingerprint );
+        }
+
+        public List<PackageDescr> getDescriptors() {
+            List<PackageDescr> result = new ArrayList<PackageDescr>( this.descriptors.size() );
+            try {
+                for ( byte[] descriptor : this.descriptors ) {
+                    result.add( (PackageDescr) DroolsStreamUtils.streamIn( descriptor ) );
+                }
+            } catch ( IOException e ) {
+                throw new RulesRepositoryException( "Unable to load the compiled fragment.",
+                                                    e );
+            } catch ( ClassNotFoundException e ) {
+                throw new RulesRepositoryException( "Unable to load the compiled fragment.",
+                                                    e );
+            }
+            return result;
+        }
+    }
+}
@@ -18,10 +18,17 @@ package org.drools.guvnor.server.builder;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.drools.builder.conf.DefaultPackageNameOption;
 import org.drools.compiler.DroolsError;
@@ -31,6 +38,7 @@ import org.drools.guvnor.client.rpc.RuleAsset;
 import org.drools.guvnor.server.contenthandler.ContentHandler;
 import org.drools.guvnor.server.contenthandler.ContentManager;
 import org.drools.guvnor.server.contenthandler.ICompilable;
+import org.drools.guvnor.server.contenthandler.IParallelCompilable;
 import org.drools.guvnor.server.contenthandler.IRuleAsset;
 import org.drools.guvnor.server.selector.AssetSelector;
 import org.drools.guvnor.server.selector.BuiltInSelector;
@@ -39,11 +47,10 @@ import org.drools.guvnor.server.util.DroolsHeader;
 import org.drools.guvnor.server.util.LoggingHelper;
 import org.drools.lang.descr.PackageDescr;
 import org.drools.repository.AssetItem;
-import org.drools.repository.AssetItemIterator;
+import org.drools.repository.PackageAssetSnapshot;
 import org.drools.repository.PackageItem;
 import org.drools.repository.RulesRepositoryException;
 import org.drools.repository.VersionableItem;
-import org.drools.repository.VersionedAssetItemIterator;
 import org.drools.rule.Package;
 
 /**
@@ -56,6 +63,11 @@ public class ContentPackageAssembler {
 
     private PackageItem                packageItem;
 
+    /**
+     * All the assets of the package, loaded once for the whole build.
+     */
+    private PackageAssetSnapshot       packageAssets;
+
     /**
      * We accumulate errors here. If they come from the builder, then we reset
      * the builders errors so as to not double report. It also means we can
@@ -74,6 +86,22 @@ public class ContentPackageAssembler {
     private String                     categoryValue;
     private boolean                    enableCategorySelector;
 
+    /**
+     * In incremental mode the parsed output of each rule asset is kept in the
+     * CompiledFragmentStore, and only assets that have changed (or whose
+     * package dependencies have changed) are generated and parsed again.
+     */
+    private boolean                    incremental;
+    private String                     dependencyFingerprint;
+    private Set<String>                builtAssetUUIDs = new HashSet<String>();
+    private Map<String, CompiledFragmentStore.CompiledFragment> validFragments = new HashMap<String, CompiledFragmentStore.CompiledFragment>();
+
+    /**
+     * These are the formats an asset compilation depends on, besides the
+     * package header and category rules.
+     */
+    private static final String[]      DEPENDENCY_FORMATS = new String[]{AssetFormats.DSL, AssetFormats.FUNCTION, AssetFormats.DRL_MODEL, AssetFormats.MODEL, "properties", "conf"};
+
     /**
      * Use this if you want to build the whole package.
      * 
@@ -124,6 +152,41 @@ public class ContentPackageAssembler {
                                    String categoryValue,
                                    boolean enableCategorySelector,
                                    String selectorConfigName) {
+        this( assetPackage,
+              compile,
+              buildMode,
+              statusOperator,
+              statusDescriptionValue,
+              enableStatusSelector,
+              categoryOperator,
+              categoryValue,
+              enableCategorySelector,
+              selectorConfigName,
+              false );
+    }
+
+    /**
+     * @param assetPackage
+     *            The package.
+     * @param compile
+     *            true if we want to build it. False and its just for looking at
+     *            source.
+     * @param selectorConfigName
+     * @param incremental
+     *            true to reuse the output of previous builds for the assets
+     *            that have not changed since.
+     */
+    public ContentPackageAssembler(PackageItem assetPackage,
+                                   boolean compile,
+                                   String buildMode,
+                                   String statusOperator,
+                                   String statusDescriptionValue,
+                                   boolean enableStatusSelector,
+                                   String categoryOperator,
+                                   String categoryValue,
+                                   boolean enableCategorySelector,
+                                   String selectorConfigName,
+                                   boolean incremental) {
 
         this.packageItem = assetPackage;
         this.customSelectorName = selectorConfigName;
@@ -134,11 +197,16 @@ public class ContentPackageAssembler {
         this.categoryOperator = categoryOperator;
         this.categoryValue = categoryValue;
         this.enableCategorySelector = enableCategorySelector;
+        this.incremental = incremental;
 
         createBuilder();
 
         if ( compile && preparePackage() ) {
             buildPackage();
+            if ( this.incremental ) {
+                CompiledFragmentStore.getInstance().retainAll( packageItem.getUUID(),
+                                                               builtAssetUUIDs );
+            }
         }
     }
 
@@ -147,7 +215,7 @@ public class ContentPackageAssembler {
      */
     public ContentPackageAssembler(AssetItem assetToBuild) {
         this.packageItem = assetToBuild.getPackage();
-        createBuilder();
+        createBuilder( packageItem.loadAssetSnapshot( DEPENDENCY_FORMATS ) );
 
         if ( preparePackage() ) {
             buildAsset( assetToBuild );
@@ -157,7 +225,7 @@ public class ContentPackageAssembler {
     public ContentPackageAssembler(RuleAsset asset,
                                    PackageItem packageItem) {
         this.packageItem = packageItem;
-        createBuilder();
+        createBuilder( packageItem.loadAssetSnapshot( DEPENDENCY_FORMATS ) );
 
         if ( preparePackage() ) {
             buildAsset( asset );
@@ -165,11 +233,20 @@ public class ContentPackageAssembler {
     }
 
     public void createBuilder() {
+        createBuilder( packageItem.loadAssetSnapshot() );
+    }
+
+    /**
+     * A single asset is built against the assets it may depend on only, so we
+     * don't load the whole package for it.
+     */
+    private void createBuilder(PackageAssetSnapshot assets) {
+        packageAssets = assets;
         try {
-            Properties ps = loadConfProperties( packageItem );
+            Properties ps = loadConfProperties( packageAssets );
             ps.setProperty( DefaultPackageNameOption.PROPERTY_NAME,
                             this.packageItem.getName() );
-            builder = BRMSPackageBuilder.getInstance( BRMSPackageBuilder.getJars( packageItem ),
+            builder = BRMSPackageBuilder.getInstance( packageAssets,
                                                       ps );
         } catch ( IOException e ) {
             throw new RulesRepositoryException( "Unable to load configuration properties for package.",
@@ -180,12 +257,9 @@ public class ContentPackageAssembler {
     /**
      * Load all the .properties and .conf files into one big happy Properties instance.
      */
-    Properties loadConfProperties(PackageItem pkg) throws IOException {
+    Properties loadConfProperties(PackageAssetSnapshot assets) throws IOException {
         Properties bigHappyProperties = new Properties();
-        AssetItemIterator iter = pkg.listAssetsByFormat( new String[]{"properties", "conf"} );
-        ((VersionedAssetItemIterator)iter).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
-        while ( iter.hasNext() ) {
-            AssetItem conf = iter.next();
+        for ( AssetItem conf : assets.listAssetsByFormat( "properties", "conf" ) ) {
             conf.getContent();
             Properties properties = new Properties();
             properties.load( conf.getBinaryContentAttachment() );
@@ -222,28 +296,95 @@ public class ContentPackageAssembler {
         }
 
         StringBuilder includedAssets = new StringBuilder( "Following assets have been included in package build: " );
-        Iterator<AssetItem> drls = packageItem.listAssetsByFormat( new String[]{AssetFormats.DRL} );
-        ((VersionedAssetItemIterator)drls).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
-
-        while ( drls.hasNext() ) {
-            AssetItem asset = (AssetItem) drls.next();
-            if ( !asset.isArchived() && (selector.isAssetAllowed( asset )) ) {
-                buildAsset( asset );
-                includedAssets.append( asset.getName() + ", " );
+        List<AssetItem> assets = new ArrayList<AssetItem>();
+        for ( AssetItem asset : packageAssets.listAssetsByFormat( AssetFormats.DRL ) ) {
+            if ( selector.isAssetAllowed( asset ) ) {
+                assets.add( asset );
             }
         }
-        Iterator<AssetItem> it = packageItem.getAssets();
-        ((VersionedAssetItemIterator)it).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
-        while ( it.hasNext() ) {
-            AssetItem asset = (AssetItem) it.next();
+        for ( AssetItem asset : packageAssets.getAssets() ) {
             if ( !asset.getFormat().equals( AssetFormats.DRL ) && !asset.isArchived() && (selector.isAssetAllowed( asset )) ) {
-                buildAsset( asset );
+                assets.add( asset );
+            }
+        }
+
+        ParallelAssetCompiler parallelCompiler = prepareParallelCompilation( assets );
+        try {
+            for ( AssetItem asset : assets ) {
+                if ( parallelCompiler != null && parallelCompiler.isPending( asset.getUUID() ) ) {
+                    buildAsset( asset,
+                                parallelCompiler.take( asset.getUUID() ) );
+                } else {
+                    buildAsset( asset );
+                }
                 includedAssets.append( asset.getName() + ", " );
             }
+        } finally {
+            if ( parallelCompiler != null ) {
+                parallelCompiler.cancel();
+            }
+            builder.releaseDSLExpander();
         }
         log.info( includedAssets.toString() );
     }
 
+    /**
+     * Hands the assets that can generate their DRL away from the repository
+     * session over to the worker pool, so that DRL generation and parsing runs
+     * concurrently while the package builder merges the results one by one, in
+     * the original order.
+     * 
+     * @return null if there is nothing worth doing in parallel.
+     */
+    private ParallelAssetCompiler prepareParallelCompilation(List<AssetItem> assets) {
+        if ( !ParallelAssetCompiler.isEnabled() || assets.size() < 2 ) {
+            return null;
+        }
+        ParallelAssetCompiler parallelCompiler = new ParallelAssetCompiler( builder );
+        for ( AssetItem asset : assets ) {
+            ContentHandler contentHandler = ContentManager.getHandler( asset.getFormat() );
+            if ( contentHandler instanceof IParallelCompilable && !asset.getDisabled() ) {
+                if ( incremental && getValidFragment( asset ) != null ) {
+                    continue;
+                }
+                parallelCompiler.submit( asset.getUUID(),
+                                         ((IParallelCompilable) contentHandler).prepareDRL( builder,
+                                                                                            asset ) );
+            }
+        }
+        return parallelCompiler;
+    }
+
+    /**
+     * Merges an asset that was parsed by the worker pool into the package.
+     */
+    private void buildAsset(AssetItem asset,
+                            ParallelAssetCompiler.ParsedAsset parsed) {
+        if ( parsed.hasErrors() ) {
+            for ( String error : parsed.getErrors() ) {
+                this.errors.add( new ContentAssemblyError( asset,
+                                                           error ) );
+            }
+            return;
+        }
+        if ( parsed.getPackageDescr() == null ) {
+            return;
+        }
+        if ( incremental ) {
+            builder.startRecording();
+        }
+        builder.addPackage( parsed.getPackageDescr() );
+        List<byte[]> descriptors = builder.stopRecording();
+        if ( builder.hasErrors() ) {
+            this.recordBuilderErrors( asset );
+            // clear the errors, so we don't double report.
+            builder.clearErrors();
+        } else if ( incremental ) {
+            storeFragment( asset,
+                           descriptors );
+        }
+    }
+
     /**
      * Builds assets that are "rule" assets (ie things that are not functions
      * etc).
@@ -251,14 +392,25 @@ public class ContentPackageAssembler {
     private void buildAsset(AssetItem asset) {
         ContentHandler contentHandler = ContentManager.getHandler( asset.getFormat() );
         if ( contentHandler instanceof ICompilable && !asset.getDisabled() ) {
+            if ( incremental && buildAssetFromFragment( asset ) ) {
+                return;
+            }
             try {
+                if ( incremental ) {
+                    builder.startRecording();
+                }
+                int errorCount = this.errors.size();
                 ((ICompilable) contentHandler).compile( builder,
                                                         asset,
                                                         new ErrorLogger() );
+                List<byte[]> descriptors = builder.stopRecording();
                 if ( builder.hasErrors() ) {
                     this.recordBuilderErrors( asset );
                     // clear the errors, so we don't double report.
                     builder.clearErrors();
+                } else if ( incremental && errorCount == this.errors.size() && descriptors.size() > 0 ) {
+                    storeFragment( asset,
+                                   descriptors );
                 }
             } catch ( DroolsParserException e ) {
                 throw new RulesRepositoryException( e );
@@ -268,6 +420,94 @@ public class ContentPackageAssembler {
         }
     }
 
+    /**
+     * Adds the asset from the output of a previous build, if there is one that
+     * is still valid.
+     * 
+     * @return true if the asset was added, false if it needs to be compiled.
+     */
+    private boolean buildAssetFromFragment(AssetItem asset) {
+        CompiledFragmentStore.CompiledFragment fragment = getValidFragment( asset );
+        if ( fragment == null ) {
+            return false;
+        }
+        for ( PackageDescr descr : fragment.getDescriptors() ) {
+            builder.addPackage( descr );
+        }
+        if ( builder.hasErrors() ) {
+            this.recordBuilderErrors( asset );
+            builder.clearErrors();
+        }
+        builtAssetUUIDs.add( asset.getUUID() );
+        return true;
+    }
+
+    /**
+     * Looks each asset up in the store once per build, however often it is
+     * asked for.
+     */
+    private CompiledFragmentStore.CompiledFragment getValidFragment(AssetItem asset) {
+        if ( validFragments.containsKey( asset.getUUID() ) ) {
+            return validFragments.get( asset.getUUID() );
+        }
+        CompiledFragmentStore.CompiledFragment fragment = CompiledFragmentStore.getInstance().get( packageItem.getUUID(),
+                                                                                                   asset.getUUID(),
+                                                                                                   asset.getVersionNumber(),
+                                                                                                   lastModified( asset ),
+                                                                                                   dependencyFingerprint );
+        validFragments.put( asset.getUUID(),
+                            fragment );
+        return fragment;
+    }
+
+    private void storeFragment(AssetItem asset,
+                               List<byte[]> descriptors) {
+        CompiledFragmentStore.getInstance().put( packageItem.getUUID(),
+                                                 asset.getUUID(),
+                                                 new CompiledFragmentStore.CompiledFragment( asset.getVersionNumber(),
+                                                                                             lastModified( asset ),
+                                                                                             dependencyFingerprint,
+                                                                                             descriptors ) );
+        builtAssetUUIDs.add( asset.getUUID() );
+    }
+
+    private static long lastModified(VersionableItem item) {
+        Calendar lastModified = item.getLastModified();
+        return lastModified == null ? -1 : lastModified.getTimeInMillis();
+    }
+
+    /**
+     * Works out a fingerprint of everything, other than the asset itself, that
+     * the compiled output of a rule asset depends on.
+     */
+    private String computeDependencyFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append( DroolsHeader.getDroolsHeader( packageItem ) ).append( '\n' );
+        fingerprint.append( packageItem.getCategoryRules( true ) ).append( '\n' );
+        fingerprint.append( packageItem.getCategoryRules( false ) ).append( '\n' );
+
+        for ( AssetItem dependency : packageAssets.listAssetsByFormat( DEPENDENCY_FORMATS ) ) {
+            fingerprint.append( dependency.getUUID() ).append( ':' );
+            fingerprint.append( dependency.getVersionNumber() ).append( ':' );
+            fingerprint.append( lastModified( dependency ) ).append( ':' );
+            fingerprint.append( dependency.getDisabled() ).append( '\n' );
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "MD5" );
+            byte[] hash = digest.digest( fingerprint.toString().getBytes( "UTF-8" ) );
+            StringBuilder hex = new StringBuilder();
+            for ( byte b : hash ) {
+                hex.append( Integer.toHexString( (b & 0xff) | 0x100 ).substring( 1 ) );
+            }
+            return hex.toString();
+        } catch ( NoSuchAlgorithmException e ) {
+            return fingerprint.toString();
+        } catch ( UnsupportedEncodingException e ) {
+            return fingerprint.toString();
+        }
+    }
+
     private void buildAsset(RuleAsset asset) {
         ContentHandler contentHandler = ContentManager.getHandler( asset.metaData.format );
         if ( contentHandler instanceof ICompilable && !asset.metaData.disabled ) {
@@ -299,6 +539,10 @@ public class ContentPackageAssembler {
         // firstly we loadup the classpath
         builder.addPackage( new PackageDescr( packageItem.getName() ) );
 
+        if ( incremental ) {
+            dependencyFingerprint = computeDependencyFingerprint();
+        }
+
         loadDeclaredTypes();
         // now we deal with the header (imports, templates, globals).
         addDrl( DroolsHeader.getDroolsHeader( packageItem ) );
@@ -312,13 +556,11 @@ public class ContentPackageAssembler {
         loadDSLFiles();
 
         // finally, any functions we will load at this point.
-        AssetItemIterator it = this.packageItem.listAssetsByFormat( new String[]{AssetFormats.FUNCTION} );
-        ((VersionedAssetItemIterator)it).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
+        List<AssetItem> functions = packageAssets.listAssetsByFormat( AssetFormats.FUNCTION );
 
         // Adds the function DRLs as one string because they might be calling each others.
         StringBuilder stringBuilder = new StringBuilder();
-        while ( it.hasNext() ) {
-            AssetItem func = it.next();
+        for ( AssetItem func : functions ) {
             if ( !func.getDisabled() ) {
                 stringBuilder.append( func.getContent() );
             }
@@ -327,11 +569,8 @@ public class ContentPackageAssembler {
         // If the function part had errors we need to add them one by one to find out which one is bad.
         if ( builder.hasErrors() ) {
             builder.clearErrors();
-            it = this.packageItem.listAssetsByFormat( new String[]{AssetFormats.FUNCTION} );
-            ((VersionedAssetItemIterator)it).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
-           
-            while ( it.hasNext() ) {
-                AssetItem func = it.next();
+
+            for ( AssetItem func : functions ) {
                 if ( !func.getDisabled() ) {
                     addDrl( func.getContent() );
                     if ( builder.hasErrors() ) {
@@ -346,10 +585,7 @@ public class ContentPackageAssembler {
     }
 
     private void loadDeclaredTypes() {
-        AssetItemIterator it = this.packageItem.listAssetsByFormat( new String[]{AssetFormats.DRL_MODEL} );
-        ((VersionedAssetItemIterator)it).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
-        while ( it.hasNext() ) {
-            AssetItem as = it.next();
+        for ( AssetItem as : packageAssets.listAssetsByFormat( AssetFormats.DRL_MODEL ) ) {
             if ( !as.getDisabled() ) {
                 try {
                     String content = as.getContent();
@@ -374,7 +610,7 @@ public class ContentPackageAssembler {
 
     private void loadDSLFiles() {
         // now we load up the DSL files
-        builder.setDSLFiles( BRMSPackageBuilder.getDSLMappingFiles( packageItem,
+        builder.setDSLFiles( BRMSPackageBuilder.getDSLMappingFiles( packageAssets,
                                                                     new BRMSPackageBuilder.DSLErrorEvent() {
                                                                         public void recordError(AssetItem asset,
                                                                                                 String message) {
@@ -471,7 +707,7 @@ public class ContentPackageAssembler {
         src.append( DroolsHeader.getDroolsHeader( this.packageItem ) + "\n\n" );
 
         // now we load up the DSL files
-        builder.setDSLFiles( BRMSPackageBuilder.getDSLMappingFiles( packageItem,
+        builder.setDSLFiles( BRMSPackageBuilder.getDSLMappingFiles( packageAssets,
                                                                     new BRMSPackageBuilder.DSLErrorEvent() {
                                                                         public void recordError(AssetItem asset,
                                                                                                 String message) {
@@ -481,20 +717,15 @@ public class ContentPackageAssembler {
                                                                     } ) );
 
         // do the functions and declared types.
-        AssetItemIterator it = this.packageItem.listAssetsByFormat( new String[]{AssetFormats.FUNCTION, AssetFormats.DRL_MODEL} );
-        ((VersionedAssetItemIterator)it).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
-        while ( it.hasNext() ) {
-            AssetItem func = it.next();
+        for ( AssetItem func : packageAssets.listAssetsByFormat( AssetFormats.FUNCTION,
+                                                                 AssetFormats.DRL_MODEL ) ) {
             if ( !func.isArchived() && !func.getDisabled() ) {
                 src.append( func.getContent() ).append( "\n\n" );
             }
         }
 
         // now the rules
-        Iterator<AssetItem> iter = packageItem.getAssets();
-        ((VersionedAssetItemIterator)iter).setReturnAssetsWithVersionsSpecifiedByDependencies(true);
-        while ( iter.hasNext() ) {
-            AssetItem asset = (AssetItem) iter.next();
+        for ( AssetItem asset : packageAssets.getAssets() ) {
             if ( !asset.isArchived() && !asset.getDisabled() ) {
 
                 ContentHandler handler = ContentManager.getHandler( asset.getFormat() );
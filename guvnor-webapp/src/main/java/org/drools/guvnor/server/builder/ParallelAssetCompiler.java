@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.builder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.drools.compiler.DrlParser;
+import org.drools.compiler.DroolsError;
+import org.drools.compiler.DroolsParserException;
+import org.drools.guvnor.server.util.WorkerPools;
+import org.drools.lang.descr.PackageDescr;
+import org.drools.repository.RulesRepositoryException;
+
+/**
+ * Generates the DRL of rule assets and parses it to package descriptors on a
+ * shared pool of worker threads. Merging the descriptors into the package
+ * builder is left to the caller, and has to happen on one thread.
+ *
+ * The size of the pool is taken from the "guvnor.build.threads" system
+ * property, and defaults to the number of processors. A size of 1 turns
+ * parallel builds off.
+ */
+public class ParallelAssetCompiler {
+
+    public static final String     THREADS_PROPERTY = "guvnor.build.threads";
+
+    private static final int       THREADS          = Integer.getInteger( THREADS_PROPERTY,
+                                                                          Runtime.getRuntime().availableProcessors() );
+
+    private final Map<String, Future<ParsedAsset>> pending = new HashMap<String, Future<ParsedAsset>>();
+
+    private final BRMSPackageBuilder               builder;
+
+    public ParallelAssetCompiler() {
+        this( null );
+    }
+
+    /**
+     * @param builder
+     *            the builder the DRL generators use, whose DSL expanders are
+     *            dropped from the worker threads once each asset is done.
+     */
+    public ParallelAssetCompiler(BRMSPackageBuilder builder) {
+        this.builder = builder;
+    }
+
+    public static boolean isEnabled() {
+        return THREADS > 1;
+    }
+
+    private static ExecutorService getExecutor() {
+        return WorkerPools.getExecutor( "build",
+                                        THREADS );
+    }
+
+    /**
+     * Queues up DRL generation and parsing for the given asset.
+     *
+     * @param drlGenerator
+     *            as returned by IParallelCompilable.prepareDRL.
+     */
+    public void submit(String assetUUID,
+                       final Callable<String> drlGenerator) {
+        pending.put( assetUUID,
+                     getExecutor().submit( new Callable<ParsedAsset>() {
+                         public ParsedAsset call() throws Exception {
+                             try {
+                                 return parse( drlGenerator.call() );
+                             } finally {
+                                 if ( builder != null ) {
+                                     builder.releaseDSLExpander();
+                                 }
+                             }
+                         }
+                     } ) );
+    }
+
+    public boolean isPending(String assetUUID) {
+        return pending.containsKey( assetUUID );
+    }
+
+    /**
+     * Waits for the given asset to be parsed.
+     */
+    public ParsedAsset take(String assetUUID) {
+        Future<ParsedAsset> future = pending.remove( assetUUID );
+        try {
+            return future.get();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RulesRepositoryException( "Interrupted while waiting for the asset to compile.",
+                                                e );
+        } catch ( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new RulesRepositoryException( cause );
+        }
+    }
+
+    /**
+     * Gives up on anything that has not been taken yet.
+     */
+    public void cancel() {
+        for ( Future<ParsedAsset> future : pending.values() ) {
+            future.cancel( true );
+        }
+        pending.clear();
+    }
+
+    static ParsedAsset parse(String drl) throws DroolsParserException {
+        if ( drl == null || "".equals( drl.trim() ) ) {
+            return new ParsedAsset( null,
+                                    new ArrayList<String>() );
+        }
+        DrlParser parser = new DrlParser();
+        PackageDescr descr = parser.parse( drl );
+        List<String> errors = new ArrayList<String>();
+        if ( parser.hasErrors() ) {
+            for ( DroolsError error : parser.getErrors() ) {
+                errors.add( error.getMessage() );
+            }
+        } else if ( descr == null ) {
+            errors.add( "Parser returned a null Package" );
+        }
+        return new ParsedAsset( descr,
+                                errors );
+    }
+
+    /**
+     * The outcome of parsing the DRL of one asset.
+     */
+    public static class ParsedAsset {
+        private final PackageDescr packageDescr;
+        private final List<String> errors;
+
+        ParsedAsset(PackageDescr packageDescr,
+                    List<String> errors) {
+            this.packageDescr = packageDescr;
+            this.errors = errors;
+        }
+
+        /**
+         * @return the descriptor, or null if the asset had no DRL.
+         */
+        public PackageDescr getPackageDescr() {
+            return packageDescr;
+        }
+
+        public boolean hasErrors() {
+            return errors.size() > 0;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+}
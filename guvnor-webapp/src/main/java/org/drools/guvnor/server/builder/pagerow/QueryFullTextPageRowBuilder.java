@@ -19,10 +19,9 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import org.drools.guvnor.client.rpc.PackageConfigData;
 import org.drools.guvnor.client.rpc.QueryPageRequest;
 import org.drools.guvnor.client.rpc.QueryPageRow;
-import org.drools.guvnor.server.PackageFilter;
+import org.drools.guvnor.server.AssetItemFilter;
 import org.drools.guvnor.server.security.RoleTypes;
 import org.drools.guvnor.server.util.QueryPageRowCreator;
 import org.drools.repository.AssetItem;
@@ -35,7 +34,7 @@ public class QueryFullTextPageRowBuilder {
         int skipped = 0;
         Integer pageSize = pageRequest.getPageSize();
         int startRowIndex = pageRequest.getStartRowIndex();
-        RepositoryFilter filter = new PackageFilter();
+        RepositoryFilter filter = new AssetItemFilter();
 
         List<QueryPageRow> rowList = new ArrayList<QueryPageRow>();
 
@@ -62,14 +61,8 @@ public class QueryFullTextPageRowBuilder {
     private boolean checkPackagePermissionHelper(RepositoryFilter filter,
                                                  AssetItem item,
                                                  String roleType) {
-        return filter.accept( getConfigDataHelper( item.getPackage().getUUID() ),
+        return filter.accept( item,
                               roleType );
     }
 
-    private PackageConfigData getConfigDataHelper(String uuidStr) {
-        PackageConfigData data = new PackageConfigData();
-        data.uuid = uuidStr;
-        return data;
-    }
-
 }
@@ -4,11 +4,10 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import org.drools.guvnor.client.rpc.PackageConfigData;
 import org.drools.guvnor.client.rpc.QueryMetadataPageRequest;
 import org.drools.guvnor.client.rpc.QueryPageRow;
 import org.drools.guvnor.server.CategoryFilter;
-import org.drools.guvnor.server.PackageFilter;
+import org.drools.guvnor.server.AssetItemFilter;
 import org.drools.guvnor.server.security.RoleTypes;
 import org.drools.guvnor.server.util.QueryPageRowCreator;
 import org.drools.repository.AssetItem;
@@ -22,7 +21,7 @@ public class QueryMetadataPageRowBuilder {
         int skipped = 0;
         Integer pageSize = pageRequest.getPageSize();
         int startRowIndex = pageRequest.getStartRowIndex();
-        RepositoryFilter packageFilter = new PackageFilter();
+        RepositoryFilter packageFilter = new AssetItemFilter();
         RepositoryFilter categoryFilter = new CategoryFilter();
         List<QueryPageRow> rowList = new ArrayList<QueryPageRow>();
 
@@ -67,14 +66,8 @@ public class QueryMetadataPageRowBuilder {
     private boolean checkPackagePermissionHelper(RepositoryFilter filter,
                                                  AssetItem item,
                                                  String roleType) {
-        return filter.accept( getConfigDataHelper( item.getPackage().getUUID() ),
+        return filter.accept( item,
                               roleType );
     }
 
-    private PackageConfigData getConfigDataHelper(String uuidStr) {
-        PackageConfigData data = new PackageConfigData();
-        data.uuid = uuidStr;
-        return data;
-    }
-
 }
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drools.repository.RulesRepositoryException;
+
+/**
+ * The bounded cache the caches of Guvnor are built on.
+ *
+ * It holds at most maxSize values, evicting the least recently used one when
+ * full. Values that have not been used for idleTimeoutMillis, or were loaded
+ * more than maxAgeMillis ago, expire (0 for never), and with softValues the
+ * garbage collector may reclaim them under memory pressure.
+ *
+ * Values are loaded on demand. Concurrent callers for the same key share one
+ * load, and a load that was started before a remove or clear doesn't put its
+ * (by then stale) value into the cache.
+ */
+public class LoadingCache<K, V> {
+
+    private final int                             maxSize;
+    private final long                            idleTimeoutMillis;
+    private final long                            maxAgeMillis;
+    private final boolean                         softValues;
+
+    /**
+     * In access order, so the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<K, CacheEntry<V>> entries     = new LinkedHashMap<K, CacheEntry<V>>( 16,
+                                                                                                     0.75f,
+                                                                                                     true );
+
+    /**
+     * The loads in progress, so concurrent callers for the same key share one
+     * load.
+     */
+    private final ConcurrentMap<K, FutureTask<V>> loading     = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /**
+     * Bumped on every removal, so a load that was started before doesn't put
+     * a stale value back into the cache.
+     */
+    private final AtomicLong                      generation  = new AtomicLong();
+
+    private final AtomicLong                      hits        = new AtomicLong();
+    private final AtomicLong                      misses      = new AtomicLong();
+    private final AtomicLong                      evictions   = new AtomicLong();
+    private final AtomicLong                      expirations = new AtomicLong();
+    private final AtomicLong                      loads       = new AtomicLong();
+    private final AtomicLong                      loadWaits   = new AtomicLong();
+
+    public LoadingCache(int maxSize) {
+        this( maxSize,
+              0,
+              0,
+              false );
+    }
+
+    public LoadingCache(int maxSize,
+                        long idleTimeoutMillis,
+                        long maxAgeMillis,
+                        boolean softValues) {
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.softValues = softValues;
+    }
+
+    /**
+     * @return the cached value, or null if there isn't one.
+     */
+    public V get(final K key) {
+        V value = lookup( key );
+        if ( value == null ) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached value, or loads it with the given loader if there
+     * isn't one. If another thread is already loading the same key, this waits
+     * for that load and shares its result instead of loading it again.
+     *
+     * @throws ExecutionException
+     *             wrapping whatever the loader threw.
+     */
+    public V get(final K key,
+                 final Callable<? extends V> loader) throws ExecutionException {
+        V value = lookup( key );
+        if ( value != null ) {
+            this.hits.incrementAndGet();
+            return value;
+        }
+        this.misses.incrementAndGet();
+        return load( key,
+                     loader );
+    }
+
+    /**
+     * Loads the value with the given loader, ignoring any cached one.
+     * Concurrent loads of the same key are still shared.
+     *
+     * @throws ExecutionException
+     *             wrapping whatever the loader threw.
+     */
+    public V reload(final K key,
+                    final Callable<? extends V> loader) throws ExecutionException {
+        return load( key,
+                     loader );
+    }
+
+    private V load(final K key,
+                   final Callable<? extends V> loader) throws ExecutionException {
+        long startGeneration = this.generation.get();
+        FutureTask<V> task = new FutureTask<V>( new Callable<V>() {
+            public V call() throws Exception {
+                return loader.call();
+            }
+        } );
+        FutureTask<V> inProgress = this.loading.putIfAbsent( key,
+                                                             task );
+        if ( inProgress == null ) {
+            inProgress = task;
+            this.loads.incrementAndGet();
+            task.run();
+        } else {
+            this.loadWaits.incrementAndGet();
+        }
+
+        try {
+            V value = inProgress.get();
+            if ( inProgress == task && value != null && this.generation.get() == startGeneration ) {
+                put( key,
+                     value );
+            }
+            return value;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RulesRepositoryException( "Interrupted while waiting for a cache load.",
+                                                e );
+        } finally {
+            if ( inProgress == task ) {
+                this.loading.remove( key,
+                                     task );
+            }
+        }
+    }
+
+    public void put(final K key,
+                    final V value) {
+        synchronized ( this.entries ) {
+            this.entries.put( key,
+                              new CacheEntry<V>( value,
+                                                 this.softValues ) );
+            purge();
+        }
+    }
+
+    /**
+     * @return true if there was a value to remove.
+     */
+    public boolean remove(final K key) {
+        this.generation.incrementAndGet();
+        this.loading.remove( key );
+        synchronized ( this.entries ) {
+            return this.entries.remove( key ) != null;
+        }
+    }
+
+    public void clear() {
+        this.generation.incrementAndGet();
+        this.loading.clear();
+        synchronized ( this.entries ) {
+            this.entries.clear();
+        }
+    }
+
+    public boolean contains(final K key) {
+        synchronized ( this.entries ) {
+            CacheEntry<V> entry = this.entries.get( key );
+            return entry != null && !isExpired( entry,
+                                                System.currentTimeMillis() ) && entry.get() != null;
+        }
+    }
+
+    /**
+     * @return a copy of the keys, least recently used first.
+     */
+    public Set<K> keySet() {
+        synchronized ( this.entries ) {
+            return new LinkedHashSet<K>( this.entries.keySet() );
+        }
+    }
+
+    private V lookup(final K key) {
+        synchronized ( this.entries ) {
+            CacheEntry<V> entry = this.entries.get( key );
+            if ( entry == null ) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if ( isExpired( entry,
+                            now ) ) {
+                this.entries.remove( key );
+                this.expirations.incrementAndGet();
+                return null;
+            }
+            V value = entry.get();
+            if ( value == null ) {
+                // reclaimed by the garbage collector
+                this.entries.remove( key );
+                this.evictions.incrementAndGet();
+                return null;
+            }
+            entry.lastAccess = now;
+            return value;
+        }
+    }
+
+    /**
+     * Drops expired and reclaimed entries, then the least recently used ones
+     * until we are within bounds. Must hold the lock.
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        if ( this.idleTimeoutMillis > 0 || this.maxAgeMillis > 0 || this.softValues ) {
+            for ( Iterator<Map.Entry<K, CacheEntry<V>>> it = this.entries.entrySet().iterator(); it.hasNext(); ) {
+                CacheEntry<V> entry = it.next().getValue();
+                if ( isExpired( entry,
+                                now ) ) {
+                    it.remove();
+                    this.expirations.incrementAndGet();
+                } else if ( entry.get() == null ) {
+                    it.remove();
+                    this.evictions.incrementAndGet();
+                }
+            }
+        }
+        Iterator<K> eldest = this.entries.keySet().iterator();
+        while ( this.entries.size() > this.maxSize && eldest.hasNext() ) {
+            eldest.next();
+            eldest.remove();
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    private boolean isExpired(CacheEntry<V> entry,
+                              long now) {
+        return (this.idleTimeoutMillis > 0 && now - entry.lastAccess > this.idleTimeoutMillis)
+               || (this.maxAgeMillis > 0 && now - entry.loadedAt >= this.maxAgeMillis);
+    }
+
+    public int size() {
+        synchronized ( this.entries ) {
+            return this.entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return this.idleTimeoutMillis;
+    }
+
+    public long getMaxAgeMillis() {
+        return this.maxAgeMillis;
+    }
+
+    public boolean isSoftValues() {
+        return this.softValues;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return this.expirations.get();
+    }
+
+    public long getLoadCount() {
+        return this.loads.get();
+    }
+
+    public long getLoadWaitCount() {
+        return this.loadWaits.get();
+    }
+
+    public double getHitRatio() {
+        long total = getHitCount() + getMissCount();
+        return total == 0 ? 0 : (double) getHitCount() / total;
+    }
+
+    private static class CacheEntry<V> {
+        private final V                strongValue;
+        private final SoftReference<V> softValue;
+        private final long             loadedAt   = System.currentTimeMillis();
+        private long                   lastAccess = this.loadedAt;
+
+        CacheEntry(V value,
+                   boolean soft) {
+            if ( soft ) {
+                this.strongValue = null;
+                this.softValue = new SoftReference<V>( value );
+            } else {
+                this.strongValue = value;
+                this.softValue = null;
+            }
+        }
+
+        V get() {
+            return this.softValue == null ? this.strongValue : this.softValue.get();
+        }
+    }
+}
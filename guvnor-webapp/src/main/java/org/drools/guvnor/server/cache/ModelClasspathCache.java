@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.drools.guvnor.server.util.ManagementHelper;
+import org.drools.repository.AssetItem;
+
+/**
+ * Keeps the unzipped contents of model jars, so that builds, scenario runs and
+ * rule base loads don't have to read and unzip the same jars every time they
+ * need a class loader.
+ *
+ * Entries are keyed by the UUID, version, last modified time and size of each
+ * model asset, so packages using the same set of models share one entry, and
+ * uploading a new jar (or pinning another version) simply misses the cache.
+ * The resource maps handed out are read only.
+ *
+ * The cache holds at most "guvnor.model.cache.maxSize" sets of models (10 by
+ * default), evicting the least recently used one when full. Model jars can be
+ * large, so the cached sets are softly referenced, and the garbage collector
+ * reclaims them under memory pressure; set "guvnor.model.cache.softValues" to
+ * false to keep them until they are evicted. The statistics are published
+ * through JMX as "org.drools.guvnor:type=ModelClasspathCache".
+ */
+public class ModelClasspathCache
+    implements
+    ModelClasspathCacheMBean {
+
+    public static final String MAX_SIZE_PROPERTY    = "guvnor.model.cache.maxSize";
+    public static final String SOFT_VALUES_PROPERTY = "guvnor.model.cache.softValues";
+
+    private static ModelClasspathCache instance;
+
+    static {
+        instance = new ModelClasspathCache( Integer.getInteger( MAX_SIZE_PROPERTY,
+                                                                10 ),
+                                            Boolean.valueOf( System.getProperty( SOFT_VALUES_PROPERTY,
+                                                                                 "true" ) ) );
+        ManagementHelper.register( instance,
+                                   "ModelClasspathCache" );
+    }
+
+    private final LoadingCache<String, Map<String, byte[]>> classpaths;
+
+    ModelClasspathCache(int maxSize,
+                        boolean softValues) {
+        this.classpaths = new LoadingCache<String, Map<String, byte[]>>( maxSize,
+                                                                          0,
+                                                                          0,
+                                                                          softValues );
+    }
+
+    public static ModelClasspathCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * The cache key for the given model assets.
+     */
+    public static String getKey(List<AssetItem> models) {
+        StringBuilder key = new StringBuilder();
+        for ( AssetItem model : models ) {
+            Calendar lastModified = model.getLastModified();
+            key.append( model.getUUID() ).append( ':' );
+            key.append( model.getVersionNumber() ).append( ':' );
+            key.append( lastModified == null ? -1 : lastModified.getTimeInMillis() ).append( ':' );
+            key.append( model.getContentLength() ).append( '\n' );
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached resources for the given key, or reads them with the
+     * given loader if there aren't any. If another thread is already reading
+     * the same models, this waits for it and shares its result.
+     *
+     * @throws ExecutionException
+     *             wrapping whatever the loader threw.
+     */
+    public Map<String, byte[]> get(final String key,
+                                   final Callable<Map<String, byte[]>> loader) throws ExecutionException {
+        return this.classpaths.get( key,
+                                    new Callable<Map<String, byte[]>>() {
+                                        public Map<String, byte[]> call() throws Exception {
+                                            return Collections.unmodifiableMap( loader.call() );
+                                        }
+                                    } );
+    }
+
+    public void clearCache() {
+        this.classpaths.clear();
+    }
+
+    public int getSize() {
+        return this.classpaths.size();
+    }
+
+    public int getMaxSize() {
+        return this.classpaths.getMaxSize();
+    }
+
+    public boolean isSoftValues() {
+        return this.classpaths.isSoftValues();
+    }
+
+    public long getHitCount() {
+        return this.classpaths.getHitCount();
+    }
+
+    public long getMissCount() {
+        return this.classpaths.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return this.classpaths.getEvictionCount();
+    }
+
+    public long getLoadWaitCount() {
+        return this.classpaths.getLoadWaitCount();
+    }
+
+    public double getHitRatio() {
+        return this.classpaths.getHitRatio();
+    }
+}
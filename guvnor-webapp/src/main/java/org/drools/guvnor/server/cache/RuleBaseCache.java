@@ -1,12 +1,12 @@
 /*
  * Copyright 2011 JBoss Inc
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
  * the License at
- * 
+ *
  * http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
@@ -15,24 +15,55 @@
  */
 package org.drools.guvnor.server.cache;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.drools.RuleBase;
+import org.drools.guvnor.server.util.ManagementHelper;
 
-public class RuleBaseCache {
+/**
+ * Used for a cache of binary packages to avoid serialization from the
+ * database - for test scenarios.
+ *
+ * The cache holds at most "guvnor.rulebase.cache.maxSize" rule bases (100 by
+ * default), evicting the least recently used one when full. Rule bases that
+ * have not been used for "guvnor.rulebase.cache.idleTimeoutSeconds" (one hour
+ * by default, 0 for never) expire, and "guvnor.rulebase.cache.softValues"
+ * lets the garbage collector reclaim cached rule bases under memory pressure.
+ *
+ * The statistics are published through JMX as
+ * "org.drools.guvnor:type=RuleBaseCache".
+ */
+public class RuleBaseCache
+    implements
+    RuleBaseCacheMBean {
+
+    public static final String  MAX_SIZE_PROPERTY     = "guvnor.rulebase.cache.maxSize";
+    public static final String  IDLE_TIMEOUT_PROPERTY = "guvnor.rulebase.cache.idleTimeoutSeconds";
+    public static final String  SOFT_VALUES_PROPERTY  = "guvnor.rulebase.cache.softValues";
 
     // TODO: This class should be injected with DI Singleton (when we have working DI)
-    /**
-     * Used for a simple cache of binary packages to avoid serialization from
-     * the database - for test scenarios.
-     */
-    private Map<String, RuleBase> ruleBaseCache = Collections
-                                                        .synchronizedMap( new HashMap<String, RuleBase>() );
-    private static RuleBaseCache  instance      = new RuleBaseCache();
+    private static RuleBaseCache instance;
+
+    static {
+        instance = new RuleBaseCache( Integer.getInteger( MAX_SIZE_PROPERTY,
+                                                          100 ),
+                                      Long.getLong( IDLE_TIMEOUT_PROPERTY,
+                                                    3600 ),
+                                      Boolean.getBoolean( SOFT_VALUES_PROPERTY ) );
+        ManagementHelper.register( instance,
+                                   "RuleBaseCache" );
+    }
+
+    private final LoadingCache<String, RuleBase> ruleBaseCache;
 
-    private RuleBaseCache() {
+    RuleBaseCache(int maxSize,
+                  long idleTimeoutSeconds,
+                  boolean softValues) {
+        this.ruleBaseCache = new LoadingCache<String, RuleBase>( maxSize,
+                                                                 idleTimeoutSeconds * 1000,
+                                                                 0,
+                                                                 softValues );
     }
 
     public static RuleBaseCache getInstance() {
@@ -58,6 +89,78 @@ public class RuleBaseCache {
     }
 
     public boolean contains(final String uuid) {
-        return this.ruleBaseCache.containsKey( uuid );
+        return this.ruleBaseCache.contains( uuid );
+    }
+
+    /**
+     * Returns the cached rule base, or loads it with the given loader if there
+     * isn't one. If another thread is already loading the same package, this
+     * waits for that load and shares its result instead of loading it again.
+     *
+     * @throws ExecutionException
+     *             wrapping whatever the loader threw.
+     */
+    public RuleBase get(final String uuid,
+                        final Callable<RuleBase> loader) throws ExecutionException {
+        return this.ruleBaseCache.get( uuid,
+                                       loader );
+    }
+
+    /**
+     * Loads the rule base with the given loader, ignoring any cached one (for
+     * example because the package binary is out of date). Concurrent reloads
+     * of the same package still share one load.
+     *
+     * @throws ExecutionException
+     *             wrapping whatever the loader threw.
+     */
+    public RuleBase reload(final String uuid,
+                           final Callable<RuleBase> loader) throws ExecutionException {
+        return this.ruleBaseCache.reload( uuid,
+                                          loader );
+    }
+
+    public int getSize() {
+        return this.ruleBaseCache.size();
+    }
+
+    public int getMaxSize() {
+        return this.ruleBaseCache.getMaxSize();
+    }
+
+    public long getIdleTimeoutSeconds() {
+        return this.ruleBaseCache.getIdleTimeoutMillis() / 1000;
+    }
+
+    public boolean isSoftValues() {
+        return this.ruleBaseCache.isSoftValues();
+    }
+
+    public long getHitCount() {
+        return this.ruleBaseCache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return this.ruleBaseCache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return this.ruleBaseCache.getEvictionCount();
+    }
+
+    public long getExpirationCount() {
+        return this.ruleBaseCache.getExpirationCount();
+    }
+
+    public long getLoadCount() {
+        return this.ruleBaseCache.getLoadCount();
+    }
+
+    public long getLoadWaitCount() {
+        return this.ruleBaseCache.getLoadWaitCount();
+    }
+
+    public double getHitRatio() {
+        return this.ruleBaseCache.getHitRatio();
     }
 }
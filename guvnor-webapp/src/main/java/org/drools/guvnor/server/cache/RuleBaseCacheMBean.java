@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 JBoss Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+/**
+ * The statistics of the RuleBaseCache, as published through JMX.
+ */
+public interface RuleBaseCacheMBean {
+
+    int getSize();
+
+    int getMaxSize();
+
+    long getIdleTimeoutSeconds();
+
+    boolean isSoftValues();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getExpirationCount();
+
+    long getLoadCount();
+
+    /**
+     * The number of callers that waited for a load started by another caller,
+     * instead of loading the rule base themselves.
+     */
+    long getLoadWaitCount();
+
+    double getHitRatio();
+
+    void clearCache();
+
+}
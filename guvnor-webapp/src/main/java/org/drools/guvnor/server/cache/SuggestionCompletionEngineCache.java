@@ -0,0 +1,232 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+import java.util.Calendar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drools.guvnor.client.common.AssetFormats;
+import org.drools.guvnor.server.util.ManagementHelper;
+import org.drools.ide.common.client.modeldriven.SuggestionCompletionEngine;
+import org.drools.repository.AssetItem;
+import org.drools.repository.AssetItemIterator;
+import org.drools.repository.PackageItem;
+import org.drools.repository.VersionedAssetItemIterator;
+
+/**
+ * Keeps the suggestion completion engine of each package, so that opening an
+ * editor doesn't have to read the model jars, DSLs and enumerations and parse
+ * the declared types again every time.
+ *
+ * Entries are keyed by package UUID and the fingerprint of what the engine
+ * was built from: the version and last modified time of the
+ * package header and of every model jar, declarative model, DSL and
+ * enumeration asset in the package. The fingerprint only needs a look at the
+ * asset nodes, not their content, so a change to any of those assets (or
+ * pinning another version of one) simply misses the cache, and the engine
+ * built from the previous fingerprint is dropped. Checking in one of them also
+ * drops the engine straight away, see remove(). The engines handed out are
+ * shared, and must not be changed.
+ *
+ * The cache holds at most "guvnor.sce.cache.maxSize" packages (50 by default),
+ * evicting the least recently used one when full. Unless
+ * "guvnor.sce.cache.warmUp" is false, it is filled in the background at
+ * startup. The statistics are
+ * published through JMX as
+ * "org.drools.guvnor:type=SuggestionCompletionEngineCache".
+ */
+public class SuggestionCompletionEngineCache
+    implements
+    SuggestionCompletionEngineCacheMBean {
+
+    public static final String                                    MAX_SIZE_PROPERTY = "guvnor.sce.cache.maxSize";
+    public static final String                                    WARM_UP_PROPERTY  = "guvnor.sce.cache.warmUp";
+
+    /**
+     * The package header is stored as an asset of this name.
+     */
+    private static final String                                   HEADER_ASSET      = "drools";
+
+    private static SuggestionCompletionEngineCache                instance;
+
+    static {
+        instance = new SuggestionCompletionEngineCache( Integer.getInteger( MAX_SIZE_PROPERTY,
+                                                                            50 ) );
+        ManagementHelper.register( instance,
+                                   "SuggestionCompletionEngineCache" );
+    }
+
+    private final LoadingCache<String, SuggestionCompletionEngine> engines;
+
+    private final AtomicLong                                      invalidations     = new AtomicLong();
+
+    SuggestionCompletionEngineCache(int maxSize) {
+        this.engines = new LoadingCache<String, SuggestionCompletionEngine>( maxSize );
+    }
+
+    public static SuggestionCompletionEngineCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Whether checking in an asset of the given format changes the suggestion
+     * completion engine of its package.
+     */
+    public static boolean isEngineSource(String format) {
+        return AssetFormats.MODEL.equals( format ) || AssetFormats.DRL_MODEL.equals( format ) || AssetFormats.DSL.equals( format ) || AssetFormats.ENUMERATION.equals( format ) || "package".equals( format );
+    }
+
+    /**
+     * The fingerprint of everything the suggestion completion engine of the
+     * given package is built from, as the engine loader sees it.
+     */
+    public static String getFingerprint(PackageItem pkg) {
+        StringBuilder fingerprint = new StringBuilder();
+        if ( pkg.containsAsset( HEADER_ASSET ) ) {
+            append( fingerprint,
+                    pkg.loadAsset( HEADER_ASSET ) );
+        }
+        appendAll( fingerprint,
+                   pkg,
+                   AssetFormats.MODEL,
+                   true );
+        appendAll( fingerprint,
+                   pkg,
+                   AssetFormats.DSL,
+                   true );
+        appendAll( fingerprint,
+                   pkg,
+                   AssetFormats.DRL_MODEL,
+                   false );
+        appendAll( fingerprint,
+                   pkg,
+                   AssetFormats.ENUMERATION,
+                   false );
+        return fingerprint.toString();
+    }
+
+    private static void appendAll(StringBuilder fingerprint,
+                                  PackageItem pkg,
+                                  String format,
+                                  boolean withDependencies) {
+        fingerprint.append( format ).append( '\n' );
+        AssetItemIterator it = pkg.listAssetsByFormat( new String[]{format} );
+        ((VersionedAssetItemIterator) it).setReturnAssetsWithVersionsSpecifiedByDependencies( withDependencies );
+        while ( it.hasNext() ) {
+            append( fingerprint,
+                    it.next() );
+        }
+    }
+
+    private static void append(StringBuilder fingerprint,
+                               AssetItem asset) {
+        Calendar lastModified = asset.getLastModified();
+        fingerprint.append( asset.getUUID() ).append( ':' );
+        fingerprint.append( asset.getVersionNumber() ).append( ':' );
+        fingerprint.append( lastModified == null ? -1 : lastModified.getTimeInMillis() ).append( ':' );
+        fingerprint.append( asset.getDisabled() ).append( '\n' );
+    }
+
+    /**
+     * Returns the cached engine for the given package, or loads it with the
+     * given loader if there isn't one or it was built from something other
+     * than what the fingerprint describes. If another thread is already
+     * loading the same package, this waits for it and shares its result.
+     *
+     * @throws ExecutionException
+     *             wrapping whatever the loader threw.
+     */
+    public SuggestionCompletionEngine get(final String packageUUID,
+                                          final String fingerprint,
+                                          final Callable<SuggestionCompletionEngine> loader) throws ExecutionException {
+        String key = packageUUID + '\n' + fingerprint;
+        if ( !this.engines.contains( key ) ) {
+            // built from something that has changed since
+            removeAll( packageUUID );
+        }
+        return this.engines.get( key,
+                                 loader );
+    }
+
+    /**
+     * Drops the engine of the given package, for when something it is built
+     * from has been checked in.
+     */
+    public void remove(final String packageUUID) {
+        if ( removeAll( packageUUID ) ) {
+            this.invalidations.incrementAndGet();
+        }
+    }
+
+    private boolean removeAll(final String packageUUID) {
+        String prefix = packageUUID + '\n';
+        boolean removed = false;
+        for ( String key : this.engines.keySet() ) {
+            if ( key.startsWith( prefix ) ) {
+                removed |= this.engines.remove( key );
+            }
+        }
+        return removed;
+    }
+
+    public boolean contains(final String packageUUID) {
+        String prefix = packageUUID + '\n';
+        for ( String key : this.engines.keySet() ) {
+            if ( key.startsWith( prefix ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clearCache() {
+        this.engines.clear();
+    }
+
+    public int getSize() {
+        return this.engines.size();
+    }
+
+    public int getMaxSize() {
+        return this.engines.getMaxSize();
+    }
+
+    public long getHitCount() {
+        return this.engines.getHitCount();
+    }
+
+    public long getMissCount() {
+        return this.engines.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return this.engines.getEvictionCount();
+    }
+
+    public long getInvalidationCount() {
+        return this.invalidations.get();
+    }
+
+    public long getLoadWaitCount() {
+        return this.engines.getLoadWaitCount();
+    }
+
+    public double getHitRatio() {
+        return this.engines.getHitRatio();
+    }
+}
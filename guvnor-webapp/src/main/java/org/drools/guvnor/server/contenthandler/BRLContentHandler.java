@@ -18,6 +18,7 @@ package org.drools.guvnor.server.contenthandler;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.concurrent.Callable;
 
 import org.drools.compiler.DroolsParserException;
 import org.drools.guvnor.client.rpc.RuleAsset;
@@ -35,7 +36,7 @@ import com.google.gwt.user.client.rpc.SerializationException;
 
 public class BRLContentHandler extends ContentHandler
     implements
-    IRuleAsset {
+    IParallelCompilable {
 
     public void retrieveAssetContent(RuleAsset asset,
                                      PackageItem pkg,
@@ -89,6 +90,17 @@ public class BRLContentHandler extends ContentHandler
         stringBuilder.append( drl );
     }
 
+    public Callable<String> prepareDRL(final BRMSPackageBuilder builder,
+                                       AssetItem asset) {
+        final RuleModel model = buildModelFromAsset( asset );
+        return new Callable<String>() {
+            public String call() {
+                return getSourceDRL( model,
+                                     builder );
+            }
+        };
+    }
+
     private String getSourceDRL(RuleModel model,
                                 BRMSPackageBuilder builder) {
 
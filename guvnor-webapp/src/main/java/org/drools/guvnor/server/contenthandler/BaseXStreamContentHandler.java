@@ -19,6 +19,7 @@ package org.drools.guvnor.server.contenthandler;
 import org.drools.guvnor.client.rpc.RuleAsset;
 import org.drools.guvnor.client.rpc.WorkingSetConfigData;
 import org.drools.ide.common.client.modeldriven.brl.PortableObject;
+import org.drools.ide.common.server.util.PrettyPrintStaxDriver;
 import org.drools.repository.AssetItem;
 import org.drools.repository.PackageItem;
 import org.drools.repository.RulesRepositoryException;
@@ -26,12 +27,11 @@ import org.slf4j.Logger;
 
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
 
 public abstract class BaseXStreamContentHandler<T extends PortableObject> extends ContentHandler {
     protected final Logger log = org.slf4j.LoggerFactory.getLogger(getClass());
 
-    private static final XStream xt = new XStream(new DomDriver());
+    private static final XStream xt = new XStream(new PrettyPrintStaxDriver());
 
     protected XStream getXStream() {
         return xt;
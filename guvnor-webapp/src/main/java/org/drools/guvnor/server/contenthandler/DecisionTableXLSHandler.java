@@ -16,9 +16,13 @@
 
 package org.drools.guvnor.server.contenthandler;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.IOUtils;
 
 import org.drools.compiler.DroolsParserException;
 import org.drools.decisiontable.InputType;
@@ -28,6 +32,7 @@ import org.drools.guvnor.server.builder.BRMSPackageBuilder;
 import org.drools.guvnor.server.builder.ContentPackageAssembler.ErrorLogger;
 import org.drools.repository.AssetItem;
 import org.drools.repository.PackageItem;
+import org.drools.repository.RulesRepositoryException;
 
 import com.google.gwt.user.client.rpc.SerializationException;
 
@@ -36,7 +41,7 @@ import com.google.gwt.user.client.rpc.SerializationException;
  */
 public class DecisionTableXLSHandler extends ContentHandler
     implements
-    IRuleAsset {
+    IParallelCompilable {
 
     public void retrieveAssetContent(RuleAsset asset,
                                      PackageItem pkg,
@@ -87,6 +92,24 @@ public class DecisionTableXLSHandler extends ContentHandler
         builder.addPackageFromDrl( new StringReader( stringBuilder.toString() ) );
     }
 
+    public Callable<String> prepareDRL(BRMSPackageBuilder builder,
+                                       AssetItem asset) {
+        InputStream in = asset.getBinaryContentAttachment();
+        final byte[] spreadsheet;
+        try {
+            spreadsheet = in == null ? null : IOUtils.toByteArray( in );
+        } catch ( IOException e ) {
+            throw new RulesRepositoryException( e );
+        } finally {
+            IOUtils.closeQuietly( in );
+        }
+        return new Callable<String>() {
+            public String call() {
+                return getDRL( spreadsheet == null ? null : new ByteArrayInputStream( spreadsheet ) );
+            }
+        };
+    }
+
     public String getRawDRL(AssetItem asset) {
         return getDRL( asset.getBinaryContentAttachment() );
     }
@@ -18,6 +18,7 @@ package org.drools.guvnor.server.contenthandler;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.concurrent.Callable;
 
 import org.drools.compiler.DroolsParserException;
 import org.drools.guvnor.client.rpc.RuleAsset;
@@ -38,7 +39,7 @@ import com.google.gwt.user.client.rpc.SerializationException;
  */
 public class GuidedDTContentHandler extends ContentHandler
     implements
-    IRuleAsset {
+    IParallelCompilable {
 
     public void retrieveAssetContent(RuleAsset asset,
                                      PackageItem pkg,
@@ -95,12 +96,25 @@ public class GuidedDTContentHandler extends ContentHandler
         stringBuilder.append( drl );
     }
 
+    public Callable<String> prepareDRL(BRMSPackageBuilder builder,
+                                       AssetItem asset) {
+        final TypeSafeGuidedDecisionTable model = buildModelFromAsset( asset );
+        return new Callable<String>() {
+            public String call() {
+                return GuidedDTDRLPersistence.getInstance().marshal( model );
+            }
+        };
+    }
+
     public String getRawDRL(AssetItem asset) {
+        return GuidedDTDRLPersistence.getInstance().marshal( buildModelFromAsset( asset ) );
+    }
+
+    private TypeSafeGuidedDecisionTable buildModelFromAsset(AssetItem asset) {
         TypeSafeGuidedDecisionTable model = GuidedDTXMLPersistence.getInstance().unmarshal( asset.getContent() );
         model.setTableName( asset.getName() );
         model.setParentName( this.parentNameFromCategory( asset,
                                                           model.getParentName() ) );
-
-        return GuidedDTDRLPersistence.getInstance().marshal( model );
+        return model;
     }
 }
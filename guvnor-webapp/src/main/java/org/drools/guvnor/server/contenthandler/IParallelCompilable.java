@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.contenthandler;
+
+import java.util.concurrent.Callable;
+
+import org.drools.guvnor.server.builder.BRMSPackageBuilder;
+import org.drools.repository.AssetItem;
+
+/**
+ * This interface indicates that a rule asset can render itself to DRL away
+ * from the repository session, so package builds can generate the DRL on a
+ * worker thread.
+ */
+public interface IParallelCompilable
+    extends
+    IRuleAsset {
+
+    /**
+     * This will be called on the thread that owns the repository session, and
+     * should read everything the asset needs from the repository. The returned
+     * generator may then be called from any thread, and returns the DRL source
+     * for the asset (an empty string if there is nothing to compile).
+     */
+    public Callable<String> prepareDRL(BRMSPackageBuilder builder,
+                                       AssetItem asset);
+
+}
@@ -17,7 +17,6 @@
 package org.drools.guvnor.server.files;
 
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import javax.servlet.ServletException;
@@ -27,6 +26,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.drools.guvnor.client.common.HTMLFileManagerFields;
 import org.drools.guvnor.client.rpc.DetailedSerializationException;
 import org.drools.guvnor.server.util.FormData;
+import org.drools.repository.AssetItem;
 
 /**
  * This is for dealing with assets that have an attachment (ie assets that are really an attachment).
@@ -75,16 +75,10 @@ public class AssetFileServlet extends RepositoryServlet {
 
     protected void processAttachmentDownload(String uuid,
                                            HttpServletResponse response) throws IOException {
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        String filename = getFileManager().loadFileAttachmentByUUID( uuid,
-                                                                     output );
-
-        response.setContentType( "application/x-download" );
-        response.setHeader( "Content-Disposition",
-                            "attachment; filename=" + filename + ";" );
-        response.setContentLength( output.size() );
-        response.getOutputStream().write( output.toByteArray() );
-        response.getOutputStream().flush();
+        AssetItem asset = getFileManager().loadAttachmentAsset( uuid );
+        streamAttachment( response,
+                          FileManagerUtils.getAttachmentFileName( asset ),
+                          asset );
     }
 
     private String processAttachFileToAsset(FormData uploadItem) throws IOException {
@@ -23,12 +23,15 @@ import org.drools.guvnor.server.util.Discussion;
 import org.drools.guvnor.server.util.ISO8601;
 import org.drools.guvnor.client.rpc.DiscussionRecord;
 import org.drools.repository.AssetItem;
+import org.drools.repository.AssetItemIterator;
 import org.drools.repository.PackageItem;
 import org.drools.repository.AssetItemPageResult;
 import org.drools.core.util.StringUtils;
 import org.jboss.seam.contexts.Contexts;
 import org.jboss.seam.security.Identity;
 import org.jboss.seam.security.AuthorizationException;
+import org.mvel2.templates.CompiledTemplate;
+import org.mvel2.templates.TemplateCompiler;
 import org.mvel2.templates.TemplateRuntime;
 
 import javax.servlet.http.HttpServletRequest;
@@ -36,11 +39,28 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.ServletException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
 import java.util.*;
 
+/**
+ * Serves Atom feeds of the assets in a package or category, and of the
+ * discussion of an asset.
+ *
+ * The package and category feeds can be paged through with the "limit"
+ * parameter, which is the most entries to return, and the "cursor"
+ * parameter, which is where to carry on from - a feed with more entries
+ * after it has a "next" link with the cursor filled in. Without a limit all
+ * the entries are returned, written out one at a time as the assets are
+ * loaded. The package feed also answers conditional GETs, based on when
+ * anything in the package last changed.
+ */
 public class FeedServlet extends RepositoryServlet {
 
     private static final String VIEW_URL = "viewUrl";
+    private static final String LIMIT = "limit";
+    private static final String CURSOR = "cursor";
    
     @Override
     protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
@@ -98,13 +118,17 @@ public class FeedServlet extends RepositoryServlet {
         String cat = request.getParameter("name");
         String status = request.getParameter("status");
         checkCategoryPermission(cat);
-        AssetItemPageResult pg = getFileManager().getRepository().findAssetsByCategory(cat, false, 0, -1);
-        Iterator<AssetItem> it = pg.assets.iterator();
+        int limit = getIntParameter(request, LIMIT, 1, -1);
+        int cursor = getIntParameter(request, CURSOR, 0, 0);
+        AssetItemPageResult pg = getFileManager().getRepository().findAssetsByCategory(cat, false, cursor, limit);
         List<AtomFeed.AtomEntry> entries = new ArrayList<AtomFeed.AtomEntry>();
-        buildEntries(request, entries, it, status);
+        buildEntries(request, entries, pg.assets.iterator(), status);
         AtomFeed feed = new AtomFeed("Category: " + cat, Calendar.getInstance(), request.getServerName() + cat, request.getParameter(VIEW_URL), request.getRequestURL().toString(), entries, "Guvnor category of items: " + cat);
+        if (pg.hasNext) {
+            feed.setFeedNext(buildNextUrl(request, cursor + limit));
+        }
         response.setContentType("application/atom+xml; charset=UTF-8");
-        response.getWriter().print(feed.getAtom());
+        feed.write(response.getWriter());
     }
 
     void checkCategoryPermission(String cat) {
@@ -120,23 +144,138 @@ public class FeedServlet extends RepositoryServlet {
 
         PackageItem pkg = getFileManager().getRepository().loadPackage(packageName);
 
-        List<AtomFeed.AtomEntry> entries = new ArrayList<AtomFeed.AtomEntry>();
-        Iterator<AssetItem> it = pkg.getAssets();
-        buildEntries(request, entries, it, request.getParameter("status"));
+        //HTTP dates only go down to the second
+        long lastModified = pkg.getContentLastModified().getTimeInMillis() / 1000 * 1000;
+        long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        if (ifModifiedSince > 0 && lastModified <= ifModifiedSince) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        AssetItemIterator it = pkg.getAssets();
+        String status = request.getParameter("status");
+        int limit = getIntParameter(request, LIMIT, 1, -1);
+        int cursor = getIntParameter(request, CURSOR, 0, 0);
+        if (cursor > 0) {
+            try {
+                it.skip(cursor);
+            } catch (NoSuchElementException e) {
+                //past the end, so an empty page
+            }
+        }
+
+        Iterator<AtomFeed.AtomEntry> entries;
+        String next = null;
+        if (limit < 0) {
+            entries = new EntryIterator(request, it, status);
+        } else {
+            //only one page is held, and we need to know whether there is another
+            List<AtomFeed.AtomEntry> page = new ArrayList<AtomFeed.AtomEntry>();
+            while (it.hasNext()) {
+                long position = it.getPosition();
+                AssetItem as = it.next();
+                if (isVisible(as, status)) {
+                    if (page.size() == limit) {
+                        next = buildNextUrl(request, position);
+                        break;
+                    }
+                    page.add(new AtomFeed.AtomEntry(request, as));
+                }
+            }
+            entries = page.iterator();
+        }
 
         AtomFeed feed = new AtomFeed("Knowledge package: " + pkg.getName(), pkg.getLastModified(), pkg.getUUID(), request.getParameter(VIEW_URL), request.getRequestURL().toString(), entries, pkg.getDescription());
+        feed.setFeedNext(next);
+        response.setDateHeader("Last-Modified", lastModified);
         response.setContentType("application/atom+xml; charset=UTF-8");
-        response.getWriter().print(feed.getAtom());
+        feed.write(response.getWriter());
     }
 
     private void buildEntries(HttpServletRequest request, List<AtomFeed.AtomEntry> entries, Iterator<AssetItem> it, String status) {
         while(it.hasNext()) {
             AssetItem as = it.next();
-            if (!as.isArchived() && !as.getDisabled())  {
-                if (status == null || status.equals("*") || as.getStateDescription().equals(status)) {
-                    entries.add(new AtomFeed.AtomEntry(request, as));
+            if (isVisible(as, status)) {
+                entries.add(new AtomFeed.AtomEntry(request, as));
+            }
+        }
+    }
+
+    private static boolean isVisible(AssetItem as, String status) {
+        if (!as.isArchived() && !as.getDisabled())  {
+            return status == null || status.equals("*") || as.getStateDescription().equals(status);
+        }
+        return false;
+    }
+
+    private static int getIntParameter(HttpServletRequest request, String name, int min, int defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(Integer.parseInt(value), min);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The URL of the next page: this request with the cursor moved on. The
+     * ampersands are escaped, as it goes straight into the feed XML.
+     */
+    private static String buildNextUrl(HttpServletRequest request, long cursor) throws IOException {
+        StringBuilder url = new StringBuilder(request.getRequestURL());
+        String separator = "?";
+        for (String name : new String[]{"name", "status", VIEW_URL, LIMIT}) {
+            String value = request.getParameter(name);
+            if (value != null) {
+                url.append(separator).append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+                separator = "&amp;";
+            }
+        }
+        url.append(separator).append(CURSOR).append('=').append(cursor);
+        return url.toString();
+    }
+
+    /**
+     * Turns the visible assets into feed entries as they are asked for, so
+     * only the asset being written out needs to be loaded.
+     */
+    private static class EntryIterator implements Iterator<AtomFeed.AtomEntry> {
+
+        private final HttpServletRequest request;
+        private final Iterator<AssetItem> assets;
+        private final String status;
+        private AtomFeed.AtomEntry next;
+
+        EntryIterator(HttpServletRequest request, Iterator<AssetItem> assets, String status) {
+            this.request = request;
+            this.assets = assets;
+            this.status = status;
+        }
+
+        public boolean hasNext() {
+            while (next == null && assets.hasNext()) {
+                AssetItem as = assets.next();
+                if (isVisible(as, status)) {
+                    next = new AtomFeed.AtomEntry(request, as);
                 }
             }
+            return next != null;
+        }
+
+        public AtomFeed.AtomEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            AtomFeed.AtomEntry entry = next;
+            next = null;
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
     }
 
@@ -150,7 +289,15 @@ public class FeedServlet extends RepositoryServlet {
 
     public static class AtomFeed {
 
-        private static String TEMPLATE = StringUtils.readFileAsString(new InputStreamReader(AtomFeed.class.getResourceAsStream("/atom-feed-template.xml")));
+        private static final String TEMPLATE = StringUtils.readFileAsString(new InputStreamReader(AtomFeed.class.getResourceAsStream("/atom-feed-template.xml")));
+
+        private static final String ENTRIES_START = "@foreach{entry : feed.entries}";
+        private static final String ENTRIES_END = "@end{}";
+
+        //The template is split around the entries, so they can be written out one at a time
+        private static final CompiledTemplate HEAD = TemplateCompiler.compileTemplate(TEMPLATE.substring(0, TEMPLATE.indexOf(ENTRIES_START)));
+        private static final CompiledTemplate ENTRY = TemplateCompiler.compileTemplate(TEMPLATE.substring(TEMPLATE.indexOf(ENTRIES_START) + ENTRIES_START.length(), TEMPLATE.indexOf(ENTRIES_END, TEMPLATE.indexOf(ENTRIES_START))));
+        private static final CompiledTemplate TAIL = TemplateCompiler.compileTemplate(TEMPLATE.substring(TEMPLATE.indexOf(ENTRIES_END, TEMPLATE.indexOf(ENTRIES_START)) + ENTRIES_END.length()));
 
 
         private String feedTitle;
@@ -158,10 +305,18 @@ public class FeedServlet extends RepositoryServlet {
         private String feedId;
         private String feedAlternate;
         private String feedSelf;
+        private String feedNext;
         private String subtitle;
-        private Collection<AtomEntry> entries;
+        private Iterator<AtomEntry> entries;
 
         public AtomFeed(String title, Calendar whenUpdate, String feedId, String feedAlternate, String feedSelf, Collection<AtomEntry> entries, String subtitle) {
+            this(title, whenUpdate, feedId, feedAlternate, feedSelf, entries.iterator(), subtitle);
+        }
+
+        /**
+         * The entries are only gone through once, when the feed is written.
+         */
+        public AtomFeed(String title, Calendar whenUpdate, String feedId, String feedAlternate, String feedSelf, Iterator<AtomEntry> entries, String subtitle) {
             this.feedTitle = title;
             this.feedUpdated = ISO8601.format(whenUpdate);
             this.feedId = feedId;
@@ -172,18 +327,36 @@ public class FeedServlet extends RepositoryServlet {
         }
 
         public String getAtom() {
-            Map m = new HashMap();
-            m.put("feed", this);
-            return (String) TemplateRuntime.eval(TEMPLATE, m);
+            StringWriter writer = new StringWriter();
+            try {
+                write(writer);
+            } catch (IOException e) {
+                //can't happen with a StringWriter
+                throw new IllegalStateException(e);
+            }
+            return writer.toString();
+        }
+
+        /**
+         * Writes the feed out, an entry at a time.
+         */
+        public void write(Writer writer) throws IOException {
+            Map<String, Object> vars = new HashMap<String, Object>();
+            vars.put("feed", this);
+            writer.write((String) TemplateRuntime.execute(HEAD, vars));
+            while (entries.hasNext()) {
+                vars.put("entry", entries.next());
+                writer.write((String) TemplateRuntime.execute(ENTRY, vars));
+            }
+            vars.remove("entry");
+            writer.write((String) TemplateRuntime.execute(TAIL, vars));
+            writer.flush();
         }
 
         public String getSubtitle() {
             return subtitle;
         }
 
-
-        public Collection getEntries() { return entries; }
-
         public String getFeedTitle() { return feedTitle; }
 
         public String getFeedUpdated() {
@@ -202,6 +375,17 @@ public class FeedServlet extends RepositoryServlet {
             return feedSelf;
         }
 
+        /**
+         * The URL of the next page of entries, or null if this is the last.
+         */
+        public String getFeedNext() {
+            return feedNext;
+        }
+
+        public void setFeedNext(String feedNext) {
+            this.feedNext = feedNext;
+        }
+
 
         public static class AtomEntry {
             private String name;
@@ -16,11 +16,14 @@
 
 package org.drools.guvnor.server.files;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
 
@@ -32,6 +35,7 @@ import org.apache.commons.fileupload.FileItemFactory;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.IOUtils;
 import org.drools.compiler.DroolsParserException;
 import org.drools.guvnor.client.common.HTMLFileManagerFields;
 import org.drools.guvnor.server.builder.BRMSPackageBuilder;
@@ -51,6 +55,7 @@ import org.drools.guvnor.server.util.FormData;
 import org.drools.repository.AssetItem;
 import org.drools.repository.PackageItem;
 import org.drools.repository.RulesRepository;
+import org.drools.repository.RulesRepositoryBackup;
 import org.drools.repository.RulesRepositoryException;
 import org.jboss.seam.ScopeType;
 import org.jboss.seam.annotations.AutoCreate;
@@ -133,13 +138,30 @@ public class FileManagerUtils {
 
         AssetItem item = repository.loadAssetByUUID( uuid );
 
-        byte[] data = item.getBinaryContentAsBytes();
-        if ( data == null ) {
-            data = new byte[0];
+        InputStream in = item.getBinaryContentAttachment();
+        if ( in != null ) {
+            try {
+                IOUtils.copyLarge( in,
+                                   out );
+            } finally {
+                in.close();
+            }
         }
-        out.write( data );
         out.flush();
 
+        return getAttachmentFileName( item );
+    }
+
+    /**
+     * Loads the asset with the given UUID, so its attachment can be streamed
+     * out.
+     */
+    @Restrict("#{identity.loggedIn}")
+    public AssetItem loadAttachmentAsset(String uuid) {
+        return repository.loadAssetByUUID( uuid );
+    }
+
+    public static String getAttachmentFileName(AssetItem item) {
         return item.getName() + "." + item.getFormat();//item.getBinaryContentAttachmentFileName();
     }
 
@@ -180,23 +202,47 @@ public class FileManagerUtils {
                                     String packageVersion,
                                     boolean isLatest,
                                     OutputStream out) throws IOException {
-        PackageItem item = null;
+        PackageItem item = loadPackage( packageName,
+                                        packageVersion,
+                                        isLatest );
+        InputStream in = item.getCompiledPackageStream();
+        if ( in != null ) {
+            try {
+                IOUtils.copyLarge( in,
+                                   out );
+            } finally {
+                in.close();
+            }
+        }
+        out.flush();
+        return getBinaryPackageFileName( packageName,
+                                         packageVersion,
+                                         isLatest );
+    }
+
+    /**
+     * Loads the latest package, or the given snapshot of it.
+     */
+    public PackageItem loadPackage(String packageName,
+                                   String packageVersion,
+                                   boolean isLatest) {
         if ( isLatest ) {
-            item = repository.loadPackage( packageName );
-            byte[] data = item.getCompiledPackageBytes();
-            out.write( data );
-            out.flush();
-            return packageName + ".pkg";
+            return repository.loadPackage( packageName );
         } else {
-            item = repository.loadPackageSnapshot( packageName,
+            return repository.loadPackageSnapshot( packageName,
                                                    packageVersion );
-            byte[] data = item.getCompiledPackageBytes();
-            out.write( data );
-            out.flush();
+        }
+    }
+
+    public static String getBinaryPackageFileName(String packageName,
+                                                  String packageVersion,
+                                                  boolean isLatest) throws UnsupportedEncodingException {
+        if ( isLatest ) {
+            return packageName + ".pkg";
+        } else {
             return packageName + "_" + URLEncoder.encode( packageVersion,
                                                           "UTF-8" ) + ".pkg";
         }
-
     }
 
     /**
@@ -243,10 +289,52 @@ public class FileManagerUtils {
         }
     }
 
+    public void exportPackageFromRepository(String packageName,
+                                            OutputStream out) {
+        try {
+            this.repository.exportPackageFromRepository( packageName,
+                                                         out );
+        } catch ( RepositoryException e ) {
+            throw new RulesRepositoryException( e );
+        } catch ( IOException e ) {
+            throw new RulesRepositoryException( e );
+        }
+    }
+
     public void exportRulesRepository(OutputStream out) {
         this.repository.exportRulesRepositoryToStream( out );
     }
 
+    /**
+     * Writes a zipped full backup, which deltas can be taken from.
+     */
+    public Calendar exportRulesRepositoryBackup(OutputStream out) throws IOException {
+        return new RulesRepositoryBackup( this.repository ).exportFull( out );
+    }
+
+    /**
+     * Writes a zipped delta backup of what changed since the given time.
+     */
+    public Calendar exportRulesRepositoryDelta(Calendar since,
+                                               OutputStream out) throws IOException {
+        return new RulesRepositoryBackup( this.repository ).exportDelta( since,
+                                                                         out );
+    }
+
+    /**
+     * Restores a full backup, keeping node UUIDs, or applies a delta backup
+     * on top of the backup it was taken from.
+     */
+    @Restrict("#{identity.loggedIn}")
+    public void restoreRulesRepository(InputStream in) throws IOException {
+        if ( Contexts.isSessionContextActive() ) {
+            Identity.instance().checkPermission( new AdminType(),
+                                                 RoleTypes.ADMIN );
+        }
+        new RulesRepositoryBackup( repository ).restore( in );
+        RuleBaseCache.getInstance().clearCache();
+    }
+
     @Restrict("#{identity.loggedIn}")
     public void importRulesRepository(InputStream in) {
         if ( Contexts.isSessionContextActive() ) {
@@ -274,8 +362,15 @@ public class FileManagerUtils {
     @Restrict("#{identity.loggedIn}")
     public void importPackageToRepository(byte[] data,
                                           boolean importAsNew) {
+        importPackageToRepository( new ByteArrayInputStream( data ),
+                                   importAsNew );
+    }
+
+    @Restrict("#{identity.loggedIn}")
+    public void importPackageToRepository(InputStream in,
+                                          boolean importAsNew) {
         try {
-            repository.importPackageToRepository( data,
+            repository.importPackageToRepository( in,
                                                   importAsNew );
 
             //
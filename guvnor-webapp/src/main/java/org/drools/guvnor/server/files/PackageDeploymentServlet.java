@@ -21,6 +21,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
@@ -37,8 +38,10 @@ import org.drools.compiler.DroolsParserException;
 import org.drools.guvnor.client.common.AssetFormats;
 import org.drools.guvnor.client.rpc.BulkTestRunResult;
 import org.drools.guvnor.client.rpc.DetailedSerializationException;
+import org.drools.guvnor.client.rpc.ScenarioResultSummary;
 import org.drools.guvnor.server.RepositoryPackageService;
 import org.drools.guvnor.server.RepositoryServiceServlet;
+import org.drools.guvnor.server.ScenarioProgressListener;
 import org.drools.guvnor.server.ServiceImplementation;
 import org.drools.guvnor.server.util.FormData;
 import org.drools.repository.AssetItem;
@@ -66,6 +69,11 @@ public class PackageDeploymentServlet extends RepositoryServlet {
         PackageDeploymentURIHelper helper = null;
         try {
             helper = new PackageDeploymentURIHelper( request.getRequestURI() );
+            if ( "GET".equals( request.getMethod() ) && isPolledResource( helper,
+                                                                          request.getRequestURI() ) ) {
+                // answered in doGet, where the ETag is checked as well
+                return -1;
+            }
             FileManagerUtils fm = getFileManager();
             return fm.getLastModified( helper.getPackageName(),
                                        helper.getVersion() );
@@ -95,6 +103,75 @@ public class PackageDeploymentServlet extends RepositoryServlet {
         }
     }
 
+    /**
+     * Rule agents poll the package binary and ChangeSet.xml. Those answer
+     * conditional GETs in doGet, from the package properties alone.
+     */
+    private static boolean isPolledResource(PackageDeploymentURIHelper helper,
+                                            String uri) {
+        if ( helper.isSource() || helper.isDocumentation() || helper.isPng() ) {
+            return false;
+        }
+        return !uri.endsWith( "SCENARIOS" ) && !uri.endsWith( "MODEL" ) && !uri.contains( "/SpringContext/" );
+    }
+
+    /**
+     * Sets the ETag (the hash of the compiled package) and Last-Modified
+     * headers, and answers 304 if the client already has this content.
+     * If-None-Match takes precedence over If-Modified-Since. The compiled
+     * binary itself is never read here.
+     *
+     * @return true if the response is done.
+     */
+    private boolean isNotModified(HttpServletRequest req,
+                                  HttpServletResponse res,
+                                  PackageItem pkg,
+                                  boolean changeSet) {
+        long lastModified = pkg.getLastModified().getTimeInMillis();
+        String hash = pkg.getCompiledPackageHash();
+        String etag = null;
+        if ( hash != null ) {
+            etag = "\"" + hash + (changeSet ? "-changeset" : "") + "\"";
+            res.setHeader( "ETag",
+                           etag );
+        }
+        res.setDateHeader( "Last-Modified",
+                           lastModified );
+
+        boolean notModified;
+        String ifNoneMatch = req.getHeader( "If-None-Match" );
+        if ( ifNoneMatch != null ) {
+            notModified = etag != null && matchesETag( ifNoneMatch,
+                                                       etag );
+        } else {
+            long ifModifiedSince = req.getDateHeader( "If-Modified-Since" );
+            // HTTP dates only have a resolution of seconds
+            notModified = ifModifiedSince > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+
+        if ( notModified ) {
+            res.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            PackageDeploymentStatistics.getInstance().notModified();
+        } else {
+            PackageDeploymentStatistics.getInstance().fullResponse();
+        }
+        return notModified;
+    }
+
+    static boolean matchesETag(String ifNoneMatch,
+                               String etag) {
+        for ( String candidate : ifNoneMatch.split( "," ) ) {
+            candidate = candidate.trim();
+            if ( candidate.startsWith( "W/" ) ) {
+                candidate = candidate.substring( 2 );
+            }
+            if ( candidate.equals( "*" ) || candidate.equals( etag ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * This is used for importing legacy DRL.
      */
@@ -148,6 +225,19 @@ public class PackageDeploymentServlet extends RepositoryServlet {
                 ByteArrayOutputStream out = new ByteArrayOutputStream();
                 FileManagerUtils fm = getFileManager();
                 String fileName = null;
+                PackageItem polledPackage = null;
+                if ( isPolledResource( helper,
+                                       req.getRequestURI() ) ) {
+                    polledPackage = fm.loadPackage( helper.getPackageName(),
+                                                    helper.getVersion(),
+                                                    helper.isLatest() );
+                    if ( isNotModified( req,
+                                        res,
+                                        polledPackage,
+                                        req.getRequestURI().endsWith( "ChangeSet.xml" ) ) ) {
+                        return;
+                    }
+                }
                 if ( helper.isSource() ) {
                     if ( helper.isAsset() ) {
                         fileName = fm.loadSourceAsset( helper.getPackageName(),
@@ -181,12 +271,15 @@ public class PackageDeploymentServlet extends RepositoryServlet {
                     PackageItem pkg = fm.getRepository().loadPackage( helper.getPackageName() );
                     AssetItem asset = pkg.loadAsset(helper.getAssetName());
 
-                    fileName = getFileManager().loadFileAttachmentByUUID( asset.getUUID(),
-                                                                                 out );
+                    streamAttachment( res,
+                                      FileManagerUtils.getAttachmentFileName( asset ),
+                                      asset );
+                    return;
                 } else {
                     if ( req.getRequestURI().endsWith( "SCENARIOS" ) ) {
                         doRunScenarios( helper,
-                                        out );
+                                        res );
+                        return;
                     } else if ( req.getRequestURI().endsWith( "ChangeSet.xml" ) ) {
                         //here be dragons !
                         String url = req.getRequestURL().toString().replace( "/ChangeSet.xml",
@@ -257,13 +350,19 @@ public class PackageDeploymentServlet extends RepositoryServlet {
 
                         PackageItem pkg = fm.getRepository().loadPackage( helper.getPackageName() );
                         AssetItem asset = pkg.loadAsset(assetName);
-                        out.write(asset.getBinaryContentAsBytes());
+                        streamAttachment( res,
+                                          fileName,
+                                          asset );
+                        return;
 
                     } else {
-                        fileName = fm.loadBinaryPackage( helper.getPackageName(),
-                                helper.getVersion(),
-                                helper.isLatest(),
-                                out );
+                        streamDownload( res,
+                                        FileManagerUtils.getBinaryPackageFileName( helper.getPackageName(),
+                                                                                   helper.getVersion(),
+                                                                                   helper.isLatest() ),
+                                        polledPackage.getCompiledPackageStream(),
+                                        polledPackage.getCompiledPackageLength() );
+                        return;
                     }
 
                 }
@@ -272,14 +371,19 @@ public class PackageDeploymentServlet extends RepositoryServlet {
                 res.setHeader( "Content-Disposition",
                                     "attachment; filename=" + fileName + ";" );
                 res.setContentLength( out.size() );
-                res.getOutputStream().write( out.toByteArray() );
+                out.writeTo( res.getOutputStream() );
                 res.getOutputStream().flush();
             }
         });
     }
 
+    /**
+     * The results are written out as each scenario finishes, rather than
+     * buffered up, so large packages don't leave the client waiting on an
+     * idle connection until the whole run is over.
+     */
     private void doRunScenarios(PackageDeploymentURIHelper helper,
-                                ByteArrayOutputStream out) throws IOException {
+                                HttpServletResponse res) throws IOException {
         ServiceImplementation serv = RepositoryServiceServlet.getService();
         RepositoryPackageService packageService = RepositoryServiceServlet.getPackageService();
         PackageItem pkg;
@@ -289,16 +393,51 @@ public class PackageDeploymentServlet extends RepositoryServlet {
             pkg = serv.getRulesRepository().loadPackageSnapshot( helper.getPackageName(),
                                                                  helper.getVersion() );
         }
+
+        res.setContentType( "application/x-download" );
+        final OutputStream out = res.getOutputStream();
+        final int[] count = new int[1];
         try {
-            BulkTestRunResult result = packageService.runScenariosInPackage( pkg );
-            out.write( result.toString().getBytes() );
+            BulkTestRunResult result = packageService.runScenariosInPackage( pkg,
+                                                                             new ScenarioProgressListener() {
+                                                                                 public void scenarioFinished(ScenarioResultSummary summary) {
+                                                                                     try {
+                                                                                         if ( count[0]++ > 0 ) {
+                                                                                             out.write( '\n' );
+                                                                                         }
+                                                                                         out.write( summary.toString().getBytes() );
+                                                                                         out.flush();
+                                                                                     } catch ( IOException e ) {
+                                                                                         throw new RulesRepositoryException( "Unable to write the scenario results.",
+                                                                                                                             e );
+                                                                                     }
+                                                                                 }
+                                                                             } );
+            if ( count[0] == 0 ) {
+                // no summaries were streamed, so this is the build error or the empty package message
+                out.write( result.toString().getBytes() );
+            }
         } catch ( DetailedSerializationException e ) {
             log.error( "Unable to run scenarios.", e );
-            out.write( e.getMessage().getBytes() );
+            writeScenarioError( out,
+                                count[0],
+                                e );
         } catch ( SerializationException e ) {
             log.error( "Unable to run scenarios.", e );
-            out.write( e.getMessage().getBytes() );
+            writeScenarioError( out,
+                                count[0],
+                                e );
+        }
+        out.flush();
+    }
+
+    private void writeScenarioError(OutputStream out,
+                                    int resultsWritten,
+                                    Exception e) throws IOException {
+        if ( resultsWritten > 0 ) {
+            out.write( '\n' );
         }
+        out.write( e.getMessage().getBytes() );
     }
 
     /**
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.files;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drools.guvnor.server.util.ManagementHelper;
+
+/**
+ * Counts how many package deployment GETs are answered in full versus with
+ * 304 Not Modified, so we can see how well rule agent polling is served by
+ * conditional requests.
+ *
+ * Published through JMX as "org.drools.guvnor:type=PackageDeployment".
+ */
+public class PackageDeploymentStatistics
+    implements
+    PackageDeploymentStatisticsMBean {
+
+    private static PackageDeploymentStatistics instance;
+
+    static {
+        instance = new PackageDeploymentStatistics();
+        ManagementHelper.register( instance,
+                                   "PackageDeployment" );
+    }
+
+    private final AtomicLong fullResponses = new AtomicLong();
+    private final AtomicLong notModified   = new AtomicLong();
+
+    PackageDeploymentStatistics() {
+    }
+
+    public static PackageDeploymentStatistics getInstance() {
+        return instance;
+    }
+
+    public void fullResponse() {
+        this.fullResponses.incrementAndGet();
+    }
+
+    public void notModified() {
+        this.notModified.incrementAndGet();
+    }
+
+    public long getFullResponseCount() {
+        return this.fullResponses.get();
+    }
+
+    public long getNotModifiedCount() {
+        return this.notModified.get();
+    }
+
+    public double getNotModifiedRatio() {
+        long total = getFullResponseCount() + getNotModifiedCount();
+        return total == 0 ? 0 : (double) getNotModifiedCount() / total;
+    }
+
+    public void reset() {
+        this.fullResponses.set( 0 );
+        this.notModified.set( 0 );
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.files;
+
+/**
+ * The statistics of package deployment downloads, as published through JMX.
+ */
+public interface PackageDeploymentStatisticsMBean {
+
+    /**
+     * The number of GETs answered with the full content.
+     */
+    long getFullResponseCount();
+
+    /**
+     * The number of GETs answered with 304 Not Modified.
+     */
+    long getNotModifiedCount();
+
+    /**
+     * The share of GETs answered with 304 Not Modified.
+     */
+    double getNotModifiedRatio();
+
+    void reset();
+
+}
@@ -18,11 +18,12 @@ package org.drools.guvnor.server.files;
 
 
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Calendar;
+import java.util.zip.ZipInputStream;
 
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
@@ -63,7 +64,11 @@ public class RepositoryBackupServlet extends RepositoryServlet {
 
                     String packageImport = request.getParameter("packageImport");
 
-                    if ("true".equals(packageImport)) {
+                    if ("true".equals(request.getParameter("restore"))) {
+                        response.getWriter().write(
+                                processRestoreRepository(uploadItem.getFile()
+                                        .getInputStream()));
+                    } else if ("true".equals(packageImport)) {
                         boolean importAsNew = "true".equals(request
                                 .getParameter("importAsNew"));
 
@@ -91,8 +96,11 @@ public class RepositoryBackupServlet extends RepositoryServlet {
 
         try {
             String packageName = req.getParameter("packageName");
+            String since = req.getParameter("since");
 
-            if (packageName == null) {
+            if (since != null) {
+                processExportRepositoryDeltaDownload(res, Long.parseLong(since));
+            } else if (packageName == null) {
                 processExportRepositoryDownload(res);
             } else {
                 processExportPackageFromRepositoryDownload(res, packageName);
@@ -125,13 +133,28 @@ public class RepositoryBackupServlet extends RepositoryServlet {
                 "attachment; filename=repository_export.zip;");
 
         log.debug("Starting to process export");
-        ZipOutputStream zout = new ZipOutputStream(res.getOutputStream());
-        zout.putNextEntry(new ZipEntry("repository_export.xml"));
-        getFileManager().exportRulesRepository(zout);
-        zout.closeEntry();
-        zout.finish();
+        Calendar marker = getFileManager().exportRulesRepositoryBackup(res.getOutputStream());
+        res.getOutputStream().flush();
+        log.debug("Done exporting! Deltas can be taken since " + marker.getTimeInMillis());
+    }
+
+    /**
+     * Provides a download of what changed since the given time, which is the
+     * "until" time in the manifest of the previous backup.
+     */
+    private void processExportRepositoryDeltaDownload(HttpServletResponse res,
+            long since) throws IOException {
+        log.debug("Exporting changes since " + since + "...");
+        res.setContentType("application/zip");
+        res.setHeader("Content-Disposition",
+                "attachment; filename=repository_delta_" + since + ".zip;");
+
+        Calendar sinceDate = Calendar.getInstance();
+        sinceDate.setTimeInMillis(since);
+        Calendar marker = getFileManager().exportRulesRepositoryDelta(sinceDate,
+                res.getOutputStream());
         res.getOutputStream().flush();
-        log.debug("Done exporting!");
+        log.debug("Done exporting! The next delta can be taken since " + marker.getTimeInMillis());
     }
 
     private void processExportPackageFromRepositoryDownload(
@@ -141,22 +164,65 @@ public class RepositoryBackupServlet extends RepositoryServlet {
         res.setHeader("Content-Disposition", "inline; filename=" + packageName
                 + ".zip;");
 
-        res.getOutputStream().write(
-                getFileManager().exportPackageFromRepository(packageName));
+        getFileManager().exportPackageFromRepository(packageName,
+                res.getOutputStream());
         res.getOutputStream().flush();
     }
 
     private String processImportRepository(InputStream file) throws IOException {
-        getFileManager().importRulesRepository(file);
+        InputStream in = unzipIfNeeded(file);
+        try {
+            getFileManager().importRulesRepository(in);
+        } finally {
+            in.close();
+        }
+        return "OK";
+    }
+
+    /**
+     * Restores a full backup, or applies a delta to the backup it was taken
+     * from. Unlike an import, a full backup keeps its node UUIDs, which the
+     * deltas refer to.
+     */
+    private String processRestoreRepository(InputStream file) throws IOException {
+        try {
+            getFileManager().restoreRulesRepository(file);
+        } finally {
+            file.close();
+        }
         return "OK";
     }
 
     private String processImportPackage(InputStream file, boolean importAsNew)
             throws IOException {
-        byte[] byteArray = new byte[file.available()];
-        file.read(byteArray);
-        getFileManager().importPackageToRepository(byteArray, importAsNew);
+        InputStream in = unzipIfNeeded(file);
+        try {
+            getFileManager().importPackageToRepository(in, importAsNew);
+        } finally {
+            in.close();
+        }
         return "OK";
     }
 
+    /**
+     * Exports are zipped, so an upload may be the zip as downloaded or the
+     * XML in it. Either way the XML is read from the upload as it is
+     * imported.
+     */
+    private InputStream unzipIfNeeded(InputStream file) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(file);
+        in.mark(4);
+        boolean zipped = in.read() == 'P' && in.read() == 'K'
+                && in.read() == 3 && in.read() == 4;
+        in.reset();
+        if (!zipped) {
+            return in;
+        }
+        ZipInputStream zin = new ZipInputStream(in);
+        if (zin.getNextEntry() == null) {
+            throw new IOException("The uploaded zip file is empty.");
+        }
+        return zin;
+    }
+
 }
@@ -23,16 +23,22 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.security.auth.login.LoginException;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.drools.util.codec.Base64;
 import org.drools.guvnor.server.util.TestEnvironmentSessionHelper;
+import org.drools.repository.AssetItem;
 import org.drools.repository.RulesRepository;
+import org.drools.repository.events.StorageEventManager;
 import org.jboss.seam.Component;
 import org.jboss.seam.security.Identity;
 import org.jboss.seam.contexts.Contexts;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Locale;
 
 /**
@@ -86,6 +92,60 @@ public class RepositoryServlet extends HttpServlet {
     }
 
 
+    /**
+     * Streams a download straight from the repository to the client. When the
+     * length is known (not negative) it is sent as the content length, so the
+     * payload never has to be buffered up in memory.
+     */
+    void streamDownload(HttpServletResponse res,
+                        String fileName,
+                        InputStream in,
+                        long length) throws IOException {
+        res.setContentType( "application/x-download" );
+        res.setHeader( "Content-Disposition",
+                       "attachment; filename=" + fileName + ";" );
+        if ( in == null ) {
+            res.setContentLength( 0 );
+            return;
+        }
+        try {
+            if ( length >= 0 && length <= Integer.MAX_VALUE ) {
+                res.setContentLength( (int) length );
+            }
+            OutputStream out = res.getOutputStream();
+            IOUtils.copyLarge( in,
+                               out );
+            out.flush();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Streams the content of an asset. Binary content is piped from the
+     * repository; anything else (text content, or content supplied by a load
+     * event) is small enough to go through memory.
+     */
+    void streamAttachment(HttpServletResponse res,
+                          String fileName,
+                          AssetItem asset) throws IOException {
+        if ( asset.isBinary() && !StorageEventManager.hasLoadEvent() ) {
+            streamDownload( res,
+                            fileName,
+                            asset.getBinaryContentAttachment(),
+                            asset.getContentLength() );
+        } else {
+            byte[] data = asset.getBinaryContentAsBytes();
+            if ( data == null ) {
+                data = new byte[0];
+            }
+            streamDownload( res,
+                            fileName,
+                            new ByteArrayInputStream( data ),
+                            data.length );
+        }
+    }
+
     /**
      * Check the users credentials.
      * This takes the Authorization string from the HTTP request header (the whole lot).
@@ -24,9 +24,10 @@ import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 import net.sf.webdav.ITransaction;
@@ -34,13 +35,15 @@ import net.sf.webdav.IWebdavStore;
 import net.sf.webdav.StoredObject;
 
 import org.apache.commons.io.IOUtils;
+import org.drools.guvnor.server.files.WebDAVMetadataCache.Folder;
+import org.drools.guvnor.server.files.WebDAVMetadataCache.Resource;
 import org.drools.guvnor.server.security.AdminType;
 import org.drools.guvnor.server.security.RoleTypes;
 import org.drools.guvnor.server.security.WebDavPackageNameType;
 import org.drools.repository.AssetItem;
 import org.drools.repository.PackageItem;
 import org.drools.repository.RulesRepository;
-import org.drools.repository.VersionableItem;
+import org.drools.repository.RulesRepositoryException;
 import org.jboss.seam.contexts.Contexts;
 import org.jboss.seam.security.Identity;
 
@@ -57,6 +60,12 @@ public class WebDAVImpl implements IWebdavStore {
 
     final ThreadLocal<RulesRepository> tlRepo        = new ThreadLocal<RulesRepository>();
 
+    /**
+     * The packages written to in this transaction, to drop from the metadata
+     * cache once the writes are saved.
+     */
+    final ThreadLocal<Set<String>>     tlChanged     = new ThreadLocal<Set<String>>();
+
     public WebDAVImpl(File f) {
 
     }
@@ -88,9 +97,30 @@ public class WebDAVImpl implements IWebdavStore {
 
     public void commit(ITransaction iTransaction) {
         getRepo().save();
+        Set<String> changed = tlChanged.get();
+        if ( changed != null ) {
+            for ( String packageName : changed ) {
+                WebDAVMetadataCache.getInstance().packageChanged( packageName );
+            }
+            tlChanged.set( null );
+        }
         tlRepo.set( null );
     }
 
+    /**
+     * Drops the cached metadata of the given package, now and again once
+     * the transaction is saved.
+     */
+    private void changed(String packageName) {
+        WebDAVMetadataCache.getInstance().packageChanged( packageName );
+        Set<String> changed = tlChanged.get();
+        if ( changed == null ) {
+            changed = new HashSet<String>();
+            tlChanged.set( changed );
+        }
+        changed.add( packageName );
+    }
+
     public void createFolder(ITransaction iTransaction, String uri) {
         String[] path = getPath( uri );
         if ( isPackages( path ) && isAdmin() ) {
@@ -105,6 +135,7 @@ public class WebDAVImpl implements IWebdavStore {
             } else {
                 repository.createPackage( path[1], "<from webdav>" );
             }
+            changed( path[1] );
         } else {
             throw new UnsupportedOperationException( "Not able to create folders here..." );
         }
@@ -133,6 +164,7 @@ public class WebDAVImpl implements IWebdavStore {
                 AssetItem asset = packageItem.addAsset( resource[0], "" );
                 asset.updateFormat( resource[1] );
             }
+            changed( path[1] );
         } else if(isGlobalAreas(path)) {
             String[] resource = AssetItem.getAssetNameFromFileName( path[1] );
             PackageItem packageItem = loadGlobalAreaFromRepository(getRepo());
@@ -149,6 +181,7 @@ public class WebDAVImpl implements IWebdavStore {
                 AssetItem asset = packageItem.addAsset( resource[0], "" );
                 asset.updateFormat( resource[1] );
             }
+            changed( RulesRepository.RULE_GLOBAL_AREA );
         } else {
             throw new UnsupportedOperationException( "Can't add assets here." );
         }
@@ -200,46 +233,20 @@ public class WebDAVImpl implements IWebdavStore {
     }
 
     private void handleReadOnlySnapshotPackages(RulesRepository repository, String[] path, List<String> result) {
-        Iterator<AssetItem> it = loadPackageSnapshotFromRepository( repository, path ).getAssets();
-        while ( it.hasNext() ) {
-            AssetItem asset = it.next();
-            if ( !asset.isArchived() ) {
-                addNameAndFormat( result, asset );
-            }
-        }
+        Collections.addAll( result, loadPackageSnapshotMetadata( repository, path ).getChildrenNames() );
     }
     
     private void handleReadOnlyGlobalAreaPackages(RulesRepository repository, String[] path, List<String> result) {
-        Iterator<AssetItem> it = loadGlobalAreaFromRepository(repository).getAssets();
-        while ( it.hasNext() ) {
-            AssetItem asset = it.next();
-            if ( !asset.isArchived() ) {
-                addNameAndFormat( result, asset );
-            }
-        }
+        Collections.addAll( result, loadGlobalAreaMetadata( repository ).getChildrenNames() );
     }
 
     private void handleReadOnlyPackages(RulesRepository repository, String[] path, List<String> result) {
-        PackageItem pkg = loadPackageFromRepository( repository, path[1] );
-        Iterator<AssetItem> it = pkg.getAssets();
-        while ( it.hasNext() ) {
-            AssetItem asset = it.next();
-            if ( !asset.isArchived() ) {
-                addNameAndFormat( result, asset );
-            }
-        }
-    }
-
-    private boolean addNameAndFormat(List<String> result, AssetItem asset) {
-        return result.add( asset.getName() + "." + asset.getFormat() );
+        Collections.addAll( result, loadPackageMetadata( repository, path[1] ).getChildrenNames() );
     }
 
     private void listPackages(RulesRepository repository, List<String> result) {
-        Iterator<PackageItem> it = repository.listPackages();
-        while ( it.hasNext() ) {
-            PackageItem pkg = it.next();
-            String packageName = pkg.getName();
-            if ( !pkg.isArchived() && checkPackagePermission( packageName, RoleTypes.PACKAGE_READONLY ) ) {
+        for ( String packageName : WebDAVMetadataCache.getInstance().getPackageNames( repository ) ) {
+            if ( checkPackagePermission( packageName, RoleTypes.PACKAGE_READONLY ) ) {
                 result.add( packageName );
             }
         }
@@ -272,27 +279,27 @@ public class WebDAVImpl implements IWebdavStore {
         if ( path.length == 2 ) {
             return new Date();
         } else if ( path.length == 3 ) {
-            return loadPackageSnapshotFromRepository( repository, path ).getCreatedDate().getTime();
+            return loadPackageSnapshotMetadata( repository, path ).getCreationDate();
         } else if ( path.length == 4 ) {
-            return loadAssetItemFromPackageItem( loadPackageSnapshotFromRepository( repository, path ), path[3] ).getCreatedDate().getTime();
+            return loadResourceMetadata( loadPackageSnapshotMetadata( repository, path ), path[3] ).getCreationDate();
         }
         throw new UnsupportedOperationException();
     }
 
     private Date getCreationDateForPackage(RulesRepository repository, String[] path) {
-        PackageItem packageItem = loadPackageFromRepository( repository, path[1] );
+        Folder folder = loadPackageMetadata( repository, path[1] );
         if ( path.length == 2 ) {
-            return packageItem.getCreatedDate().getTime();
+            return folder.getCreationDate();
         }
-        return loadAssetItemFromPackageItem( packageItem, path[2] ).getCreatedDate().getTime();
+        return loadResourceMetadata( folder, path[2] ).getCreationDate();
     }
     
     private Date getCreationTimeForGlobalAreaPackage(RulesRepository repository, String[] path) {
-        PackageItem packageItem = loadGlobalAreaFromRepository( repository );
+        Folder folder = loadGlobalAreaMetadata( repository );
         if ( path.length == 2 ) {
-            return packageItem.getCreatedDate().getTime();
+            return folder.getCreationDate();
         }
-        return loadAssetItemFromPackageItem( packageItem, path[2] ).getCreatedDate().getTime();
+        return loadResourceMetadata( folder, path[2] ).getCreationDate();
     }
 
     public Date getLastModified(String uri) {
@@ -320,34 +327,29 @@ public class WebDAVImpl implements IWebdavStore {
         if ( path.length == 2 ) {
             return new Date();
         } else if ( path.length == 3 ) {
-            return loadPackageSnapshotFromRepository( repository, path ).getLastModified().getTime();
+            return loadPackageSnapshotMetadata( repository, path ).getLastModified();
         } else if ( path.length == 4 ) {
-            PackageItem pkg = loadPackageSnapshotFromRepository( repository, path );
-            return getLastModifiedFromPackageAssetItem( pkg, path[3] );
+            return loadResourceMetadata( loadPackageSnapshotMetadata( repository, path ), path[3] ).getLastModified();
         }
         throw new UnsupportedOperationException();
     }
 
     private Date getLastModifiedForPackage(RulesRepository repository, String[] path) {
-        PackageItem pkg = loadPackageFromRepository( repository, path[1] );
+        Folder folder = loadPackageMetadata( repository, path[1] );
         if ( path.length == 2 ) {
-            return pkg.getLastModified().getTime();
+            return folder.getLastModified();
         }
-        return getLastModifiedFromPackageAssetItem( pkg, path[2] );
+        return loadResourceMetadata( folder, path[2] ).getLastModified();
 
     }
     
     private Date getLastModifiedForGlobalAreaPackage(RulesRepository repository, String[] path) {
-        PackageItem pkg = loadGlobalAreaFromRepository( repository );
+        Folder folder = loadGlobalAreaMetadata( repository );
         if ( path.length == 2 ) {
-            return pkg.getLastModified().getTime();
+            return folder.getLastModified();
         }
-        return getLastModifiedFromPackageAssetItem( pkg, path[2] );
-
-    }
+        return loadResourceMetadata( folder, path[2] ).getLastModified();
 
-    private Date getLastModifiedFromPackageAssetItem(PackageItem packageItem, String path) {
-        return loadAssetItemFromPackageItem( packageItem, path ).getLastModified().getTime();
     }
 
     public InputStream getResourceContent(ITransaction iTransaction, String uri) {
@@ -391,70 +393,64 @@ public class WebDAVImpl implements IWebdavStore {
 
     private StoredObject getStoredObjectForReadOnlySnapshots(String uri, RulesRepository repository, String[] path) {
         if ( path.length == 2 ) {
-            StoredObject so = createStoredObject( uri, loadPackageFromRepository( repository, path[1] ), 0 );
+            StoredObject so = createStoredObject( uri, loadPackageMetadata( repository, path[1] ) );
             so.setFolder( isFolder( uri ) );
             return so;
         } else if ( path.length == 3 ) {
-            return createStoredObject( uri, loadPackageSnapshotFromRepository( repository, path ), 0 );
+            return createStoredObject( uri, loadPackageSnapshotMetadata( repository, path ) );
         } else if ( path.length == 4 ) {
-            PackageItem pkg = loadPackageSnapshotFromRepository( repository, path );
-            AssetItem asset;
-            try {
-                asset = loadAssetItemFromPackageItem( pkg, path[3] );
-            } catch ( Exception e ) {
+            Resource resource = loadPackageSnapshotMetadata( repository, path ).getResource( path[3] );
+            if ( resource == null ) {
                 return null;
             }
-            return createStoredObject( uri, asset, asset.getContentLength() );
+            return createStoredObject( uri, resource );
         }
         throw new UnsupportedOperationException();
 
     }
 
     private StoredObject getStoredObjectForReadOnlyPackages(String uri, RulesRepository repository, String[] path) {
-        PackageItem packageItem = loadPackageFromRepository( repository, path[1] );
+        Folder folder = loadPackageMetadata( repository, path[1] );
         if ( path.length == 2 ) {
-            return createStoredObject( uri, packageItem, 0 );
+            return createStoredObject( uri, folder );
         }
 
-        AssetItem asset;
-        try {
-            asset = loadAssetItemFromPackageItem( packageItem, path[2] );
-        } catch ( Exception e ) {
+        Resource resource = folder.getResource( path[2] );
+        if ( resource == null ) {
             return null;
         }
-        return createStoredObject( uri, asset, asset.getContentLength() );
+        return createStoredObject( uri, resource );
     }
     
     private StoredObject getStoredObjectForReadOnlyGlobalArea(String uri, RulesRepository repository, String[] path) {
+        Folder folder = loadGlobalAreaMetadata( repository );
         if ( path.length == 1 ) {
-            StoredObject so = createStoredObject( uri, loadGlobalAreaFromRepository( repository ), 0 );
+            StoredObject so = createStoredObject( uri, folder );
             so.setFolder( isFolder( uri ) );
             return so;
-        } else if ( path.length == 2 ) {
-            AssetItem asset;
-            try {
-                asset = loadAssetItemFromGlobalArea( repository, path );
-            } catch ( Exception e ) {
-                return null;
-            }
-            return createStoredObject( uri, asset, asset.getContentLength() );
-        } else if ( path.length == 3 ) {
-            AssetItem asset;
-            try {
-                asset = loadAssetItemFromGlobalArea( repository, path );
-            } catch ( Exception e ) {
+        } else if ( path.length == 2 || path.length == 3 ) {
+            Resource resource = folder.getResource( path[1] );
+            if ( resource == null ) {
                 return null;
             }
-            return createStoredObject( uri, asset, asset.getContentLength() );
+            return createStoredObject( uri, resource );
         }
         throw new UnsupportedOperationException();
     }
 
-    private StoredObject createStoredObject(String uri, VersionableItem versionableItem, long resourceLength) {
+    private StoredObject createStoredObject(String uri, Folder folder) {
+        return createStoredObject( uri, folder.getCreationDate(), folder.getLastModified(), 0 );
+    }
+
+    private StoredObject createStoredObject(String uri, Resource resource) {
+        return createStoredObject( uri, resource.getCreationDate(), resource.getLastModified(), resource.getContentLength() );
+    }
+
+    private StoredObject createStoredObject(String uri, Date creationDate, Date lastModified, long resourceLength) {
         StoredObject so = new StoredObject();
-        so.setCreationDate( versionableItem.getCreatedDate().getTime() );
+        so.setCreationDate( creationDate );
         so.setFolder( isFolder( uri ) );
-        so.setLastModified( versionableItem.getLastModified().getTime() );
+        so.setLastModified( lastModified );
         so.setResourceLength( resourceLength );
 
         return so;
@@ -491,15 +487,15 @@ public class WebDAVImpl implements IWebdavStore {
         try {
             RulesRepository repository = getRepo();
             if ( path.length == 3 && isPackages( path ) && checkPackagePermissionIfReadOnly( path ) ) {
-                return loadAssetItemFromPackage( repository, path ).getContentLength();
+                return loadResourceMetadata( loadPackageMetadata( repository, path[1] ), path[2] ).getContentLength();
             }
             
             if ( path.length == 3 && isGlobalAreas( path ) ) {
-                return loadAssetItemFromPackage( repository, path ).getContentLength();
+                return loadResourceMetadata( loadPackageMetadata( repository, path[1] ), path[2] ).getContentLength();
             }
 
             if ( path.length == 4 && isSnaphosts( path ) && checkPackagePermissionIfReadOnly( path ) ) {
-                return loadAssetItemFromPackageSnaphot( repository, path ).getContentLength();
+                return loadResourceMetadata( loadPackageSnapshotMetadata( repository, path ), path[3] ).getContentLength();
             }
 
             return 0;
@@ -543,11 +539,10 @@ public class WebDAVImpl implements IWebdavStore {
 
         if ( repository.containsPackage( path[1] ) ) {
             if ( isPackages( path ) ) {
-                PackageItem pkg = loadPackageFromRepository( repository, path[1] );
                 if ( path[2].startsWith( "._" ) ) {
                     return osxDoubleData.containsKey( uri );
                 }
-                return pkg.containsAsset( AssetItem.getAssetNameFromFileName( path[2] )[0] );
+                return loadPackageMetadata( repository, path[1] ).getResource( path[2] ) != null;
             }
 
             if ( path.length == 4 ) {
@@ -612,16 +607,15 @@ public class WebDAVImpl implements IWebdavStore {
     }
 
     private boolean handlePackagesInternalObjectExists(String uri, RulesRepository repository, String[] path) {
+        Folder folder = loadPackageMetadata( repository, path[1] );
         if ( path.length == 2 ) {
-            PackageItem pkg = loadPackageFromRepository( repository, path[1] );
-            return !pkg.isArchived();
+            return !folder.isArchived();
         }
-        PackageItem pkg = loadPackageFromRepository( repository, path[1] );
         if ( path[2].startsWith( "._" ) ) {
             return WebDAVImpl.osxDoubleData.containsKey( uri );
         }
-        String assetName = AssetItem.getAssetNameFromFileName( path[2] )[0];
-        return pkg.containsAsset( assetName ) && !pkg.loadAsset( assetName ).isArchived();
+        Resource resource = folder.getResource( path[2] );
+        return resource != null && !resource.isArchived();
     }
 
     public void removeObject(ITransaction iTransaction, String uri) {
@@ -646,6 +640,7 @@ public class WebDAVImpl implements IWebdavStore {
                 packageItem.archiveItem( true );
                 packageItem.checkin( "" );
             }
+            changed( path[1] );
         } else if(isGlobalAreas(path)) {
             PackageItem packageItem = loadGlobalAreaFromRepository(repository);
             if ( path.length == 2 ) {
@@ -657,6 +652,7 @@ public class WebDAVImpl implements IWebdavStore {
                 AssetItem item =  loadAssetItemFromGlobalArea(repository, path);
                 item.archiveItem( true );
                 item.checkin( "" );
+                changed( RulesRepository.RULE_GLOBAL_AREA );
             }
         } else {
             throw new IllegalArgumentException( "Not allowed to remove this file." );
@@ -665,6 +661,7 @@ public class WebDAVImpl implements IWebdavStore {
     }
 
     public void rollback(ITransaction iTransaction) {
+        tlChanged.set( null );
         RulesRepository repository = getRepo();
         repository.getSession().logout();
     }
@@ -695,6 +692,7 @@ public class WebDAVImpl implements IWebdavStore {
             //if (shouldCreateNewVersion(asset.getLastModified())) {
             asset.checkin( "<content from webdav>" );
             //}
+            changed( path[1] );
         } else if(isGlobalAreas(path)) {
             if ( path[1].startsWith( "._" ) ) {
                 try {
@@ -711,6 +709,7 @@ public class WebDAVImpl implements IWebdavStore {
             //if (shouldCreateNewVersion(asset.getLastModified())) {
             asset.checkin( "<content from webdav>" );
             //}
+            changed( RulesRepository.RULE_GLOBAL_AREA );
         } else {
             throw new UnsupportedOperationException( "Unable to save content to this location." );
         }
@@ -789,7 +788,7 @@ public class WebDAVImpl implements IWebdavStore {
     }
 
     private boolean isAssetItemInPackage(RulesRepository repository, String[] path) {
-        return loadPackageSnapshotFromRepository( repository, path ).containsAsset( AssetItem.getAssetNameFromFileName( path[3] )[0] );
+        return loadPackageSnapshotMetadata( repository, path ).getResource( path[3] ) != null;
     }
 
     private PackageItem loadPackageFromRepository(RulesRepository repository, String path) {
@@ -803,6 +802,26 @@ public class WebDAVImpl implements IWebdavStore {
     private PackageItem loadGlobalAreaFromRepository(RulesRepository repository) {
         return repository.loadGlobalArea();
     }
+
+    private Folder loadPackageMetadata(RulesRepository repository, String packageName) {
+        return WebDAVMetadataCache.getInstance().getPackage( repository, packageName );
+    }
+
+    private Folder loadPackageSnapshotMetadata(RulesRepository repository, String[] path) {
+        return WebDAVMetadataCache.getInstance().getSnapshot( repository, path[1], path[2] );
+    }
+
+    private Folder loadGlobalAreaMetadata(RulesRepository repository) {
+        return WebDAVMetadataCache.getInstance().getGlobalArea( repository );
+    }
+
+    private Resource loadResourceMetadata(Folder folder, String fileName) {
+        Resource resource = folder.getResource( fileName );
+        if ( resource == null ) {
+            throw new RulesRepositoryException( "Unable to find the asset for " + fileName );
+        }
+        return resource;
+    }
     
     private boolean isPermission(String[] path, int pathIndex) {
         return path.length == pathIndex && checkPackagePermissionIfReadOnly( path );
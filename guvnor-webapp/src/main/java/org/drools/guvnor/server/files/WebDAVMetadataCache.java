@@ -0,0 +1,482 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.files;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.drools.guvnor.server.cache.LoadingCache;
+import org.drools.guvnor.server.util.ManagementHelper;
+import org.drools.repository.AssetItem;
+import org.drools.repository.PackageItem;
+import org.drools.repository.RulesRepository;
+import org.drools.repository.RulesRepositoryException;
+import org.drools.repository.events.StorageEventManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps what WebDAV clients ask about over and over again: the package names,
+ * and for each package, snapshot and the global area, its dates and the
+ * names, dates and sizes of the assets in it. A folder is read in one pass
+ * over its assets, so listing it and then asking about each of its children
+ * (as a PROPFIND with depth 1 does) only loads the assets once.
+ *
+ * The cache listens to the repository (see observe()), and drops the entries
+ * of the packages and snapshots that changes are saved to, whichever session
+ * or cluster node saves them. As the events arrive some time after the save,
+ * WebDAV's own writes drop the entries they change straight away as well (see
+ * packageChanged()). Until it is listening, an entry is used only
+ * while nothing at all has been stored to the repository since it was read
+ * (see StorageEventManager.getChangeCount()). Either way an entry is kept for
+ * at most "guvnor.webdav.cache.maxAgeSeconds" (10 by default), for anything
+ * the events don't tell. A session with unsaved changes of its own bypasses
+ * the cache, as it sees something other than what is stored. The cache holds
+ * at most "guvnor.webdav.cache.maxSize" folders (100 by default), evicting
+ * the least recently used one when full.
+ *
+ * Permissions are not cached here, they are still checked on every request.
+ * The statistics are published through JMX as
+ * "org.drools.guvnor:type=WebDAVMetadataCache".
+ */
+public class WebDAVMetadataCache
+    implements
+    WebDAVMetadataCacheMBean,
+    EventListener {
+
+    private static final Logger log               = LoggerFactory.getLogger( WebDAVMetadataCache.class );
+
+    public static final String  MAX_AGE_PROPERTY  = "guvnor.webdav.cache.maxAgeSeconds";
+    public static final String  MAX_SIZE_PROPERTY = "guvnor.webdav.cache.maxSize";
+
+    private static final String PACKAGE_NAMES     = "packageNames";
+    private static final String GLOBAL_AREA       = "globalarea";
+
+    private static final int    EVENTS            = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
+    private static WebDAVMetadataCache instance;
+
+    static {
+        instance = new WebDAVMetadataCache( Long.getLong( MAX_AGE_PROPERTY,
+                                                          10 ),
+                                            Integer.getInteger( MAX_SIZE_PROPERTY,
+                                                                100 ) );
+        ManagementHelper.register( instance,
+                                   "WebDAVMetadataCache" );
+    }
+
+    public static WebDAVMetadataCache getInstance() {
+        return instance;
+    }
+
+    private final LoadingCache<String, Entry> entries;
+
+    /**
+     * The session the events are delivered to, and the repository it is on;
+     * null when we aren't listening.
+     */
+    private Session                           observer;
+    private volatile Repository               observed;
+
+    private final AtomicLong                  hits     = new AtomicLong();
+    private final AtomicLong                  misses   = new AtomicLong();
+    private final AtomicLong                  bypasses = new AtomicLong();
+
+    WebDAVMetadataCache(long maxAgeSeconds,
+                        int maxSize) {
+        this.entries = new LoadingCache<String, Entry>( maxSize,
+                                                        0,
+                                                        maxAgeSeconds * 1000,
+                                                        false );
+    }
+
+    /**
+     * Starts following the changes saved to the repository, through the given
+     * session, which has to stay open until stopObserving() is called.
+     */
+    public synchronized void observe(Session session) throws RepositoryException {
+        stopObserving();
+        session.getWorkspace().getObservationManager().addEventListener( this,
+                                                                         EVENTS,
+                                                                         "/" + RulesRepository.RULES_REPOSITORY_NAME,
+                                                                         true,
+                                                                         null,
+                                                                         null,
+                                                                         false );
+        this.observer = session;
+        this.observed = session.getRepository();
+        clearCache();
+    }
+
+    public synchronized void stopObserving() {
+        if ( this.observer != null ) {
+            try {
+                this.observer.getWorkspace().getObservationManager().removeEventListener( this );
+            } catch ( RepositoryException e ) {
+                log.warn( "Unable to stop listening to the repository: " + e.getMessage() );
+            }
+            this.observer = null;
+            this.observed = null;
+        }
+        clearCache();
+    }
+
+    public void onEvent(EventIterator events) {
+        while ( events.hasNext() ) {
+            Event event = events.nextEvent();
+            try {
+                changed( event.getPath(),
+                         event.getType() );
+            } catch ( RepositoryException e ) {
+                log.warn( "Unable to read a repository event, clearing the WebDAV cache: " + e.getMessage() );
+                clearCache();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops the entries a change to the given path makes stale.
+     */
+    void changed(String path,
+                 int eventType) {
+        // "", "drools:repository", the area, the package, ...
+        String[] parts = path.split( "/" );
+        if ( parts.length < 4 ) {
+            if ( parts.length < 3 || parts[2].equals( RulesRepository.RULE_PACKAGE_AREA ) || parts[2].equals( RulesRepository.PACKAGE_SNAPSHOT_AREA ) ) {
+                clearCache();
+            }
+            return;
+        }
+        boolean nodeEvent = eventType == Event.NODE_ADDED || eventType == Event.NODE_REMOVED || eventType == Event.NODE_MOVED;
+        String packageName = parts[3];
+        if ( parts[2].equals( RulesRepository.RULE_PACKAGE_AREA ) ) {
+            if ( parts.length == 4 && eventType == Event.NODE_MOVED ) {
+                //renamed, and we don't know the old name
+                clearCache();
+                return;
+            }
+            this.entries.remove( "packages/" + packageName );
+            if ( packageName.equals( RulesRepository.RULE_GLOBAL_AREA ) ) {
+                this.entries.remove( GLOBAL_AREA );
+            }
+            if ( (nodeEvent && parts.length == 4) || (!nodeEvent && parts.length == 5) ) {
+                //the package itself, which may have been added, removed or archived
+                this.entries.remove( PACKAGE_NAMES );
+            }
+        } else if ( parts[2].equals( RulesRepository.PACKAGE_SNAPSHOT_AREA ) ) {
+            if ( parts.length > 4 ) {
+                this.entries.remove( "snapshots/" + packageName + "/" + parts[4] );
+            } else {
+                String prefix = "snapshots/" + packageName + "/";
+                for ( String key : this.entries.keySet() ) {
+                    if ( key.startsWith( prefix ) ) {
+                        this.entries.remove( key );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of the given package (and the package list), for a
+     * write that has just been saved. The repository events for it arrive
+     * later, and the next request must not see the folder as it was.
+     */
+    public void packageChanged(String packageName) {
+        this.entries.remove( "packages/" + packageName );
+        this.entries.remove( PACKAGE_NAMES );
+        if ( packageName.equals( RulesRepository.RULE_GLOBAL_AREA ) ) {
+            this.entries.remove( GLOBAL_AREA );
+        }
+    }
+
+    /**
+     * The names of the packages that are not archived.
+     */
+    public List<String> getPackageNames(final RulesRepository repository) {
+        return get( repository,
+                    PACKAGE_NAMES,
+                    new Loader<List<String>>() {
+                        public List<String> load() {
+                            List<String> names = new ArrayList<String>();
+                            for ( Iterator<PackageItem> it = repository.listPackages(); it.hasNext(); ) {
+                                PackageItem pkg = it.next();
+                                if ( !pkg.isArchived() ) {
+                                    names.add( pkg.getName() );
+                                }
+                            }
+                            return Collections.unmodifiableList( names );
+                        }
+                    } );
+    }
+
+    public Folder getPackage(final RulesRepository repository,
+                             final String packageName) {
+        return get( repository,
+                    "packages/" + packageName,
+                    new Loader<Folder>() {
+                        public Folder load() {
+                            return new Folder( repository.loadPackage( packageName ) );
+                        }
+                    } );
+    }
+
+    public Folder getSnapshot(final RulesRepository repository,
+                              final String packageName,
+                              final String snapshotName) {
+        return get( repository,
+                    "snapshots/" + packageName + "/" + snapshotName,
+                    new Loader<Folder>() {
+                        public Folder load() {
+                            return new Folder( repository.loadPackageSnapshot( packageName,
+                                                                               snapshotName ) );
+                        }
+                    } );
+    }
+
+    public Folder getGlobalArea(final RulesRepository repository) {
+        return get( repository,
+                    GLOBAL_AREA,
+                    new Loader<Folder>() {
+                        public Folder load() {
+                            return new Folder( repository.loadGlobalArea() );
+                        }
+                    } );
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(RulesRepository repository,
+                      String key,
+                      final Loader<T> loader) {
+        final Repository jcrRepository = repository.getSession().getRepository();
+        if ( hasPendingChanges( repository ) ) {
+            this.bypasses.incrementAndGet();
+            return loader.load();
+        }
+
+        //read before loading, so anything stored while we load makes the entry stale
+        final long changeCount = StorageEventManager.getChangeCount();
+        Entry entry = this.entries.get( key );
+        if ( entry != null && (entry.repository != jcrRepository || (this.observed != jcrRepository && entry.changeCount != changeCount)) ) {
+            this.entries.remove( key );
+            entry = null;
+        }
+        if ( entry != null ) {
+            this.hits.incrementAndGet();
+            return (T) entry.value;
+        }
+        this.misses.incrementAndGet();
+
+        try {
+            entry = this.entries.get( key,
+                                      new Callable<Entry>() {
+                                          public Entry call() throws Exception {
+                                              return new Entry( jcrRepository,
+                                                                changeCount,
+                                                                loader.load() );
+                                          }
+                                      } );
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RulesRepositoryException( e.getCause() );
+        }
+        return (T) entry.value;
+    }
+
+    /**
+     * Whether there is an entry for the given key, however stale it may be.
+     */
+    boolean contains(String key) {
+        return this.entries.contains( key );
+    }
+
+    private static boolean hasPendingChanges(RulesRepository repository) {
+        try {
+            return repository.getSession().hasPendingChanges();
+        } catch ( RepositoryException e ) {
+            throw new RulesRepositoryException( e );
+        }
+    }
+
+    public void clearCache() {
+        this.entries.clear();
+    }
+
+    public int getSize() {
+        return this.entries.size();
+    }
+
+    public int getMaxSize() {
+        return this.entries.getMaxSize();
+    }
+
+    public long getMaxAgeSeconds() {
+        return this.entries.getMaxAgeMillis() / 1000;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    public long getBypassCount() {
+        return this.bypasses.get();
+    }
+
+    public long getEvictionCount() {
+        return this.entries.getEvictionCount() + this.entries.getExpirationCount();
+    }
+
+    public double getHitRatio() {
+        long total = getHitCount() + getMissCount();
+        return total == 0 ? 0 : (double) getHitCount() / total;
+    }
+
+    private interface Loader<T> {
+        T load();
+    }
+
+    private static class Entry {
+        final Repository repository;
+        final long       changeCount;
+        final Object     value;
+
+        Entry(Repository repository,
+              long changeCount,
+              Object value) {
+            this.repository = repository;
+            this.changeCount = changeCount;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A package, snapshot or the global area, and the assets in it.
+     */
+    public static class Folder {
+        private final Date                  creationDate;
+        private final Date                  lastModified;
+        private final boolean               archived;
+        private final Map<String, Resource> resources = new LinkedHashMap<String, Resource>();
+
+        Folder(PackageItem pkg) {
+            this.creationDate = pkg.getCreatedDate().getTime();
+            this.lastModified = pkg.getLastModified().getTime();
+            this.archived = pkg.isArchived();
+            try {
+                for ( Iterator<AssetItem> it = pkg.getAssets(); it.hasNext(); ) {
+                    AssetItem asset = it.next();
+                    this.resources.put( asset.getNode().getName(),
+                                        new Resource( asset ) );
+                }
+            } catch ( RepositoryException e ) {
+                throw new RulesRepositoryException( e );
+            }
+        }
+
+        public Date getCreationDate() {
+            return creationDate;
+        }
+
+        public Date getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isArchived() {
+            return archived;
+        }
+
+        /**
+         * The file names of the assets that are not archived.
+         */
+        public String[] getChildrenNames() {
+            List<String> names = new ArrayList<String>( this.resources.size() );
+            for ( Resource resource : this.resources.values() ) {
+                if ( !resource.isArchived() ) {
+                    names.add( resource.getFileName() );
+                }
+            }
+            return names.toArray( new String[names.size()] );
+        }
+
+        /**
+         * The asset for the given file name, archived or not, or null if
+         * there is no such asset. As when loading an asset, only the name
+         * counts, not the extension.
+         */
+        public Resource getResource(String fileName) {
+            return this.resources.get( AssetItem.getAssetNameFromFileName( fileName )[0] );
+        }
+    }
+
+    public static class Resource {
+        private final String  fileName;
+        private final Date    creationDate;
+        private final Date    lastModified;
+        private final long    contentLength;
+        private final boolean archived;
+
+        Resource(AssetItem asset) {
+            this.fileName = asset.getName() + "." + asset.getFormat();
+            this.creationDate = asset.getCreatedDate().getTime();
+            this.lastModified = asset.getLastModified().getTime();
+            this.contentLength = asset.getContentLength();
+            this.archived = asset.isArchived();
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Date getCreationDate() {
+            return creationDate;
+        }
+
+        public Date getLastModified() {
+            return lastModified;
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        public boolean isArchived() {
+            return archived;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.files;
+
+/**
+ * The statistics of the WebDAVMetadataCache, as published through JMX.
+ */
+public interface WebDAVMetadataCacheMBean {
+
+    int getSize();
+
+    int getMaxSize();
+
+    long getMaxAgeSeconds();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * The number of lookups that went straight to the repository because the
+     * session had unsaved changes.
+     */
+    long getBypassCount();
+
+    long getEvictionCount();
+
+    double getHitRatio();
+
+    void clearCache();
+
+}
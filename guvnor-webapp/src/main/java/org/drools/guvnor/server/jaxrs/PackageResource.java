@@ -28,21 +28,27 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
 import javax.xml.namespace.QName;
 
@@ -53,6 +59,7 @@ import org.drools.guvnor.server.files.RepositoryServlet;
 import org.drools.guvnor.server.jaxrs.jaxb.Asset;
 import org.drools.guvnor.server.jaxrs.jaxb.Package;
 import org.drools.repository.AssetItem;
+import org.drools.repository.AssetItemIterator;
 import org.drools.repository.PackageHistoryIterator;
 import org.drools.repository.PackageItem;
 import org.drools.repository.PackageIterator;
@@ -249,17 +256,36 @@ public class PackageResource extends Resource {
         return repository.loadPackage(packageName).getCompiledPackageBytes();
     }
     
+    /**
+     * The assets of a package, at most "limit" of them starting from
+     * "cursor". If there are more, the feed has a "next" link to them.
+     * Answers conditional GETs, based on when anything in the package last
+     * changed.
+     */
     @GET
     @Path("{packageName}/assets")
     @Produces(MediaType.APPLICATION_ATOM_XML)
-    public Feed getAssetsAsAtom(@PathParam("packageName") String packageName) {
-        Feed feed = new Feed();
+    public Response getAssetsAsAtom(@PathParam("packageName") String packageName,
+                                    @QueryParam("cursor") @DefaultValue("0") long cursor,
+                                    @QueryParam("limit") @DefaultValue("-1") int limit,
+                                    @Context Request request) {
         PackageItem p = repository.loadPackage(packageName);
+        Date lastModified = getContentLastModified(p);
+        ResponseBuilder notModified = request.evaluatePreconditions(lastModified);
+        if (notModified != null)
+            return notModified.build();
+
+        Feed feed = new Feed();
         feed.setTitle(p.getTitle() + "-asset-feed");
-        Iterator<AssetItem> iter = p.getAssets();
-        while (iter.hasNext())
-            feed.getEntries().add(ToAssetEntry(iter.next(), uriInfo));
-        return feed;
+        AssetItemIterator iter = p.getAssets();
+        URI next = loadPage(iter, cursor, limit, feed.getEntries(), ToAtomEntry);
+        if (next != null) {
+            Link l = new Link();
+            l.setRel("next");
+            l.setHref(next);
+            feed.getLinks().add(l);
+        }
+        return Response.ok(feed).lastModified(lastModified).build();
     }
 
     @PUT
@@ -303,18 +329,76 @@ public class PackageResource extends Resource {
         packageService.removePackage(p.getUUID());
     }
     
+    /**
+     * As {@link #getAssetsAsAtom}, with the next page given in a "Link"
+     * header.
+     */
     @GET
     @Path("{packageName}/assets")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public Collection<Asset> getAssetsAsJAXB(@PathParam("packageName") String packageName) {
-        List<Asset> ret = Collections.EMPTY_LIST;
+    public Response getAssetsAsJAXB(@PathParam("packageName") String packageName,
+                                    @QueryParam("cursor") @DefaultValue("0") long cursor,
+                                    @QueryParam("limit") @DefaultValue("-1") int limit,
+                                    @Context Request request) {
         PackageItem p = repository.loadPackage(packageName);
-        Iterator<AssetItem> iter = p.getAssets();
-        if (iter.hasNext())
-            ret = new ArrayList<Asset>();
-        while (iter.hasNext())
-            ret.add(ToAsset(iter.next(), uriInfo));
-        return ret;
+        Date lastModified = getContentLastModified(p);
+        ResponseBuilder notModified = request.evaluatePreconditions(lastModified);
+        if (notModified != null)
+            return notModified.build();
+
+        List<Asset> ret = new ArrayList<Asset>();
+        AssetItemIterator iter = p.getAssets();
+        URI next = loadPage(iter, cursor, limit, ret, ToJAXBAsset);
+        ResponseBuilder builder = Response.ok(new GenericEntity<Collection<Asset>>(ret) {}).lastModified(lastModified);
+        if (next != null)
+            builder.header("Link", "<" + next + ">; rel=\"next\"");
+        return builder.build();
+    }
+
+    private interface AssetConverter<T> {
+        T convert(AssetItem item, UriInfo uriInfo);
+    }
+
+    private static final AssetConverter<Entry> ToAtomEntry = new AssetConverter<Entry>() {
+        public Entry convert(AssetItem item, UriInfo uriInfo) {
+            return ToAssetEntry(item, uriInfo);
+        }
+    };
+
+    private static final AssetConverter<Asset> ToJAXBAsset = new AssetConverter<Asset>() {
+        public Asset convert(AssetItem item, UriInfo uriInfo) {
+            return ToAsset(item, uriInfo);
+        }
+    };
+
+    /**
+     * Converts the assets from the cursor on, up to the limit (or all of them
+     * if the limit is negative), and returns the URI of the next page if
+     * there are any left. The cursor is the position in the package's assets.
+     * A limit of 0 is taken as 1, so that following the next pages always
+     * gets somewhere.
+     */
+    private <T> URI loadPage(AssetItemIterator iter, long cursor, int limit, List<T> page, AssetConverter<T> converter) {
+        if (limit == 0)
+            limit = 1;
+        if (cursor > 0) {
+            try {
+                iter.skip(cursor);
+            } catch (NoSuchElementException e) {
+                //past the end, so an empty page
+                return null;
+            }
+        }
+        while (iter.hasNext() && (limit < 0 || page.size() < limit))
+            page.add(converter.convert(iter.next(), uriInfo));
+        if (limit < 0 || !iter.hasNext())
+            return null;
+        return uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", iter.getPosition()).build();
+    }
+
+    //HTTP dates only go down to the second
+    private static Date getContentLastModified(PackageItem p) {
+        return new Date(p.getContentLastModified().getTimeInMillis() / 1000 * 1000);
     }
 
     @PUT
@@ -16,12 +16,22 @@
 
 package org.drools.guvnor.server.repository;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
 
 import org.drools.guvnor.server.util.LoggingHelper;
 import org.drools.repository.AssetItem;
@@ -32,6 +42,25 @@ import org.drools.repository.UserInfo.InboxEntry;
 /**
  * This service the "delivery" of messages to users inboxes for events.
  * Ideally only one instance of this running at a time (at least on a node) to avoid doubling up.
+ *
+ * Updates are queued in memory when assets are checked in, and delivered in
+ * the background, at most "guvnor.mailbox.batchSize" of them at a time (500 by
+ * default). An update is only taken off the queue once its delivery is saved,
+ * and stop() delivers whatever is still queued before it returns, so only a
+ * crash loses updates. A user whose inbox can't be updated is skipped, and
+ * doesn't hold up the others. At most "guvnor.mailbox.maxQueued" updates
+ * (10000 by default) are queued, any more are dropped while the repository
+ * can't take them. Anything left in the "mailman" inbox (the outbox of
+ * earlier versions) is delivered as well.
+ *
+ * Only the users that have recently edited one of the updated assets are
+ * looked at, using an index of who recently edited what. The index is read
+ * from the users inboxes, and kept up to date as they edit on this node. It
+ * is read again every "guvnor.mailbox.recentEditorsReloadMinutes" (15 by
+ * default), to pick up the edits made on other nodes and forget the ones that
+ * have dropped out of the inboxes, or sooner if it grows by more than
+ * "guvnor.mailbox.recentEditorsMaxAssets" assets (20000 by default) since it
+ * was last read. It is checked once per batch of updates.
  */
 public class MailboxService {
 
@@ -39,6 +68,37 @@ public class MailboxService {
     public static final String MAILMAN      = "mailman";
     private static ExecutorService executor = null;
     private static MailboxService INSTANCE  = null;
+    public static final String BATCH_SIZE_PROPERTY = "guvnor.mailbox.batchSize";
+    public static final String RECENT_EDITORS_RELOAD_PROPERTY = "guvnor.mailbox.recentEditorsReloadMinutes";
+    public static final String RECENT_EDITORS_MAX_ASSETS_PROPERTY = "guvnor.mailbox.recentEditorsMaxAssets";
+    public static final String MAX_QUEUED_PROPERTY = "guvnor.mailbox.maxQueued";
+
+    private final int batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, 500);
+    private final long recentEditorsReloadMillis = TimeUnit.MINUTES.toMillis(Long.getLong(RECENT_EDITORS_RELOAD_PROPERTY, 15));
+    private final int recentEditorsMaxAssets = Integer.getInteger(RECENT_EDITORS_MAX_ASSETS_PROPERTY, 20000);
+    private final int maxQueued = Integer.getInteger(MAX_QUEUED_PROPERTY, 10000);
+
+    /**
+     * Updates waiting to be delivered.
+     */
+    private final ConcurrentLinkedQueue<InboxEntry> outbox = new ConcurrentLinkedQueue<InboxEntry>();
+    private final AtomicInteger outboxSize = new AtomicInteger();
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+
+    /**
+     * Asset UUID to the users that have recently edited it. This may name
+     * users that have since edited other things, so their inboxes are checked
+     * before delivering.
+     */
+    private volatile ConcurrentMap<String, Set<String>> recentEditors = new ConcurrentHashMap<String, Set<String>>();
+    /**
+     * When the index was last read from the inboxes, 0 for never.
+     */
+    private long recentEditorsLoadedAt;
+    /**
+     * The number of assets in the index when it was last read.
+     */
+    private int recentEditorsLoadedSize;
     /**
      * Should be the for the "mailman" user.
      */
@@ -78,6 +138,18 @@ public class MailboxService {
             executor.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        if (!outbox.isEmpty()) {
+            if (executor.isTerminated()) {
+                //nothing else uses the repository now
+                try {
+                    processOutgoing();
+                } catch (RuntimeException e) {
+                    log.error("Unable to deliver " + outbox.size() + " inbox updates on shutdown", e);
+                }
+            } else {
+                log.error("Unable to deliver " + outbox.size() + " inbox updates on shutdown, the delivery is still running");
+            }
+        }
         INSTANCE=null;
         log.info("Mailbox service is shutdown.");
 
@@ -85,43 +157,159 @@ public class MailboxService {
 
     public void wakeUp() {
         log.debug("Waking up");
+        if (!deliveryScheduled.compareAndSet(false, true)) {
+            return; //the waiting delivery will pick up everything
+        }
         executor.execute(new Runnable() {
             public void run() {
+                deliveryScheduled.set(false);
                 processOutgoing();
             }
         });
     }
 
-    /** Process any waiting messages */
+    /**
+     * Process any waiting messages. Updates stay queued until their delivery
+     * is saved, and without a repository they wait for one.
+     */
     void processOutgoing()  {
             //log.info("Processing outgoing messages");
             if (repository != null) {
                 UserInbox mailman = new UserInbox(repository, MAILMAN);
-                final List<UserInfo.InboxEntry> es  = mailman.loadIncoming();
-                log.debug("Outgoing messages size " + es.size());
-                //wipe out inbox for mailman here...
-                UserInfo.eachUser(this.repository, new UserInfo.Command() {
-                    public void process(final String toUser) {
-
-                        //String toUser = userNode.getName();
-                        log.debug("Processing any inbound messages for " + toUser);
-                        if (toUser.equals(MAILMAN)) return;
-                        UserInbox inbox = new UserInbox(repository, toUser);
-                        Set<String> recentEdited = makeSetOf(inbox.loadRecentEdited());
-                        for (UserInfo.InboxEntry e : es) {
-                            //the user who edited the item wont receive a message in inbox.
-                            if (!e.from.equals(toUser) && recentEdited.contains(e.assetUUID)) {
-                                inbox.addToIncoming(e.assetUUID, e.note, e.from);
-                            }
+                List<InboxEntry> es = mailman.loadIncoming();
+                boolean fromMailman = !es.isEmpty();
+                do {
+                    //only this thread takes from the outbox, so peeking is safe
+                    int queued = 0;
+                    for (Iterator<InboxEntry> it = outbox.iterator(); es.size() < batchSize && it.hasNext(); queued++) {
+                        es.add(it.next());
+                    }
+                    log.debug("Outgoing messages size " + es.size());
+                    if (es.isEmpty()) {
+                        return;
+                    }
+                    try {
+                        deliver(es);
+                        if (fromMailman) {
+                            //wipe out inbox for mailman here...
+                            mailman.clearIncoming();
+                            fromMailman = false;
+                        }
+                        repository.save();
+                    } catch (RuntimeException e) {
+                        //the updates are still queued, so don't leave half of them behind to be saved twice
+                        try {
+                            repository.getSession().refresh(false);
+                        } catch (RepositoryException re) {
+                            log.error("Unable to discard a failed inbox delivery", re);
                         }
+                        throw e;
                     }
-                });
-                mailman.clearIncoming();
-                repository.save();
+                    for (int i = 0; i < queued; i++) {
+                        outbox.poll();
+                        outboxSize.decrementAndGet();
+                    }
+                    es = new ArrayList<InboxEntry>();
+                } while (!outbox.isEmpty());
             }
 
     }
 
+    /**
+     * Delivers the given updates to the users that recently edited the assets.
+     * Each user gets the latest update of each asset that wasn't their own.
+     */
+    private void deliver(List<InboxEntry> es) {
+        reloadRecentEditorsIfDue();
+        Set<String> toUsers = new HashSet<String>();
+        for (InboxEntry e : es) {
+            toUsers.addAll(getRecentEditors(e.assetUUID));
+        }
+        toUsers.remove(MAILMAN);
+
+        for (String toUser : toUsers) {
+            log.debug("Processing any inbound messages for " + toUser);
+            try {
+                deliver(es, toUser);
+            } catch (RuntimeException e) {
+                log.error("Unable to deliver inbox updates to " + toUser, e);
+            }
+        }
+    }
+
+    private void deliver(List<InboxEntry> es, String toUser) {
+        UserInbox inbox = new UserInbox(repository, toUser);
+        Set<String> recentEdited = makeSetOf(inbox.loadRecentEdited());
+        Set<String> delivered = new HashSet<String>();
+        List<InboxEntry> incoming = new ArrayList<InboxEntry>();
+        //latest first, so only the latest update of each asset is kept
+        for (int i = es.size() - 1; i >= 0; i--) {
+            InboxEntry e = es.get(i);
+            //the user who edited the item wont receive a message in inbox.
+            if (!toUser.equals(e.from) && recentEdited.contains(e.assetUUID) && delivered.add(e.assetUUID)) {
+                incoming.add(e);
+            }
+        }
+        if (!incoming.isEmpty()) {
+            Collections.reverse(incoming);
+            inbox.addToIncoming(incoming);
+        }
+    }
+
+    private void reloadRecentEditorsIfDue() {
+        long now = System.currentTimeMillis();
+        if (recentEditorsLoadedAt == 0 || now - recentEditorsLoadedAt > recentEditorsReloadMillis
+                || recentEditors.size() - recentEditorsLoadedSize > recentEditorsMaxAssets) {
+            reloadRecentEditors();
+            recentEditorsLoadedAt = now;
+            recentEditorsLoadedSize = recentEditors.size();
+        }
+    }
+
+    private Set<String> getRecentEditors(String assetUUID) {
+        Set<String> users = recentEditors.get(assetUUID);
+        return users == null ? Collections.<String>emptySet() : users;
+    }
+
+    /**
+     * Reads the index again from the inboxes. The new index is in place before
+     * it is read, so the edits made in the meantime go into it.
+     */
+    private void reloadRecentEditors() {
+        recentEditors = new ConcurrentHashMap<String, Set<String>>();
+        UserInfo.eachUser(this.repository, new UserInfo.Command() {
+            public void process(final String userName) {
+                for (InboxEntry e : new UserInbox(repository, userName).loadRecentEdited()) {
+                    addRecentEditor(e.assetUUID, userName);
+                }
+            }
+        });
+    }
+
+    private void addRecentEditor(String assetUUID, String userName) {
+        ConcurrentMap<String, Set<String>> editors = recentEditors;
+        Set<String> users = editors.get(assetUUID);
+        if (users == null) {
+            Set<String> newUsers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            users = editors.putIfAbsent(assetUUID, newUsers);
+            if (users == null) {
+                users = newUsers;
+            }
+        }
+        users.add(userName);
+    }
+
+    /**
+     * Notes that the given user has edited the given asset, so they will hear
+     * about other peoples changes to it.
+     */
+    static void recordRecentEdit(String userName, String assetUUID) {
+        MailboxService service = INSTANCE;
+        if (service != null) {
+            service.addRecentEditor(assetUUID, userName);
+        }
+    }
+
     private Set<String> makeSetOf(List<InboxEntry> inboxEntries) {
         Set<String> entries = new HashSet<String>();
         for(InboxEntry e : inboxEntries) {
@@ -135,21 +323,13 @@ public class MailboxService {
      * @param item
      */
     public void recordItemUpdated(AssetItem item) {
-        final String id = item.getUUID();
-        final String name = item.getName();
-        final String from = item.getRulesRepository().getSession().getUserID();
-        executor.execute(new Runnable() {
-            public void run() {
-                if (repository!=null) {
-                    // write the message to the admins outbox
-                    UserInbox inbox = new UserInbox(repository, MAILMAN);
-                    inbox.addToIncoming(id, name, from);
-                    processOutgoing();
-
-                    repository.save();
-                }
-            }
-        });
+        if (outboxSize.incrementAndGet() > maxQueued) {
+            outboxSize.decrementAndGet();
+            log.warn("Too many inbox updates waiting to be delivered, dropping the update of " + item.getName());
+        } else {
+            outbox.add(new InboxEntry(item.getUUID(), item.getName(), item.getRulesRepository().getSession().getUserID()));
+        }
+        wakeUp();
     }
 
 
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.drools.repository.RulesRepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of JCR sessions, so that each request doesn't have to log in to the
+ * repository (and rebuild the session caches) only to log out again at the
+ * end of it.
+ *
+ * Sessions are pooled per user, so a request always works with a session
+ * logged in as its own user. A session that is handed out again has its
+ * state refreshed, and any changes left unsaved by the previous request are
+ * thrown away.
+ *
+ * The pool is configured with these system properties:
+ * "guvnor.session.pool.maxActive" - the most sessions in use at once (0 by
+ * default, for no limit, as before there was a pool),
+ * "guvnor.session.pool.maxWaitMillis" - how long a request waits for one of
+ * those before giving up when there is a limit (30 seconds by default),
+ * "guvnor.session.pool.maxIdle" - the most idle sessions kept (20 by default,
+ * 0 to log every session out as before) and
+ * "guvnor.session.pool.idleTimeoutSeconds" - how long a session may sit idle
+ * before it is logged out (5 minutes by default, 0 for never).
+ *
+ * The statistics are published through JMX as
+ * "org.drools.guvnor:type=RepositorySessionPool".
+ */
+public class RepositorySessionPool
+    implements
+    RepositorySessionPoolMBean {
+
+    private static final Logger log                   = LoggerFactory.getLogger( RepositorySessionPool.class );
+
+    public static final String  MAX_ACTIVE_PROPERTY   = "guvnor.session.pool.maxActive";
+    public static final String  MAX_IDLE_PROPERTY     = "guvnor.session.pool.maxIdle";
+    public static final String  MAX_WAIT_PROPERTY     = "guvnor.session.pool.maxWaitMillis";
+    public static final String  IDLE_TIMEOUT_PROPERTY = "guvnor.session.pool.idleTimeoutSeconds";
+
+    /**
+     * Logs a user in.
+     */
+    public static interface SessionFactory {
+        Session newSession(String userName);
+    }
+
+    private final SessionFactory                   factory;
+    private final int                              maxActive;
+    private final int                              maxIdle;
+    private final long                             maxWaitMillis;
+    private final long                             idleTimeoutSeconds;
+
+    /**
+     * Null when the number of sessions in use isn't limited.
+     */
+    private final Semaphore                        permits;
+
+    /**
+     * The idle sessions of each user, most recently used first.
+     */
+    private final Map<String, LinkedList<IdleSession>> idle          = new HashMap<String, LinkedList<IdleSession>>();
+    private int                                    idleCount;
+    private boolean                                closed;
+
+    private final AtomicInteger                    active        = new AtomicInteger();
+    private final AtomicLong                       borrows       = new AtomicLong();
+    private final AtomicLong                       reuses        = new AtomicLong();
+    private final AtomicLong                       logins        = new AtomicLong();
+    private final AtomicLong                       evictions     = new AtomicLong();
+    private final AtomicLong                       timeouts      = new AtomicLong();
+    private final AtomicLong                       totalWaitNanos = new AtomicLong();
+    private final AtomicLong                       maxWaitNanos  = new AtomicLong();
+
+    RepositorySessionPool(SessionFactory factory,
+                          int maxActive,
+                          int maxIdle,
+                          long maxWaitMillis,
+                          long idleTimeoutSeconds) {
+        this.factory = factory;
+        this.maxActive = maxActive;
+        this.maxIdle = maxIdle;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        this.permits = maxActive > 0 ? new Semaphore( maxActive,
+                                                      true ) : null;
+    }
+
+    /**
+     * Creates a pool configured from the system properties.
+     */
+    public static RepositorySessionPool newInstance(SessionFactory factory) {
+        return new RepositorySessionPool( factory,
+                                          Integer.getInteger( MAX_ACTIVE_PROPERTY,
+                                                              0 ),
+                                          Integer.getInteger( MAX_IDLE_PROPERTY,
+                                                              20 ),
+                                          Long.getLong( MAX_WAIT_PROPERTY,
+                                                        30000 ),
+                                          Long.getLong( IDLE_TIMEOUT_PROPERTY,
+                                                        300 ) );
+    }
+
+    /**
+     * Hands out a session for the given user, logging in if there isn't an
+     * idle one. Every session borrowed has to be given back with release.
+     */
+    public Session borrow(String userName) {
+        long start = System.nanoTime();
+        if ( this.permits != null ) {
+            try {
+                if ( !this.permits.tryAcquire( this.maxWaitMillis,
+                                               TimeUnit.MILLISECONDS ) ) {
+                    this.timeouts.incrementAndGet();
+                    throw new RulesRepositoryException( "Timed out waiting for a repository session, there are already " + this.maxActive + " in use." );
+                }
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RulesRepositoryException( "Interrupted while waiting for a repository session.",
+                                                    e );
+            }
+        }
+        recordWait( System.nanoTime() - start );
+        this.borrows.incrementAndGet();
+
+        try {
+            Session session = takeIdle( userName );
+            if ( session == null ) {
+                this.logins.incrementAndGet();
+                session = this.factory.newSession( userName );
+            } else {
+                this.reuses.incrementAndGet();
+            }
+            this.active.incrementAndGet();
+            return session;
+        } catch ( RuntimeException e ) {
+            if ( this.permits != null ) {
+                this.permits.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a session back to the pool. Sessions that were logged out in the
+     * meantime are dropped.
+     */
+    public void release(String userName,
+                        Session session) {
+        this.active.decrementAndGet();
+        try {
+            if ( session == null || !session.isLive() ) {
+                return;
+            }
+            if ( this.maxIdle <= 0 ) {
+                session.logout();
+                return;
+            }
+            try {
+                if ( session.hasPendingChanges() ) {
+                    session.refresh( false );
+                }
+            } catch ( RepositoryException e ) {
+                log.debug( "Unable to discard the changes of a pooled session, logging it out: " + e.getMessage() );
+                session.logout();
+                return;
+            }
+
+            List<Session> evicted = new ArrayList<Session>();
+            synchronized ( this.idle ) {
+                if ( this.closed ) {
+                    evicted.add( session );
+                } else {
+                    removeExpired( evicted );
+                    while ( this.idleCount >= this.maxIdle ) {
+                        evicted.add( removeEldest() );
+                    }
+                    LinkedList<IdleSession> sessions = this.idle.get( userName );
+                    if ( sessions == null ) {
+                        sessions = new LinkedList<IdleSession>();
+                        this.idle.put( userName,
+                                       sessions );
+                    }
+                    sessions.addFirst( new IdleSession( session ) );
+                    this.idleCount++;
+                }
+            }
+            logout( evicted );
+        } finally {
+            if ( this.permits != null ) {
+                this.permits.release();
+            }
+        }
+    }
+
+    /**
+     * Logs out the idle sessions, and any session given back from now on.
+     */
+    public void close() {
+        synchronized ( this.idle ) {
+            this.closed = true;
+        }
+        clear();
+    }
+
+    public void clear() {
+        List<Session> sessions = new ArrayList<Session>();
+        synchronized ( this.idle ) {
+            for ( LinkedList<IdleSession> userSessions : this.idle.values() ) {
+                for ( IdleSession idleSession : userSessions ) {
+                    sessions.add( idleSession.session );
+                }
+            }
+            this.idle.clear();
+            this.idleCount = 0;
+        }
+        for ( Session session : sessions ) {
+            session.logout();
+        }
+    }
+
+    private Session takeIdle(String userName) {
+        while ( true ) {
+            IdleSession idleSession = null;
+            List<Session> evicted = new ArrayList<Session>();
+            synchronized ( this.idle ) {
+                removeExpired( evicted );
+                LinkedList<IdleSession> sessions = this.idle.get( userName );
+                if ( sessions != null ) {
+                    idleSession = sessions.poll();
+                    if ( sessions.isEmpty() ) {
+                        this.idle.remove( userName );
+                    }
+                    if ( idleSession != null ) {
+                        this.idleCount--;
+                    }
+                }
+            }
+            logout( evicted );
+            if ( idleSession == null ) {
+                return null;
+            }
+
+            Session session = idleSession.session;
+            try {
+                if ( session.isLive() ) {
+                    session.refresh( false );
+                    return session;
+                }
+            } catch ( RepositoryException e ) {
+                log.debug( "Unable to refresh a pooled session, logging it out: " + e.getMessage() );
+                session.logout();
+            }
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void removeExpired(List<Session> evicted) {
+        if ( this.idleTimeoutSeconds <= 0 ) {
+            return;
+        }
+        long expiry = System.currentTimeMillis() - this.idleTimeoutSeconds * 1000;
+        for ( Iterator<LinkedList<IdleSession>> users = this.idle.values().iterator(); users.hasNext(); ) {
+            LinkedList<IdleSession> sessions = users.next();
+            //the eldest are at the end
+            while ( !sessions.isEmpty() && sessions.getLast().lastUsed < expiry ) {
+                evicted.add( sessions.removeLast().session );
+                this.idleCount--;
+                this.evictions.incrementAndGet();
+            }
+            if ( sessions.isEmpty() ) {
+                users.remove();
+            }
+        }
+    }
+
+    /**
+     * Must hold the lock, and there must be an idle session.
+     */
+    private Session removeEldest() {
+        String eldestUser = null;
+        long eldest = Long.MAX_VALUE;
+        for ( Map.Entry<String, LinkedList<IdleSession>> entry : this.idle.entrySet() ) {
+            long lastUsed = entry.getValue().getLast().lastUsed;
+            if ( lastUsed < eldest ) {
+                eldest = lastUsed;
+                eldestUser = entry.getKey();
+            }
+        }
+        LinkedList<IdleSession> sessions = this.idle.get( eldestUser );
+        Session session = sessions.removeLast().session;
+        if ( sessions.isEmpty() ) {
+            this.idle.remove( eldestUser );
+        }
+        this.idleCount--;
+        this.evictions.incrementAndGet();
+        return session;
+    }
+
+    private void logout(List<Session> sessions) {
+        for ( Session session : sessions ) {
+            session.logout();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        this.totalWaitNanos.addAndGet( nanos );
+        long max = this.maxWaitNanos.get();
+        while ( nanos > max && !this.maxWaitNanos.compareAndSet( max,
+                                                                 nanos ) ) {
+            max = this.maxWaitNanos.get();
+        }
+    }
+
+    public int getMaxActive() {
+        return this.maxActive;
+    }
+
+    public int getMaxIdle() {
+        return this.maxIdle;
+    }
+
+    public long getMaxWaitMillis() {
+        return this.maxWaitMillis;
+    }
+
+    public long getIdleTimeoutSeconds() {
+        return this.idleTimeoutSeconds;
+    }
+
+    public int getActiveCount() {
+        return this.active.get();
+    }
+
+    public int getIdleCount() {
+        synchronized ( this.idle ) {
+            return this.idleCount;
+        }
+    }
+
+    public long getBorrowCount() {
+        return this.borrows.get();
+    }
+
+    public long getReuseCount() {
+        return this.reuses.get();
+    }
+
+    public long getLoginCount() {
+        return this.logins.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    public long getTimeoutCount() {
+        return this.timeouts.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = getBorrowCount();
+        return count == 0 ? 0 : this.totalWaitNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxWaitTimeMillis() {
+        return this.maxWaitNanos.get() / 1000000.0;
+    }
+
+    private static class IdleSession {
+        private final Session session;
+        private final long    lastUsed = System.currentTimeMillis();
+
+        IdleSession(Session session) {
+            this.session = session;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.repository;
+
+/**
+ * The statistics of the RepositorySessionPool, as published through JMX.
+ */
+public interface RepositorySessionPoolMBean {
+
+    int getMaxActive();
+
+    int getMaxIdle();
+
+    long getMaxWaitMillis();
+
+    long getIdleTimeoutSeconds();
+
+    int getActiveCount();
+
+    int getIdleCount();
+
+    long getBorrowCount();
+
+    /**
+     * The number of borrows that were served by an idle session, rather than
+     * a new login.
+     */
+    long getReuseCount();
+
+    long getLoginCount();
+
+    /**
+     * The number of idle sessions logged out for being idle too long, or to
+     * make room for others.
+     */
+    long getEvictionCount();
+
+    /**
+     * The number of borrows that gave up waiting for a session.
+     */
+    long getTimeoutCount();
+
+    double getAverageWaitMillis();
+
+    double getMaxWaitTimeMillis();
+
+    /**
+     * Logs out all the idle sessions.
+     */
+    void clear();
+
+}
@@ -17,6 +17,11 @@
 package org.drools.guvnor.server.repository;
 
 
+import org.drools.guvnor.server.SuggestionCompletionEngineLoaderInitializer;
+import org.drools.guvnor.server.cache.SuggestionCompletionEngineCache;
+import org.drools.guvnor.server.files.WebDAVMetadataCache;
+import org.drools.guvnor.server.util.ManagementHelper;
+import org.drools.guvnor.server.util.WorkerPools;
 import org.drools.repository.*;
 import org.drools.repository.events.CheckinEvent;
 import org.drools.repository.events.StorageEventManager;
@@ -61,6 +66,8 @@ public class RepositoryStartupService {
     Repository repository;
     private Session sessionForSetup;
     private RulesRepository mailmanSession;
+    private Session indexSession;
+    private RepositorySessionPool sessionPool;
 
     public Repository getRepositoryInstance() {
         try {
@@ -93,7 +100,9 @@ public class RepositoryStartupService {
         sessionForSetup = newSession(username,password);
         create( sessionForSetup );
         startMailboxService();
+        startAssetLinkIndex(username, password);
         registerCheckinListener();
+        startSuggestionCompletionEngineWarmUp(username, password);
     }
 
     /** Listen for changes to the repository - for inbox purposes */
@@ -103,12 +112,57 @@ public class RepositoryStartupService {
             public void afterCheckin(AssetItem item) {
                 UserInbox.recordUserEditEvent(item);  //to register that she edited...
                 MailboxService.getInstance().recordItemUpdated(item);   //for outgoing...
-                MailboxService.getInstance().wakeUp();
+                if (SuggestionCompletionEngineCache.isEngineSource(item.getFormat())) {
+                    SuggestionCompletionEngineCache.getInstance().remove(item.getPackage().getUUID());
+                }
             }
         });
         System.out.println("Check-in listener up");
     }
 
+    /**
+     * Load the suggestion completion engines in the background, so the first
+     * editors opened don't have to wait for them. Set
+     * "guvnor.sce.cache.warmUp" to false to skip this.
+     */
+    private void startSuggestionCompletionEngineWarmUp(final String username, final String password) {
+        if (!Boolean.parseBoolean(System.getProperty(SuggestionCompletionEngineCache.WARM_UP_PROPERTY, "true"))) {
+            return;
+        }
+        Thread warmUp = new Thread("SuggestionCompletionEngineWarmUp") {
+            public void run() {
+                RulesRepository repo = new RulesRepository(newSession(username, password));
+                try {
+                    new SuggestionCompletionEngineLoaderInitializer().warmUp(repo);
+                } catch (RuntimeException e) {
+                    log.warn("Unable to warm up the suggestion completion engines", e);
+                } finally {
+                    repo.logout();
+                }
+            }
+        };
+        warmUp.setDaemon(true);
+        warmUp.setPriority(Thread.MIN_PRIORITY);
+        warmUp.start();
+    }
+
+    /**
+     * Let the asset link index and the WebDAV cache follow the changes saved
+     * to the repository, on a session of their own.
+     */
+    private void startAssetLinkIndex(String username, String password) {
+        indexSession = newSession(username, password);
+        try {
+            AssetLinkIndex.getInstance(repository).observe(indexSession);
+            WebDAVMetadataCache.getInstance().observe(indexSession);
+        } catch (RepositoryException e) {
+            log.warn("Unable to listen to the repository, categories and states will be listed without the asset link index", e);
+            AssetLinkIndex.getInstance(repository).stopObserving();
+            indexSession.logout();
+            indexSession = null;
+        }
+    }
+
     /** Start up the mailbox, flush out any messages that were left */
     private void startMailboxService() {
         String username = MAILMAN;
@@ -163,10 +217,20 @@ public class RepositoryStartupService {
 
     @Destroy
     public void close() {
+        WorkerPools.shutdown();
+        if (indexSession != null) {
+            WebDAVMetadataCache.getInstance().stopObserving();
+            AssetLinkIndex.getInstance(repository).stopObserving();
+            indexSession.logout();
+        }
         sessionForSetup.logout();
         MailboxService.getInstance().stop();
         mailmanSession.logout();
-        
+        synchronized (this) {
+            if (sessionPool != null) {
+                sessionPool.close();
+            }
+        }
     }
     
     public void setHomeDirectory(String home) {
@@ -197,6 +261,21 @@ public class RepositoryStartupService {
     }
 
 
+    /**
+     * The pool of sessions handed out to requests, see RulesRepositoryManager.
+     */
+    public synchronized RepositorySessionPool getSessionPool() {
+        if (sessionPool == null) {
+            sessionPool = RepositorySessionPool.newInstance(new RepositorySessionPool.SessionFactory() {
+                public Session newSession(String userName) {
+                    return RepositoryStartupService.this.newSession(userName);
+                }
+            });
+            ManagementHelper.register(sessionPool, "RepositorySessionPool");
+        }
+        return sessionPool;
+    }
+
     /**
      * This will create a new Session, based on the current user.
      * @return
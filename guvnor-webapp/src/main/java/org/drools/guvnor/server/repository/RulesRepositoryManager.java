@@ -32,6 +32,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This enhances the BRMS repository for lifecycle management.
+ * The session of each request is borrowed from the RepositorySessionPool,
+ * and given back to it when the request is done.
  */
 @Scope(ScopeType.EVENT)
 @AutoCreate
@@ -45,18 +47,19 @@ public class RulesRepositoryManager {
     RepositoryStartupService repositoryConfiguration;
     
     private RulesRepository repository;
+    private String userName;
     
     
     @Create
     public void create() {
-        String userName = READ_ONLY_USER;
+        userName = READ_ONLY_USER;
         if (Contexts.isApplicationContextActive()) {
             userName = Identity.instance().getCredentials().getUsername();
         }
         if (userName == null) {
             userName = READ_ONLY_USER;
         }
-        repository = new RulesRepository(repositoryConfiguration.newSession(userName) );
+        repository = new RulesRepository(repositoryConfiguration.getSessionPool().borrow(userName) );
     }
     
     @Unwrap
@@ -66,7 +69,7 @@ public class RulesRepositoryManager {
     
     @Destroy
     public void close() {
-        repository.logout();
+        repositoryConfiguration.getSessionPool().release(userName, repository.getSession());
     }
     
 
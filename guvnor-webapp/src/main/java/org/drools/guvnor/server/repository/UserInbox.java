@@ -37,7 +37,20 @@ public class UserInbox {
     private static final String INBOX = "inbox";
 
     
+    /**
+     * The recording of events is serialized per user rather than globally,
+     * by hashing the user name onto one of these.
+     */
+    private static final Object[] USER_LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < USER_LOCKS.length; i++) {
+            USER_LOCKS[i] = new Object();
+        }
+    }
+
     private UserInfo userInfo;
+    private String userName;
 
 
     /**
@@ -45,13 +58,14 @@ public class UserInbox {
      */
     public UserInbox(RulesRepository repo, String userName) {
         this.userInfo = new UserInfo(repo, userName);
+        this.userName = userName;
     }
 
     /**
      * Create an inbox for the current sessions user id.
      */
     public UserInbox(RulesRepository repo) {
-        this.userInfo = new UserInfo(repo);
+        this(repo, repo.getSession().getUserID());
     }
 
     /**
@@ -60,6 +74,7 @@ public class UserInbox {
      */
     public void addToRecentEdited(String assetId, String note) {
         addToInbox(ExplorerNodeConfig.RECENT_EDITED_ID, assetId, note, "self");
+        MailboxService.recordRecentEdit(userName, assetId);
     }
 
 
@@ -72,17 +87,25 @@ public class UserInbox {
     }
 
 
-    private void addToInbox(String boxName, String assetId, String note, String userFrom) {
-        assert boxName.equals(ExplorerNodeConfig.RECENT_EDITED_ID) || boxName.equals(ExplorerNodeConfig.RECENT_VIEWED_ID) || boxName.equals(ExplorerNodeConfig.INCOMING_ID);
-        List<InboxEntry> entries =  removeAnyExisting(assetId, userInfo.readEntries(INBOX, boxName));
-
-        if (entries.size() >= MAX_RECENT_EDITED) {
+    /**
+     * Adds the given entries to the incoming box in one go, in order.
+     */
+    public void addToIncoming(List<InboxEntry> newEntries) {
+        List<InboxEntry> entries = userInfo.readEntries(INBOX, ExplorerNodeConfig.INCOMING_ID);
+        for (InboxEntry e : newEntries) {
+            removeAnyExisting(e.assetUUID, entries);
+            entries.add(new InboxEntry(e.assetUUID, e.note, e.from));
+        }
+        while (entries.size() > MAX_RECENT_EDITED) {
             entries.remove(0);
-            entries.add(new InboxEntry(assetId, note, userFrom));
-        } else {
-            entries.add(new InboxEntry(assetId, note, userFrom));
         }
-        userInfo.writeEntries(INBOX, boxName, entries);
+        userInfo.writeEntries(INBOX, ExplorerNodeConfig.INCOMING_ID, entries);
+    }
+
+
+    private void addToInbox(String boxName, String assetId, String note, String userFrom) {
+        assert boxName.equals(ExplorerNodeConfig.RECENT_EDITED_ID) || boxName.equals(ExplorerNodeConfig.RECENT_VIEWED_ID) || boxName.equals(ExplorerNodeConfig.INCOMING_ID);
+        userInfo.addEntry(INBOX, boxName, new InboxEntry(assetId, note, userFrom), MAX_RECENT_EDITED);
     }
 
     private List<InboxEntry> removeAnyExisting(String assetId, List<InboxEntry> inboxEntries) {
@@ -153,21 +176,27 @@ public class UserInbox {
     /**
      * Helper method to log the opening. Will remove any inbox items that have the same id.
      */
-    public synchronized static void recordOpeningEvent(AssetItem item) {
+    public static void recordOpeningEvent(AssetItem item) {
         UserInbox ib = new UserInbox(item.getRulesRepository());
-        ib.addToRecentOpened(item.getUUID(), item.getName());
-        List<InboxEntry> unreadIncoming = ib.removeAnyExisting(item.getUUID(),
-                ib.loadIncoming());
-        ib.userInfo.writeEntries(INBOX, ExplorerNodeConfig.INCOMING_ID, unreadIncoming);
+        synchronized (lockFor(ib.userName)) {
+            ib.addToRecentOpened(item.getUUID(), item.getName());
+            ib.userInfo.removeEntry(INBOX, ExplorerNodeConfig.INCOMING_ID, item.getUUID());
 
-        ib.save();
+            ib.save();
+        }
     }
 
     /** Helper method to note the event */
-    public synchronized static void recordUserEditEvent(AssetItem item) {
+    public static void recordUserEditEvent(AssetItem item) {
         UserInbox ib = new UserInbox(item.getRulesRepository());
-        ib.addToRecentEdited(item.getUUID(), item.getName());
-        ib.save();
+        synchronized (lockFor(ib.userName)) {
+            ib.addToRecentEdited(item.getUUID(), item.getName());
+            ib.save();
+        }
+    }
+
+    private static Object lockFor(String userName) {
+        return USER_LOCKS[(userName.hashCode() & 0x7fffffff) % USER_LOCKS.length];
     }
 
 
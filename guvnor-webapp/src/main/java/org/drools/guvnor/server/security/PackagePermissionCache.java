@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.security;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.drools.repository.AssetItem;
+import org.drools.repository.RulesRepository;
+import org.drools.repository.RulesRepositoryException;
+import org.jboss.seam.contexts.Context;
+import org.jboss.seam.contexts.Contexts;
+import org.jboss.seam.security.Identity;
+
+/**
+ * Remembers the package permission decisions made during a request, so that
+ * filtering a page of search results (or any other list of assets) checks the
+ * permissions once per package, rather than once per asset.
+ *
+ * It also remembers the names of the packages seen, so that the
+ * RoleBasedPermissionResolver doesn't have to load a package by its UUID again
+ * just to find out its name.
+ *
+ * The cache lives in the event context, so a change of permissions is seen
+ * by the next request. Decisions are kept per user, in case the user logs in
+ * or out half way through a request, and are dropped if the identity itself
+ * is replaced.
+ */
+public class PackagePermissionCache {
+
+    private static final String       NAME         = "org.drools.guvnor.server.security.PackagePermissionCache";
+
+    private final Map<String, Boolean> decisions    = new HashMap<String, Boolean>();
+    private final Map<String, String>  packageNames = new HashMap<String, String>();
+    private final Map<String, String>  packageUUIDs = new HashMap<String, String>();
+    private Identity                   identity;
+
+    /**
+     * The cache of the current request. Outside of a request this is a new,
+     * empty cache every time.
+     */
+    public static PackagePermissionCache instance() {
+        if ( !Contexts.isEventContextActive() ) {
+            return new PackagePermissionCache();
+        }
+        Context eventContext = Contexts.getEventContext();
+        PackagePermissionCache cache = (PackagePermissionCache) eventContext.get( NAME );
+        if ( cache == null ) {
+            cache = new PackagePermissionCache();
+            eventContext.set( NAME,
+                              cache );
+        }
+        return cache;
+    }
+
+    /**
+     * Checks if the current user has the given role on the package of the
+     * given asset.
+     */
+    public boolean hasPermission(AssetItem asset,
+                                 String role) {
+        return hasPermission( getPackageUUID( asset ),
+                              role );
+    }
+
+    /**
+     * Checks if the current user has the given role on the package with the
+     * given UUID.
+     */
+    public boolean hasPermission(String packageUUID,
+                                 String role) {
+        Identity identity = Identity.instance();
+        if ( identity != this.identity ) {
+            decisions.clear();
+            this.identity = identity;
+        }
+        String key = identity.getCredentials().getUsername() + "\n" + packageUUID + "\n" + role;
+        Boolean decision = decisions.get( key );
+        if ( decision == null ) {
+            decision = identity.hasPermission( new PackageUUIDType( packageUUID ),
+                                               role );
+            decisions.put( key,
+                           decision );
+        }
+        return decision;
+    }
+
+    /**
+     * The name of the package with the given UUID, loading the package only
+     * if it hasn't been seen yet.
+     */
+    public String getPackageName(String packageUUID,
+                                 RulesRepository repository) {
+        String packageName = packageNames.get( packageUUID );
+        if ( packageName == null ) {
+            packageName = repository.loadPackageByUUID( packageUUID ).getName();
+            packageNames.put( packageUUID,
+                              packageName );
+        }
+        return packageName;
+    }
+
+    /**
+     * Assets live in <package>/assets/<asset>, so the package is worked out
+     * from the path of the asset, once per package, rather than loaded.
+     */
+    private String getPackageUUID(AssetItem asset) {
+        if ( asset.isHistoricalVersion() ) {
+            return asset.getPackage().getUUID();
+        }
+        try {
+            Node assetNode = asset.getNode();
+            String path = assetNode.getPath();
+            String assetFolder = path.substring( 0,
+                                                 path.lastIndexOf( '/' ) );
+            String packageUUID = packageUUIDs.get( assetFolder );
+            if ( packageUUID == null ) {
+                Node packageNode = assetNode.getParent().getParent();
+                packageUUID = packageNode.getIdentifier();
+                packageUUIDs.put( assetFolder,
+                                  packageUUID );
+                if ( !packageNames.containsKey( packageUUID ) ) {
+                    packageNames.put( packageUUID,
+                                      packageNode.getName() );
+                }
+            }
+            return packageUUID;
+        } catch ( RepositoryException e ) {
+            throw new RulesRepositoryException( e );
+        }
+    }
+
+}
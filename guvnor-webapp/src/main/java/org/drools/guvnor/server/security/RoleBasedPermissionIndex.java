@@ -0,0 +1,196 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.security;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The permissions of a user, compiled so that each check is a few lookups
+ * rather than a scan of all the permissions the user has.
+ *
+ * Package permissions are kept as a set of package names per role, and
+ * category permissions as a tree of category path segments, so checking a
+ * category costs the depth of its path.
+ */
+public class RoleBasedPermissionIndex
+    implements
+    Serializable {
+
+    private boolean           admin;
+
+    /**
+     * Package names in lower case, as package permissions ignore case.
+     */
+    private final Set<String> adminPackages     = new HashSet<String>();
+    private final Set<String> developerPackages = new HashSet<String>();
+    private final Set<String> readonlyPackages  = new HashSet<String>();
+
+    private final CategoryNode categories       = new CategoryNode();
+
+    /**
+     * Analyst permissions that were given without a category path.
+     */
+    private boolean           analystWithoutPath;
+    private boolean           analystReadWithoutPath;
+
+    public RoleBasedPermissionIndex(List<RoleBasedPermission> permissions) {
+        for ( RoleBasedPermission permission : permissions ) {
+            String role = permission.getRole();
+            if ( RoleTypes.ADMIN.equalsIgnoreCase( role ) ) {
+                admin = true;
+            }
+
+            String packageName = permission.getPackageName();
+            if ( packageName != null ) {
+                if ( RoleTypes.PACKAGE_ADMIN.equalsIgnoreCase( role ) ) {
+                    adminPackages.add( packageName.toLowerCase() );
+                } else if ( RoleTypes.PACKAGE_DEVELOPER.equalsIgnoreCase( role ) ) {
+                    developerPackages.add( packageName.toLowerCase() );
+                } else if ( RoleTypes.PACKAGE_READONLY.equalsIgnoreCase( role ) ) {
+                    readonlyPackages.add( packageName.toLowerCase() );
+                }
+            }
+
+            String categoryPath = permission.getCategoryPath();
+            if ( categoryPath != null ) {
+                CategoryNode node = categories;
+                for ( String segment : splitPath( categoryPath ) ) {
+                    node = node.getOrAddChild( segment );
+                }
+                node.granted = true;
+                node.analyst |= RoleTypes.ANALYST.equals( role );
+                node.analystRead |= RoleTypes.ANALYST_READ.equals( role );
+            } else {
+                analystWithoutPath |= RoleTypes.ANALYST.equals( role );
+                analystReadWithoutPath |= RoleTypes.ANALYST_READ.equals( role );
+            }
+        }
+    }
+
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    /**
+     * Checks a package permission: package.admin allows everything in the
+     * package, package.developer allows developer and read only access, and
+     * package.readonly allows read only access.
+     */
+    public boolean hasPackagePermission(String packageName,
+                                        String requestedRole) {
+        String name = packageName.toLowerCase();
+        if ( adminPackages.contains( name ) ) {
+            return true;
+        }
+        boolean readonly = RoleTypes.PACKAGE_READONLY.equalsIgnoreCase( requestedRole );
+        if ( readonly || RoleTypes.PACKAGE_DEVELOPER.equalsIgnoreCase( requestedRole ) ) {
+            if ( developerPackages.contains( name ) ) {
+                return true;
+            }
+        }
+        return readonly && readonlyPackages.contains( name );
+    }
+
+    /**
+     * Checks an analyst permission on a category: the user must have the
+     * requested role (or analyst, when asking for analyst.readonly) on the
+     * category or one of its parents.
+     */
+    public boolean hasCategoryPermission(String categoryPath,
+                                         String requestedRole) {
+        boolean analyst = RoleTypes.ANALYST.equals( requestedRole );
+        boolean analystRead = RoleTypes.ANALYST_READ.equals( requestedRole );
+        if ( !analyst && !analystRead ) {
+            return false;
+        }
+        if ( categoryPath == null ) {
+            return analystWithoutPath || (analystRead && analystReadWithoutPath);
+        }
+
+        CategoryNode node = categories;
+        for ( String segment : splitPath( categoryPath ) ) {
+            node = node.getChild( segment );
+            if ( node == null ) {
+                return false;
+            }
+            if ( node.analyst || (analystRead && node.analystRead) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a category can be shown when navigating the category tree,
+     * which is when the user has any permission on the category, one of its
+     * parents, or one of its children.
+     */
+    public boolean canNavigateCategory(String categoryPath) {
+        if ( categoryPath == null ) {
+            return false;
+        }
+        CategoryNode node = categories;
+        for ( String segment : splitPath( categoryPath ) ) {
+            node = node.getChild( segment );
+            if ( node == null ) {
+                return false;
+            }
+            if ( node.granted ) {
+                return true;
+            }
+        }
+        //there is a permission further down this path
+        return true;
+    }
+
+    private static String[] splitPath(String path) {
+        path = (path.startsWith( "/" )) ? path.substring( 1 ) : path;
+        return path.split( "/" );
+    }
+
+    private static class CategoryNode
+        implements
+        Serializable {
+
+        private Map<String, CategoryNode> children;
+        private boolean                   granted;
+        private boolean                   analyst;
+        private boolean                   analystRead;
+
+        CategoryNode getChild(String segment) {
+            return children == null ? null : children.get( segment );
+        }
+
+        CategoryNode getOrAddChild(String segment) {
+            if ( children == null ) {
+                children = new HashMap<String, CategoryNode>();
+            }
+            CategoryNode child = children.get( segment );
+            if ( child == null ) {
+                child = new CategoryNode();
+                children.put( segment,
+                              child );
+            }
+            return child;
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.drools.guvnor.server.security;
 import java.util.List;
 import java.io.Serializable;
 
+import org.drools.repository.security.PermissionManager;
 import org.jboss.seam.Component;
 import org.jboss.seam.ScopeType;
 import org.jboss.seam.annotations.AutoCreate;
@@ -41,18 +42,45 @@ public class RoleBasedPermissionManager implements Serializable {
     //    @In
     List<RoleBasedPermission> permissions;
 
+    private RoleBasedPermissionIndex permissionIndex;
+
+    /**
+     * The PermissionManager change count when the permissions were read.
+     */
+    private long permissionsChangeCount;
+
     //    @Unwrap
     public List<RoleBasedPermission> getRoleBasedPermission() {
+        reloadIfChanged();
         return permissions;
     }
 
+    /**
+     * The permissions, compiled for checking. This is built once, and again
+     * whenever someone's permissions are changed.
+     */
+    public RoleBasedPermissionIndex getPermissionIndex() {
+        reloadIfChanged();
+        if (permissionIndex == null) {
+            permissionIndex = new RoleBasedPermissionIndex(permissions);
+        }
+        return permissionIndex;
+    }
+
     @Create
     public void create() {
+        permissionsChangeCount = PermissionManager.getChangeCount();
         RoleBasedPermissionStore roleBasedPermissionStore = (RoleBasedPermissionStore) Component
                 .getInstance("org.drools.guvnor.server.security.RoleBasedPermissionStore");
         permissions = roleBasedPermissionStore.getRoleBasedPermissionsByUserName(Identity
                 .instance().getCredentials().getUsername());
+        permissionIndex = null;
+    }
 
+    private void reloadIfChanged() {
+        if (permissionsChangeCount != PermissionManager.getChangeCount()) {
+            create();
+        }
     }
 
     @Destroy
@@ -19,7 +19,6 @@ package org.drools.guvnor.server.security;
 import static org.jboss.seam.ScopeType.APPLICATION;
 
 import java.io.Serializable;
-import java.util.List;
 import java.util.Set;
 
 import org.drools.guvnor.server.ServiceImplementation;
@@ -93,12 +92,14 @@ public class RoleBasedPermissionResolver implements PermissionResolver, Serializ
         }
 
         RoleBasedPermissionManager roleBasedPermissionManager = (RoleBasedPermissionManager) Component.getInstance( "roleBasedPermissionManager" );
-        List<RoleBasedPermission> permissions = roleBasedPermissionManager.getRoleBasedPermission();
+        RoleBasedPermissionIndex permissions = roleBasedPermissionManager.getPermissionIndex();
 
-        if ( hasAdminPermission( permissions ) ) {
+        if ( permissions.isAdmin() ) {
+            log.debug( "Requested permission: unknown, Permission granted: Yes" );
             return true;
         } else if ( RoleTypes.ADMIN.equals( requestedPermission ) ) {
-            return hasAdminPermission( permissions );
+            log.debug( "Requested permission: logInAdmin, Permission granted: No" );
+            return false;
         }
 
         if ( requestedObject instanceof CategoryPathType ) {
@@ -110,7 +111,8 @@ public class RoleBasedPermissionResolver implements PermissionResolver, Serializ
             String targetUUID = ((PackageUUIDType) requestedObject).getUUID();
             try {
                 ServiceImplementation serviceImplementation = (ServiceImplementation) Component.getInstance( "org.drools.guvnor.client.rpc.RepositoryService" );
-                targetName = serviceImplementation.getRulesRepository().loadPackageByUUID( targetUUID ).getName();
+                targetName = PackagePermissionCache.instance().getPackageName( targetUUID,
+                                                                               serviceImplementation.getRulesRepository() );
             } catch ( RulesRepositoryException e ) {
                 return false;
             }
@@ -118,11 +120,9 @@ public class RoleBasedPermissionResolver implements PermissionResolver, Serializ
             targetName = ((PackageNameType) requestedObject).getPackageName();
         }
 
-        for ( RoleBasedPermission pbp : permissions ) {
-            if ( targetName.equalsIgnoreCase( pbp.getPackageName() ) && isPermittedPackage( requestedPermission, pbp.getRole() ) ) {
-                log.debug( "Requested permission: " + requestedPermission + ", Requested object: " + targetName + " , Permission granted: Yes" );
-                return true;
-            }
+        if ( permissions.hasPackagePermission( targetName, requestedPermission ) ) {
+            log.debug( "Requested permission: " + requestedPermission + ", Requested object: " + targetName + " , Permission granted: Yes" );
+            return true;
         }
 
         log.debug( "Requested permission: " + requestedPermission + ", Requested object: " + targetName + " , Permission granted: No" );
@@ -130,97 +130,23 @@ public class RoleBasedPermissionResolver implements PermissionResolver, Serializ
 
     }
 
-    private boolean handleCategoryPathPermission(Object requestedObject, String requestedPermission, List<RoleBasedPermission> permissions) {
+    private boolean handleCategoryPathPermission(Object requestedObject, String requestedPermission, RoleBasedPermissionIndex permissions) {
         String requestedPath = ((CategoryPathType) requestedObject).getCategoryPath();
         String requestedPermType = (requestedPermission == null) ? RoleTypes.ANALYST : requestedPermission;
+        boolean granted;
         if ( requestedPermType.equals( "navigate" ) ) {
-            for ( RoleBasedPermission roleBasedPermission : permissions ) {
-                if ( roleBasedPermission.getCategoryPath() != null ) {
-                    if ( isCategoryPathMatched( requestedPath, roleBasedPermission ) ) {
-                        return true;
-                    }
-                    if ( isSubPath( requestedPath, roleBasedPermission.getCategoryPath() ) ) {
-                        log.debug( "Requested permission: " + requestedPermType + ", Requested object: " + requestedPath + " , Permission granted: Yes" );
-                        return true;
-                    } else if ( isSubPath( roleBasedPermission.getCategoryPath(), requestedPath ) ) {
-                        log.debug( "Requested permission: " + requestedPermType + ", Requested object: " + requestedPath + " , Permission granted: Yes" );
-                        return true;
-                    }
-                }
-            }
-            log.debug( "Requested permission: " + requestedPermType + ", Requested object: " + requestedPath + " , Permission granted: No" );
-            return false;
+            granted = permissions.canNavigateCategory( requestedPath );
+        } else {
+            granted = permissions.hasCategoryPermission( requestedPath, requestedPermType );
         }
-        for ( RoleBasedPermission roleBasedPermission : permissions ) {
-            if ( isRoleAnalyst( roleBasedPermission ) && isPermissionToCurrentDirectory( requestedPermType, roleBasedPermission ) && isPermittedCategoryPath( requestedPath, roleBasedPermission.getCategoryPath() ) ) {
-                log.debug( "Requested permission: " + requestedPermType + ", Requested object: " + requestedPath + " , Permission granted: Yes" );
-                return true;
-            }
-        }
-        log.debug( "Requested permission: " + requestedPermType + ", Requested object: " + requestedPath + " , Permission granted: No" );
-        return false;
-    }
-
-    private boolean isPermissionToCurrentDirectory(String requestedPermType, RoleBasedPermission roleBasedPermission) {
-        return requestedPermType.equals( roleBasedPermission.getRole() ) || (requestedPermType.equals( RoleTypes.ANALYST_READ ) && roleBasedPermission.getRole().equals( RoleTypes.ANALYST ));
-    }
-
-    private boolean isRoleAnalyst(RoleBasedPermission roleBasedPermission) {
-        return roleBasedPermission.getRole().equals( RoleTypes.ANALYST ) || roleBasedPermission.getRole().equals( RoleTypes.ANALYST_READ );
-    }
-
-    private boolean isCategoryPathMatched(String requestedPath, RoleBasedPermission roleBasedPermission) {
-        return roleBasedPermission.getCategoryPath().equals( requestedPath );
+        log.debug( "Requested permission: " + requestedPermType + ", Requested object: " + requestedPath + " , Permission granted: " + (granted ? "Yes" : "No") );
+        return granted;
     }
 
     private boolean isInvalidInstance(Object requestedObject) {
         return !((requestedObject instanceof CategoryPathType) || (requestedObject instanceof PackageNameType) || (requestedObject instanceof WebDavPackageNameType) || (requestedObject instanceof AdminType) || (requestedObject instanceof PackageUUIDType));
     }
 
-    private boolean hasAdminPermission(List<RoleBasedPermission> permissions) {
-        for ( RoleBasedPermission p : permissions ) {
-            if ( RoleTypes.ADMIN.equalsIgnoreCase( p.getRole() ) ) {
-                log.debug( "Requested permission: unknown, Permission granted: Yes" );
-                return true;
-            }
-        }
-        log.debug( "Requested permission: logInAdmin, Permission granted: No" );
-        return false;
-    }
-
-    private boolean isPermittedCategoryPath(String requestedPath, String allowedPath) {
-        if ( requestedPath == null && allowedPath == null ) {
-            return true;
-        } else if ( requestedPath == null || allowedPath == null ) {
-            return false;
-        }
-        return requestedPath.equals( allowedPath ) || isSubPath( allowedPath, requestedPath );
-    }
-
-    private boolean isPermittedPackage(String requestedAction, String role) {
-        if ( RoleTypes.PACKAGE_ADMIN.equalsIgnoreCase( role ) ) {
-            return true;
-        } else if ( RoleTypes.PACKAGE_DEVELOPER.equalsIgnoreCase( role ) ) {
-            if ( RoleTypes.PACKAGE_ADMIN.equalsIgnoreCase( requestedAction ) ) {
-                return false;
-            } else if ( RoleTypes.PACKAGE_DEVELOPER.equalsIgnoreCase( requestedAction ) ) {
-                return true;
-            } else if ( RoleTypes.PACKAGE_READONLY.equalsIgnoreCase( requestedAction ) ) {
-                return true;
-            }
-        } else if ( RoleTypes.PACKAGE_READONLY.equalsIgnoreCase( role ) ) {
-            if ( RoleTypes.PACKAGE_ADMIN.equalsIgnoreCase( requestedAction ) ) {
-                return false;
-            } else if ( RoleTypes.PACKAGE_DEVELOPER.equalsIgnoreCase( requestedAction ) ) {
-                return false;
-            } else if ( RoleTypes.PACKAGE_READONLY.equalsIgnoreCase( requestedAction ) ) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
     public boolean isSubPath(String parentPath, String subPath) {
         parentPath = (parentPath.startsWith( "/" )) ? parentPath.substring( 1 ) : parentPath;
         subPath = (subPath.startsWith( "/" )) ? subPath.substring( 1 ) : subPath;
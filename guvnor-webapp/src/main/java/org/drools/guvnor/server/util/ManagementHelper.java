@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Helper class for publishing statistics through JMX, under the
+ * "org.drools.guvnor" domain.
+ */
+public class ManagementHelper {
+
+    private static final LoggingHelper log    = LoggingHelper.getLogger( ManagementHelper.class );
+
+    public static final String         DOMAIN = "org.drools.guvnor";
+
+    /**
+     * Registers the MBean, replacing any one previously registered under the
+     * same type (for example by an earlier deployment of the webapp). Failures
+     * are logged, as statistics are never worth failing over.
+     */
+    public static void register(Object mbean,
+                                String type) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( DOMAIN + ":type=" + type );
+            if ( server.isRegistered( name ) ) {
+                server.unregisterMBean( name );
+            }
+            server.registerMBean( mbean,
+                                  name );
+        } catch ( Exception e ) {
+            log.warn( "Unable to register " + type + " with JMX: " + e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drools.verifier.Verifier;
+import org.drools.verifier.builder.VerifierBuilderFactory;
+
+/**
+ * A pool of verifiers with the default configuration, so that concurrent
+ * verifications each get a verifier of their own, without building a new
+ * one (and compiling the verifier rules again) every time.
+ *
+ * At most "guvnor.verifier.pool.maxIdle" idle verifiers are kept (4 by
+ * default), any more given back are dropped. The statistics are published
+ * through JMX as "org.drools.guvnor:type=VerifierPool".
+ */
+public class VerifierPool
+    implements
+    VerifierPoolMBean {
+
+    public static final String MAX_IDLE_PROPERTY = "guvnor.verifier.pool.maxIdle";
+
+    private static VerifierPool     instance;
+
+    static {
+        instance = new VerifierPool( Integer.getInteger( MAX_IDLE_PROPERTY,
+                                                         4 ) );
+        ManagementHelper.register( instance,
+                                   "VerifierPool" );
+    }
+
+    public static VerifierPool getInstance() {
+        return instance;
+    }
+
+    private final int                             maxIdle;
+
+    private final ConcurrentLinkedQueue<Verifier> idle      = new ConcurrentLinkedQueue<Verifier>();
+    private final AtomicInteger                   idleCount = new AtomicInteger();
+
+    private final AtomicInteger                   active    = new AtomicInteger();
+    private final AtomicLong                      borrows   = new AtomicLong();
+    private final AtomicLong                      creations = new AtomicLong();
+    private final AtomicLong                      discards  = new AtomicLong();
+
+    VerifierPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Hands out an idle verifier, or a new one if there isn't any. It has to
+     * be given back with release once its report has been read.
+     */
+    public Verifier borrow() {
+        this.borrows.incrementAndGet();
+        this.active.incrementAndGet();
+        Verifier verifier = this.idle.poll();
+        if ( verifier != null ) {
+            this.idleCount.decrementAndGet();
+            return verifier;
+        }
+        this.creations.incrementAndGet();
+        return newVerifier();
+    }
+
+    Verifier newVerifier() {
+        return VerifierBuilderFactory.newVerifierBuilder().newVerifier();
+    }
+
+    /**
+     * Gives a verifier back. Its session is flushed, so the next verification
+     * starts from scratch. A verifier that failed is not reused.
+     */
+    public void release(Verifier verifier,
+                        boolean reusable) {
+        this.active.decrementAndGet();
+        if ( reusable ) {
+            verifier.flushKnowledgeSession();
+            if ( this.idleCount.incrementAndGet() <= this.maxIdle ) {
+                this.idle.offer( verifier );
+                return;
+            }
+            this.idleCount.decrementAndGet();
+        }
+        this.discards.incrementAndGet();
+    }
+
+    public void clear() {
+        while ( this.idle.poll() != null ) {
+            this.idleCount.decrementAndGet();
+        }
+    }
+
+    public int getMaxIdle() {
+        return this.maxIdle;
+    }
+
+    public int getIdleCount() {
+        return this.idleCount.get();
+    }
+
+    public int getActiveCount() {
+        return this.active.get();
+    }
+
+    public long getBorrowCount() {
+        return this.borrows.get();
+    }
+
+    public long getCreationCount() {
+        return this.creations.get();
+    }
+
+    public long getDiscardCount() {
+        return this.discards.get();
+    }
+}
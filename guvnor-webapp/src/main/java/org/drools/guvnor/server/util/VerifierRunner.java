@@ -83,6 +83,60 @@ public class VerifierRunner {
         return VerifierReportCreator.doReport( report );
     }
 
+    /**
+     * Verifies one asset of the package. Besides the asset only what it
+     * needs to be understood is added: the package header, DSLs, declared
+     * models and functions. The other rules of the package are left out, as
+     * the single rule and decision table scopes only look at the asset
+     * itself. The asset is added as the package verification would add it,
+     * so an archived one (or a disabled DSL rule, spreadsheet or business
+     * rule) is not verified.
+     */
+    public AnalysisReport verify(PackageItem packageItem,
+                                 AssetItem asset,
+                                 ScopesAgendaFilter scopesAgendaFilter) {
+        this.packageItem = packageItem;
+
+        addHeaderToVerifier();
+
+        addToVerifier( packageItem.listAssetsByFormat( new String[]{AssetFormats.DSL} ),
+                       ResourceType.DSL );
+
+        addToVerifier( packageItem.listAssetsByFormat( new String[]{AssetFormats.DRL_MODEL} ),
+                       ResourceType.DRL );
+
+        addToVerifier( packageItem.listAssetsByFormat( new String[]{AssetFormats.FUNCTION} ),
+                       ResourceType.DRL );
+
+        addAssetToVerifier( asset );
+
+        fireAnalysis( scopesAgendaFilter );
+
+        VerifierReport report = verifier.getResult();
+
+        return VerifierReportCreator.doReport( report );
+    }
+
+    private void addAssetToVerifier(AssetItem asset) {
+        String format = asset.getFormat();
+        if ( asset.isArchived() ) {
+            // not listed by the package
+        } else if ( AssetFormats.DSL.equals( format ) || AssetFormats.DRL_MODEL.equals( format ) || AssetFormats.FUNCTION.equals( format ) ) {
+            // already there
+        } else if ( AssetFormats.DSL_TEMPLATE_RULE.equals( format ) ) {
+            addEnabledToVerifier( asset,
+                                  ResourceType.DSLR );
+        } else if ( AssetFormats.DECISION_SPREADSHEET_XLS.equals( format ) ) {
+            addEnabledToVerifier( asset,
+                                  ResourceType.DTABLE );
+        } else if ( AssetFormats.BUSINESS_RULE.equals( format ) ) {
+            addEnabledToVerifier( asset,
+                                  ResourceType.BRL );
+        } else {
+            addRuleAssetToVerifier( asset );
+        }
+    }
+
     private void fireAnalysis(ScopesAgendaFilter scopesAgendaFilter) throws RuntimeException {
 
         verifier.fireAnalysis( scopesAgendaFilter );
@@ -111,20 +165,31 @@ public class VerifierRunner {
     private void addToVerifier(AssetItemIterator assets,
                                ResourceType resourceType) {
         while ( assets.hasNext() ) {
-            AssetItem asset = assets.next();
-            if ( !asset.isArchived() && !asset.getDisabled() ) {
-                if ( resourceType == ResourceType.DTABLE ) {
-                    DecisionTableConfiguration dtableconfiguration = KnowledgeBuilderFactory.newDecisionTableConfiguration();
-                    dtableconfiguration.setInputType( DecisionTableInputType.XLS );
-
-                    verifier.addResourcesToVerify( ResourceFactory.newByteArrayResource( asset.getBinaryContentAsBytes() ),
-                                                   resourceType,
-                                                   (ResourceConfiguration) dtableconfiguration );
-                } else {
-                    verifier.addResourcesToVerify( ResourceFactory.newReaderResource( new StringReader( asset.getContent() ) ),
-                                                   resourceType );
-                }
-            }
+            addEnabledToVerifier( assets.next(),
+                                  resourceType );
+        }
+    }
+
+    private void addEnabledToVerifier(AssetItem asset,
+                                      ResourceType resourceType) {
+        if ( !asset.isArchived() && !asset.getDisabled() ) {
+            addToVerifier( asset,
+                           resourceType );
+        }
+    }
+
+    private void addToVerifier(AssetItem asset,
+                               ResourceType resourceType) {
+        if ( resourceType == ResourceType.DTABLE ) {
+            DecisionTableConfiguration dtableconfiguration = KnowledgeBuilderFactory.newDecisionTableConfiguration();
+            dtableconfiguration.setInputType( DecisionTableInputType.XLS );
+
+            verifier.addResourcesToVerify( ResourceFactory.newByteArrayResource( asset.getBinaryContentAsBytes() ),
+                                           resourceType,
+                                           (ResourceConfiguration) dtableconfiguration );
+        } else {
+            verifier.addResourcesToVerify( ResourceFactory.newReaderResource( new StringReader( asset.getContent() ) ),
+                                           resourceType );
         }
     }
 
@@ -133,16 +198,7 @@ public class VerifierRunner {
         AssetItemIterator rules = packageItem.listAssetsByFormat( AssetFormats.DECISION_TABLE_GUIDED );
 
         while ( rules.hasNext() ) {
-            AssetItem rule = rules.next();
-
-            ContentHandler contentHandler = ContentManager.getHandler( rule.getFormat() );
-            if ( contentHandler.isRuleAsset() ) {
-                IRuleAsset ruleAsset = (IRuleAsset) contentHandler;
-                String drl = ruleAsset.getRawDRL( rule );
-                verifier.addResourcesToVerify( ResourceFactory.newReaderResource( new StringReader( drl ) ),
-                                               ResourceType.DRL );
-
-            }
+            addRuleAssetToVerifier( rules.next() );
         }
     }
 
@@ -151,16 +207,18 @@ public class VerifierRunner {
         AssetItemIterator rules = packageItem.listAssetsByFormat( AssetFormats.DRL );
 
         while ( rules.hasNext() ) {
-            AssetItem rule = rules.next();
+            addRuleAssetToVerifier( rules.next() );
+        }
+    }
 
-            ContentHandler contentHandler = ContentManager.getHandler( rule.getFormat() );
-            if ( contentHandler.isRuleAsset() ) {
-                IRuleAsset ruleAsset = (IRuleAsset) contentHandler;
-                String drl = ruleAsset.getRawDRL( rule );
-                verifier.addResourcesToVerify( ResourceFactory.newReaderResource( new StringReader( drl ) ),
-                                               ResourceType.DRL );
+    private void addRuleAssetToVerifier(AssetItem rule) {
+        ContentHandler contentHandler = ContentManager.getHandler( rule.getFormat() );
+        if ( contentHandler.isRuleAsset() ) {
+            IRuleAsset ruleAsset = (IRuleAsset) contentHandler;
+            String drl = ruleAsset.getRawDRL( rule );
+            verifier.addResourcesToVerify( ResourceFactory.newReaderResource( new StringReader( drl ) ),
+                                           ResourceType.DRL );
 
-            }
         }
     }
 }
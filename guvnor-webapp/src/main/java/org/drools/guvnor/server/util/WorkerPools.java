@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pools of worker threads the server runs background work on, one fixed
+ * size pool per name. Pools are created on first use, and their threads are
+ * daemons named after the pool ("guvnor-build-1" and so on).
+ *
+ * All pools are shut down when the repository is, so that an undeploy doesn't
+ * leave worker threads behind. A pool asked for after that is created afresh.
+ */
+public class WorkerPools {
+
+    private static final Logger                       log   = LoggerFactory.getLogger( WorkerPools.class );
+
+    private static final Map<String, ExecutorService> pools = new HashMap<String, ExecutorService>();
+
+    private WorkerPools() {
+    }
+
+    /**
+     * @return the pool of the given name, creating it with the given number of
+     *         threads if there isn't one yet.
+     */
+    public static synchronized ExecutorService getExecutor(final String name,
+                                                           int threads) {
+        ExecutorService executor = pools.get( name );
+        if ( executor == null ) {
+            executor = Executors.newFixedThreadPool( Math.max( 1,
+                                                               threads ),
+                                                     new ThreadFactory() {
+                                                         private final AtomicInteger count = new AtomicInteger();
+
+                                                         public Thread newThread(Runnable runnable) {
+                                                             Thread thread = new Thread( runnable,
+                                                                                         "guvnor-" + name + "-" + count.incrementAndGet() );
+                                                             thread.setDaemon( true );
+                                                             return thread;
+                                                         }
+                                                     } );
+            pools.put( name,
+                       executor );
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down all pools, interrupting whatever they are still running if it
+     * doesn't finish within a few seconds.
+     */
+    public static void shutdown() {
+        List<ExecutorService> executors;
+        synchronized ( WorkerPools.class ) {
+            executors = new ArrayList<ExecutorService>( pools.values() );
+            pools.clear();
+        }
+        for ( ExecutorService executor : executors ) {
+            executor.shutdown();
+        }
+        for ( ExecutorService executor : executors ) {
+            try {
+                if ( !executor.awaitTermination( 5,
+                                                 TimeUnit.SECONDS ) ) {
+                    executor.shutdownNow();
+                }
+            } catch ( InterruptedException e ) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ( !executors.isEmpty() ) {
+            log.info( "Shut down " + executors.size() + " worker pools." );
+        }
+    }
+}
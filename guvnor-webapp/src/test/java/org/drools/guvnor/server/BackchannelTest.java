@@ -25,6 +25,7 @@ import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.drools.guvnor.client.rpc.PushResponse;
 import org.junit.Test;
@@ -134,8 +135,15 @@ public class BackchannelTest {
         backchannel.push( "dave",
                           new PushResponse( "x",
                                             "y" ) );
-        //bc.push("mic", new PushResponse("Q", "W"));
+
+        //a message for someone else doesn't wake mic up
+        Thread.sleep( 400 );
+        assertFalse( check[0] );
+        backchannel.push( "mic",
+                          new PushResponse( "Q",
+                                            "W" ) );
         t.join();
+        assertTrue( check[0] );
 
         check[0] = false;
         backchannel.push( "mic",
@@ -194,10 +202,11 @@ public class BackchannelTest {
         assertEquals( 2,
                       res.size() );
 
-        res = backchannel.await( "mic" );
+        res = backchannel.await( "mic",
+                                 100,
+                                 TimeUnit.MILLISECONDS );
         assertEquals( 0,
                       res.size() );
-        //assertNull(res); //as other concurrent things will be unlatching...
 
         Thread.sleep( 20 );
 
@@ -215,6 +224,102 @@ public class BackchannelTest {
         }
     }
 
+    @Test
+    public void testBoundedMailboxAndSubscribers() throws Exception {
+        final Backchannel backchannel = new Backchannel( 30,
+                                                         1,
+                                                         2 );
+        for ( int i = 0; i < 3; i++ ) {
+            backchannel.push( "mic",
+                              new PushResponse( "m" + i,
+                                                "b" ) );
+        }
+        List<PushResponse> r = backchannel.await( "mic" );
+        assertEquals( 2,
+                      r.size() );
+        assertEquals( "m1",
+                      r.get( 0 ).messageType );
+        assertEquals( 1,
+                      backchannel.getDroppedCount() );
+        assertEquals( 2,
+                      backchannel.getDeliveredCount() );
+
+        Thread t = new Thread( new Runnable() {
+            public void run() {
+                try {
+                    backchannel.await( "mic" );
+                } catch ( InterruptedException e ) {
+                    fail( "should not interrupt" );
+                }
+            }
+        } );
+        t.setDaemon( true );
+        t.start();
+        Thread.sleep( 200 );
+        assertEquals( 1,
+                      backchannel.getSubscriberCount() );
+
+        //only one may wait, so this one is answered straight away
+        assertEquals( 0,
+                      backchannel.await( "dave" ).size() );
+        assertEquals( 1,
+                      backchannel.getRejectedCount() );
+
+        backchannel.push( "mic",
+                          new PushResponse( "x",
+                                            "y" ) );
+        t.join();
+        assertEquals( 0,
+                      backchannel.getSubscriberCount() );
+    }
+
+    @Test
+    public void testIdleMailboxesArePruned() throws Exception {
+        Backchannel backchannel = new Backchannel( 30,
+                                                   0,
+                                                   10,
+                                                   120 );
+        assertEquals( 0,
+                      backchannel.await( "mic",
+                                         1,
+                                         TimeUnit.MILLISECONDS ).size() );
+        backchannel.push( "dave",
+                          new PushResponse( "for",
+                                            "dave" ) );
+        assertEquals( 2,
+                      backchannel.getMailboxCount() );
+
+        //between two polls of the browser, mic is still connected
+        backchannel.prune( System.nanoTime() + TimeUnit.SECONDS.toNanos( 61 ) );
+        assertEquals( 2,
+                      backchannel.getMailboxCount() );
+
+        long later = System.nanoTime() + TimeUnit.SECONDS.toNanos( 121 );
+        backchannel.prune( later );
+        //dave has a message waiting, so his mailbox is kept
+        assertEquals( 1,
+                      backchannel.getMailboxCount() );
+        assertEquals( 1,
+                      backchannel.await( "dave" ).size() );
+
+        //a new mailbox is made for mic when he comes back
+        backchannel.push( "mic",
+                          new PushResponse( "for",
+                                            "mic" ) );
+        assertEquals( 1,
+                      backchannel.await( "mic" ).size() );
+    }
+
+    @Test
+    public void testIdleTimeoutCoversTheClientPoll() {
+        Backchannel backchannel = new Backchannel( 10,
+                                                   0,
+                                                   10,
+                                                   5 );
+        assertEquals( Backchannel.CLIENT_POLL_SECONDS + 10,
+                      backchannel.getIdleTimeoutSeconds() );
+    }
+
     private void spinup(final Backchannel bc,
                         final int i) {
         Thread t = new Thread( new Runnable() {
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.drools.guvnor.client.rpc.DetailedSerializationException;
+import org.drools.guvnor.client.rpc.RuleAsset;
+import org.drools.ide.common.client.modeldriven.testing.Scenario;
+import org.drools.testframework.RuleCoverageListener;
+import org.junit.Test;
+
+public class ParallelScenarioRunnerTest {
+
+    @Test
+    public void testResultsComeBackInOrder() throws Exception {
+        ParallelScenarioRunner runner = new ParallelScenarioRunner( getClass().getClassLoader(),
+                                                                    new HashSet<String>( Arrays.asList( "rule1",
+                                                                                                        "rule2" ) ),
+                                                                    new ParallelScenarioRunner.ScenarioExecutor() {
+                                                                        public void run(Scenario scenario,
+                                                                                        RuleCoverageListener coverage) {
+                                                                            // nothing fires
+                                                                        }
+                                                                    } );
+        for ( int i = 0; i < 20; i++ ) {
+            runner.submit( asset( "scenario" + i ) );
+        }
+        for ( int i = 0; i < 20; i++ ) {
+            assertEquals( "scenario" + i,
+                          runner.take().getScenarioName() );
+        }
+        assertFalse( runner.hasPending() );
+
+        assertEquals( 0,
+                      runner.getPercentCovered() );
+        assertEquals( 2,
+                      runner.getUnfiredRules().length );
+    }
+
+    @Test
+    public void testFailureIsRethrown() throws Exception {
+        ParallelScenarioRunner runner = new ParallelScenarioRunner( getClass().getClassLoader(),
+                                                                    new HashSet<String>(),
+                                                                    new ParallelScenarioRunner.ScenarioExecutor() {
+                                                                        public void run(Scenario scenario,
+                                                                                        RuleCoverageListener coverage) throws DetailedSerializationException {
+                                                                            throw new DetailedSerializationException( "Unable to run the scenario.",
+                                                                                                                      "boom" );
+                                                                        }
+                                                                    } );
+        runner.submit( asset( "bad" ) );
+        runner.submit( asset( "never" ) );
+        try {
+            runner.take();
+            fail( "should have thrown" );
+        } catch ( DetailedSerializationException e ) {
+            assertEquals( "boom",
+                          e.getLongDescription() );
+        }
+        assertFalse( runner.hasPending() );
+    }
+
+    private RuleAsset asset(String name) {
+        RuleAsset asset = new RuleAsset();
+        asset.name = name;
+        asset.uuid = name;
+        asset.content = new Scenario();
+        return asset;
+    }
+}
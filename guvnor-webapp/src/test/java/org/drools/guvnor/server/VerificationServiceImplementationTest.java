@@ -16,12 +16,14 @@
 
 package org.drools.guvnor.server;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import org.drools.guvnor.client.common.AssetFormats;
 import org.drools.guvnor.client.rpc.AnalysisReport;
+import org.drools.guvnor.client.rpc.RuleAsset;
 import org.drools.guvnor.client.rpc.VerificationService;
 import org.drools.guvnor.server.util.IO;
 import org.drools.repository.AssetItem;
@@ -59,6 +61,38 @@ public class VerificationServiceImplementationTest extends GuvnorTestBase {
 
     }
 
+    @Test
+    public void testVerifyAsset() throws Exception {
+        PackageItem pkg = serviceImplementation.getRulesRepository().createPackage( "testVerifyAsset",
+                                                                          "" );
+        AssetItem other = pkg.addAsset( "OtherDRL",
+                                        "" );
+        other.updateFormat( AssetFormats.DRL );
+        other.updateContent( IO.read( this.getClass().getResourceAsStream( "/VerifierCauseTrace.drl" ) ) );
+        other.checkin( "" );
+
+        AssetItem asset = pkg.addAsset( "SomeDRL",
+                                        "" );
+        asset.updateFormat( AssetFormats.DRL );
+        asset.updateContent( "rule \"Lonely\"\n    when\n        Cheese( type == \"brie\" )\n    then\nend\n" );
+        asset.checkin( "" );
+
+        RuleAsset ruleAsset = getRepositoryAssetService().loadRuleAsset( asset.getUUID() );
+        AnalysisReport report = verificationService.verifyAsset( ruleAsset,
+                                                                 null );
+
+        //only what the asset itself uses is reported
+        assertNotNull( report );
+        assertEquals( 0,
+                      report.warnings.length );
+        assertEquals( 1,
+                      report.factUsages.length );
+        assertEquals( "Cheese",
+                      report.factUsages[0].name );
+        assertArrayEquals( new String[]{"Lonely"},
+                           report.factUsages[0].fields[0].rules );
+    }
+
     @Test
     public void testVerifier() throws Exception {
         PackageItem pkg = serviceImplementation.getRulesRepository().createPackage( "testVerifier",
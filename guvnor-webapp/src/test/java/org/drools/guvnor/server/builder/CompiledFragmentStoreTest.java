@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.drools.guvnor.server.builder.CompiledFragmentStore.CompiledFragment;
+import org.drools.lang.descr.PackageDescr;
+import org.drools.lang.descr.RuleDescr;
+import org.junit.Test;
+
+public class CompiledFragmentStoreTest {
+
+    @Test
+    public void testBoundedAndCounted() {
+        CompiledFragmentStore store = new CompiledFragmentStore( 2 );
+        store.put( "pkg",
+                   "a",
+                   fragment( new PackageDescr( "org.foo" ) ) );
+        store.put( "pkg",
+                   "b",
+                   fragment( new PackageDescr( "org.foo" ) ) );
+        store.put( "pkg",
+                   "c",
+                   fragment( new PackageDescr( "org.foo" ) ) );
+        assertEquals( 2,
+                      store.size( "pkg" ) );
+
+        assertNull( store.get( "pkg",
+                               "a",
+                               1,
+                               1,
+                               "" ) );
+        assertNotNull( store.get( "pkg",
+                                  "c",
+                                  1,
+                                  1,
+                                  "" ) );
+        //another version of the asset
+        assertNull( store.get( "pkg",
+                               "c",
+                               2,
+                               1,
+                               "" ) );
+        assertEquals( 1,
+                      store.getHitCount() );
+        assertEquals( 2,
+                      store.getMissCount() );
+
+        store.remove( "pkg" );
+        assertEquals( 0,
+                      store.size( "pkg" ) );
+    }
+
+    @Test
+    public void testFragmentIsTakenBeforeTheBuilderChangesIt() {
+        PackageDescr descr = new PackageDescr( "org.foo" );
+        CompiledFragment fragment = fragment( descr );
+
+        descr.addRule( new RuleDescr( "added by the builder" ) );
+
+        assertEquals( 0,
+                      fragment.getDescriptors().get( 0 ).getRules().size() );
+    }
+
+    private CompiledFragment fragment(PackageDescr descr) {
+        return new CompiledFragment( 1,
+                                     1,
+                                     "",
+                                     Collections.singletonList( CompiledFragment.snapshot( descr ) ) );
+    }
+}
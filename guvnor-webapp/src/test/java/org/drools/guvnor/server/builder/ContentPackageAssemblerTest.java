@@ -797,6 +797,53 @@ public class ContentPackageAssemblerTest extends GuvnorTestBase {
                 drl.indexOf( "Album" ) );
     }
     
+    @Test
+    public void testSingleAssetUsingSpecifiedDependencies() throws Exception {
+        RulesRepository repo = getRulesRepository();
+
+        PackageItem pkg = repo.createPackage( "testSingleAssetUsingSpecifiedDependencies",
+                                              "" );
+        repo.save();
+
+        AssetItem func = pkg.addAsset( "func",
+                                       "" );
+        func.updateFormat( AssetFormats.FUNCTION );
+        func.updateContent( "function void foo() { System.out.println(42); }" );
+        func.checkin( "version 1" );
+
+        AssetItem dsl = pkg.addAsset( "myDSL",
+                                      "" );
+        dsl.updateFormat( AssetFormats.DSL );
+        dsl.updateContent( "[when]always=eval(true)\n[then]call a func=foo();" );
+        dsl.checkin( "version 1" );
+        //version 2 calls a function that doesn't exist
+        dsl.updateContent( "[when]always=eval(true)\n[then]call a func=bar();" );
+        dsl.checkin( "version 2" );
+
+        AssetItem rule = pkg.addAsset( "myRule",
+                                       "" );
+        rule.updateFormat( AssetFormats.DSL_TEMPLATE_RULE );
+        rule.updateContent( "when \n always \n then \n call a func" );
+        rule.checkin( "" );
+
+        repo.save();
+
+        //NOTE: dont use version=0. Version 0 is the root node.
+        pkg.updateDependency( "myDSL?version=1" );
+        pkg.checkin( "Update dependency" );
+
+        ContentPackageAssembler asm = new ContentPackageAssembler( rule );
+        assertFalse( asm.getErrors().toString(),
+                     asm.hasErrors() );
+
+        //the latest version of the DSL is not used
+        pkg.updateDependency( "myDSL?version=2" );
+        pkg.checkin( "Update dependency" );
+
+        asm = new ContentPackageAssembler( rule );
+        assertTrue( asm.hasErrors() );
+    }
+
     @Test
     public void testShowSourceForHistoricalPackage() throws Exception {
         RulesRepository repo = getRulesRepository();
@@ -1250,6 +1297,108 @@ public class ContentPackageAssemblerTest extends GuvnorTestBase {
 
     }
 
+    @Test
+    public void testIncrementalBuild() throws Exception {
+        RulesRepository repo = getRulesRepository();
+        PackageItem pkg = repo.createPackage( "testIncrementalBuild",
+                                              "" );
+        DroolsHeader.updateDroolsHeader( "import java.util.List",
+                                         pkg );
+
+        AssetItem rule1 = pkg.addAsset( "rule_1",
+                                        "" );
+        rule1.updateFormat( AssetFormats.DRL );
+        rule1.updateContent( "rule 'rule1' \n when \n List() \n then \n end" );
+        rule1.checkin( "" );
+
+        AssetItem rule2 = pkg.addAsset( "rule_2",
+                                        "" );
+        rule2.updateFormat( AssetFormats.DRL );
+        rule2.updateContent( "rule 'rule2' \n when \n List() \n then \n end" );
+        rule2.checkin( "" );
+        repo.save();
+
+        CompiledFragmentStore store = CompiledFragmentStore.getInstance();
+        store.remove( pkg.getUUID() );
+        long hits = store.getHitCount();
+        long misses = store.getMissCount();
+        ContentPackageAssembler asm = buildIncrementally( pkg );
+        assertFalse( asm.hasErrors() );
+        assertEquals( 2,
+                      asm.getBinaryPackage().getRules().length );
+        assertEquals( 2,
+                      store.size( pkg.getUUID() ) );
+        assertEquals( hits,
+                      store.getHitCount() );
+        assertEquals( misses + 2,
+                      store.getMissCount() );
+
+        //nothing changed, everything comes from the store
+        asm = buildIncrementally( pkg );
+        assertFalse( asm.hasErrors() );
+        assertEquals( 2,
+                      asm.getBinaryPackage().getRules().length );
+        assertEquals( hits + 2,
+                      store.getHitCount() );
+        assertEquals( misses + 2,
+                      store.getMissCount() );
+
+        //a broken rule must not be served from the store
+        rule2.updateContent( "rule 'rule2' \n when \n Goober() \n then \n end" );
+        rule2.checkin( "" );
+        asm = buildIncrementally( pkg );
+        assertTrue( asm.hasErrors() );
+        assertEquals( "rule_2",
+                      asm.getErrors().get( 0 ).getName() );
+        assertEquals( 1,
+                      store.size( pkg.getUUID() ) );
+        assertEquals( hits + 3,
+                      store.getHitCount() );
+        assertEquals( misses + 3,
+                      store.getMissCount() );
+
+        rule2.updateContent( "rule 'rule2changed' \n when \n List() \n then \n end" );
+        rule2.checkin( "" );
+        asm = buildIncrementally( pkg );
+        assertFalse( asm.hasErrors() );
+        assertNotNull( asm.getBinaryPackage().getRule( "rule2changed" ) );
+        assertNull( asm.getBinaryPackage().getRule( "rule2" ) );
+
+        //changing the header invalidates everything
+        DroolsHeader.updateDroolsHeader( "import java.util.Map",
+                                         pkg );
+        asm = buildIncrementally( pkg );
+        assertTrue( asm.hasErrors() );
+        assertEquals( 2,
+                      asm.getErrors().size() );
+
+        //archived assets are dropped from the store
+        DroolsHeader.updateDroolsHeader( "import java.util.List",
+                                         pkg );
+        rule1.archiveItem( true );
+        rule1.checkin( "" );
+        asm = buildIncrementally( pkg );
+        assertFalse( asm.hasErrors() );
+        assertEquals( 1,
+                      asm.getBinaryPackage().getRules().length );
+        assertEquals( 1,
+                      CompiledFragmentStore.getInstance().size( pkg.getUUID() ) );
+    }
+
+    private ContentPackageAssembler buildIncrementally(PackageItem pkg) {
+        return new ContentPackageAssembler( pkg,
+                                            true,
+                                            null,
+                                            null,
+                                            null,
+                                            false,
+                                            null,
+                                            null,
+                                            false,
+                                            null,
+                                            true );
+    }
+
     private void assertContains(String sub,
                                 String text) {
         if ( text.indexOf( sub ) == -1 ) {
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+
+import org.drools.guvnor.server.builder.ParallelAssetCompiler.ParsedAsset;
+import org.junit.Test;
+
+public class ParallelAssetCompilerTest {
+
+    @Test
+    public void testParsesEachAssetSeparately() throws Exception {
+        ParallelAssetCompiler compiler = new ParallelAssetCompiler();
+        compiler.submit( "good",
+                         drl( "rule 'good' \n when \n then \n end" ) );
+        compiler.submit( "bad",
+                         drl( "rule 'bad' \n when \n Foo( \n then \n end" ) );
+        compiler.submit( "empty",
+                         drl( "" ) );
+
+        assertTrue( compiler.isPending( "bad" ) );
+        ParsedAsset bad = compiler.take( "bad" );
+        assertFalse( compiler.isPending( "bad" ) );
+        assertTrue( bad.hasErrors() );
+
+        ParsedAsset good = compiler.take( "good" );
+        assertFalse( good.hasErrors() );
+        assertEquals( 1,
+                      good.getPackageDescr().getRules().size() );
+
+        ParsedAsset empty = compiler.take( "empty" );
+        assertFalse( empty.hasErrors() );
+        assertNull( empty.getPackageDescr() );
+    }
+
+    @Test
+    public void testGeneratorFailureIsRethrown() throws Exception {
+        ParallelAssetCompiler compiler = new ParallelAssetCompiler();
+        compiler.submit( "boom",
+                         new Callable<String>() {
+                             public String call() {
+                                 throw new IllegalStateException( "boom" );
+                             }
+                         } );
+        try {
+            compiler.take( "boom" );
+            fail( "should have thrown" );
+        } catch ( IllegalStateException e ) {
+            assertEquals( "boom",
+                          e.getMessage() );
+        }
+    }
+
+    private Callable<String> drl(final String drl) {
+        return new Callable<String>() {
+            public String call() {
+                return drl;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class LoadingCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LoadingCache<String, String> cache = new LoadingCache<String, String>( 2 );
+        cache.put( "a",
+                   "1" );
+        cache.put( "b",
+                   "2" );
+        assertEquals( "1",
+                      cache.get( "a" ) );
+
+        cache.put( "c",
+                   "3" );
+
+        assertEquals( 2,
+                      cache.size() );
+        assertTrue( cache.contains( "a" ) );
+        assertFalse( cache.contains( "b" ) );
+        assertTrue( cache.contains( "c" ) );
+        assertEquals( 1,
+                      cache.getEvictionCount() );
+    }
+
+    @Test
+    public void testRemoveDuringLoadKeepsStaleValueOut() throws Exception {
+        final LoadingCache<String, String> cache = new LoadingCache<String, String>( 10 );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> result = executor.submit( new Callable<String>() {
+                public String call() throws Exception {
+                    return cache.get( "a",
+                                      new Callable<String>() {
+                                          public String call() throws Exception {
+                                              started.countDown();
+                                              release.await();
+                                              return "stale";
+                                          }
+                                      } );
+                }
+            } );
+            started.await();
+            cache.remove( "a" );
+            release.countDown();
+
+            assertEquals( "stale",
+                          result.get() );
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse( cache.contains( "a" ) );
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        LoadingCache<String, String> cache = new LoadingCache<String, String>( 10,
+                                                                               0,
+                                                                               50,
+                                                                               false );
+        cache.put( "a",
+                   "value" );
+        assertEquals( "value",
+                      cache.get( "a" ) );
+
+        Thread.sleep( 100 );
+        assertNull( cache.get( "a" ) );
+        assertEquals( 1,
+                      cache.getExpirationCount() );
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        LoadingCache<String, String> cache = new LoadingCache<String, String>( 10 );
+        try {
+            cache.get( "a",
+                       new Callable<String>() {
+                           public String call() throws Exception {
+                               throw new IllegalStateException( "broken" );
+                           }
+                       } );
+            fail( "the load should have failed" );
+        } catch ( ExecutionException e ) {
+            assertTrue( e.getCause() instanceof IllegalStateException );
+        }
+        assertFalse( cache.contains( "a" ) );
+        assertEquals( 0,
+                      cache.size() );
+    }
+
+    @Test
+    public void testKeySetInAccessOrder() {
+        LoadingCache<String, String> cache = new LoadingCache<String, String>( 10 );
+        cache.put( "a",
+                   "1" );
+        cache.put( "b",
+                   "2" );
+        cache.get( "a" );
+        assertEquals( Arrays.asList( "b",
+                                     "a" ),
+                      new ArrayList<String>( cache.keySet() ) );
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ModelClasspathCacheTest {
+
+    @Test
+    public void testLoadsOncePerKey() throws Exception {
+        ModelClasspathCache cache = new ModelClasspathCache( 10,
+                                                             true );
+        final AtomicInteger loadCount = new AtomicInteger();
+        Callable<Map<String, byte[]>> loader = new Callable<Map<String, byte[]>>() {
+            public Map<String, byte[]> call() {
+                loadCount.incrementAndGet();
+                Map<String, byte[]> classpath = new HashMap<String, byte[]>();
+                classpath.put( "com/foo/Bar.class",
+                               new byte[]{1, 2, 3} );
+                return classpath;
+            }
+        };
+
+        Map<String, byte[]> first = cache.get( "a",
+                                               loader );
+        assertSame( first,
+                    cache.get( "a",
+                               loader ) );
+        assertEquals( 1,
+                      loadCount.get() );
+        assertEquals( 1,
+                      cache.getHitCount() );
+        assertEquals( 1,
+                      cache.getMissCount() );
+
+        try {
+            first.put( "com/foo/Baz.class",
+                       new byte[0] );
+            fail( "the cached resources should be read only" );
+        } catch ( UnsupportedOperationException e ) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.drools.RuleBase;
+import org.drools.RuleBaseFactory;
+import org.junit.Test;
+
+public class RuleBaseCacheTest {
+
+    @Test
+    public void testStatistics() {
+        RuleBaseCache cache = new RuleBaseCache( 10,
+                                                 0,
+                                                 false );
+        cache.put( "a",
+                   RuleBaseFactory.newRuleBase() );
+        cache.get( "a" );
+        cache.get( "a" );
+        assertNull( cache.get( "b" ) );
+
+        assertEquals( 2,
+                      cache.getHitCount() );
+        assertEquals( 1,
+                      cache.getMissCount() );
+        assertEquals( 2.0 / 3,
+                      cache.getHitRatio(),
+                      0.0001 );
+
+        cache.remove( "a" );
+        assertFalse( cache.contains( "a" ) );
+    }
+
+    @Test
+    public void testConcurrentLoadsAreShared() throws Exception {
+        final RuleBaseCache cache = new RuleBaseCache( 10,
+                                                       0,
+                                                       false );
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch( 1 );
+        final Callable<RuleBase> loader = new Callable<RuleBase>() {
+            public RuleBase call() throws Exception {
+                loadCount.incrementAndGet();
+                loading.await();
+                return RuleBaseFactory.newRuleBase();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            Future<RuleBase>[] results = new Future[4];
+            for ( int i = 0; i < results.length; i++ ) {
+                results[i] = executor.submit( new Callable<RuleBase>() {
+                    public RuleBase call() throws Exception {
+                        return cache.get( "pkg",
+                                          loader );
+                    }
+                } );
+            }
+            Thread.sleep( 200 );
+            loading.countDown();
+
+            RuleBase first = results[0].get();
+            for ( Future<RuleBase> result : results ) {
+                assertSame( first,
+                            result.get() );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals( 1,
+                      loadCount.get() );
+        assertEquals( 1,
+                      cache.getLoadCount() );
+        // everyone else either waited for the load or found it in the cache
+        assertEquals( 3,
+                      cache.getLoadWaitCount() + cache.getHitCount() );
+        assertTrue( cache.contains( "pkg" ) );
+    }
+
+    @Test
+    public void testReloadIgnoresCachedRuleBase() throws Exception {
+        RuleBaseCache cache = new RuleBaseCache( 10,
+                                                 0,
+                                                 false );
+        RuleBase stale = RuleBaseFactory.newRuleBase();
+        cache.put( "pkg",
+                   stale );
+        final RuleBase fresh = RuleBaseFactory.newRuleBase();
+        Callable<RuleBase> loader = new Callable<RuleBase>() {
+            public RuleBase call() {
+                return fresh;
+            }
+        };
+
+        assertSame( stale,
+                    cache.get( "pkg",
+                               loader ) );
+        assertSame( fresh,
+                    cache.reload( "pkg",
+                                  loader ) );
+        assertSame( fresh,
+                    cache.get( "pkg" ) );
+    }
+}
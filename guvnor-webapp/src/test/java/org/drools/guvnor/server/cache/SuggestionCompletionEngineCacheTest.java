@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.drools.ide.common.client.modeldriven.SuggestionCompletionEngine;
+import org.junit.Test;
+
+public class SuggestionCompletionEngineCacheTest {
+
+    @Test
+    public void testReloadsWhenFingerprintChanges() throws Exception {
+        SuggestionCompletionEngineCache cache = new SuggestionCompletionEngineCache( 10 );
+        final AtomicInteger loadCount = new AtomicInteger();
+        Callable<SuggestionCompletionEngine> loader = new Callable<SuggestionCompletionEngine>() {
+            public SuggestionCompletionEngine call() {
+                loadCount.incrementAndGet();
+                return new SuggestionCompletionEngine();
+            }
+        };
+
+        SuggestionCompletionEngine first = cache.get( "pkg",
+                                                      "v1",
+                                                      loader );
+        assertSame( first,
+                    cache.get( "pkg",
+                               "v1",
+                               loader ) );
+        assertEquals( 1,
+                      loadCount.get() );
+
+        SuggestionCompletionEngine second = cache.get( "pkg",
+                                                       "v2",
+                                                       loader );
+        assertNotSame( first,
+                       second );
+        assertEquals( 2,
+                      loadCount.get() );
+        assertEquals( 1,
+                      cache.getSize() );
+        assertEquals( 1,
+                      cache.getHitCount() );
+        assertEquals( 2,
+                      cache.getMissCount() );
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        SuggestionCompletionEngineCache cache = new SuggestionCompletionEngineCache( 10 );
+        Callable<SuggestionCompletionEngine> loader = new Callable<SuggestionCompletionEngine>() {
+            public SuggestionCompletionEngine call() {
+                return new SuggestionCompletionEngine();
+            }
+        };
+        cache.get( "pkg",
+                   "v1",
+                   loader );
+        cache.remove( "pkg" );
+
+        assertFalse( cache.contains( "pkg" ) );
+        assertEquals( 1,
+                      cache.getInvalidationCount() );
+        cache.get( "pkg",
+                   "v1",
+                   loader );
+        assertEquals( 2,
+                      cache.getMissCount() );
+    }
+}
@@ -152,6 +152,108 @@ public class FeedServletTest extends GuvnorTestBase {
         Lifecycle.endApplication();
     }
 
+    @Test
+    public void testPackageFeedPages() throws Exception {
+        RulesRepository repo = getRulesRepository();
+        PackageItem pkg = repo.createPackage( "testPackageFeedPages",
+                                              "" );
+        for ( int i = 1; i <= 3; i++ ) {
+            AssetItem asset = pkg.addAsset( "pagedAsset" + i,
+                                            "desc" );
+            asset.updateFormat( "drl" );
+            asset.checkin( "" );
+        }
+
+        //Mock up SEAM contexts
+        MockIdentity midentity = new MockIdentity();
+        midentity.setIsLoggedIn( false );
+        midentity.setAllowLogin( true );
+        midentity.setCheckPermission( true );
+        Contexts.getSessionContext().set( "org.jboss.seam.security.identity",
+                                          midentity );
+        FileManagerUtils manager = new FileManagerUtils();
+        manager.setRepository( repo );
+        Contexts.getSessionContext().set( "fileManager",
+                                          manager );
+
+        final Map<String, String> headers = new HashMap<String, String>() {
+            {
+                put( "Authorization",
+                     "BASIC " + new String( Base64.encodeBase64( "testuser:password".getBytes() ) ) );
+            }
+        };
+        MockHTTPRequest req = new MockHTTPRequest( "/org.foo/feed/package",
+                                                   headers,
+                                                   new HashMap<String, String>() {
+                                                       {
+                                                           put( "name",
+                                                                "testPackageFeedPages" );
+                                                           put( "limit",
+                                                                "2" );
+                                                       }
+                                                   } );
+        FeedServlet fs = new FeedServlet();
+        MockHTTPResponse res = new MockHTTPResponse();
+        fs.doGet( req,
+                  res );
+
+        String r = res.extractContent();
+        assertTrue( r.indexOf( "pagedAsset1" ) > -1 );
+        assertTrue( r.indexOf( "pagedAsset2" ) > -1 );
+        assertFalse( r.indexOf( "pagedAsset3" ) > -1 );
+        assertTrue( r.indexOf( "rel=\"next\"" ) > -1 );
+        assertTrue( r.indexOf( "limit=2&amp;cursor=2" ) > -1 );
+        final String lastModified = res.headers.get( "Last-Modified" );
+        assertNotNull( lastModified );
+
+        req = new MockHTTPRequest( "/org.foo/feed/package",
+                                   headers,
+                                   new HashMap<String, String>() {
+                                       {
+                                           put( "name",
+                                                "testPackageFeedPages" );
+                                           put( "limit",
+                                                "2" );
+                                           put( "cursor",
+                                                "2" );
+                                       }
+                                   } );
+        fs = new FeedServlet();
+        res = new MockHTTPResponse();
+        fs.doGet( req,
+                  res );
+
+        r = res.extractContent();
+        assertFalse( r.indexOf( "pagedAsset2" ) > -1 );
+        assertTrue( r.indexOf( "pagedAsset3" ) > -1 );
+        assertFalse( r.indexOf( "rel=\"next\"" ) > -1 );
+
+        //nothing has changed since, so there is nothing to send
+        req = new MockHTTPRequest( "/org.foo/feed/package",
+                                   new HashMap<String, String>( headers ) {
+                                       {
+                                           put( "If-Modified-Since",
+                                                lastModified );
+                                       }
+                                   },
+                                   new HashMap<String, String>() {
+                                       {
+                                           put( "name",
+                                                "testPackageFeedPages" );
+                                       }
+                                   } );
+        fs = new FeedServlet();
+        res = new MockHTTPResponse();
+        fs.doGet( req,
+                  res );
+        assertEquals( HttpServletResponse.SC_NOT_MODIFIED,
+                      res.status );
+        assertEquals( "",
+                      res.extractContent() );
+
+        Lifecycle.endApplication();
+    }
+
     @Test
     public void testCategoryFeed() throws Exception {
         RulesRepository repo = getRulesRepository();
@@ -23,6 +23,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.Principal;
+import java.text.ParseException;
 import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Map;
@@ -101,9 +102,16 @@ public class MockHTTPRequest implements HttpServletRequest {
         return null;
     }
 
-    public long getDateHeader(String arg0) {
-        // TODO Auto-generated method stub
-        return 0;
+    public long getDateHeader(String n) {
+        String value = (headers == null) ? null : headers.get(n);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return MockHTTPResponse.httpDateFormat().parse(value).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
     public String getHeader(String n) {
@@ -22,9 +22,13 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
@@ -124,9 +128,14 @@ public class MockHTTPResponse implements HttpServletResponse {
 
     }
 
-    public void setDateHeader(String arg0, long arg1) {
-        // TODO Auto-generated method stub
+    public void setDateHeader(String k, long v) {
+        this.headers.put(k, httpDateFormat().format(new Date(v)));
+    }
 
+    static DateFormat httpDateFormat() {
+        DateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
     }
 
     public void setHeader(String k, String v) {
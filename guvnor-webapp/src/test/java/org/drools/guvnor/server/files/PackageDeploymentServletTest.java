@@ -399,6 +399,80 @@ public class PackageDeploymentServletTest extends GuvnorTestBase {
         assertTrue( bin.length > 0 );
     }
 
+    @Test
+    public void testConditionalGet() throws Exception {
+        RulesRepository repo = getRulesRepository();
+
+        PackageItem pkg = repo.createPackage( "testConditionalGet",
+                                              "" );
+        pkg.updateCompiledPackage( new ByteArrayInputStream( "compiled".getBytes() ) );
+        pkg.checkin( "" );
+        repo.save();
+
+        Base64 enc = new Base64();
+        String userpassword = "test" + ":" + "password";
+        final String encodedAuthorization = enc.encodeToString( userpassword.getBytes() );
+        Map<String, String> headers = new HashMap<String, String>() {
+            {
+                put( "Authorization",
+                     "BASIC " + encodedAuthorization );
+            }
+        };
+        PackageDeploymentStatistics statistics = PackageDeploymentStatistics.getInstance();
+        long fullResponses = statistics.getFullResponseCount();
+        long notModified = statistics.getNotModifiedCount();
+
+        PackageDeploymentServlet serv = new PackageDeploymentServlet();
+        MockHTTPRequest req = new MockHTTPRequest( "/package/testConditionalGet/LATEST",
+                                                   headers );
+        MockHTTPResponse res = new MockHTTPResponse();
+        serv.doGet( req,
+                    res );
+        assertEquals( "compiled",
+                      res.extractContent() );
+        String etag = res.headers.get( "ETag" );
+        assertNotNull( etag );
+        assertEquals( fullResponses + 1,
+                      statistics.getFullResponseCount() );
+
+        headers.put( "If-None-Match",
+                     etag );
+        req = new MockHTTPRequest( "/package/testConditionalGet/LATEST",
+                                   headers );
+        res = new MockHTTPResponse();
+        serv.doGet( req,
+                    res );
+        assertEquals( 304,
+                      res.status );
+        assertEquals( 0,
+                      res.extractContentBytes().length );
+        assertEquals( notModified + 1,
+                      statistics.getNotModifiedCount() );
+
+        // the change set has a tag of its own
+        req = new MockHTTPRequest( "/package/testConditionalGet/LATEST/ChangeSet.xml",
+                                   headers );
+        req.url = new StringBuffer( "http://foo/ChangeSet.xml" );
+        res = new MockHTTPResponse();
+        serv.doGet( req,
+                    res );
+        assertEquals( 0,
+                      res.status );
+        assertFalse( etag.equals( res.headers.get( "ETag" ) ) );
+    }
+
+    @Test
+    public void testMatchesETag() {
+        assertTrue( PackageDeploymentServlet.matchesETag( "\"abc\"",
+                                                          "\"abc\"" ) );
+        assertTrue( PackageDeploymentServlet.matchesETag( "\"xyz\", W/\"abc\"",
+                                                          "\"abc\"" ) );
+        assertTrue( PackageDeploymentServlet.matchesETag( "*",
+                                                          "\"abc\"" ) );
+        assertFalse( PackageDeploymentServlet.matchesETag( "\"xyz\"",
+                                                           "\"abc\"" ) );
+    }
+
     private void assertSameArray(byte[] bin_,
                                  byte[] bin) {
         for ( int i = 0; i < bin.length; i++ ) {
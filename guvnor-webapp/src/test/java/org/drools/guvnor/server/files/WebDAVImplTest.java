@@ -29,6 +29,8 @@ import java.security.Principal;
 import java.util.Date;
 import java.util.Iterator;
 
+import javax.jcr.observation.Event;
+
 import net.sf.webdav.ITransaction;
 
 import org.apache.commons.io.IOUtils;
@@ -516,6 +518,124 @@ public class WebDAVImplTest extends GuvnorTestBase {
 
     }
 
+    @Test
+    public void testMetadataCache() throws Exception {
+        WebDAVImpl imp = getWebDAVImpl();
+        RulesRepository repo = imp.getRepo();
+        PackageItem pkg = repo.createPackage( "testDavMetadataCache",
+                                              "" );
+        AssetItem asset = pkg.addAsset( "asset1",
+                                        "" );
+        asset.updateFormat( "drl" );
+        asset.updateContent( "some content" );
+        asset.checkin( "" );
+
+        WebDAVMetadataCache cache = WebDAVMetadataCache.getInstance();
+        String[] children = imp.getChildrenNames( new TransactionMock(),
+                                                  "/packages/testDavMetadataCache" );
+        assertEquals( 1,
+                      children.length );
+
+        //the children are then asked about one by one, from what was read for the listing
+        long hits = cache.getHitCount();
+        assertEquals( "some content".length(),
+                      imp.getResourceLength( new TransactionMock(),
+                                             "/packages/testDavMetadataCache/asset1.drl" ) );
+        assertNotNull( imp.getStoredObject( new TransactionMock(),
+                                            "/packages/testDavMetadataCache/asset1.drl" ) );
+        assertTrue( cache.getHitCount() >= hits + 2 );
+
+        //a checkin makes it read the package again
+        asset = pkg.addAsset( "asset2",
+                              "" );
+        asset.updateFormat( "drl" );
+        asset.checkin( "" );
+        children = imp.getChildrenNames( new TransactionMock(),
+                                         "/packages/testDavMetadataCache" );
+        assertEquals( 2,
+                      children.length );
+
+        //unsaved changes are not cached
+        asset.archiveItem( true );
+        children = imp.getChildrenNames( new TransactionMock(),
+                                         "/packages/testDavMetadataCache" );
+        assertEquals( 1,
+                      children.length );
+        repo.getSession().refresh( false );
+        children = imp.getChildrenNames( new TransactionMock(),
+                                         "/packages/testDavMetadataCache" );
+        assertEquals( 2,
+                      children.length );
+    }
+
+    @Test
+    public void testMetadataCacheInvalidatesPerPackage() throws Exception {
+        WebDAVImpl imp = getWebDAVImpl();
+        RulesRepository repo = imp.getRepo();
+        PackageItem changed = repo.createPackage( "testDavCacheChanged",
+                                                  "" );
+        repo.createPackage( "testDavCacheUnchanged",
+                            "" );
+        repo.save();
+
+        WebDAVMetadataCache cache = new WebDAVMetadataCache( 10,
+                                                             100 );
+        cache.getPackageNames( repo );
+        cache.getPackage( repo,
+                          "testDavCacheChanged" );
+        cache.getPackage( repo,
+                          "testDavCacheUnchanged" );
+
+        //an asset saved to one package leaves the other one, and the package list, alone
+        cache.changed( changed.getNode().getPath() + "/" + PackageItem.ASSET_FOLDER_NAME + "/asset1/drools:content",
+                       Event.PROPERTY_CHANGED );
+        assertFalse( cache.contains( "packages/testDavCacheChanged" ) );
+        assertTrue( cache.contains( "packages/testDavCacheUnchanged" ) );
+        assertTrue( cache.contains( "packageNames" ) );
+
+        //a package added or removed changes the package list
+        cache.changed( "/" + RulesRepository.RULES_REPOSITORY_NAME + "/" + RulesRepository.RULE_PACKAGE_AREA + "/testDavCacheNew",
+                       Event.NODE_ADDED );
+        assertFalse( cache.contains( "packageNames" ) );
+        assertTrue( cache.contains( "packages/testDavCacheUnchanged" ) );
+    }
+
+    @Test
+    public void testMetadataCacheDroppedByOwnWrites() throws Exception {
+        WebDAVImpl imp = getWebDAVImpl();
+        RulesRepository repo = imp.getRepo();
+        repo.createPackage( "testDavCacheOwnWrites",
+                            "" );
+        repo.save();
+
+        WebDAVMetadataCache cache = WebDAVMetadataCache.getInstance();
+        assertEquals( 0,
+                      imp.getChildrenNames( new TransactionMock(),
+                                            "/packages/testDavCacheOwnWrites" ).length );
+        assertTrue( cache.contains( "packages/testDavCacheOwnWrites" ) );
+
+        //the entry goes with the write itself, not with the repository event that follows it
+        imp.createResource( new TransactionMock(),
+                            "/packages/testDavCacheOwnWrites/asset1.drl" );
+        imp.commit( new TransactionMock() );
+        imp = getWebDAVImpl();
+        assertEquals( 1,
+                      imp.getChildrenNames( new TransactionMock(),
+                                            "/packages/testDavCacheOwnWrites" ).length );
+        imp.setResourceContent( new TransactionMock(),
+                                "/packages/testDavCacheOwnWrites/asset1.drl",
+                                IOUtils.toInputStream( "some content" ),
+                                null,
+                                null );
+        assertFalse( cache.contains( "packages/testDavCacheOwnWrites" ) );
+        imp.commit( new TransactionMock() );
+        assertFalse( cache.contains( "packages/testDavCacheOwnWrites" ) );
+        imp = getWebDAVImpl();
+        assertEquals( "some content".length(),
+                      imp.getResourceLength( new TransactionMock(),
+                                             "/packages/testDavCacheOwnWrites/asset1.drl" ) );
+    }
+
     @Test
     public void testSnapshot() throws Exception {
         WebDAVImpl imp = getWebDAVImpl();
@@ -145,6 +145,44 @@ public class AssetPackageResourceTest extends RestTestingBase {
         //logger.log(LogLevel, GetContent(connection));
     }
 
+    @Test
+    public void testGetAssetsPagedAsJaxB() throws Exception {
+        URL url = new URL(generateBaseUrl() + "/packages/restPackage1/assets?limit=1");
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Accept", MediaType.APPLICATION_XML);
+        connection.connect();
+        assertEquals (200, connection.getResponseCode());
+        String link = connection.getHeaderField("Link");
+        assertNotNull(link);
+        assertTrue(link.indexOf("cursor=1") > -1);
+        assertTrue(link.indexOf("rel=\"next\"") > -1);
+        long lastModified = connection.getLastModified();
+        assertTrue(lastModified > 0);
+
+        //Nothing has changed since, so there is nothing to send
+        connection = (HttpURLConnection)url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Accept", MediaType.APPLICATION_XML);
+        connection.setIfModifiedSince(lastModified);
+        connection.connect();
+        assertEquals (304, connection.getResponseCode());
+    }
+
+    @Test
+    public void testGetAssetsWithZeroLimitMovesOn() throws Exception {
+        URL url = new URL(generateBaseUrl() + "/packages/restPackage1/assets?limit=0");
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Accept", MediaType.APPLICATION_XML);
+        connection.connect();
+        assertEquals (200, connection.getResponseCode());
+        //taken as a limit of 1, so the next page doesn't start where this one did
+        String link = connection.getHeaderField("Link");
+        assertNotNull(link);
+        assertTrue(link.indexOf("cursor=1") > -1);
+    }
+
     @Test
     public void testGetAssetsAsJson() throws Exception {
         URL url = new URL(generateBaseUrl() + "/packages/restPackage1/assets");
@@ -21,9 +21,11 @@ import static org.junit.Assert.assertSame;
 
 import java.util.List;
 
+import org.drools.guvnor.client.explorer.ExplorerNodeConfig;
 import org.drools.guvnor.server.GuvnorTestBase;
 import org.drools.repository.AssetItem;
 import org.drools.repository.RulesRepository;
+import org.drools.repository.UserInfo;
 import org.drools.repository.UserInfo.InboxEntry;
 import org.junit.After;
 import org.junit.Before;
@@ -164,4 +166,68 @@ public class MailboxServiceTest extends GuvnorTestBase {
                       ib3.loadIncoming().size() );
 
     }
+
+    @Test
+    public void testBrokenInboxDoesNotHoldUpTheOthers() throws Exception {
+        RulesRepository repo = getRulesRepository();
+
+        MailboxService service = MailboxService.getInstance();
+        service.init( repo );
+
+        AssetItem asset = repo.loadDefaultPackage().addAsset( "testBrokenInboxDoesNotHoldUpTheOthers",
+                                                              "" );
+        UserInbox broken = new UserInbox( repo,
+                                          "broken" );
+        broken.clearAll();
+        broken.addToRecentEdited( asset.getUUID(),
+                                  "hey" );
+        new UserInfo( repo,
+                      "broken" ).setProperty( "inbox",
+                                              ExplorerNodeConfig.INCOMING_ID,
+                                              new UserInfo.Val( "not an inbox" ) );
+        UserInbox ib = new UserInbox( repo,
+                                      "dave" );
+        ib.clearAll();
+        ib.addToRecentEdited( asset.getUUID(),
+                              "hey" );
+        repo.save();
+
+        service.recordItemUpdated( asset );
+        Thread.sleep( 250 );
+
+        assertEquals( 1,
+                      ib.loadIncoming().size() );
+        //and the update is not delivered again
+        service.wakeUp();
+        Thread.sleep( 250 );
+        assertEquals( 1,
+                      ib.loadIncoming().size() );
+    }
+
+    @Test
+    public void testStopDeliversWhatIsQueued() throws Exception {
+        RulesRepository repo = getRulesRepository();
+
+        MailboxService service = MailboxService.getInstance();
+        //no repository yet, so the update has to wait for one
+        service.init( null );
+
+        AssetItem asset = repo.loadDefaultPackage().addAsset( "testStopDeliversWhatIsQueued",
+                                                              "" );
+        UserInbox ib = new UserInbox( repo,
+                                      "dave" );
+        ib.clearAll();
+        ib.addToRecentEdited( asset.getUUID(),
+                              "hey" );
+
+        service.recordItemUpdated( asset );
+        Thread.sleep( 250 );
+        assertEquals( 0,
+                      ib.loadIncoming().size() );
+
+        service.init( repo );
+        service.stop();
+        assertEquals( 1,
+                      ib.loadIncoming().size() );
+    }
 }
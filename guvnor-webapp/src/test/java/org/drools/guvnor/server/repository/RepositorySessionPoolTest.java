@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.drools.guvnor.server.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.jcr.Session;
+
+import org.drools.repository.RulesRepositoryException;
+import org.junit.Test;
+
+public class RepositorySessionPoolTest {
+
+    private final RepositorySessionPool.SessionFactory factory = new RepositorySessionPool.SessionFactory() {
+                                                                   public Session newSession(String userName) {
+                                                                       return new LiveSession();
+                                                                   }
+                                                               };
+
+    @Test
+    public void testReusesSessionsPerUser() {
+        RepositorySessionPool pool = new RepositorySessionPool( factory,
+                                                                10,
+                                                                10,
+                                                                1000,
+                                                                0 );
+        Session mic = pool.borrow( "mic" );
+        pool.release( "mic",
+                      mic );
+        assertEquals( 1,
+                      pool.getIdleCount() );
+
+        Session fred = pool.borrow( "fred" );
+        assertNotSame( mic,
+                       fred );
+        assertSame( mic,
+                    pool.borrow( "mic" ) );
+
+        assertEquals( 3,
+                      pool.getBorrowCount() );
+        assertEquals( 1,
+                      pool.getReuseCount() );
+        assertEquals( 2,
+                      pool.getLoginCount() );
+        assertEquals( 2,
+                      pool.getActiveCount() );
+
+        pool.release( "mic",
+                      mic );
+        pool.release( "fred",
+                      fred );
+        pool.close();
+        assertFalse( mic.isLive() );
+        assertFalse( fred.isLive() );
+        assertEquals( 0,
+                      pool.getIdleCount() );
+    }
+
+    @Test
+    public void testEvictsEldestIdleSession() {
+        RepositorySessionPool pool = new RepositorySessionPool( factory,
+                                                                10,
+                                                                1,
+                                                                1000,
+                                                                0 );
+        Session mic = pool.borrow( "mic" );
+        Session fred = pool.borrow( "fred" );
+        pool.release( "mic",
+                      mic );
+        pool.release( "fred",
+                      fred );
+
+        assertFalse( mic.isLive() );
+        assertTrue( fred.isLive() );
+        assertEquals( 1,
+                      pool.getIdleCount() );
+        assertEquals( 1,
+                      pool.getEvictionCount() );
+    }
+
+    @Test
+    public void testDisabledPoolLogsOut() {
+        RepositorySessionPool pool = new RepositorySessionPool( factory,
+                                                                10,
+                                                                0,
+                                                                1000,
+                                                                0 );
+        Session mic = pool.borrow( "mic" );
+        pool.release( "mic",
+                      mic );
+        assertFalse( mic.isLive() );
+        assertNotSame( mic,
+                       pool.borrow( "mic" ) );
+    }
+
+    @Test
+    public void testTimesOutWhenExhausted() {
+        RepositorySessionPool pool = new RepositorySessionPool( factory,
+                                                                1,
+                                                                1,
+                                                                10,
+                                                                0 );
+        Session mic = pool.borrow( "mic" );
+        try {
+            pool.borrow( "fred" );
+            fail( "there is only one session to go around" );
+        } catch ( RulesRepositoryException e ) {
+            //expected
+        }
+        assertEquals( 1,
+                      pool.getTimeoutCount() );
+
+        pool.release( "mic",
+                      mic );
+        assertSame( mic,
+                    pool.borrow( "mic" ) );
+    }
+
+    @Test
+    public void testUnboundedByDefault() {
+        RepositorySessionPool pool = RepositorySessionPool.newInstance( factory );
+        assertEquals( 0,
+                      pool.getMaxActive() );
+        for ( int i = 0; i < 200; i++ ) {
+            pool.borrow( "mic" );
+        }
+        assertEquals( 0,
+                      pool.getTimeoutCount() );
+    }
+
+    private static class LiveSession extends MockSession {
+        @Override
+        public boolean isLive() {
+            return !loggedout;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.drools.guvnor.server.repository;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
@@ -46,6 +47,17 @@ public class RulesRepositoryManagerTest {
 
         assertTrue( dec.getRepository().getSession().isLive() );
         dec.close();
+
+        //the session goes back to the pool, and is handed to the next request
+        assertTrue( dec.getRepository().getSession().isLive() );
+        RulesRepositoryManager next = new RulesRepositoryManager();
+        next.repositoryConfiguration = config;
+        next.create();
+        assertSame( dec.getRepository().getSession(),
+                    next.getRepository().getSession() );
+        next.close();
+
+        config.getSessionPool().close();
         assertFalse( dec.getRepository().getSession().isLive() );
 
     }
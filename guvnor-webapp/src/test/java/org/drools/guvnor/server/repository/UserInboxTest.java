@@ -19,6 +19,7 @@ package org.drools.guvnor.server.repository;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.drools.guvnor.server.GuvnorTestBase;
@@ -208,4 +209,38 @@ public class UserInboxTest extends GuvnorTestBase {
 
     }
 
+    @Test
+    public void testIncomingBatch() throws Exception {
+        RulesRepository repo = getRulesRepository();
+        UserInbox ib = new UserInbox( repo );
+        ib.clearAll();
+        ib.addToIncoming( "XXX",
+                          "hey",
+                          "mic" );
+        ib.addToIncoming( "YYY",
+                          "hey",
+                          "mic" );
+
+        List<InboxEntry> batch = new ArrayList<InboxEntry>();
+        batch.add( new InboxEntry( "XXX",
+                                   "again",
+                                   "dave" ) );
+        batch.add( new InboxEntry( "ZZZ",
+                                   "new",
+                                   "dave" ) );
+        ib.addToIncoming( batch );
+
+        List<InboxEntry> es = ib.loadIncoming();
+        assertEquals( 3,
+                      es.size() );
+        assertEquals( "YYY",
+                      es.get( 0 ).assetUUID );
+        assertEquals( "XXX",
+                      es.get( 1 ).assetUUID );
+        assertEquals( "dave",
+                      es.get( 1 ).from );
+        assertEquals( "ZZZ",
+                      es.get( 2 ).assetUUID );
+    }
+
 }
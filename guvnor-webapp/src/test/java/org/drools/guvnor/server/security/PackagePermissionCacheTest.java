@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.drools.guvnor.server.AssetItemFilter;
+import org.drools.guvnor.server.GuvnorTestBase;
+import org.drools.repository.AssetItem;
+import org.drools.repository.PackageItem;
+import org.drools.repository.RepositoryFilter;
+import org.jboss.seam.security.permission.PermissionResolver;
+import org.junit.Test;
+
+public class PackagePermissionCacheTest extends GuvnorTestBase {
+
+    @Test
+    public void testOneDecisionPerPackage() throws Exception {
+        PackageItem pkg = getRulesRepository().createPackage( "testOneDecisionPerPackage",
+                                                              "" );
+        AssetItem asset1 = pkg.addAsset( "asset1",
+                                         "" );
+        AssetItem asset2 = pkg.addAsset( "asset2",
+                                         "" );
+        getRulesRepository().save();
+
+        CountingResolver resolver = new CountingResolver();
+        MockIdentity identity = new MockIdentity();
+        identity.addPermissionResolver( resolver );
+        setUpMockIdentity( identity );
+
+        RepositoryFilter filter = new AssetItemFilter();
+        assertTrue( filter.accept( asset1,
+                                   RoleTypes.PACKAGE_READONLY ) );
+        assertTrue( filter.accept( asset2,
+                                   RoleTypes.PACKAGE_READONLY ) );
+        assertEquals( 1,
+                      resolver.count );
+        assertEquals( pkg.getUUID(),
+                      resolver.packageUUID );
+
+        assertFalse( filter.accept( asset1,
+                                    RoleTypes.PACKAGE_ADMIN ) );
+        assertEquals( 2,
+                      resolver.count );
+
+        assertEquals( pkg.getName(),
+                      PackagePermissionCache.instance().getPackageName( pkg.getUUID(),
+                                                                        null ) );
+        assertSame( PackagePermissionCache.instance(),
+                    PackagePermissionCache.instance() );
+
+        //a new identity starts afresh
+        MockIdentity other = new MockIdentity();
+        other.addPermissionResolver( resolver );
+        setUpMockIdentity( other );
+        assertTrue( filter.accept( asset1,
+                                   RoleTypes.PACKAGE_READONLY ) );
+        assertEquals( 3,
+                      resolver.count );
+    }
+
+    private static class CountingResolver
+        implements
+        PermissionResolver {
+
+        private int    count;
+        private String packageUUID;
+
+        public boolean hasPermission(Object target,
+                                     String action) {
+            count++;
+            if ( target instanceof PackageUUIDType ) {
+                packageUUID = ((PackageUUIDType) target).getUUID();
+            }
+            return RoleTypes.PACKAGE_READONLY.equals( action );
+        }
+
+        public void filterSetByAction(Set<Object> targets,
+                                      String action) {
+        }
+    }
+}
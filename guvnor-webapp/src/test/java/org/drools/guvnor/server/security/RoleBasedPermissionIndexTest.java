@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.security;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RoleBasedPermissionIndexTest {
+
+    @Test
+    public void testPackagePermissions() {
+        List<RoleBasedPermission> pbps = new ArrayList<RoleBasedPermission>();
+        pbps.add( new RoleBasedPermission( "jervis",
+                                           RoleTypes.PACKAGE_ADMIN,
+                                           "adminPackage",
+                                           null ) );
+        pbps.add( new RoleBasedPermission( "jervis",
+                                           RoleTypes.PACKAGE_DEVELOPER,
+                                           "developerPackage",
+                                           null ) );
+        pbps.add( new RoleBasedPermission( "jervis",
+                                           RoleTypes.PACKAGE_READONLY,
+                                           "readonlyPackage",
+                                           null ) );
+        RoleBasedPermissionIndex index = new RoleBasedPermissionIndex( pbps );
+
+        assertFalse( index.isAdmin() );
+        assertTrue( index.hasPackagePermission( "ADMINPACKAGE",
+                                                RoleTypes.PACKAGE_ADMIN ) );
+        assertTrue( index.hasPackagePermission( "adminPackage",
+                                                RoleTypes.PACKAGE_READONLY ) );
+
+        assertFalse( index.hasPackagePermission( "developerPackage",
+                                                 RoleTypes.PACKAGE_ADMIN ) );
+        assertTrue( index.hasPackagePermission( "developerPackage",
+                                                RoleTypes.PACKAGE_DEVELOPER ) );
+        assertTrue( index.hasPackagePermission( "developerPackage",
+                                                RoleTypes.PACKAGE_READONLY ) );
+
+        assertFalse( index.hasPackagePermission( "readonlyPackage",
+                                                 RoleTypes.PACKAGE_DEVELOPER ) );
+        assertTrue( index.hasPackagePermission( "readonlyPackage",
+                                                RoleTypes.PACKAGE_READONLY ) );
+
+        assertFalse( index.hasPackagePermission( "otherPackage",
+                                                 RoleTypes.PACKAGE_READONLY ) );
+    }
+
+    @Test
+    public void testCategoryPermissions() {
+        List<RoleBasedPermission> pbps = new ArrayList<RoleBasedPermission>();
+        pbps.add( new RoleBasedPermission( "jervis",
+                                           RoleTypes.ANALYST,
+                                           null,
+                                           "category1" ) );
+        pbps.add( new RoleBasedPermission( "jervis",
+                                           RoleTypes.ANALYST_READ,
+                                           null,
+                                           "/category2/sub" ) );
+        RoleBasedPermissionIndex index = new RoleBasedPermissionIndex( pbps );
+
+        assertTrue( index.hasCategoryPermission( "category1",
+                                                 RoleTypes.ANALYST ) );
+        assertTrue( index.hasCategoryPermission( "/category1/child",
+                                                 RoleTypes.ANALYST_READ ) );
+        assertFalse( index.hasCategoryPermission( "category10",
+                                                  RoleTypes.ANALYST ) );
+
+        assertTrue( index.hasCategoryPermission( "category2/sub/child",
+                                                 RoleTypes.ANALYST_READ ) );
+        assertFalse( index.hasCategoryPermission( "category2/sub",
+                                                  RoleTypes.ANALYST ) );
+        assertFalse( index.hasCategoryPermission( "category2",
+                                                  RoleTypes.ANALYST_READ ) );
+        assertFalse( index.hasCategoryPermission( null,
+                                                  RoleTypes.ANALYST ) );
+
+        assertTrue( index.canNavigateCategory( "category2" ) );
+        assertTrue( index.canNavigateCategory( "category2/sub/child" ) );
+        assertTrue( index.canNavigateCategory( "/category1/child" ) );
+        assertFalse( index.canNavigateCategory( "category2/other" ) );
+        assertFalse( index.canNavigateCategory( "category3" ) );
+    }
+
+    @Test
+    public void testAdmin() {
+        List<RoleBasedPermission> pbps = new ArrayList<RoleBasedPermission>();
+        pbps.add( new RoleBasedPermission( "jervis",
+                                           RoleTypes.ADMIN,
+                                           null,
+                                           null ) );
+        assertTrue( new RoleBasedPermissionIndex( pbps ).isAdmin() );
+    }
+}
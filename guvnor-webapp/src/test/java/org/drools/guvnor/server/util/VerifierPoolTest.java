@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drools.guvnor.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.drools.verifier.Verifier;
+import org.junit.Test;
+
+public class VerifierPoolTest {
+
+    @Test
+    public void testReusesReleasedVerifiers() throws Exception {
+        VerifierPool pool = new MockVerifierPool( 1 );
+
+        Verifier first = pool.borrow();
+        Verifier second = pool.borrow();
+        assertNotSame( first,
+                       second );
+        assertEquals( 2,
+                      pool.getActiveCount() );
+
+        pool.release( first,
+                      true );
+        pool.release( second,
+                      true );
+        verify( first ).flushKnowledgeSession();
+        assertEquals( 1,
+                      pool.getIdleCount() );
+        assertEquals( 1,
+                      pool.getDiscardCount() );
+
+        assertSame( first,
+                    pool.borrow() );
+        assertEquals( 2,
+                      pool.getCreationCount() );
+    }
+
+    @Test
+    public void testFailedVerifiersAreDropped() throws Exception {
+        VerifierPool pool = new MockVerifierPool( 1 );
+
+        Verifier verifier = pool.borrow();
+        pool.release( verifier,
+                      false );
+
+        verify( verifier,
+                never() ).flushKnowledgeSession();
+        assertEquals( 0,
+                      pool.getIdleCount() );
+        assertNotSame( verifier,
+                       pool.borrow() );
+    }
+
+    private static class MockVerifierPool extends VerifierPool {
+        MockVerifierPool(int maxIdle) {
+            super( maxIdle );
+        }
+
+        @Override
+        Verifier newVerifier() {
+            return mock( Verifier.class );
+        }
+    }
+}
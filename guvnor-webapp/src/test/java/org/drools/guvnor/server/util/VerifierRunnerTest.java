@@ -16,6 +16,7 @@
 
 package org.drools.guvnor.server.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -56,6 +57,56 @@ public class VerifierRunnerTest extends GuvnorTestBase {
 
     }
 
+    @Test
+    public void verifyAssetItem() {
+        checkinDRLAssetToPackage( "/VerifierCauseTrace.drl" );
+        AssetItem asset = checkinLonelyRule();
+
+        VerifierRunner verifierRunner = new VerifierRunner( VerifierBuilderFactory.newVerifierBuilder().newVerifier() );
+        AnalysisReport report = verifierRunner.verify( packageItem,
+                                                       asset,
+                                                       new ScopesAgendaFilter( true,
+                                                                               ScopesAgendaFilter.VERIFYING_SCOPE_SINGLE_RULE ) );
+
+        //only the rule of the asset is verified, not those of the rest of the package
+        assertNotNull( report );
+        assertEquals( 0,
+                      report.warnings.length );
+        assertEquals( 1,
+                      report.factUsages.length );
+        assertEquals( "Cheese",
+                      report.factUsages[0].name );
+        assertArrayEquals( new String[]{"Lonely"},
+                           report.factUsages[0].fields[0].rules );
+    }
+
+    @Test
+    public void verifyArchivedAssetItem() {
+        AssetItem asset = checkinLonelyRule();
+        asset.archiveItem( true );
+        asset.checkin( "" );
+
+        VerifierRunner verifierRunner = new VerifierRunner( VerifierBuilderFactory.newVerifierBuilder().newVerifier() );
+        AnalysisReport report = verifierRunner.verify( packageItem,
+                                                       asset,
+                                                       new ScopesAgendaFilter( true,
+                                                                               ScopesAgendaFilter.VERIFYING_SCOPE_SINGLE_RULE ) );
+
+        //as in the package verification, archived assets are left out
+        assertNotNull( report );
+        assertEquals( 0,
+                      report.factUsages.length );
+    }
+
+    private AssetItem checkinLonelyRule() {
+        AssetItem asset = packageItem.addAsset( "lonely",
+                                                "" );
+        asset.updateFormat( AssetFormats.DRL );
+        asset.updateContent( "rule \"Lonely\"\n    when\n        Cheese( type == \"brie\" )\n    then\nend\n" );
+        asset.checkin( "" );
+        return asset;
+    }
+
     private VerifierRunner checkinDRLAssetToPackage(String assetName) {
         VerifierRunner verifierRunner = new VerifierRunner( VerifierBuilderFactory.newVerifierBuilder().newVerifier() );
         AssetItem asset = packageItem.addAsset( "verifyPackageItem",